@@ -0,0 +1,317 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The BatchTestFileFilter class extracts test files for many samples of customers at once. The keys of every sample are
+ * combined into one map from each key to the samples containing it, so each full extraction file is scanned once, each row
+ * is checked with one lookup, and a matching row is written to the output of each of its samples. The files read are the
+ * same whatever the number of samples, and each output is identical to the one a TestFileFilter of its sample produces.
+ */
+public class BatchTestFileFilter {
+
+	public static final String CUSTOMER_OUT = "customer_test.csv"; //name of the customer file written to each output directory
+	public static final String INVOICE_OUT = "invoice_test.csv"; //name of the invoice file written to each output directory
+	public static final String INVOICE_ITEM_OUT = "invoice_item_test.csv"; //name of the invoice item file written to each output directory
+
+	private static final int READ_AHEAD_BLOCK_SIZE = 1 << 20; //1MB blocks of invoice item file read while invoices are filtered
+	private static final int READ_AHEAD_BLOCKS = 64; //at most 64MB of invoice item file buffered ahead
+
+	private final int sampleCount; //number of samples
+	private final SampleKeyMap sampleCustomers; //customer codes of every sample
+	private final SampleKeyMap sampleInvoices; //invoice codes attached to the customers of every sample
+	private final int[] sampleSizes; //number of distinct customer codes of each sample
+	private final Path customerPath; //path of full customer extraction file
+	private final Path invoicePath; //path of full invoice extraction file
+	private final Path invoiceItemPath; //path of full invoiceItem extraction file
+
+
+	/**
+	 * Constructor for BatchTestFileFilter with String file name parameters. Files may be compressed, as for TestFileFilter.
+	 *
+	 * @param List<String> sampleFiles: names of files containing the samples of customers
+	 * @param String customer: name of full extraction file containing all customer data
+	 * @param String invoice: name of full extraction file containing all invoice data
+	 * @param String invoiceItem: name of full extraction file containing all invoice item data
+	 * @throws IOException: throws exception if a file can't be read
+	 */
+	public BatchTestFileFilter(List<String> sampleFiles, String customer, String invoice, String invoiceItem) throws IOException {
+		this.sampleCount = sampleFiles.size();
+		this.sampleCustomers = new SampleKeyMap(sampleCount);
+		this.sampleInvoices = new SampleKeyMap(sampleCount);
+		this.sampleSizes = new int[sampleCount];
+		for (int sample = 0; sample < sampleCount; sample++) {
+			parseSampleCustomers(Paths.get(sampleFiles.get(sample)), sample);
+		}
+		this.customerPath = Paths.get(customer);
+		this.invoicePath = Paths.get(invoice);
+		this.invoiceItemPath = Paths.get(invoiceItem);
+	}
+
+
+	/**
+	 * Sets whether lookups in the combined customer and invoice maps are checked against a Bloom filter first, see
+	 * TestFileFilter.setBloomFilter.
+	 *
+	 * @param boolean enabled: true to use Bloom filters, false (the default) to probe the maps directly
+	 */
+	public void setBloomFilter(boolean enabled) {
+		sampleCustomers.setFilterEnabled(enabled);
+		sampleInvoices.setFilterEnabled(enabled);
+	}
+
+
+	/**
+	 * Reads through a sample file and adds each customer code to the sample.
+	 *
+	 * @param Path file: file containing a sample set of customers
+	 * @param int sample: index of the sample
+	 * @throws IOException: throws exception if the file can't be read
+	 */
+	private void parseSampleCustomers(Path file, int sample) throws IOException {
+		SampleLoader.load(file).keys().forEach((buf, start, end) -> {
+			if (sampleCustomers.add(buf, start, end, sample)) {
+				sampleSizes[sample]++;
+			}
+		});
+	}
+
+
+	/**
+	 * Executes the extraction for every sample: writes CUSTOMER_OUT, INVOICE_OUT and INVOICE_ITEM_OUT to the output directory
+	 * of each sample, creating it if needed. The customer and invoice files are scanned concurrently, and the invoice item
+	 * file once the invoice scan is done (it is read ahead meanwhile), as in TestFileFilter. When a pass fails, the others are
+	 * interrupted and have ended by the time the failure is thrown.
+	 *
+	 * @param List<String> outputDirectories: output directory of each sample, in the order of the sample files
+	 * @throws IOException: throws exception if a file can't be read or written, InterruptedIOException if the calling thread is
+	 * interrupted
+	 */
+	public void extractTestFiles(List<String> outputDirectories) throws IOException {
+		if (outputDirectories.size() != sampleCount) {throw new IllegalArgumentException("expected " + sampleCount + " output directories");}
+		List<Path> directories = new ArrayList<Path>(sampleCount);
+		for (String directory : outputDirectories) {
+			directories.add(Files.createDirectories(Paths.get(directory)));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		CompletionService<Object> passes = new ExecutorCompletionService<Object>(executor); //passes in the order they end
+		InputStream items = null; //invoice item input, read ahead while the invoice pass runs
+		boolean completed = false;
+		try {
+			items = new ReadAheadInputStream(Compression.open(invoiceItemPath), READ_AHEAD_BLOCK_SIZE, READ_AHEAD_BLOCKS);
+			InputStream itemInput = items;
+			passes.submit(() -> {
+				extractFromCustomer(directories);
+				return null;
+			});
+			Future<?> invoicePass = passes.submit(() -> {
+				extractFromInvoice(directories);
+				return null;
+			});
+			passes.submit(() -> {
+				try (CsvScanner scanner = new CsvScanner(itemInput)) {
+					invoicePass.get(); //sampleInvoices must be complete
+					extractFromInvoiceItem(scanner, directories);
+				}
+				return null;
+			});
+			for (int i = 0; i < 3; i++) {
+				passes.take().get(); //the first pass to fail stops the others at once
+			}
+			completed = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("batch extraction interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {throw (IOException) e.getCause();}
+			throw new IOException("batch extraction failed", e.getCause());
+		} finally {
+			if (completed) {
+				executor.shutdown();
+			} else { //stop the other passes before the caller sees the failure
+				TestFileFilter.cancel(executor, items);
+			}
+		}
+	}
+
+
+	/**
+	 * Reads through the full customer extraction file and writes the rows of each sample to its customer file. As in
+	 * TestFileFilter, a sample takes no more rows once it has as many as it has customers, and the scan stops when every
+	 * sample is complete.
+	 *
+	 * @param List<Path> directories: output directory of each sample
+	 * @throws IOException: throws exception if the file can't be read or an output can't be written
+	 */
+	private void extractFromCustomer(List<Path> directories) throws IOException {
+		OutputStream[] writers = create(directories, CUSTOMER_OUT);
+		try (CsvScanner scanner = new CsvScanner(Compression.open(customerPath))) {
+			if (scanner.nextLine()) { //read file header and write it to every new file
+				for (OutputStream writer : writers) {scanner.writeLine(writer);}
+			}
+
+			int[] counts = new int[sampleCount]; //number of customers found for each sample
+			int remaining = 0; //number of samples still missing customers
+			for (int size : sampleSizes) {
+				if (size > 0) {remaining++;}
+			}
+			while (scanner.nextLine()) {
+				scanner.field(0);
+				int key = sampleCustomers.find(scanner.buffer(), scanner.fieldStart(), scanner.fieldEnd());
+				if (key >= 0) { //customer code is in some sample
+					for (int sample = sampleCustomers.nextSample(key, 0); sample >= 0; sample = sampleCustomers.nextSample(key, sample + 1)) {
+						if (counts[sample] == sampleSizes[sample]) {continue;} //all customers of this sample found
+						scanner.writeLine(writers[sample]);
+						if (++counts[sample] == sampleSizes[sample]) {remaining--;}
+					}
+				}
+				if (remaining == 0) {break;} //all customers of every sample found
+			}
+		} finally {
+			close(writers);
+		}
+	}
+
+
+	/**
+	 * Reads through the full invoice extraction file and writes the rows of each sample to its invoice file. Adds the invoice
+	 * code of each row written to the samples it was written for.
+	 *
+	 * @param List<Path> directories: output directory of each sample
+	 * @throws IOException: throws exception if the file can't be read or an output can't be written
+	 */
+	private void extractFromInvoice(List<Path> directories) throws IOException {
+		OutputStream[] writers = create(directories, INVOICE_OUT);
+		try (CsvScanner scanner = new CsvScanner(Compression.open(invoicePath))) {
+			if (scanner.nextLine()) { //read file header and write it to every new file
+				for (OutputStream writer : writers) {scanner.writeLine(writer);}
+			}
+
+			while (scanner.nextLine()) {
+				scanner.field(0);
+				int key = sampleCustomers.find(scanner.buffer(), scanner.fieldStart(), scanner.fieldEnd());
+				if (key < 0) {continue;} //customer code is in no sample
+				for (int sample = sampleCustomers.nextSample(key, 0); sample >= 0; sample = sampleCustomers.nextSample(key, sample + 1)) {
+					scanner.writeLine(writers[sample]);
+				}
+				if (scanner.field(1)) { //add invoice to the samples of its customer
+					for (int sample = sampleCustomers.nextSample(key, 0); sample >= 0; sample = sampleCustomers.nextSample(key, sample + 1)) {
+						sampleInvoices.add(scanner.buffer(), scanner.fieldStart(), scanner.fieldEnd(), sample);
+					}
+				}
+			}
+		} finally {
+			close(writers);
+		}
+	}
+
+
+	/**
+	 * Reads through the full invoice item extraction file and writes the rows of each sample to its invoice item file.
+	 *
+	 * @param CsvScanner scanner: scanner of the full invoice item extraction file
+	 * @param List<Path> directories: output directory of each sample
+	 * @throws IOException: throws exception if the file can't be read or an output can't be written
+	 */
+	private void extractFromInvoiceItem(CsvScanner scanner, List<Path> directories) throws IOException {
+		OutputStream[] writers = create(directories, INVOICE_ITEM_OUT);
+		try {
+			if (scanner.nextLine()) { //read file header and write it to every new file
+				for (OutputStream writer : writers) {scanner.writeLine(writer);}
+			}
+
+			while (scanner.nextLine()) {
+				scanner.field(0);
+				int key = sampleInvoices.find(scanner.buffer(), scanner.fieldStart(), scanner.fieldEnd());
+				if (key < 0) {continue;} //invoice is in no sample
+				for (int sample = sampleInvoices.nextSample(key, 0); sample >= 0; sample = sampleInvoices.nextSample(key, sample + 1)) {
+					scanner.writeLine(writers[sample]);
+				}
+			}
+		} finally {
+			close(writers);
+		}
+	}
+
+
+	/**
+	 * @return OutputStream[]: a buffered stream to a new file of the given name in each directory
+	 */
+	private static OutputStream[] create(List<Path> directories, String name) throws IOException {
+		OutputStream[] writers = new OutputStream[directories.size()];
+		try {
+			for (int i = 0; i < writers.length; i++) {
+				writers[i] = new BufferedOutputStream(Compression.create(directories.get(i).resolve(name)), 1 << 16);
+			}
+		} catch (IOException e) {
+			close(writers);
+			throw e;
+		}
+		return writers;
+	}
+
+
+	/**
+	 * Closes every stream of an array, throwing the first exception once all were closed.
+	 */
+	private static void close(OutputStream[] writers) throws IOException {
+		IOException failure = null;
+		for (OutputStream writer : writers) {
+			try {
+				if (writer != null) {writer.close();}
+			} catch (IOException e) {
+				if (failure == null) {failure = e;}
+			}
+		}
+		if (failure != null) {throw failure;}
+	}
+
+
+	/**
+	 * Sample use of BatchTestFileFilter object
+	 *
+	 * @param String[] args: file names of customers, invoices and invoice items ("customer.csv","invoice.csv","invoice_item.csv"),
+	 * followed by one SAMPLE=DIRECTORY argument per sample (e.g. "customer_sample_eu.csv=eu"), optionally preceded by
+	 * --bloom to check lookups against Bloom filters first
+	 */
+	public static void main(String[] args) {
+		int first = 0;
+		boolean bloomFilter = false;
+		if (args.length > 0 && args[0].equals("--bloom")) {
+			bloomFilter = true;
+			first = 1;
+		}
+		if (args.length - first < 4) {throw new IllegalArgumentException();}
+		List<String> samples = new ArrayList<String>();
+		List<String> directories = new ArrayList<String>();
+		for (int i = first + 3; i < args.length; i++) {
+			int separator = args[i].lastIndexOf('=');
+			if (separator < 0) {throw new IllegalArgumentException("expected SAMPLE=DIRECTORY, got " + args[i]);}
+			samples.add(args[i].substring(0, separator));
+			directories.add(args[i].substring(separator + 1));
+		}
+		try {
+			BatchTestFileFilter batch = new BatchTestFileFilter(samples, args[first], args[first+1], args[first+2]);
+			batch.setBloomFilter(bloomFilter);
+			batch.extractTestFiles(directories);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+}
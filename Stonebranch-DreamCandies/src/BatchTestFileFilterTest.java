@@ -0,0 +1,123 @@
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Unit tests for BatchTestFileFilter Class: extractTestFiles with several samples
+ */
+public class BatchTestFileFilterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+
+	private String write(String name, String content) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file.getPath();
+	}
+
+
+	private String read(String directory, String name) throws IOException {
+		return new String(Files.readAllBytes(new File(new File(folder.getRoot(), directory), name).toPath()), StandardCharsets.UTF_8);
+	}
+
+
+	/**
+	 * Test method for {@link BatchTestFileFilter#extractTestFiles(List)}.
+	 *
+	 * Tests three samples of the specification example: two sharing a customer, and one with no customers.
+	 * Expected behavior is that each output directory only contains the data of its own sample.
+	 */
+	@Test
+	public void extractTestFiles_OverlappingSamples_ExtractedFilesContainRelevantData() throws IOException {
+		String first = write("first.csv", "\"CUSTOMER_CODE\"\n\"CUST0000010231\"\n\"CUST0000010235\"\n");
+		String second = write("second.csv", "\"CUSTOMER_CODE\"\n\"CUST0000010235\"\n");
+		String empty = write("empty.csv", "\"CUSTOMER_CODE\"\n");
+		String customer = write("customer.csv", "\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" +
+				"\"CUST0000010231\",\"Maria\",\"Alba\"\n" +
+				"\"CUST0000010233\",\"Jamie\",\"Hayes\"\n" +
+				"\"CUST0000010235\",\"George\",\"Lucas\"\n");
+		String invoice = write("invoice.csv", "\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" +
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n" +
+				"\"CUST0000010236\",\"IN0000011\",\"0.0\",\"01-Jan-2000\"\n" +
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n");
+		String invoiceItem = write("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" +
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" +
+				"\"IN0000011\",\"AAA\",\"0.0\",\"0\"\n" +
+				"\"IN0000002\",\"PUCCHO\",\"73.13\",\"150\"\n");
+
+		BatchTestFileFilter batch = new BatchTestFileFilter(Arrays.asList(first, second, empty), customer, invoice, invoiceItem);
+		batch.extractTestFiles(Arrays.asList(new File(folder.getRoot(), "a").getPath(), new File(folder.getRoot(), "b").getPath(),
+				new File(folder.getRoot(), "c").getPath()));
+
+		assertEquals("\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" +
+				"\"CUST0000010231\",\"Maria\",\"Alba\"\n" +
+				"\"CUST0000010235\",\"George\",\"Lucas\"\n", read("a", BatchTestFileFilter.CUSTOMER_OUT));
+		assertEquals("\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" +
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" +
+				"\"IN0000002\",\"PUCCHO\",\"73.13\",\"150\"\n", read("a", BatchTestFileFilter.INVOICE_ITEM_OUT));
+		assertEquals("\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" +
+				"\"CUST0000010235\",\"George\",\"Lucas\"\n", read("b", BatchTestFileFilter.CUSTOMER_OUT));
+		assertEquals("\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" +
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n", read("b", BatchTestFileFilter.INVOICE_OUT));
+		assertEquals("\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" +
+				"\"IN0000002\",\"PUCCHO\",\"73.13\",\"150\"\n", read("b", BatchTestFileFilter.INVOICE_ITEM_OUT));
+		assertEquals("\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n", read("c", BatchTestFileFilter.CUSTOMER_OUT));
+		assertEquals("\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n", read("c", BatchTestFileFilter.INVOICE_OUT));
+	}
+
+
+	/**
+	 * Test method for {@link BatchTestFileFilter#extractTestFiles(List)}.
+	 *
+	 * Tests 70 overlapping samples (more than one long of sample bits per key) of generated files, including duplicate
+	 * customer rows and customers missing from the customer file.
+	 * Expected behavior is that the files of each sample are identical to the ones TestFileFilter extracts for that sample.
+	 */
+	@Test
+	public void extractTestFiles_ManySamples_SameFilesAsTestFileFilter() throws IOException {
+		StringBuilder customers = new StringBuilder("\"CUSTOMER_CODE\",\"NAME\"\n");
+		StringBuilder invoices = new StringBuilder("\"CUSTOMER_CODE\",\"INVOICE_CODE\"\n");
+		StringBuilder items = new StringBuilder("\"INVOICE_CODE\",\"ITEM_CODE\"\r\n");
+		for (int i = 0; i < 500; i++) {
+			customers.append("\"C").append(i).append("\",\"N").append(i).append("\"\n");
+			if (i % 50 == 7) {customers.append("\"C").append(i).append("\",\"DUPLICATE\"\n");}
+			invoices.append("\"C").append((i * 7) % 520).append("\",\"I").append(i).append("\"\n");
+			items.append("\"I").append((i * 3) % 500).append("\",\"X").append(i).append("\"\r\n");
+		}
+		String customer = write("customer.csv", customers.toString());
+		String invoice = write("invoice.csv", invoices.toString());
+		String invoiceItem = write("invoice_item.csv", items.toString());
+
+		List<String> samples = new ArrayList<String>();
+		List<String> directories = new ArrayList<String>();
+		for (int s = 0; s < 70; s++) {
+			StringBuilder sample = new StringBuilder("\"CUSTOMER_CODE\"\n");
+			for (int i = s; i < 520; i += 1 + s % 13) {sample.append("\"C").append(i).append("\"\n");}
+			samples.add(write("sample" + s + ".csv", sample.toString()));
+			directories.add(new File(folder.getRoot(), "batch" + s).getPath());
+		}
+		new BatchTestFileFilter(samples, customer, invoice, invoiceItem).extractTestFiles(directories);
+
+		for (int s = 0; s < 70; s++) {
+			File single = folder.newFolder("single" + s);
+			TestFileFilter test = new TestFileFilter(samples.get(s), customer, invoice, invoiceItem);
+			test.extractTestFiles(new File(single, BatchTestFileFilter.CUSTOMER_OUT).getPath(), new File(single, BatchTestFileFilter.INVOICE_OUT).getPath(),
+					new File(single, BatchTestFileFilter.INVOICE_ITEM_OUT).getPath());
+			for (String name : Arrays.asList(BatchTestFileFilter.CUSTOMER_OUT, BatchTestFileFilter.INVOICE_OUT, BatchTestFileFilter.INVOICE_ITEM_OUT)) {
+				assertEquals("sample " + s + " " + name, read("single" + s, name), read("batch" + s, name));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,485 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ByteKeySet class is a hash set of keys stored as raw bytes. Keys can be looked up directly from a region of a larger
+ * byte array (such as a CsvScanner buffer), so checking a field against the set does not require building a String first.
+ * Collisions are resolved with open addressing (linear probing).
+ *
+ * Keys are not stored as separate objects: they are appended, each preceded by its length, to a single byte array (the
+ * arena), and the hash table only holds their offsets and hashes in two int arrays. A set of millions of keys is therefore
+ * a handful of arrays, which the garbage collector never has to trace key by key.
+ *
+ * An optional blocked Bloom filter can sit in front of the hash table. Each key sets 8 bits in one 64 byte block (one bit in
+ * each of its 8 longs), chosen from the hash already computed for the table, so a lookup of a missing key usually costs one
+ * cache line and a couple of shifts instead of a probe of a table that may be far larger than the CPU caches. The filter
+ * counts its probes and false positives to report its false positive rate. A set is probed by many threads at once (the
+ * passes of an extraction, the chunks of a parallel pass, the requests of ExtractionService), so the counts are LongAdders,
+ * which each thread mostly updates in a cell of its own rather than all of them contending for one field.
+ */
+class ByteKeySet {
+
+	private static final int EMPTY = -1; //offset of empty slots
+	private static final int[] SALTS = {0x47b6137b, 0x44974d91, 0x8824ad5b, 0xa2b7289d,
+			0x705495c7, 0x2df1424b, 0x9efc4947, 0x5c6bfb31}; //odd multipliers choosing the bit set in each long of a block
+
+	private byte[] arena; //keys in insertion order, each as a 4 byte length followed by its bytes
+	private int arenaSize; //number of bytes used in arena
+	private int[] offsets; //hash table of offsets of keys in arena, EMPTY for empty slots
+	private int[] hashes; //cached hash of each key in the table
+	private int size; //number of keys in the set
+	private long[] filter; //blocked Bloom filter of the hashes of the keys, 8 longs per block, null if disabled
+	private final LongAdder filterProbes = new LongAdder(); //number of lookups checked against the filter
+	private final LongAdder filterPasses = new LongAdder(); //number of lookups the filter did not reject
+	private final LongAdder falsePositives = new LongAdder(); //number of lookups the filter did not reject whose key is not in the set
+
+
+	/**
+	 * Constructor for an empty ByteKeySet, grown as keys are added
+	 */
+	ByteKeySet() {
+		this(8, 224);
+	}
+
+
+	/**
+	 * Constructor for an empty ByteKeySet sized for an expected number of keys, so that it doesn't have to grow (and rehash
+	 * every key) until they are all added.
+	 *
+	 * @param int expectedKeys: number of keys expected
+	 * @param long expectedBytes: total length of the keys expected
+	 */
+	ByteKeySet(int expectedKeys, long expectedBytes) {
+		int capacity = Integer.highestOneBit(Math.max(8, Math.min(expectedKeys, 1 << 29)) * 2 - 1) << 1; //load factor at most 0.5
+		this.offsets = newTable(capacity);
+		this.hashes = new int[capacity];
+		this.arena = new byte[(int) Math.min(Integer.MAX_VALUE - 8, expectedBytes + 4L * expectedKeys)];
+	}
+
+
+	/**
+	 * Adds a key to the set.
+	 *
+	 * @param byte[] buf: array containing the key
+	 * @param int start: index of first byte of the key
+	 * @param int end: index one past the last byte of the key
+	 * @return boolean: true if the key was added, false if it was already in the set
+	 */
+	boolean add(byte[] buf, int start, int end) {
+		return add(buf, start, end, hash(buf, start, end));
+	}
+
+
+	/**
+	 * Adds a key whose hash was computed beforehand, e.g. by the thread that parsed it.
+	 *
+	 * @param byte[] buf: array containing the key
+	 * @param int start: index of first byte of the key
+	 * @param int end: index one past the last byte of the key
+	 * @param int hash: hash of the key, as computed by hash(byte[], int, int)
+	 * @return boolean: true if the key was added, false if it was already in the set
+	 */
+	boolean add(byte[] buf, int start, int end, int hash) {
+		int mask = offsets.length - 1;
+		int slot = hash & mask;
+		int offset;
+		while ((offset = offsets[slot]) != EMPTY) {
+			if (hashes[slot] == hash && equals(offset, buf, start, end)) {return false;}
+			slot = (slot + 1) & mask;
+		}
+
+		int length = end - start;
+		if (arenaSize + 4 + length > arena.length) {
+			long capacity = Math.max(arena.length * 2L, arenaSize + 4L + length);
+			if (capacity > Integer.MAX_VALUE - 8) {throw new IllegalStateException("key set is full");}
+			arena = Arrays.copyOf(arena, (int) capacity);
+		}
+		offset = arenaSize;
+		arena[offset] = (byte) (length >>> 24);
+		arena[offset + 1] = (byte) (length >>> 16);
+		arena[offset + 2] = (byte) (length >>> 8);
+		arena[offset + 3] = (byte) length;
+		System.arraycopy(buf, start, arena, offset + 4, length);
+		arenaSize += 4 + length;
+		offsets[slot] = offset;
+		hashes[slot] = hash;
+		if (filter != null) {addToFilter(filter, hash);}
+		if (++size * 2 > offsets.length) {resize();} //keep load factor at most 0.5
+		return true;
+	}
+
+
+	/**
+	 * Adds a key to the set.
+	 *
+	 * @param String key: key to add, stored as its UTF-8 bytes
+	 * @return boolean: true if the key was added, false if it was already in the set
+	 */
+	boolean add(String key) {
+		byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		return add(bytes, 0, bytes.length);
+	}
+
+
+	/**
+	 * Checks whether a key is in the set.
+	 *
+	 * @param byte[] buf: array containing the key
+	 * @param int start: index of first byte of the key
+	 * @param int end: index one past the last byte of the key
+	 * @return boolean: true if the key is in the set
+	 */
+	boolean contains(byte[] buf, int start, int end) {
+		return find(buf, start, end) != EMPTY;
+	}
+
+
+	/**
+	 * Looks up a key in the set. Keys are appended to the arena, so the offsets of keys increase in the order they were added
+	 * and identify them for as long as the set exists.
+	 *
+	 * @param byte[] buf: array containing the key
+	 * @param int start: index of first byte of the key
+	 * @param int end: index one past the last byte of the key
+	 * @return int: offset of the key in the arena, or -1 if it is not in the set
+	 */
+	int find(byte[] buf, int start, int end) {
+		int hash = hash(buf, start, end);
+		long[] filter = this.filter;
+		if (filter != null) {
+			filterProbes.increment();
+			if (!filterContains(filter, hash)) {return EMPTY;}
+			filterPasses.increment();
+		}
+		int mask = offsets.length - 1;
+		int slot = hash & mask;
+		int offset;
+		while ((offset = offsets[slot]) != EMPTY) {
+			if (hashes[slot] == hash && equals(offset, buf, start, end)) {return offset;}
+			slot = (slot + 1) & mask;
+		}
+		if (filter != null) {falsePositives.increment();}
+		return EMPTY;
+	}
+
+
+	/**
+	 * Checks whether a key held in a ByteBuffer is in the set, such as a field of a memory-mapped region of a file, which is
+	 * read in place instead of being copied to an array first.
+	 *
+	 * @param ByteBuffer buf: buffer containing the key, read with absolute gets (its position and limit are ignored)
+	 * @param int start: index of first byte of the key
+	 * @param int end: index one past the last byte of the key
+	 * @return boolean: true if the key is in the set
+	 */
+	boolean contains(ByteBuffer buf, int start, int end) {
+		return find(buf, start, end) != EMPTY;
+	}
+
+
+	/**
+	 * Looks up a key held in a ByteBuffer (see find(byte[], int, int)).
+	 *
+	 * @param ByteBuffer buf: buffer containing the key, read with absolute gets
+	 * @param int start: index of first byte of the key
+	 * @param int end: index one past the last byte of the key
+	 * @return int: offset of the key in the arena, or -1 if it is not in the set
+	 */
+	int find(ByteBuffer buf, int start, int end) {
+		int hash = hash(buf, start, end);
+		long[] filter = this.filter;
+		if (filter != null) {
+			filterProbes.increment();
+			if (!filterContains(filter, hash)) {return EMPTY;}
+			filterPasses.increment();
+		}
+		int mask = offsets.length - 1;
+		int slot = hash & mask;
+		int offset;
+		while ((offset = offsets[slot]) != EMPTY) {
+			if (hashes[slot] == hash && equals(offset, buf, start, end)) {return offset;}
+			slot = (slot + 1) & mask;
+		}
+		if (filter != null) {falsePositives.increment();}
+		return EMPTY;
+	}
+
+
+	/**
+	 * Enables or disables the Bloom filter checked before the hash table. The filter is built from the keys already in the
+	 * set, and kept up to date as keys are added. Its statistics are reset.
+	 *
+	 * @param boolean enabled: true to check lookups against a Bloom filter first
+	 */
+	void setFilterEnabled(boolean enabled) {
+		filterProbes.reset();
+		filterPasses.reset();
+		falsePositives.reset();
+		if (enabled) {
+			buildFilter();
+		} else {
+			filter = null;
+		}
+	}
+
+
+	/**
+	 * @return double: fraction of lookups of keys not in the set that the Bloom filter failed to reject, or 0 if none were made
+	 * (exact once the threads probing the set are done)
+	 */
+	double falsePositiveRate() {
+		long falsePositives = this.falsePositives.sum();
+		long negatives = filterProbes.sum() - (filterPasses.sum() - falsePositives); //lookups of keys not in the set
+		return negatives == 0 ? 0 : (double) falsePositives / negatives;
+	}
+
+
+	/**
+	 * @return long: number of lookups checked against the Bloom filter since it was enabled
+	 */
+	long filterProbes() {
+		return filterProbes.sum();
+	}
+
+
+	/**
+	 * @return long: size of the Bloom filter in bits, or 0 if it is disabled
+	 */
+	long filterBits() {
+		return filter == null ? 0 : filter.length * 64L;
+	}
+
+
+	/**
+	 * Passes every key of the set to a consumer, in the order they were added.
+	 *
+	 * @param KeyConsumer consumer: receives each key (the array passed is the arena, and must not be modified)
+	 */
+	void forEach(KeyConsumer consumer) {
+		for (int offset = 0; offset < arenaSize; offset += 4 + length(offset)) {
+			consumer.accept(arena, offset + 4, offset + 4 + length(offset));
+		}
+	}
+
+
+	/**
+	 * Computes a digest of the keys of the set, which doesn't depend on the order they were added in, so that two sets holding
+	 * the same keys have the same digest.
+	 *
+	 * @return long: sum of a 64 bit hash of every key
+	 */
+	long digest() {
+		long digest = size;
+		for (int offset = 0; offset < arenaSize; offset += 4 + length(offset)) {
+			long h = 0xcbf29ce484222325L; //FNV-1a, then mixed so that the sum of similar keys doesn't cancel out
+			for (int i = offset + 4, end = i + length(offset); i < end; i++) {
+				h = (h ^ (arena[i] & 0xFF)) * 0x100000001b3L;
+			}
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			digest += h;
+		}
+		return digest;
+	}
+
+
+	/**
+	 * @return int: number of keys in the set
+	 */
+	int size() {
+		return size;
+	}
+
+
+	/**
+	 * Returns a read-only view of the set, decoding each key from UTF-8. Lookups through the view encode the String and probe
+	 * the set, and iteration decodes one key at a time, so no String is kept for the keys of the set.
+	 *
+	 * @return Set<String>: view of the keys of the set, in the order they were added
+	 */
+	Set<String> asStrings() {
+		return new AbstractSet<String>() {
+
+			@Override
+			public boolean contains(Object o) {
+				if (!(o instanceof String)) {return false;}
+				byte[] bytes = ((String) o).getBytes(StandardCharsets.UTF_8);
+				return ByteKeySet.this.contains(bytes, 0, bytes.length);
+			}
+
+			@Override
+			public Iterator<String> iterator() {
+				return new Iterator<String>() {
+					private int offset; //offset in arena of the next key
+					private final int end = arenaSize; //keys added after the iterator was created are not returned
+
+					@Override
+					public boolean hasNext() {
+						return offset < end;
+					}
+
+					@Override
+					public String next() {
+						if (offset >= end) {throw new NoSuchElementException();}
+						int length = length(offset);
+						String key = new String(arena, offset + 4, length, StandardCharsets.UTF_8);
+						offset += 4 + length;
+						return key;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+		};
+	}
+
+
+	/**
+	 * Doubles the capacity of the hash table and re-inserts every key.
+	 */
+	private void resize() {
+		int[] oldOffsets = offsets;
+		int[] oldHashes = hashes;
+		offsets = newTable(oldOffsets.length * 2);
+		hashes = new int[oldOffsets.length * 2];
+		int mask = offsets.length - 1;
+		for (int i = 0; i < oldOffsets.length; i++) {
+			if (oldOffsets[i] == EMPTY) {continue;}
+			int slot = oldHashes[i] & mask;
+			while (offsets[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			offsets[slot] = oldOffsets[i];
+			hashes[slot] = oldHashes[i];
+		}
+		if (filter != null) {buildFilter();}
+	}
+
+
+	/**
+	 * Creates a Bloom filter of one byte per table slot (16 to 32 bits per key), and sets the bits of every key.
+	 */
+	private void buildFilter() {
+		filter = new long[Math.max(8, offsets.length / 8)];
+		for (int i = 0; i < offsets.length; i++) {
+			if (offsets[i] != EMPTY) {addToFilter(filter, hashes[i]);}
+		}
+	}
+
+
+	/**
+	 * Sets the bits of a hash in a blocked Bloom filter, such as the filter of the set or the filter of the keys of a chunk of a
+	 * full extraction file (see DeltaManifest).
+	 *
+	 * @param long[] filter: filter, whose length is a multiple of 8
+	 * @param int hash: hash of a key, see hash(byte[], int, int)
+	 */
+	static void addToFilter(long[] filter, int hash) {
+		int base = block(filter, hash);
+		for (int i = 0; i < 8; i++) {
+			filter[base + i] |= 1L << ((hash * SALTS[i]) >>> 26);
+		}
+	}
+
+
+	/**
+	 * @return boolean: false if no key added to the filter has the hash, true if one may have it
+	 */
+	static boolean filterContains(long[] filter, int hash) {
+		int base = block(filter, hash);
+		for (int i = 0; i < 8; i++) {
+			if ((filter[base + i] & (1L << ((hash * SALTS[i]) >>> 26))) == 0) {return false;}
+		}
+		return true;
+	}
+
+
+	/**
+	 * @return int: index in the filter of the first long of the block of a hash, chosen from the high bits of the hash since
+	 * the low bits choose the slot in the hash table
+	 */
+	private static int block(long[] filter, int hash) {
+		return (int) (((hash & 0xFFFFFFFFL) * (filter.length >>> 3)) >>> 32) << 3;
+	}
+
+
+	private static int[] newTable(int capacity) {
+		int[] table = new int[capacity];
+		Arrays.fill(table, EMPTY);
+		return table;
+	}
+
+
+	/**
+	 * Computes the hash of a key, spreading the bits so that similar keys land in different slots.
+	 */
+	static int hash(byte[] buf, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + buf[i];
+		}
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+
+	/**
+	 * Computes the hash of a key held in a ByteBuffer, equal to the hash of the same bytes in an array.
+	 */
+	static int hash(ByteBuffer buf, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + buf.get(i);
+		}
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+
+	/**
+	 * @return int: length of the key stored at an offset of the arena
+	 */
+	private int length(int offset) {
+		return (arena[offset] << 24) | ((arena[offset + 1] & 0xFF) << 16) | ((arena[offset + 2] & 0xFF) << 8) | (arena[offset + 3] & 0xFF);
+	}
+
+
+	/**
+	 * Compares a stored key with a region of a byte array.
+	 */
+	private boolean equals(int offset, byte[] buf, int start, int end) {
+		int length = length(offset);
+		if (length != end - start) {return false;}
+		int base = offset + 4;
+		for (int i = 0; i < length; i++) {
+			if (arena[base + i] != buf[start + i]) {return false;}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Compares a stored key with a region of a ByteBuffer.
+	 */
+	private boolean equals(int offset, ByteBuffer buf, int start, int end) {
+		int length = length(offset);
+		if (length != end - start) {return false;}
+		int base = offset + 4;
+		for (int i = 0; i < length; i++) {
+			if (arena[base + i] != buf.get(start + i)) {return false;}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,140 @@
+import static org.junit.Assert.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for ByteKeySet Class: add, contains, asStrings
+ */
+public class ByteKeySetTest {
+
+	/**
+	 * Test method for {@link ByteKeySet#add(byte[], int, int)}.
+	 *
+	 * Tests add and contains with enough keys to resize the table several times, given as regions of a larger array.
+	 * Expected behavior is that every added key is found once, and no other key is.
+	 */
+	@Test
+	public void add_ManyKeys_EachKeyFoundOnce() {
+		ByteKeySet keys = new ByteKeySet();
+		for (int i = 0; i < 10000; i++) {
+			byte[] row = ("\"IN" + i + "\",\"ITEM\"").getBytes(StandardCharsets.UTF_8);
+			int end = row.length - "\"ITEM\"".length() - 1;
+			assertTrue(keys.add(row, 0, end));
+			assertFalse(keys.add(row, 0, end));
+		}
+		assertEquals(10000, keys.size());
+		for (int i = 0; i < 10000; i++) {
+			byte[] key = ("\"IN" + i + "\"").getBytes(StandardCharsets.UTF_8);
+			assertTrue(keys.contains(key, 0, key.length));
+		}
+		byte[] missing = "\"IN10000\"".getBytes(StandardCharsets.UTF_8);
+		assertFalse(keys.contains(missing, 0, missing.length));
+		assertFalse(keys.contains(missing, 0, 0));
+	}
+
+
+	/**
+	 * Test method for {@link ByteKeySet#asStrings()}.
+	 *
+	 * Tests the String view of a set holding non-ASCII keys.
+	 * Expected behavior is that the view equals a HashSet of the same keys, iterates in insertion order, and is read-only.
+	 */
+	@Test
+	public void asStrings_NonAsciiKeys_ViewMatchesKeys() {
+		ByteKeySet keys = new ByteKeySet();
+		keys.add("\u201CCUST0000010231\u201D");
+		keys.add("\"CUST0000010235\"");
+		keys.add("");
+		Set<String> expected = new HashSet<String>();
+		expected.add("\u201CCUST0000010231\u201D");
+		expected.add("\"CUST0000010235\"");
+		expected.add("");
+
+		Set<String> view = keys.asStrings();
+		assertEquals(expected, view);
+		assertEquals(view, expected);
+		assertEquals(expected.hashCode(), view.hashCode());
+		assertFalse(view.contains("CUST0000010231"));
+		Iterator<String> it = view.iterator();
+		assertEquals("\u201CCUST0000010231\u201D", it.next());
+		assertEquals("\"CUST0000010235\"", it.next());
+		assertEquals("", it.next());
+		assertFalse(it.hasNext());
+		try {
+			view.add("\"CUST0000010233\"");
+			fail("view should be read-only");
+		} catch (UnsupportedOperationException e) {
+			//expected
+		}
+	}
+	
+	
+	/**
+	 * Test method for {@link ByteKeySet#setFilterEnabled(boolean)}.
+	 *
+	 * Tests lookups through the Bloom filter, enabled both before and after keys are added, and across resizes of the table.
+	 * Expected behavior is that every key is still found, and that the filter rejects nearly all missing keys.
+	 */
+	@Test
+	public void setFilterEnabled_ManyLookups_NoFalseNegativesAndFewFalsePositives() {
+		ByteKeySet keys = new ByteKeySet();
+		for (int i = 0; i < 1000; i++) {
+			keys.add("\"IN" + i + "\"");
+		}
+		keys.setFilterEnabled(true);
+		for (int i = 1000; i < 5000; i++) {
+			keys.add("\"IN" + i + "\"");
+		}
+		assertTrue(keys.filterBits() >= 16 * 5000);
+		for (int i = 0; i < 5000; i++) {
+			byte[] key = ("\"IN" + i + "\"").getBytes(StandardCharsets.UTF_8);
+			assertTrue(keys.contains(key, 0, key.length));
+		}
+		for (int i = 5000; i < 105000; i++) {
+			byte[] key = ("\"IN" + i + "\"").getBytes(StandardCharsets.UTF_8);
+			assertFalse(keys.contains(key, 0, key.length));
+		}
+		assertEquals(105000, keys.filterProbes());
+		assertTrue(keys.falsePositiveRate() < 0.01);
+		
+		keys.setFilterEnabled(false);
+		assertEquals(0, keys.filterBits());
+		assertEquals(0.0, keys.falsePositiveRate(), 0);
+	}
+
+
+	/**
+	 * Test method for {@link ByteKeySet#filterProbes()}.
+	 *
+	 * Tests the filter statistics when several threads probe the set at once, as the passes of an extraction do.
+	 * Expected behavior is that every lookup is counted.
+	 */
+	@Test
+	public void filterProbes_ConcurrentLookups_EveryLookupCounted() throws InterruptedException {
+		ByteKeySet keys = new ByteKeySet();
+		for (int i = 0; i < 1000; i++) {
+			keys.add("\"IN" + i + "\"");
+		}
+		keys.setFilterEnabled(true);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 50000; i++) {
+					byte[] key = ("\"IN" + i + "\"").getBytes(StandardCharsets.UTF_8);
+					keys.contains(key, 0, key.length);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(4 * 50000, keys.filterProbes());
+		assertTrue(keys.falsePositiveRate() < 0.01);
+	}
+
+}
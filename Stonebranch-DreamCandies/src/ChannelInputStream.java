@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The ChannelInputStream class reads a file through a FileChannel it owns, closed with the stream, with positional reads into
+ * a direct ByteBuffer (see IoConfig). The JDK reads a FileChannel into a heap array through a temporary direct buffer of its
+ * own; reading into a buffer that stays the same for the whole file spares looking up that temporary buffer on every read.
+ *
+ * A FileChannel is closed when a thread reading it is interrupted, so channels are never shared between streams: each
+ * request of ExtractionService opens its own, and an interrupted request can't close the files of the others.
+ */
+class ChannelInputStream extends InputStream {
+
+	private final FileChannel channel; //channel of the file
+	private final ByteBuffer direct; //bytes read from the channel and not yet returned
+	private long position; //offset of the next byte to read from the channel
+
+
+	/**
+	 * Constructor for ChannelInputStream
+	 *
+	 * @param FileChannel channel: open channel of the file, closed with the stream
+	 * @param int bufferSize: size of the direct buffer
+	 */
+	ChannelInputStream(FileChannel channel, int bufferSize) {
+		this.channel = channel;
+		this.direct = ByteBuffer.allocateDirect(bufferSize);
+		direct.flip();
+	}
+
+
+	@Override
+	public int read() throws IOException {
+		byte[] one = new byte[1];
+		return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+	}
+
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {return 0;}
+		if (!direct.hasRemaining()) {
+			direct.clear();
+			int n = channel.read(direct, position);
+			direct.flip();
+			if (n <= 0) {return n;}
+			position += n;
+		}
+		int n = Math.min(len, direct.remaining());
+		direct.get(b, off, n);
+		return n;
+	}
+
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = Math.max(0, Math.min(n, channel.size() - position + buffered()));
+		int fromBuffer = (int) Math.min(skipped, buffered());
+		direct.position(direct.position() + fromBuffer);
+		position += skipped - fromBuffer;
+		return skipped;
+	}
+
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(0, channel.size() - position) + buffered());
+	}
+
+
+	/**
+	 * @return int: number of bytes read from the channel and not yet returned
+	 */
+	private int buffered() {
+		return direct.remaining();
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
@@ -0,0 +1,123 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * The Checkpoint class records how far a pass over a full extraction file has gone: the offset of the next row of the
+ * input, the number of bytes of the output written for the rows before it, and the number of matching rows. It also records
+ * the size and modification time of the input and a digest of the keys and options of the pass, so a checkpoint taken on a
+ * different version of the file, or for a different sample, is ignored. Once a pass is complete, a checkpoint at the end of
+ * its input is committed next to its output as its stamp, which a resumed run checks before it keeps the output.
+ * Checkpoints are small properties files, replaced atomically so that a crash leaves either the previous or the new one.
+ */
+class Checkpoint {
+
+	final long inputOffset; //offset of the next row of the input to filter
+	final long outputOffset; //number of bytes of output written for the rows before inputOffset
+	final long rows; //number of matching rows before inputOffset
+	private final long inputSize; //size of the input when the checkpoint was taken
+	private final long inputModified; //modification time of the input when the checkpoint was taken, in ms
+	private final String digest; //digest of the keys and options of the pass
+
+
+	/**
+	 * Constructor for Checkpoint
+	 *
+	 * @param Path input: full extraction file being filtered
+	 * @param String digest: digest of the keys and options of the pass
+	 * @param long inputOffset: offset of the next row of the input to filter
+	 * @param long outputOffset: number of bytes of output written for the rows before inputOffset
+	 * @param long rows: number of matching rows before inputOffset
+	 * @throws IOException: throws exception if the attributes of the input can't be read
+	 */
+	Checkpoint(Path input, String digest, long inputOffset, long outputOffset, long rows) throws IOException {
+		this(inputOffset, outputOffset, rows, Files.size(input), Files.getLastModifiedTime(input).toMillis(), digest);
+	}
+
+
+	private Checkpoint(long inputOffset, long outputOffset, long rows, long inputSize, long inputModified, String digest) {
+		this.inputOffset = inputOffset;
+		this.outputOffset = outputOffset;
+		this.rows = rows;
+		this.inputSize = inputSize;
+		this.inputModified = inputModified;
+		this.digest = digest;
+	}
+
+
+	/**
+	 * Writes the checkpoint to a file, through a temporary file renamed over it.
+	 *
+	 * @param Path file: checkpoint file
+	 * @throws IOException: throws exception if the file can't be written
+	 */
+	void write(Path file) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("input.offset", Long.toString(inputOffset));
+		properties.setProperty("output.offset", Long.toString(outputOffset));
+		properties.setProperty("rows", Long.toString(rows));
+		properties.setProperty("input.size", Long.toString(inputSize));
+		properties.setProperty("input.modified", Long.toString(inputModified));
+		properties.setProperty("digest", digest);
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (OutputStream out = Files.newOutputStream(temporary)) {
+			properties.store(out, "extraction checkpoint");
+		}
+		move(temporary, file);
+	}
+
+
+	/**
+	 * Reads the checkpoint of a pass over an input.
+	 *
+	 * @param Path file: checkpoint file
+	 * @param Path input: full extraction file being filtered
+	 * @param String digest: digest of the keys and options of the pass
+	 * @return Checkpoint: the checkpoint, or null if there is none, or it was taken on another version of the input or with
+	 * another digest
+	 * @throws IOException: throws exception if the file exists but can't be read
+	 */
+	static Checkpoint read(Path file, Path input, String digest) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(file)) {
+			properties.load(in);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		try {
+			Checkpoint checkpoint = new Checkpoint(Long.parseLong(properties.getProperty("input.offset")),
+					Long.parseLong(properties.getProperty("output.offset")), Long.parseLong(properties.getProperty("rows")),
+					Long.parseLong(properties.getProperty("input.size")), Long.parseLong(properties.getProperty("input.modified")),
+					properties.getProperty("digest"));
+			boolean current = checkpoint.inputSize == Files.size(input)
+					&& checkpoint.inputModified == Files.getLastModifiedTime(input).toMillis()
+					&& digest.equals(checkpoint.digest);
+			return current ? checkpoint : null;
+		} catch (NumberFormatException e) { //incomplete or foreign file
+			return null;
+		}
+	}
+
+
+	/**
+	 * Renames a file over another, atomically where the file system allows it.
+	 *
+	 * @param Path source: file to rename
+	 * @param Path target: new name of the file, replaced if it exists
+	 * @throws IOException: throws exception if the file can't be renamed
+	 */
+	static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+}
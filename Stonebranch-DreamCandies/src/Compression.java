@@ -0,0 +1,207 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The Compression enum lists the compressed formats extraction files can be read from and written to. An input file is
+ * recognized by its magic bytes (or, failing that, its extension) and decompressed on a background thread while it is being
+ * filtered. An output file is compressed according to its extension. Gzip is always available; zstd and lz4 are used when
+ * zstd-jni (com.github.luben.zstd) or lz4-java (net.jpountz.lz4) is on the class path, and are otherwise reported as missing.
+ */
+enum Compression {
+
+	NONE("", new int[0], null, null),
+	GZIP(".gz", new int[] {0x1F, 0x8B}, null, null),
+	ZSTD(".zst", new int[] {0x28, 0xB5, 0x2F, 0xFD}, "com.github.luben.zstd.ZstdInputStream", "com.github.luben.zstd.ZstdOutputStream"),
+	LZ4(".lz4", new int[] {0x04, 0x22, 0x4D, 0x18}, "net.jpountz.lz4.LZ4FrameInputStream", "net.jpountz.lz4.LZ4FrameOutputStream");
+
+	private static final int BUFFER_SIZE = 1 << 16; //size of the buffers between the file and the codec
+	private static final int READ_AHEAD_BLOCK_SIZE = 1 << 20; //1MB blocks of decompressed data
+	private static final int READ_AHEAD_BLOCKS = 16; //at most 16MB decompressed ahead of the scan
+
+	private final String extension; //extension of file names in this format
+	private final int[] magic; //first bytes of files in this format
+	private final String inputClass; //name of the class decompressing this format, null for the JDK gzip classes
+	private final String outputClass; //name of the class compressing this format, null for the JDK gzip classes
+
+
+	private Compression(String extension, int[] magic, String inputClass, String outputClass) {
+		this.extension = extension;
+		this.magic = magic;
+		this.inputClass = inputClass;
+		this.outputClass = outputClass;
+	}
+
+
+	/**
+	 * @return String: extension of file names in this format, including the dot ("" for NONE)
+	 */
+	String extension() {
+		return extension;
+	}
+
+
+	/**
+	 * @return boolean: true if files in this format can be read and written with the current class path
+	 */
+	boolean isAvailable() {
+		if (inputClass == null) {return true;}
+		try {
+			Class.forName(inputClass);
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+
+	/**
+	 * @param Path file: name of a file
+	 * @return Compression: format given by the extension of the file name, NONE if it has no known extension
+	 */
+	static Compression forName(Path file) {
+		String name = file.getFileName().toString();
+		for (Compression format : values()) {
+			if (format != NONE && name.endsWith(format.extension)) {return format;}
+		}
+		return NONE;
+	}
+
+
+	/**
+	 * @param Path file: an existing file
+	 * @return Compression: format given by the first bytes of the file, or by its extension if they match no format
+	 * @throws IOException: throws exception if the file can't be read
+	 */
+	static Compression detect(Path file) throws IOException {
+		byte[] head = new byte[4];
+		int length = 0;
+		try (InputStream in = Files.newInputStream(file)) {
+			int n;
+			while (length < head.length && (n = in.read(head, length, head.length - length)) > 0) {length += n;}
+		}
+		Compression format = match(head, length);
+		return format != NONE ? format : forName(file);
+	}
+
+
+	/**
+	 * Opens a file for reading, decompressing it if it is compressed. Decompression runs on a background thread, so it overlaps
+	 * with the scan of the decompressed data.
+	 *
+	 * @param Path file: file to read
+	 * @return InputStream: stream of the (decompressed) content of the file
+	 * @throws IOException: throws exception if the file can't be opened, or its format isn't available
+	 */
+	static InputStream open(Path file) throws IOException {
+		PushbackInputStream in = new PushbackInputStream(Files.newInputStream(file), 4);
+		try {
+			byte[] head = new byte[4];
+			int length = 0;
+			int n;
+			while (length < head.length && (n = in.read(head, length, head.length - length)) > 0) {length += n;}
+			in.unread(head, 0, length);
+			Compression format = match(head, length);
+			if (format == NONE) {format = forName(file);}
+			if (format == NONE) {return in;}
+			return new ReadAheadInputStream(format.decompress(new BufferedInputStream(in, BUFFER_SIZE)), READ_AHEAD_BLOCK_SIZE, READ_AHEAD_BLOCKS);
+		} catch (IOException | RuntimeException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Creates (or truncates) a file for writing, compressing what is written according to the extension of its name.
+	 *
+	 * @param Path file: file to write
+	 * @return OutputStream: stream writing to the file
+	 * @throws IOException: throws exception if the file can't be created, or its format isn't available
+	 */
+	static OutputStream create(Path file) throws IOException {
+		return create(file, forName(file));
+	}
+
+
+	/**
+	 * Creates (or truncates) a file for writing, compressing what is written in a given format, whatever the name of the file
+	 * (e.g. a temporary file standing in for the file the format was chosen for).
+	 *
+	 * @param Path file: file to write
+	 * @param Compression format: format of the content of the file
+	 * @return OutputStream: stream writing to the file
+	 * @throws IOException: throws exception if the file can't be created, or the format isn't available
+	 */
+	static OutputStream create(Path file, Compression format) throws IOException {
+		OutputStream out = new FileOutputStream(file.toFile()); //its channel is a FileChannel, which RangeWriter transfers to
+		if (format == NONE) {return out;}
+		try {
+			return format.compress(out);
+		} catch (IOException | RuntimeException e) {
+			out.close();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * @return Compression: format whose magic bytes start a header, NONE if there is none
+	 */
+	private static Compression match(byte[] head, int length) {
+		for (Compression format : values()) {
+			if (format == NONE || format.magic.length > length) {continue;}
+			boolean matches = true;
+			for (int i = 0; i < format.magic.length; i++) {
+				matches &= (head[i] & 0xFF) == format.magic[i];
+			}
+			if (matches) {return format;}
+		}
+		return NONE;
+	}
+
+
+	/**
+	 * Wraps a stream of compressed data in a stream of decompressed data.
+	 */
+	private InputStream decompress(InputStream in) throws IOException {
+		if (this == GZIP) {return new GZIPInputStream(in, BUFFER_SIZE);}
+		return (InputStream) wrap(inputClass, InputStream.class, in);
+	}
+
+
+	/**
+	 * Wraps a stream in a stream compressing what is written to it.
+	 */
+	private OutputStream compress(OutputStream out) throws IOException {
+		if (this == GZIP) {return new GZIPOutputStream(out, BUFFER_SIZE);}
+		return (OutputStream) wrap(outputClass, OutputStream.class, new BufferedOutputStream(out, BUFFER_SIZE));
+	}
+
+
+	/**
+	 * Creates an instance of a codec class found at run time, given the stream it wraps.
+	 */
+	private Object wrap(String className, Class<?> streamType, Object stream) throws IOException {
+		try {
+			return Class.forName(className).getConstructor(streamType).newInstance(stream);
+		} catch (ClassNotFoundException | LinkageError e) {
+			throw new IOException(name().toLowerCase() + " files require " + className + " on the class path", e);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof IOException) {throw (IOException) e.getCause();}
+			throw new IOException("can't create " + className, e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new IOException("can't create " + className, e);
+		}
+	}
+
+}
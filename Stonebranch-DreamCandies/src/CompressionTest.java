@@ -0,0 +1,110 @@
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Unit tests for Compression Class: create, open, detect
+ */
+public class CompressionTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+
+	/**
+	 * Writes content to a new file through Compression.create, then reads it back through Compression.open.
+	 *
+	 * @return String: content read back
+	 */
+	private String roundTrip(String name, String content) throws IOException {
+		Path file = new File(folder.getRoot(), name).toPath();
+		try (OutputStream out = Compression.create(file)) {
+			out.write(content.getBytes(StandardCharsets.UTF_8));
+		}
+		try (InputStream in = Compression.open(file)) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buf = new byte[1000];
+			int n;
+			while ((n = in.read(buf)) > 0) {bytes.write(buf, 0, n);}
+			return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+
+	/**
+	 * @return String: a few MB of rows, so that decompression spans several read-ahead blocks
+	 */
+	private static String rows() {
+		StringBuilder content = new StringBuilder("\u201CINVOICE_CODE\u201D,\u201CITEM_CODE\u201D\r\n");
+		for (int i = 0; i < 100000; i++) {
+			content.append("\u201CIN").append(i % 997).append("\u201D,\u201CITEM").append(i).append("\u201D\n");
+		}
+		return content.toString();
+	}
+
+
+	/**
+	 * Test method for {@link Compression#open(Path)}.
+	 *
+	 * Tests writing and reading files in every format available on the class path, and an uncompressed file.
+	 * Expected behavior is that the content read is the content written, and that each file is detected as its format.
+	 */
+	@Test
+	public void open_EveryFormat_ContentReadBack() throws IOException {
+		String content = rows();
+		for (Compression format : Compression.values()) {
+			if (!format.isAvailable()) {continue;}
+			String name = "rows.csv" + format.extension();
+			assertEquals(format.name(), content, roundTrip(name, content));
+			assertEquals(format, Compression.detect(new File(folder.getRoot(), name).toPath()));
+		}
+	}
+
+
+	/**
+	 * Test method for {@link Compression#detect(Path)}.
+	 *
+	 * Tests detection of a gzip file whose name has no compressed extension, and of a short uncompressed file.
+	 * Expected behavior is that formats are recognized by their magic bytes first.
+	 */
+	@Test
+	public void detect_MagicBytes_FormatFoundWithoutExtension() throws IOException {
+		Path gzip = new File(folder.getRoot(), "rows.gz").toPath();
+		try (OutputStream out = Compression.create(gzip)) {
+			out.write("\"A\"\n".getBytes(StandardCharsets.UTF_8));
+		}
+		Path renamed = Files.move(gzip, gzip.resolveSibling("rows.csv"));
+		assertEquals(Compression.GZIP, Compression.detect(renamed));
+
+		Path plain = folder.newFile("a.csv").toPath();
+		Files.write(plain, "A".getBytes(StandardCharsets.UTF_8));
+		assertEquals(Compression.NONE, Compression.detect(plain));
+		assertEquals("A", roundTrip("b.csv", "A"));
+	}
+
+
+	/**
+	 * Test method for {@link Compression#open(Path)}.
+	 *
+	 * Tests zstd and lz4 files when their libraries are on the class path (they are test dependencies of the Maven build).
+	 * Expected behavior is that both formats can be read and written.
+	 */
+	@Test
+	public void open_ZstdAndLz4_ContentReadBack() throws IOException {
+		assumeTrue(Compression.ZSTD.isAvailable() && Compression.LZ4.isAvailable());
+		assertEquals("\"A\"\n\"B\"\n", roundTrip("rows.csv.zst", "\"A\"\n\"B\"\n"));
+		assertEquals("\"A\"\n\"B\"\n", roundTrip("rows.csv.lz4", "\"A\"\n\"B\"\n"));
+	}
+
+}
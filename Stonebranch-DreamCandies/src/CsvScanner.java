@@ -0,0 +1,354 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The CsvScanner class walks through a CSV source one line at a time, working directly on its raw bytes. Lines and fields
+ * are located in place inside an internal buffer, so scanning a file does not create a String, array or other object per row.
+ * Line terminators follow the rules of BufferedReader.readLine() ("\n", "\r" or "\r\n"), and fields are separated by commas
+ * in the same way as String.split(","), so results are identical to the line based implementation. A field is located without
+ * the pair of double quotes around it, which may each be a straight quote or a left or right curly quote, so keys match
+ * whichever quotes a file uses (see SampleLoader for the keys of a sample file).
+ * The source can either be a stream or a ByteBuffer, such as a memory-mapped region of a file.
+ */
+class CsvScanner implements Closeable {
+
+	static final int DEFAULT_BUFFER_SIZE = 1 << 16; //64K initial buffer, grown if a single line does not fit
+
+	private final InputStream in; //source of raw bytes, null when scanning a ByteBuffer
+	private final ByteBuffer source; //source of raw bytes, null when scanning a stream or a heap buffer (buffer is its array)
+	private byte[] buffer;
+	private int limit; //index one past the last valid byte of buffer
+	private boolean eof; //true once the source has been fully read
+	private long discarded; //number of bytes of the source before buffer[0], negative when buffer holds bytes before the source
+	private int lineStart; //index of first byte of current line
+	private int lineEnd; //index one past the last byte of current line (terminator excluded)
+	private int next; //index of first byte of the following line
+	private int fieldStart; //index of first byte of the last located field
+	private int fieldEnd; //index one past the last byte of the last located field
+
+
+	/**
+	 * Constructor for CsvScanner with the default buffer size
+	 *
+	 * @param InputStream in: stream of raw bytes to scan
+	 */
+	CsvScanner(InputStream in) {
+		this(in, DEFAULT_BUFFER_SIZE);
+	}
+
+
+	/**
+	 * Constructor for CsvScanner
+	 *
+	 * @param InputStream in: stream of raw bytes to scan
+	 * @param int bufferSize: initial size of the read buffer
+	 */
+	CsvScanner(InputStream in, int bufferSize) {
+		this.in = in;
+		this.source = null;
+		this.buffer = new byte[bufferSize];
+	}
+
+
+	/**
+	 * Constructor for CsvScanner over the remaining bytes of a ByteBuffer. A heap buffer is scanned in place, in its backing
+	 * array; the bytes of a direct buffer are copied to an internal buffer as the scan proceeds (ParallelFileFilter scans
+	 * memory-mapped chunks in place with field(ByteBuffer, int, int, int, int[]) instead).
+	 *
+	 * @param ByteBuffer source: buffer of raw bytes to scan, read from its position up to its limit
+	 */
+	CsvScanner(ByteBuffer source) {
+		this.in = null;
+		if (source.hasArray()) {
+			this.source = null;
+			this.buffer = source.array();
+			this.next = source.arrayOffset() + source.position();
+			this.limit = source.arrayOffset() + source.limit();
+			this.discarded = -next; //offsets count from the position of the source
+			this.eof = true;
+		} else {
+			this.source = source;
+			this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+		}
+	}
+
+
+	/**
+	 * Advances to the next line of the source.
+	 *
+	 * @return boolean: true if a line was found, false at the end of the source
+	 * @throws IOException: throws exception if the source can't be read
+	 */
+	boolean nextLine() throws IOException {
+		lineStart = next;
+		int i = lineStart;
+		while (true) {
+			byte[] buf = buffer;
+			int end = limit;
+			while (i < end) {
+				byte b = buf[i];
+				if (b == '\n' || b == '\r') {break;}
+				i++;
+			}
+
+			if (i < end) { //found a terminator
+				if (buf[i] == '\n') {
+					next = i + 1;
+				} else if (i + 1 < end) { //'\r', followed by a byte already in the buffer
+					next = (buf[i + 1] == '\n') ? i + 2 : i + 1;
+				} else if (eof) { //'\r' as last byte of the source
+					next = i + 1;
+				} else { //'\r' at end of buffer, need one more byte to know if "\r\n"
+					i -= fill();
+					continue;
+				}
+				lineEnd = i;
+				return true;
+			}
+
+			if (eof) { //last line has no terminator
+				if (lineStart == limit) {return false;}
+				lineEnd = limit;
+				next = limit;
+				return true;
+			}
+			i -= fill();
+		}
+	}
+
+
+	/**
+	 * Reads more bytes from the source, moving the current line to the start of the buffer first.
+	 *
+	 * @return int: number of positions every index into the buffer moved back by
+	 * @throws IOException: throws exception if the source can't be read
+	 */
+	private int fill() throws IOException {
+		int shift = lineStart;
+		if (shift > 0) { //discard bytes of lines already consumed
+			System.arraycopy(buffer, shift, buffer, 0, limit - shift);
+			discarded += shift;
+			limit -= shift;
+			lineStart = 0;
+			next -= shift;
+		} else if (limit == buffer.length) { //current line fills the whole buffer
+			byte[] grown = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, grown, 0, limit);
+			buffer = grown;
+		}
+
+		int read;
+		if (in == null) {
+			read = Math.min(source.remaining(), buffer.length - limit);
+			source.get(buffer, limit, read);
+			if (read == 0) {read = -1;}
+		} else {
+			read = in.read(buffer, limit, buffer.length - limit);
+			while (read == 0) {
+				read = in.read(buffer, limit, buffer.length - limit);
+			}
+		}
+		if (read < 0) {
+			eof = true;
+		} else {
+			limit += read;
+		}
+		return shift;
+	}
+
+
+	/**
+	 * Locates a field of the current line. Field boundaries are then given by fieldStart() and fieldEnd(), without the pair of
+	 * double quotes around the field, if it has one.
+	 *
+	 * @param int column: zero-based index of the field
+	 * @return boolean: true if the line has that many fields, false otherwise
+	 */
+	boolean field(int column) {
+		byte[] buf = buffer;
+		int start = lineStart;
+		int end = lineEnd;
+		int i = start;
+		for (int c = 0; c < column; c++) { //skip preceding fields
+			while (i < end && buf[i] != ',') {i++;}
+			if (i == end) {return false;}
+			start = ++i;
+		}
+		while (i < end && buf[i] != ',') {i++;}
+		int open = quoteAfter(buf, start, i);
+		int close = open > 0 ? quoteBefore(buf, start + open, i) : 0;
+		fieldStart = close > 0 ? start + open : start;
+		fieldEnd = close > 0 ? i - close : i;
+		return true;
+	}
+
+
+	/**
+	 * @param byte[] buf: array holding a field
+	 * @param int start: index of first byte of the field
+	 * @param int end: index one past the last byte of the field
+	 * @return int: length of the double quote the field starts with ('"', or '\u201C' or '\u201D' in UTF-8), 0 if none
+	 */
+	static int quoteAfter(byte[] buf, int start, int end) {
+		if (start >= end) {return 0;}
+		if (buf[start] == '"') {return 1;}
+		return end - start >= 3 && isCurlyQuote(buf, start) ? 3 : 0;
+	}
+
+
+	/**
+	 * @param byte[] buf: array holding a field
+	 * @param int start: index of first byte of the field
+	 * @param int end: index one past the last byte of the field
+	 * @return int: length of the double quote the field ends with ('"', or '\u201C' or '\u201D' in UTF-8), 0 if none
+	 */
+	static int quoteBefore(byte[] buf, int start, int end) {
+		if (start >= end) {return 0;}
+		if (buf[end - 1] == '"') {return 1;}
+		return end - start >= 3 && isCurlyQuote(buf, end - 3) ? 3 : 0;
+	}
+
+
+	/**
+	 * @return boolean: true if the 3 bytes at an index are the UTF-8 encoding of a left or right double quote
+	 */
+	private static boolean isCurlyQuote(byte[] buf, int i) {
+		return buf[i] == (byte) 0xE2 && buf[i + 1] == (byte) 0x80 && (buf[i + 2] == (byte) 0x9C || buf[i + 2] == (byte) 0x9D);
+	}
+
+
+	/**
+	 * Locates a field of a line held in a ByteBuffer, such as a memory-mapped region of a file, the same way as field(int),
+	 * reading the buffer in place.
+	 *
+	 * @param ByteBuffer buf: buffer holding the line, read with absolute gets
+	 * @param int start: index of first byte of the line
+	 * @param int end: index one past the last byte of the line, terminator excluded
+	 * @param int column: zero-based index of the field
+	 * @param int[] bounds: receives the start and end of the field without its quotes, then the start and end of the field
+	 * with them
+	 * @return boolean: true if the line has that many fields, false otherwise
+	 */
+	static boolean field(ByteBuffer buf, int start, int end, int column, int[] bounds) {
+		int i = start;
+		for (int c = 0; c < column; c++) { //skip preceding fields
+			while (i < end && buf.get(i) != ',') {i++;}
+			if (i == end) {return false;}
+			start = ++i;
+		}
+		while (i < end && buf.get(i) != ',') {i++;}
+		int open = quoteAfter(buf, start, i);
+		int close = open > 0 ? quoteBefore(buf, start + open, i) : 0;
+		bounds[0] = close > 0 ? start + open : start;
+		bounds[1] = close > 0 ? i - close : i;
+		bounds[2] = start;
+		bounds[3] = i;
+		return true;
+	}
+
+
+	private static int quoteAfter(ByteBuffer buf, int start, int end) {
+		if (start >= end) {return 0;}
+		if (buf.get(start) == '"') {return 1;}
+		return end - start >= 3 && isCurlyQuote(buf, start) ? 3 : 0;
+	}
+
+
+	private static int quoteBefore(ByteBuffer buf, int start, int end) {
+		if (start >= end) {return 0;}
+		if (buf.get(end - 1) == '"') {return 1;}
+		return end - start >= 3 && isCurlyQuote(buf, end - 3) ? 3 : 0;
+	}
+
+
+	private static boolean isCurlyQuote(ByteBuffer buf, int i) {
+		return buf.get(i) == (byte) 0xE2 && buf.get(i + 1) == (byte) 0x80 && (buf.get(i + 2) == (byte) 0x9C || buf.get(i + 2) == (byte) 0x9D);
+	}
+
+
+	/**
+	 * Writes the current line followed by a "\n" terminator. A RangeWriter over the file being scanned (from its start) gets
+	 * the line with its offset, so that runs of lines can be copied from the file.
+	 *
+	 * @param OutputStream out: stream to write the line to
+	 * @throws IOException: throws exception if the line can't be written
+	 */
+	void writeLine(OutputStream out) throws IOException {
+		if (out instanceof RangeWriter) {
+			boolean newline = lineEnd < limit && buffer[lineEnd] == '\n';
+			((RangeWriter) out).writeRow(discarded + lineStart, buffer, lineStart, lineEnd, newline);
+			return;
+		}
+		out.write(buffer, lineStart, lineEnd - lineStart);
+		out.write('\n');
+	}
+
+
+	/**
+	 * @return byte[]: buffer holding the current line (only valid until the next call to nextLine())
+	 */
+	byte[] buffer() {
+		return buffer;
+	}
+
+
+	/**
+	 * @return int: index of first byte of current line
+	 */
+	int lineStart() {
+		return lineStart;
+	}
+
+
+	/**
+	 * @return int: index one past the last byte of current line
+	 */
+	int lineEnd() {
+		return lineEnd;
+	}
+
+
+	/**
+	 * @return long: offset of the current line from the start of the source
+	 */
+	long lineOffset() {
+		return discarded + lineStart;
+	}
+
+
+	/**
+	 * @return long: offset from the start of the source of the byte after the current line and its terminator
+	 */
+	long position() {
+		return discarded + next;
+	}
+
+
+	/**
+	 * @return int: index of first byte of the last located field
+	 */
+	int fieldStart() {
+		return fieldStart;
+	}
+
+
+	/**
+	 * @return int: index one past the last byte of the last located field
+	 */
+	int fieldEnd() {
+		return fieldEnd;
+	}
+
+
+	/**
+	 * Closes the underlying source.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (in != null) {in.close();}
+	}
+
+}
@@ -0,0 +1,374 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The DeltaFileFilter class filters a new version of a full extraction file against the output of the previous version, so
+ * that only the parts of the file that changed are scanned. The file is cut into chunks at content-defined row boundaries: a
+ * chunk is at least MIN_CHUNK bytes, and ends before the first following row whose first bytes hash to a multiple of
+ * BOUNDARY_RATE. Boundaries depend on the rows around them rather than on offsets, so inserting or removing rows only changes
+ * the chunks around the change, and the chunks after it line up with the previous version again. Only the rows around
+ * candidate boundaries are looked at; every byte is read once by the CRC-32 of its chunk, which the JDK computes with
+ * hardware instructions (about 0.3s for 1.5GB, against 1.7s to scan the file row by row).
+ *
+ * A chunk with the same length and CRC as a chunk of the previous version (see DeltaManifest) contributes the same rows as
+ * before, which are copied from the previous output rather than looked for in the file, except that:
+ * - rows whose key was removed from the set of keys are left out, so those chunks are filtered from the previous output;
+ * - a chunk whose Bloom filter may hold a key added to the set is scanned again, since it may hold rows of that key;
+ * - a chunk that had matching rows left out (row limit reached) is scanned again.
+ * When the file didn't change at all (same size and modification time), its chunks aren't even read. A CRC-32 can miss a
+ * change with a probability of 2^-32 per changed chunk, after which the rows of the chunk are those of the previous version.
+ */
+class DeltaFileFilter {
+
+	static final int MIN_CHUNK = 256 << 10; //smallest chunk, except the last one of the file
+	static final int MAX_CHUNK = 4 << 20; //length from which a chunk ends at the next row, boundary or not
+	private static final int BOUNDARY_RATE = 128; //one row in 128, past MIN_CHUNK, ends a chunk
+	private static final int BOUNDARY_PREFIX = 32; //bytes of a row hashed to decide whether a chunk ends before it
+	private static final int WINDOW_SIZE = 64 << 20; //bytes of the file mapped at a time to find chunk boundaries
+	private static final int FILTER_BITS_PER_KEY = 12; //bits of the Bloom filter of a chunk per distinct key
+
+	private final FileChannel channel; //channel of the full file
+	private final long size; //size of the full file
+	private final OutputStream out; //output the header and matching rows are written to
+	private final ByteKeySet keys; //set of keys to keep
+	private final int keyColumn; //zero-based index of the key field in each row
+	private final int maxRows; //number of matching rows after which the others are left out, or -1 for no limit
+	private final int collectColumn; //zero-based index of a field passed to collector for each written row, or -1 for none
+	private final KeyConsumer collector; //receives the collected field of each written row, in file order
+	private MappedByteBuffer window; //mapped part of the file the next chunk boundary is looked for in
+	private long windowStart; //offset of the mapped part in the file
+	private int windowSize = WINDOW_SIZE; //bytes mapped at a time, doubled for a row that doesn't fit
+	private long written; //number of rows written, header excluded
+	private int[] hashes = new int[1024]; //hashes of the keys of the chunk being scanned
+	private ByteBuffer rows = ByteBuffer.allocate(1 << 16); //rows of a chunk read from the previous output
+
+
+	private DeltaFileFilter(FileChannel channel, OutputStream out, ByteKeySet keys, int keyColumn, int maxRows,
+			int collectColumn, KeyConsumer collector) throws IOException {
+		this.channel = channel;
+		this.size = channel.size();
+		this.out = out;
+		this.keys = keys;
+		this.keyColumn = keyColumn;
+		this.maxRows = maxRows;
+		this.collectColumn = collectColumn;
+		this.collector = collector;
+	}
+
+
+	/**
+	 * Writes the header of a full extraction file and every following row whose key is in a set of keys, in file order, taking
+	 * the rows of the chunks that didn't change from the previous output.
+	 *
+	 * @param Path file: full extraction file to filter, not compressed
+	 * @param Path output: output of the previous version of the file, not compressed, only read if previous isn't null
+	 * @param DeltaManifest previous: manifest of the previous output, or null to scan the whole file
+	 * @param OutputStream out: stream the header and matching rows are written to, each followed by "\n"
+	 * @param ByteKeySet keys: set of keys to keep
+	 * @param int keyColumn: zero-based index of the key field in each row
+	 * @param int maxRows: number of matching rows after which the others are left out, or -1 for no limit
+	 * @param int collectColumn: zero-based index of a field passed to collector for each written row, or -1 for none
+	 * @param KeyConsumer collector: receives the collected field of each written row, in file order
+	 * @return DeltaManifest: manifest of the new output, to be written once the output is complete
+	 * @throws IOException: throws exception if a file can't be read or the output can't be written
+	 */
+	static DeltaManifest filter(Path file, Path output, DeltaManifest previous, OutputStream out, ByteKeySet keys,
+			int keyColumn, int maxRows, int collectColumn, KeyConsumer collector) throws IOException {
+		if (previous != null && previous.keyColumn != keyColumn) {previous = null;}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+				FileChannel previousOutput = previous == null ? null : FileChannel.open(output, StandardOpenOption.READ)) {
+			DeltaFileFilter filter = new DeltaFileFilter(channel, out, keys, keyColumn, maxRows, collectColumn, collector);
+			return filter.run(Files.getLastModifiedTime(file).toMillis(), previous, previousOutput);
+		}
+	}
+
+
+	private DeltaManifest run(long modified, DeltaManifest previous, FileChannel previousOutput) throws IOException {
+		RowFetcher rows = new RowFetcher(channel);
+		if (!rows.fetch(0)) { //empty file
+			return new DeltaManifest(size, modified, keyColumn, 0, keys, new ArrayList<DeltaManifest.Chunk>());
+		}
+		rows.writeRow(out); //file header
+		int headerLength = rows.rowEnd() - rows.rowStart() + 1;
+		long bodyStart = rows.nextRow();
+
+		//chunks of the previous version by length and CRC, and keys added to the set or removed from it since
+		Map<Long, DeltaManifest.Chunk> previousChunks = new HashMap<Long, DeltaManifest.Chunk>();
+		int[] added = new int[0]; //hashes of the keys added
+		boolean removed = false;
+		boolean unchanged = false; //true if the file is the previous version, so its chunks are known
+		if (previous != null) {
+			for (DeltaManifest.Chunk chunk : previous.chunks) {previousChunks.putIfAbsent(chunkKey(chunk.length, chunk.crc), chunk);}
+			added = added(keys, previous.keys);
+			removed = added(previous.keys, keys).length > 0;
+			long length = 0;
+			for (DeltaManifest.Chunk chunk : previous.chunks) {length += chunk.length;}
+			unchanged = previous.inputSize == size && previous.inputModified == modified && bodyStart + length == size;
+		}
+
+		List<DeltaManifest.Chunk> chunks = new ArrayList<DeltaManifest.Chunk>();
+		int reused = 0;
+		long position = bodyStart;
+		while (position < size) {
+			int length;
+			int crc;
+			ByteBuffer data = null; //bytes of the chunk, mapped when the chunk is scanned
+			if (unchanged) {
+				DeltaManifest.Chunk chunk = previous.chunks.get(chunks.size());
+				length = chunk.length;
+				crc = chunk.crc;
+			} else {
+				data = nextChunk(position);
+				length = data.remaining();
+				CRC32 checksum = new CRC32();
+				checksum.update(data.duplicate());
+				crc = (int) checksum.getValue();
+			}
+			DeltaManifest.Chunk before = previousChunks.get(chunkKey(length, crc));
+			if (before != null && reusable(before, added)) {
+				chunks.add(copy(before, previousOutput, removed));
+				reused++;
+			} else {
+				if (data == null) {data = slice(position, length);}
+				chunks.add(scan(data, crc));
+			}
+			position += length;
+		}
+		DeltaManifest manifest = new DeltaManifest(size, modified, keyColumn, headerLength, keys, chunks);
+		manifest.chunksReused = reused;
+		manifest.chunksScanned = chunks.size() - reused;
+		return manifest;
+	}
+
+
+	/**
+	 * @return Long: key of a chunk in the map of the chunks of the previous version
+	 */
+	private static Long chunkKey(int length, int crc) {
+		return ((long) length << 32) | (crc & 0xFFFFFFFFL);
+	}
+
+
+	/**
+	 * @return int[]: hashes of the keys of a set that are not in another set
+	 */
+	private static int[] added(ByteKeySet keys, ByteKeySet others) {
+		int[][] hashes = {new int[16]};
+		int[] count = new int[1];
+		keys.forEach((buf, start, end) -> {
+			if (!others.contains(buf, start, end)) {
+				if (count[0] == hashes[0].length) {hashes[0] = Arrays.copyOf(hashes[0], count[0] * 2);}
+				hashes[0][count[0]++] = ByteKeySet.hash(buf, start, end);
+			}
+		});
+		return Arrays.copyOf(hashes[0], count[0]);
+	}
+
+
+	/**
+	 * @return boolean: true if the rows of a chunk of the previous version can be taken from the previous output
+	 */
+	private static boolean reusable(DeltaManifest.Chunk chunk, int[] added) {
+		if (chunk.truncated) {return false;}
+		for (int hash : added) {
+			if (ByteKeySet.filterContains(chunk.filter, hash)) {return false;} //the chunk may hold rows of an added key
+		}
+		return true;
+	}
+
+
+	/**
+	 * Finds the end of the chunk starting at an offset of the file.
+	 *
+	 * @param long position: offset of the first byte of the chunk, the start of a row
+	 * @return ByteBuffer: mapped bytes of the chunk
+	 * @throws IOException: throws exception if the file can't be mapped
+	 */
+	private ByteBuffer nextChunk(long position) throws IOException {
+		while (true) {
+			if (window == null || position < windowStart || position >= windowStart + window.limit()) {
+				map(position);
+			}
+			int from = (int) (position - windowStart);
+			int end = boundary(window, from, window.limit(), windowStart + window.limit() == size);
+			if (end >= 0) {
+				ByteBuffer chunk = window.duplicate();
+				chunk.limit(end).position(from);
+				return chunk.slice();
+			}
+			if (windowStart == position) { //the chunk is longer than a window
+				windowSize = (int) Math.min(Integer.MAX_VALUE, (long) windowSize * 2);
+			}
+			map(position);
+		}
+	}
+
+
+	/**
+	 * @return ByteBuffer: mapped bytes of the file from an offset, for a chunk whose length is known
+	 */
+	private ByteBuffer slice(long position, int length) throws IOException {
+		if (window == null || position < windowStart || position + length > windowStart + window.limit()) {
+			windowSize = Math.max(windowSize, length);
+			map(position);
+		}
+		ByteBuffer chunk = window.duplicate();
+		int from = (int) (position - windowStart);
+		chunk.limit(from + length).position(from);
+		return chunk.slice();
+	}
+
+
+	private void map(long position) throws IOException {
+		window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, windowSize));
+		windowStart = position;
+	}
+
+
+	/**
+	 * Finds the content-defined end of a chunk: the start of the first row, at least MIN_CHUNK bytes into the chunk, whose first
+	 * BOUNDARY_PREFIX bytes (or fewer, up to its terminator) hash to a multiple of BOUNDARY_RATE, or the start of the first row
+	 * past MAX_CHUNK bytes.
+	 *
+	 * @param ByteBuffer buf: mapped part of the file
+	 * @param int from: index of the start of the chunk
+	 * @param int limit: index one past the last mapped byte
+	 * @param boolean eof: true if the mapped part reaches the end of the file
+	 * @return int: index one past the last byte of the chunk, or -1 if more of the file must be mapped to tell
+	 */
+	private static int boundary(ByteBuffer buf, int from, int limit, boolean eof) {
+		if (limit - from <= MIN_CHUNK) {return eof ? limit : -1;}
+		long maxEnd = (long) from + MAX_CHUNK;
+		int i = from + MIN_CHUNK - 1; //the row after a terminator found here starts at MIN_CHUNK
+		while (true) {
+			while (i < limit && buf.get(i) != '\n') {i++;}
+			if (i + 1 >= limit) {return eof ? limit : -1;}
+			int next = i + 1; //start of the following row
+			if (next >= maxEnd) {return next;}
+			int h = 0;
+			int j = next;
+			for (; j < limit && j - next < BOUNDARY_PREFIX; j++) {
+				byte b = buf.get(j);
+				if (b == '\n' || b == '\r') {break;}
+				h = 31 * h + b;
+			}
+			if (j == limit && !eof) {return -1;} //the prefix of the row isn't mapped yet
+			h *= 0x9E3779B9;
+			if (((h ^ (h >>> 16)) & (BOUNDARY_RATE - 1)) == 0) {return next;}
+			i = next;
+		}
+	}
+
+
+	/**
+	 * Scans a chunk of the file, writing its matching rows and building the Bloom filter of its keys.
+	 *
+	 * @param ByteBuffer data: bytes of the chunk
+	 * @param int crc: CRC-32 of the bytes of the chunk
+	 * @return DeltaManifest.Chunk: the chunk, for the manifest of the new output
+	 * @throws IOException: throws exception if the output can't be written
+	 */
+	private DeltaManifest.Chunk scan(ByteBuffer data, int crc) throws IOException {
+		int length = data.remaining();
+		int count = 0; //number of hashes of keys
+		int outputLength = 0;
+		int outputRows = 0;
+		boolean truncated = false;
+		try (CsvScanner scanner = new CsvScanner(data)) {
+			while (scanner.nextLine()) {
+				if (!scanner.field(keyColumn)) {continue;} //row has no key
+				byte[] buf = scanner.buffer();
+				int hash = ByteKeySet.hash(buf, scanner.fieldStart(), scanner.fieldEnd());
+				if (count == 0 || hashes[count - 1] != hash) { //rows of the same key often follow each other
+					if (count == hashes.length) {hashes = Arrays.copyOf(hashes, count * 2);}
+					hashes[count++] = hash;
+				}
+				if (keys.contains(buf, scanner.fieldStart(), scanner.fieldEnd())) {
+					if (write(scanner)) {
+						outputLength += scanner.lineEnd() - scanner.lineStart() + 1;
+						outputRows++;
+					} else {
+						truncated = true;
+					}
+				}
+			}
+		}
+		long[] filter = new long[Math.max(8, (int) ((long) count * FILTER_BITS_PER_KEY / 64 + 7) & ~7)];
+		for (int i = 0; i < count; i++) {ByteKeySet.addToFilter(filter, hashes[i]);}
+		return new DeltaManifest.Chunk(length, crc, filter, outputLength, outputRows, truncated);
+	}
+
+
+	/**
+	 * Copies the rows of a chunk of the previous version from the previous output.
+	 *
+	 * @param DeltaManifest.Chunk chunk: chunk of the previous version, with the same bytes as the chunk of the file
+	 * @param FileChannel previousOutput: channel of the previous output
+	 * @param boolean removed: true if keys were removed from the set since, so rows are checked against the set
+	 * @return DeltaManifest.Chunk: the chunk, for the manifest of the new output
+	 * @throws IOException: throws exception if the previous output can't be read or the output can't be written
+	 */
+	private DeltaManifest.Chunk copy(DeltaManifest.Chunk chunk, FileChannel previousOutput, boolean removed) throws IOException {
+		if (chunk.outputRows == 0) {return chunk;}
+		if (rows.capacity() < chunk.outputLength) {rows = ByteBuffer.allocate(chunk.outputLength);}
+		rows.clear().limit(chunk.outputLength);
+		while (rows.hasRemaining()) {
+			if (previousOutput.read(rows, chunk.outputOffset + rows.position()) < 0) {
+				throw new EOFException("previous output is shorter than its manifest");
+			}
+		}
+		rows.flip();
+		if (!removed && collector == null && (maxRows < 0 || written + chunk.outputRows <= maxRows)) { //rows copied as they are
+			out.write(rows.array(), 0, rows.limit());
+			written += chunk.outputRows;
+			return chunk;
+		}
+
+		int outputLength = 0;
+		int outputRows = 0;
+		boolean truncated = false;
+		try (CsvScanner scanner = new CsvScanner(rows)) {
+			while (scanner.nextLine()) {
+				if (removed && !(scanner.field(keyColumn)
+						&& keys.contains(scanner.buffer(), scanner.fieldStart(), scanner.fieldEnd()))) {continue;} //key removed
+				if (write(scanner)) {
+					outputLength += scanner.lineEnd() - scanner.lineStart() + 1;
+					outputRows++;
+				} else {
+					truncated = true;
+				}
+			}
+		}
+		return new DeltaManifest.Chunk(chunk.length, chunk.crc, chunk.filter, outputLength, outputRows, truncated);
+	}
+
+
+	/**
+	 * Writes the current row of a scanner, unless the row limit is reached, and passes its collected field to the collector.
+	 *
+	 * @return boolean: true if the row was written
+	 */
+	private boolean write(CsvScanner scanner) throws IOException {
+		if (maxRows >= 0 && written >= maxRows) {return false;}
+		scanner.writeLine(out);
+		written++;
+		if (collector != null && scanner.field(collectColumn)) {
+			collector.accept(scanner.buffer(), scanner.fieldStart(), scanner.fieldEnd());
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,163 @@
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Unit tests for DeltaFileFilter Class: filter against a previous output and its DeltaManifest
+ */
+public class DeltaFileFilterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+
+	/**
+	 * @return List<String>: rows of a file of about 4MB (several chunks), keyed "K0" to "K999", keys repeated over the file
+	 */
+	private static List<String> rows() {
+		List<String> rows = new ArrayList<String>();
+		for (int i = 0; i < 80000; i++) {
+			rows.add("\"K" + (i * 7919 % 1000) + "\",\"" + i + "\",\"some value to make the row longer\"");
+		}
+		return rows;
+	}
+
+
+	/**
+	 * @return String: header and rows whose key is in a set, as a full scan with a row limit would write them
+	 */
+	private static String expected(List<String> rows, ByteKeySet keys, int maxRows) {
+		StringBuilder expected = new StringBuilder("\"KEY\",\"ROW\",\"VALUE\"\n");
+		int count = 0;
+		for (String row : rows) {
+			if (count == maxRows) {break;}
+			byte[] key = row.substring(1, row.indexOf('"', 1)).getBytes(StandardCharsets.UTF_8);
+			if (keys.contains(key, 0, key.length)) {
+				expected.append(row).append('\n');
+				count++;
+			}
+		}
+		return expected.toString();
+	}
+
+
+	/**
+	 * Writes a full extraction file with a header and the given rows.
+	 */
+	private static void write(Path file, List<String> rows) throws IOException {
+		StringBuilder content = new StringBuilder("\"KEY\",\"ROW\",\"VALUE\"\r\n");
+		for (String row : rows) {content.append(row).append('\n');}
+		Files.write(file, content.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+
+	/**
+	 * Filters a file against the output of its previous version, then replaces that output with the new one and its manifest.
+	 *
+	 * @return DeltaManifest: manifest of the new output
+	 */
+	private static DeltaManifest extract(Path file, Path output, ByteKeySet keys, int maxRows, int collectColumn,
+			KeyConsumer collector) throws IOException {
+		DeltaManifest previous = DeltaManifest.read(output);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DeltaManifest manifest = DeltaFileFilter.filter(file, output, previous, out, keys, 0, maxRows, collectColumn, collector);
+		try (OutputStream stream = Files.newOutputStream(output)) {
+			out.writeTo(stream);
+		}
+		manifest.write(output);
+		return manifest;
+	}
+
+
+	/**
+	 * Test method for {@link DeltaFileFilter#filter}.
+	 *
+	 * Tests filter with a file of several chunks, then with rows changed, inserted near the start, removed in the middle and
+	 * appended, a key added to the set and a key removed from it.
+	 * Expected behavior is that the output is the one of a full scan each time, that every chunk is scanned without a
+	 * previous output, and that after the changes only the chunks around them and those holding the added key are scanned.
+	 */
+	@Test
+	public void filter_ChangedRowsAndKeys_SameRowsAsScanWithFewChunksScanned() throws IOException {
+		Path file = folder.newFile("full.csv").toPath();
+		Path output = folder.getRoot().toPath().resolve("test.csv");
+		List<String> rows = rows();
+		ByteKeySet keys = new ByteKeySet();
+		for (int i = 0; i < 1000; i += 37) {keys.add("K" + i);}
+		write(file, rows);
+
+		DeltaManifest first = extract(file, output, keys, -1, -1, null);
+		assertEquals(expected(rows, keys, -1), new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+		int chunks = first.chunks.size();
+		assertTrue("chunks: " + chunks, chunks >= 4);
+		assertEquals(0, first.chunksReused);
+		assertEquals(chunks, first.chunksScanned);
+
+		rows.set(100, "\"K0\",\"changed\",\"value\"");
+		rows.add(2000, "\"K37\",\"inserted\",\"value\"");
+		rows.subList(40000, 40010).clear();
+		rows.add("\"K74\",\"appended\",\"value\"");
+		rows.set(60000, "\"NEW\",\"60000\",\"row of a key added to the set\"");
+		ByteKeySet changed = new ByteKeySet();
+		for (int i = 37; i < 1000; i += 37) {changed.add("K" + i);} //K0 removed
+		changed.add("NEW");
+		write(file, rows);
+
+		DeltaManifest second = extract(file, output, changed, -1, -1, null);
+		assertEquals(expected(rows, changed, -1), new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+		assertEquals(second.chunks.size(), second.chunksReused + second.chunksScanned);
+		assertTrue("scanned: " + second.chunksScanned, second.chunksScanned <= 8);
+		assertTrue("reused: " + second.chunksReused, second.chunksReused >= second.chunks.size() - 8);
+	}
+
+
+	/**
+	 * Test method for {@link DeltaFileFilter#filter}.
+	 *
+	 * Tests filter with a limit on the number of rows and a collected column, run again on the unchanged file, then with a
+	 * row of a matching key inserted at the start.
+	 * Expected behavior is that the rows of a full scan stopping at the limit are written and collected each time, that the
+	 * unchanged file is taken from the previous output, and that the chunks whose rows were left out are scanned again.
+	 */
+	@Test
+	public void filter_RowLimitAndCollector_SameRowsAsScan() throws IOException {
+		Path file = folder.newFile("full.csv").toPath();
+		Path output = folder.getRoot().toPath().resolve("test.csv");
+		List<String> rows = rows();
+		ByteKeySet keys = new ByteKeySet();
+		keys.add("K1");
+		keys.add("K500");
+		int maxRows = 100; //reached about half way through the file
+		write(file, rows);
+
+		extract(file, output, keys, maxRows, -1, null);
+		List<String> collected = new ArrayList<String>();
+		KeyConsumer collector = (buf, start, end) -> collected.add(new String(buf, start, end - start, StandardCharsets.UTF_8));
+		DeltaManifest unchanged = extract(file, output, keys, maxRows, 1, collector);
+		String expected = expected(rows, keys, maxRows);
+		assertEquals(expected, new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+		assertEquals(maxRows, collected.size());
+		assertTrue(expected.endsWith(",\"" + collected.get(maxRows - 1) + "\",\"some value to make the row longer\"\n"));
+		assertTrue("scanned: " + unchanged.chunksScanned, unchanged.chunksScanned > 0); //chunks past the limit
+		assertTrue("reused: " + unchanged.chunksReused, unchanged.chunksReused > 0);
+
+		rows.add(0, "\"K500\",\"inserted\",\"value\"");
+		write(file, rows);
+		collected.clear();
+		extract(file, output, keys, maxRows, 1, collector);
+		assertEquals(expected(rows, keys, maxRows), new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+		assertEquals("inserted", collected.get(0));
+		assertEquals(maxRows, collected.size());
+	}
+
+}
@@ -0,0 +1,191 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The DeltaManifest class records how an output of an incremental extraction was produced from its full extraction file, so
+ * that the next extraction only scans the parts of the file that changed (see DeltaFileFilter). It is stored next to the
+ * output (as "<output>.delta") together with the size and modification time of the output, and ignored once either changes.
+ *
+ * The full file is cut into chunks, after its header, at content-defined row boundaries. For each chunk the manifest holds its
+ * length and CRC-32, a blocked Bloom filter of the keys of its rows (see ByteKeySet), and the rows it contributed to the output
+ * (number and length, the output being the header followed by the rows of each chunk in order). The manifest also holds the
+ * set of keys the output was filtered with, so the next extraction knows which keys were added to the set or removed from it.
+ *
+ * File layout: magic, version, output size, output modification time, input size, input modification time, key column,
+ * header length, then the keys (count, then the length and bytes of each key), then the chunks (count, then the length, CRC,
+ * output length, output rows, truncated flag, filter length in longs and filter of each chunk).
+ */
+class DeltaManifest {
+
+	private static final int MAGIC = 0x4443444d; //"DCDM"
+	private static final int VERSION = 1;
+
+	final long inputSize; //size of the full file
+	final long inputModified; //modification time of the full file, in milliseconds
+	final int keyColumn; //zero-based index of the key column
+	final int headerLength; //bytes of the header in the output, terminator included, 0 if the full file was empty
+	final ByteKeySet keys; //keys the output was filtered with
+	final List<Chunk> chunks; //chunks of the full file after its header, in order
+	int chunksReused; //chunks whose rows were taken from the previous output, not saved
+	int chunksScanned; //chunks scanned in the full file, not saved
+
+
+	/**
+	 * A chunk of a full extraction file and the rows it contributed to the output.
+	 */
+	static final class Chunk {
+		final int length; //bytes of the chunk in the full file
+		final int crc; //CRC-32 of the bytes of the chunk
+		final long[] filter; //blocked Bloom filter of the keys of the rows of the chunk
+		final int outputLength; //bytes of the rows of the chunk in the output
+		final int outputRows; //number of rows of the chunk in the output
+		final boolean truncated; //true if matching rows of the chunk were left out of the output (row limit reached)
+		long outputOffset; //offset of the first row of the chunk in the output, computed when the manifest is read
+
+		Chunk(int length, int crc, long[] filter, int outputLength, int outputRows, boolean truncated) {
+			this.length = length;
+			this.crc = crc;
+			this.filter = filter;
+			this.outputLength = outputLength;
+			this.outputRows = outputRows;
+			this.truncated = truncated;
+		}
+	}
+
+
+	/**
+	 * Constructor for DeltaManifest
+	 *
+	 * @param long inputSize: size of the full file
+	 * @param long inputModified: modification time of the full file, in milliseconds
+	 * @param int keyColumn: zero-based index of the key column
+	 * @param int headerLength: bytes of the header in the output, terminator included, 0 if the full file was empty
+	 * @param ByteKeySet keys: keys the output was filtered with
+	 * @param List<Chunk> chunks: chunks of the full file after its header, in order
+	 */
+	DeltaManifest(long inputSize, long inputModified, int keyColumn, int headerLength, ByteKeySet keys, List<Chunk> chunks) {
+		this.inputSize = inputSize;
+		this.inputModified = inputModified;
+		this.keyColumn = keyColumn;
+		this.headerLength = headerLength;
+		this.keys = keys;
+		this.chunks = chunks;
+	}
+
+
+	/**
+	 * @param Path output: output of an incremental extraction
+	 * @return Path: path of the manifest of the output
+	 */
+	static Path manifestPath(Path output) {
+		return output.resolveSibling(output.getFileName() + ".delta");
+	}
+
+
+	/**
+	 * Writes the manifest of an output, once the output is complete, through a temporary file renamed over it.
+	 *
+	 * @param Path output: output the manifest describes
+	 * @throws IOException: throws exception if the manifest can't be written
+	 */
+	void write(Path output) throws IOException {
+		Path manifest = manifestPath(output);
+		Path temp = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(Files.size(output));
+			out.writeLong(Files.getLastModifiedTime(output).toMillis());
+			out.writeLong(inputSize);
+			out.writeLong(inputModified);
+			out.writeInt(keyColumn);
+			out.writeInt(headerLength);
+			out.writeInt(keys.size());
+			IOException[] failure = new IOException[1];
+			keys.forEach((buf, start, end) -> {
+				try {
+					out.writeInt(end - start);
+					out.write(buf, start, end - start);
+				} catch (IOException e) {
+					failure[0] = e;
+				}
+			});
+			if (failure[0] != null) {throw failure[0];}
+			out.writeInt(chunks.size());
+			for (Chunk chunk : chunks) {
+				out.writeInt(chunk.length);
+				out.writeInt(chunk.crc);
+				out.writeInt(chunk.outputLength);
+				out.writeInt(chunk.outputRows);
+				out.writeBoolean(chunk.truncated);
+				out.writeInt(chunk.filter.length);
+				for (long bits : chunk.filter) {out.writeLong(bits);}
+			}
+		}
+		Checkpoint.move(temp, manifest);
+	}
+
+
+	/**
+	 * Reads the manifest of an output.
+	 *
+	 * @param Path output: output of an incremental extraction
+	 * @return DeltaManifest: the manifest, or null if there is none or it no longer matches the output
+	 * @throws IOException: throws exception if the manifest exists but can't be read
+	 */
+	static DeltaManifest read(Path output) throws IOException {
+		Path manifest = manifestPath(output);
+		if (!Files.isRegularFile(output)) {return null;}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifest), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {return null;}
+			long outputSize = in.readLong();
+			if (outputSize != Files.size(output)) {return null;} //output changed since the manifest was written
+			if (in.readLong() != Files.getLastModifiedTime(output).toMillis()) {return null;}
+			long inputSize = in.readLong();
+			long inputModified = in.readLong();
+			int keyColumn = in.readInt();
+			int headerLength = in.readInt();
+			int keyCount = in.readInt();
+			ByteKeySet keys = new ByteKeySet(keyCount, 16L * keyCount);
+			byte[] key = new byte[64];
+			for (int i = 0; i < keyCount; i++) {
+				int length = in.readInt();
+				if (length > key.length) {key = new byte[length];}
+				in.readFully(key, 0, length);
+				keys.add(key, 0, length);
+			}
+			int chunkCount = in.readInt();
+			List<Chunk> chunks = new ArrayList<Chunk>(chunkCount);
+			long outputOffset = headerLength;
+			for (int i = 0; i < chunkCount; i++) {
+				int length = in.readInt();
+				int crc = in.readInt();
+				int chunkOutputLength = in.readInt();
+				int chunkOutputRows = in.readInt();
+				boolean truncated = in.readBoolean();
+				long[] filter = new long[in.readInt()];
+				for (int j = 0; j < filter.length; j++) {filter[j] = in.readLong();}
+				Chunk chunk = new Chunk(length, crc, filter, chunkOutputLength, chunkOutputRows, truncated);
+				chunk.outputOffset = outputOffset;
+				outputOffset += chunkOutputLength;
+				chunks.add(chunk);
+			}
+			if (outputOffset != outputSize) {return null;} //rows of the chunks don't add up to the output
+			return new DeltaManifest(inputSize, inputModified, keyColumn, headerLength, keys, chunks);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (EOFException e) { //incomplete file
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,33 @@
+/**
+ * The ExtractionListener interface is told about the passes of an extraction as they run. Passes run concurrently, each
+ * calling its listeners from its own thread, so implementations must be thread-safe. Calls are made from the scanning loop,
+ * so they should return quickly. Every method does nothing by default.
+ */
+public interface ExtractionListener {
+
+	/**
+	 * @param PassMetrics pass: metrics of a pass that just started
+	 */
+	default void passStarted(PassMetrics pass) {}
+
+
+	/**
+	 * Called every 65536 rows of a pass that scans its input row by row.
+	 *
+	 * @param PassMetrics pass: metrics of the pass so far
+	 */
+	default void progress(PassMetrics pass) {}
+
+
+	/**
+	 * @param PassMetrics pass: final metrics of a pass that just completed
+	 */
+	default void passFinished(PassMetrics pass) {}
+
+
+	/**
+	 * @param ExtractionMetrics metrics: metrics of a complete extraction
+	 */
+	default void extractionFinished(ExtractionMetrics metrics) {}
+
+}
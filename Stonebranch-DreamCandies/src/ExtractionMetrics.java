@@ -0,0 +1,100 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The ExtractionMetrics class gathers the metrics of the passes of an extraction, with the final sizes of the sample sets,
+ * and renders them as a JSON summary.
+ */
+public class ExtractionMetrics {
+
+	private final long start = System.nanoTime(); //time the extraction started
+	private long end = -1; //time the extraction finished, -1 while it runs
+	private final List<PassMetrics> passes = new ArrayList<PassMetrics>(); //passes in the order they started
+	private int sampleCustomers; //number of sample customers
+	private int sampleInvoices; //number of sample invoices
+
+
+	/**
+	 * @param PassMetrics pass: a pass that just started
+	 */
+	synchronized void add(PassMetrics pass) {
+		passes.add(pass);
+	}
+
+
+	/**
+	 * Ends the extraction.
+	 *
+	 * @param int sampleCustomers: final number of sample customers
+	 * @param int sampleInvoices: final number of sample invoices
+	 */
+	synchronized void finish(int sampleCustomers, int sampleInvoices) {
+		this.end = System.nanoTime();
+		this.sampleCustomers = sampleCustomers;
+		this.sampleInvoices = sampleInvoices;
+	}
+
+
+	/**
+	 * @return List<PassMetrics>: metrics of each pass, in the order the passes started
+	 */
+	public synchronized List<PassMetrics> getPasses() {
+		return Collections.unmodifiableList(new ArrayList<PassMetrics>(passes));
+	}
+
+
+	/**
+	 * @param String pass: name of a pass ("customer", "invoice" or "invoice_item")
+	 * @return PassMetrics: metrics of the pass, null if it didn't run
+	 */
+	public synchronized PassMetrics getPass(String pass) {
+		for (PassMetrics metrics : passes) {
+			if (metrics.getPass().equals(pass)) {return metrics;}
+		}
+		return null;
+	}
+
+
+	/**
+	 * @return int: final number of sample customers
+	 */
+	public synchronized int getSampleCustomers() {
+		return sampleCustomers;
+	}
+
+
+	/**
+	 * @return int: final number of sample invoices
+	 */
+	public synchronized int getSampleInvoices() {
+		return sampleInvoices;
+	}
+
+
+	/**
+	 * @return long: duration of the extraction (or time since it started, while it runs) in nanoseconds
+	 */
+	public synchronized long getElapsedNanos() {
+		return (end < 0 ? System.nanoTime() : end) - start;
+	}
+
+
+	/**
+	 * @return String: the metrics as a JSON object, with one object per pass
+	 */
+	public synchronized String toJson() {
+		StringBuilder json = new StringBuilder("{\"elapsedMillis\":");
+		json.append(String.format(Locale.ROOT, "%.3f", getElapsedNanos() / 1e6));
+		json.append(",\"sampleCustomers\":").append(sampleCustomers);
+		json.append(",\"sampleInvoices\":").append(sampleInvoices);
+		json.append(",\"passes\":[");
+		for (int i = 0; i < passes.size(); i++) {
+			if (i > 0) {json.append(',');}
+			json.append(passes.get(i).toJson());
+		}
+		return json.append("]}").toString();
+	}
+
+}
@@ -0,0 +1,534 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The ExtractionService class serves extractions of the same full extraction files to many clients at once, e.g. CI jobs
+ * asking for their own test files. A client POSTs a sample customer file to /extract and receives a zip holding
+ * customer_test.csv, invoice_test.csv and invoice_item_test.csv, streamed as the passes produce them.
+ *
+ * Every request is handled on its own thread, which runs the three passes one after the other and writes them straight to
+ * the response, so a request needs no other thread and no buffer beyond the scanner's. Requests run on virtual threads, so
+ * hundreds of requests don't need hundreds of platform threads: the service needs Java 21 or later at run time, although
+ * it is compiled for Java 8 like the rest of the tool (the virtual thread executor is looked up by reflection). On an older
+ * JVM, start() fails unless setPlatformThreads chose a fixed pool of platform threads, beyond which requests wait for
+ * their turn; the service never falls back to the pool on its own.
+ *
+ * Each request opens the full files on its own channel, read with positional reads through a ChannelInputStream. A FileChannel
+ * is closed when a thread reading it is interrupted (e.g. a request cut short by close()), so a channel shared by every
+ * request would fail all of them; opening a file costs little next to scanning it. Compressed full files are decompressed
+ * by each request from its own stream. The sample
+ * key sets of the most recently used samples are cached, keyed by a digest of the sample file, so CI jobs asking again for
+ * the same sample skip its parsing. Cached sets are shared read-only by the requests using them.
+ */
+public class ExtractionService implements Closeable {
+
+	public static final String PATH = "/extract"; //path requests are posted to
+	private static final int MAX_SAMPLE_BYTES = 64 << 20; //largest sample file accepted, 64MB
+	private static final Logger LOGGER = Logger.getLogger(ExtractionService.class.getName()); //failed requests are logged here
+
+	private final Path[] files; //full customer, invoice and invoice item extraction files
+	private final boolean[] compressed; //true for a full file that is compressed, so it is read through Compression
+	private final Map<String, ByteKeySet> sampleCache; //sample key sets by digest of their sample file, least recently used first
+	private int cacheSize = 64; //number of sample key sets kept
+	private final AtomicLong cacheHits = new AtomicLong(); //number of samples found in the cache
+	private final AtomicLong cacheMisses = new AtomicLong(); //number of samples parsed
+	private final AtomicLong failedRequests = new AtomicLong(); //number of requests answered with 500 or aborted
+	private int platformThreads; //size of the pool of platform threads handling requests, 0 for virtual threads
+	private int shutdownDelay = 30; //seconds requests in progress are given to complete on close()
+	private final Object requestLock = new Object(); //guards activeRequests and closing
+	private int activeRequests; //number of requests being handled
+	private boolean closing; //true once close() was called, new requests are then refused
+	private ExecutorService executor; //threads handling requests, null until started
+	private boolean virtualThreads; //true if requests are handled on virtual threads
+	private HttpServer server; //HTTP server, null until started
+
+
+	/**
+	 * Constructor for ExtractionService. Checks that the full extraction files can be read, and finds which are compressed.
+	 *
+	 * @param String customer: name of full extraction file containing all customer data
+	 * @param String invoice: name of full extraction file containing all invoice data
+	 * @param String invoiceItem: name of full extraction file containing all invoice item data
+	 * @throws IOException: throws exception if a file can't be read
+	 */
+	public ExtractionService(String customer, String invoice, String invoiceItem) throws IOException {
+		this.files = new Path[] {Paths.get(customer), Paths.get(invoice), Paths.get(invoiceItem)};
+		this.compressed = new boolean[files.length];
+		for (int i = 0; i < files.length; i++) {
+			compressed[i] = Compression.detect(files[i]) != Compression.NONE;
+		}
+		this.sampleCache = new LinkedHashMap<String, ByteKeySet>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ByteKeySet> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+
+	/**
+	 * @param int size: number of sample key sets kept in the cache (64 by default), 0 to disable it
+	 */
+	public void setCacheSize(int size) {
+		if (size < 0) {throw new IllegalArgumentException("cache size can't be negative");}
+		synchronized (sampleCache) {
+			this.cacheSize = size;
+			sampleCache.clear();
+		}
+	}
+
+
+	/**
+	 * Handles requests on a fixed pool of platform threads instead of virtual threads, e.g. on a JVM older than Java 21.
+	 *
+	 * @param int threads: number of platform threads handling requests (4 per core is a good start for I/O bound requests);
+	 * further requests wait for one of them
+	 */
+	public void setPlatformThreads(int threads) {
+		if (threads < 1) {throw new IllegalArgumentException("threads must be at least 1");}
+		this.platformThreads = threads;
+	}
+
+
+	/**
+	 * @param int seconds: time close() gives the requests in progress to complete (30 seconds by default), after which the
+	 * ones left are cut short
+	 */
+	public void setShutdownDelay(int seconds) {
+		if (seconds < 0) {throw new IllegalArgumentException("shutdown delay can't be negative");}
+		this.shutdownDelay = seconds;
+	}
+
+
+	/**
+	 * Starts serving requests over HTTP on the loopback interface.
+	 *
+	 * @param int port: port to listen on, 0 for any free port
+	 * @return int: port listened on
+	 * @throws IOException: throws exception if the port can't be bound
+	 * @throws IllegalStateException: throws exception if the service is already started, or if the JVM has no virtual threads
+	 * (before Java 21) and setPlatformThreads wasn't called
+	 */
+	public synchronized int start(int port) throws IOException {
+		if (server != null) {throw new IllegalStateException("service already started");}
+		executor = newRequestExecutor();
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext(PATH, this::handle);
+		server.setExecutor(executor);
+		server.start();
+		return server.getAddress().getPort();
+	}
+
+
+	/**
+	 * @return ExecutorService: the fixed pool set with setPlatformThreads, or an executor starting a virtual thread per task
+	 */
+	private ExecutorService newRequestExecutor() {
+		virtualThreads = platformThreads == 0;
+		if (!virtualThreads) {return Executors.newFixedThreadPool(platformThreads);}
+		try { //Executors.newVirtualThreadPerTaskExecutor() only exists from Java 21, and the code targets Java 8
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("ExtractionService needs Java 21 or later for virtual threads (running on Java "
+					+ System.getProperty("java.version") + "); call setPlatformThreads (--threads=N) to use platform threads", e);
+		}
+	}
+
+
+	/**
+	 * @return boolean: true if requests are handled on virtual threads, valid once started
+	 */
+	public synchronized boolean usesVirtualThreads() {
+		return virtualThreads;
+	}
+
+
+	/**
+	 * Handles a request: reads the posted sample and streams back the zip of its test files. The full files are opened before
+	 * the response starts, so that a file that can't be opened is answered with 500. Once the zip has started, its status
+	 * can't change: a failure aborts the response instead, closing the connection before the end of its chunked body, which
+	 * the client sees as a failed transfer rather than a complete response. Either way the failure is counted (see
+	 * getFailedRequests) and logged.
+	 *
+	 * @param HttpExchange exchange: request and response
+	 * @throws IOException: throws exception (the failure) to abort a response that has started
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		boolean refused;
+		synchronized (requestLock) {
+			refused = closing;
+			if (!refused) {activeRequests++;}
+		}
+		if (refused) {
+			try {
+				respond(exchange, 503, "service is shutting down");
+			} finally {
+				exchange.close();
+			}
+			return;
+		}
+		boolean started = false; //true once the response headers are sent
+		boolean aborted = false; //true if the response is cut short, which closing the exchange would end normally
+		try {
+			if (!exchange.getRequestMethod().equals("POST")) {
+				respond(exchange, 405, "POST a sample customer file to " + PATH);
+				return;
+			}
+			byte[] sample = readSample(exchange.getRequestBody());
+			if (sample == null) {
+				respond(exchange, 413, "sample file larger than " + MAX_SAMPLE_BYTES + " bytes");
+				return;
+			}
+			ByteKeySet keys = sampleKeys(sample);
+			InputStream[] inputs = openInputs();
+			exchange.getResponseHeaders().set("Content-Type", "application/zip");
+			exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"test_files.zip\"");
+			try {
+				exchange.sendResponseHeaders(200, 0); //length unknown, sent chunked
+				started = true;
+				extract(keys, inputs, exchange.getResponseBody()); //ends the chunked body only once the zip is complete
+			} finally {
+				closeAll(inputs);
+			}
+		} catch (IOException | RuntimeException e) {
+			failedRequests.incrementAndGet();
+			LOGGER.log(Level.WARNING, "extraction request failed" + (started ? ", response aborted" : ""), e);
+			if (started) { //the server closes the connection of a handler that throws, without ending the body
+				aborted = true;
+				throw e;
+			}
+			respond(exchange, 500, String.valueOf(e));
+		} finally {
+			if (!aborted) {exchange.close();}
+			synchronized (requestLock) {
+				activeRequests--;
+				requestLock.notifyAll();
+			}
+		}
+	}
+
+
+	/**
+	 * Sends a plain text response.
+	 */
+	private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+
+	/**
+	 * Extracts the test files of a sample, whatever thread calls it.
+	 *
+	 * @param InputStream sampleCustomers: stream for file containing sample set of customers
+	 * @param OutputStream out: stream the zip of the three test files is written to, closed once complete (on failure, it is
+	 * left open and the zip lacks its central directory, so it can't be mistaken for a complete one)
+	 * @throws IOException: throws exception if the sample is too large, a file can't be read or the zip can't be written
+	 */
+	public void extract(InputStream sampleCustomers, OutputStream out) throws IOException {
+		byte[] sample = readSample(sampleCustomers);
+		if (sample == null) {throw new IOException("sample file larger than " + MAX_SAMPLE_BYTES + " bytes");}
+		extract(sampleKeys(sample), out);
+	}
+
+
+	/**
+	 * Writes the zip of the test files of a set of sample customers, each pass writing its own entry.
+	 */
+	private void extract(ByteKeySet keys, OutputStream out) throws IOException {
+		InputStream[] inputs = openInputs();
+		try {
+			extract(keys, inputs, out);
+		} finally {
+			closeAll(inputs);
+		}
+	}
+
+
+	/**
+	 * Writes the zip of the test files of a set of sample customers from opened full files, each pass writing its own entry.
+	 */
+	private void extract(ByteKeySet keys, InputStream[] inputs, OutputStream out) throws IOException {
+		ZipOutputStream zip = new ZipOutputStream(out);
+		TestFileFilter filter = new TestFileFilter(keys, inputs[0], inputs[1], inputs[2]);
+		filter.extractSequentially(new EntryOutputStream(zip, BatchTestFileFilter.CUSTOMER_OUT),
+				new EntryOutputStream(zip, BatchTestFileFilter.INVOICE_OUT), new EntryOutputStream(zip, BatchTestFileFilter.INVOICE_ITEM_OUT));
+		zip.close(); //writes the central directory, only once every entry is complete
+	}
+
+
+	/**
+	 * @return InputStream[]: a stream over each full extraction file
+	 * @throws IOException: throws exception if a file can't be opened, once the ones already opened are closed
+	 */
+	private InputStream[] openInputs() throws IOException {
+		InputStream[] inputs = new InputStream[files.length];
+		try {
+			for (int i = 0; i < files.length; i++) {inputs[i] = open(i);}
+		} catch (IOException | RuntimeException e) {
+			closeAll(inputs);
+			throw e;
+		}
+		return inputs;
+	}
+
+
+	/**
+	 * Closes the streams over the full files. Passes close their own input, but not the ones a failure skipped.
+	 */
+	private static void closeAll(InputStream[] inputs) throws IOException {
+		for (InputStream input : inputs) {
+			if (input != null) {input.close();}
+		}
+	}
+
+
+	/**
+	 * @param int file: index of a full extraction file
+	 * @return InputStream: stream over a channel of the file owned by the stream, or a decompressing stream if it is compressed
+	 */
+	private InputStream open(int file) throws IOException {
+		if (compressed[file]) {return Compression.open(files[file]);}
+		return new ChannelInputStream(FileChannel.open(files[file], StandardOpenOption.READ), CsvScanner.DEFAULT_BUFFER_SIZE);
+	}
+
+
+	/**
+	 * @param InputStream in: stream for a sample file, closed once read
+	 * @return byte[]: content of the sample file, null if it is larger than MAX_SAMPLE_BYTES
+	 */
+	private static byte[] readSample(InputStream in) throws IOException {
+		try (InputStream sample = in) {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			byte[] buf = new byte[1 << 16];
+			int n;
+			while ((n = sample.read(buf)) > 0) {
+				content.write(buf, 0, n);
+				if (content.size() > MAX_SAMPLE_BYTES) {return null;}
+			}
+			return content.toByteArray();
+		}
+	}
+
+
+	/**
+	 * Finds the key set of a sample in the cache, or parses it and adds it to the cache. Two requests missing the same
+	 * sample at the same time both parse it, rather than one waiting for the other.
+	 *
+	 * @param byte[] sample: content of a sample file
+	 * @return ByteKeySet: set of the sample customer codes
+	 * @throws IOException: throws exception if the sample can't be parsed
+	 */
+	private ByteKeySet sampleKeys(byte[] sample) throws IOException {
+		String digest = digest(sample);
+		synchronized (sampleCache) {
+			ByteKeySet keys = sampleCache.get(digest);
+			if (keys != null) {
+				cacheHits.incrementAndGet();
+				return keys;
+			}
+		}
+		cacheMisses.incrementAndGet();
+		ByteKeySet keys = SampleLoader.load(new ByteArrayInputStream(sample), sample.length).keys();
+		synchronized (sampleCache) {
+			if (cacheSize > 0) {sampleCache.put(digest, keys);}
+		}
+		return keys;
+	}
+
+
+	/**
+	 * @return String: SHA-256 digest of a sample file, in hexadecimal
+	 */
+	private static String digest(byte[] sample) {
+		try {
+			StringBuilder hex = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(sample)) {hex.append(String.format("%02x", b));}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) { //every JVM has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	/**
+	 * @return long: number of requests whose sample key set was found in the cache
+	 */
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+
+
+	/**
+	 * @return long: number of requests whose sample was parsed
+	 */
+	public long getCacheMisses() {
+		return cacheMisses.get();
+	}
+
+
+	/**
+	 * @return long: number of requests that failed, answered with 500 or aborted once their zip had started
+	 */
+	public long getFailedRequests() {
+		return failedRequests.get();
+	}
+
+
+	/**
+	 * Stops the server. New requests are refused at once (503), and the requests in progress are given up to the shutdown
+	 * delay (see setShutdownDelay) to complete. Requests still running after the delay are cut short and interrupted, and
+	 * fail; close() returns once every request has ended.
+	 *
+	 * @throws IOException: declared by Closeable, not thrown
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownDelay);
+		boolean interrupted = false;
+		try {
+			synchronized (requestLock) { //HttpServer.stop(delay) would wait the whole delay on older JVMs, even once idle
+				closing = true;
+				long remaining;
+				while (activeRequests > 0 && (remaining = deadline - System.nanoTime()) > 0) {
+					TimeUnit.NANOSECONDS.timedWait(requestLock, remaining);
+				}
+			}
+			if (server != null) {
+				server.stop(0); //closes the connections of the requests still running, which then fail
+				server = null;
+			}
+			if (executor != null) {
+				executor.shutdown();
+				if (!executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+					executor.shutdownNow(); //an interrupted read closes the channels of its own request only
+					executor.awaitTermination(shutdownDelay, TimeUnit.SECONDS);
+				}
+				executor = null;
+			}
+		} catch (InterruptedException e) {
+			interrupted = true;
+		} finally {
+			if (interrupted) {Thread.currentThread().interrupt();}
+		}
+	}
+
+
+	/**
+	 * The EntryOutputStream class writes one entry of a zip. The entry starts when the stream is first written to or closed,
+	 * and ends when it is closed, which leaves the zip open for the next entry.
+	 */
+	private static class EntryOutputStream extends FilterOutputStream {
+
+		private final String name; //name of the entry
+		private boolean started; //true once the entry started
+
+
+		EntryOutputStream(ZipOutputStream zip, String name) {
+			super(zip);
+			this.name = name;
+		}
+
+
+		private void start() throws IOException {
+			if (!started) {
+				((ZipOutputStream) out).putNextEntry(new ZipEntry(name));
+				started = true;
+			}
+		}
+
+
+		@Override
+		public void write(int b) throws IOException {
+			start();
+			out.write(b);
+		}
+
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			start();
+			out.write(b, off, len);
+		}
+
+
+		@Override
+		public void close() throws IOException {
+			start();
+			((ZipOutputStream) out).closeEntry();
+		}
+
+	}
+
+
+	/**
+	 * Starts an extraction service.
+	 *
+	 * @param String[] args: file names of customers, invoices and invoice items ("customer.csv","invoice.csv","invoice_item.csv"),
+	 * optionally preceded by options:
+	 * --port=N to listen on port N of the loopback interface (8080 by default),
+	 * --cache=N to keep the key sets of the N most recently used samples (64 by default),
+	 * --threads=N to handle requests on N platform threads rather than on virtual threads, which need Java 21
+	 */
+	public static void main(String[] args) {
+		int first = 0; //index of first file name
+		int port = 8080;
+		int cacheSize = -1;
+		int threads = 0;
+		for (; first < args.length && args[first].startsWith("--"); first++) {
+			String[] option = args[first].substring(2).split("=", 2);
+			if (option[0].equals("port") && option.length == 2) {
+				port = Integer.parseInt(option[1]);
+			} else if (option[0].equals("cache") && option.length == 2) {
+				cacheSize = Integer.parseInt(option[1]);
+			} else if (option[0].equals("threads") && option.length == 2) {
+				threads = Integer.parseInt(option[1]);
+			} else {
+				throw new IllegalArgumentException("unknown option " + args[first]);
+			}
+		}
+		if (args.length - first != 3) {throw new IllegalArgumentException();}
+		try {
+			ExtractionService service = new ExtractionService(args[first], args[first+1], args[first+2]);
+			if (cacheSize >= 0) {service.setCacheSize(cacheSize);}
+			if (threads > 0) {service.setPlatformThreads(threads);}
+			port = service.start(port);
+			System.out.printf("Serving extractions on http://localhost:%d%s (%s threads)%n", port, PATH,
+					service.usesVirtualThreads() ? "virtual" : "platform");
+		} catch (IOException | IllegalStateException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+}
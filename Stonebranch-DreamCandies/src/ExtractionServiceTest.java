@@ -0,0 +1,312 @@
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Unit tests for ExtractionService Class: extractions served over HTTP
+ */
+public class ExtractionServiceTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+
+	private String write(String name, String content) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file.getPath();
+	}
+
+
+	/**
+	 * @return Map<String, String>: content of each entry of a zip
+	 */
+	private static Map<String, String> unzip(InputStream in) throws IOException {
+		Map<String, String> entries = new HashMap<String, String>();
+		try (ZipInputStream zip = new ZipInputStream(in)) {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				ByteArrayOutputStream content = new ByteArrayOutputStream();
+				byte[] buf = new byte[4096];
+				int n;
+				while ((n = zip.read(buf)) > 0) {content.write(buf, 0, n);}
+				entries.put(entry.getName(), new String(content.toByteArray(), StandardCharsets.UTF_8));
+			}
+		}
+		return entries;
+	}
+
+
+	/**
+	 * Posts a sample to the service.
+	 *
+	 * @return HttpURLConnection: connection whose response is pending
+	 */
+	private static HttpURLConnection post(int port, String sample) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + ExtractionService.PATH).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(sample.getBytes(StandardCharsets.UTF_8));
+		}
+		return connection;
+	}
+
+
+	/**
+	 * Test method for {@link ExtractionService#start(int)}.
+	 *
+	 * Tests 60 concurrent requests for 6 different samples of generated files.
+	 * Expected behavior is that each response is a zip of the three files TestFileFilter extracts for its sample, and that
+	 * every request either parsed its sample or found it in the cache.
+	 */
+	@Test
+	public void start_ConcurrentRequests_EachZipHoldsTheFilesOfItsSample() throws Exception {
+		StringBuilder customers = new StringBuilder("\"CUSTOMER_CODE\",\"NAME\"\n");
+		StringBuilder invoices = new StringBuilder("\"CUSTOMER_CODE\",\"INVOICE_CODE\"\n");
+		StringBuilder items = new StringBuilder("\"INVOICE_CODE\",\"ITEM_CODE\"\n");
+		for (int i = 0; i < 2000; i++) {
+			customers.append("\"C").append(i).append("\",\"N").append(i).append("\"\n");
+			invoices.append("\"C").append((i * 7) % 2000).append("\",\"I").append(i).append("\"\n");
+			items.append("\"I").append((i * 3) % 2000).append("\",\"X").append(i).append("\"\n");
+		}
+		String customer = write("customer.csv", customers.toString());
+		String invoice = write("invoice.csv", invoices.toString());
+		String invoiceItem = write("invoice_item.csv", items.toString());
+		List<String> samples = new ArrayList<String>();
+		List<Map<String, String>> expected = new ArrayList<Map<String, String>>();
+		for (int s = 0; s < 6; s++) {
+			StringBuilder sample = new StringBuilder("\"CUSTOMER_CODE\"\n");
+			for (int i = s; i < 2000; i += 10 + s) {sample.append("\"C").append(i).append("\"\n");}
+			samples.add(sample.toString());
+			File directory = folder.newFolder("expected" + s);
+			new TestFileFilter(write("sample" + s + ".csv", sample.toString()), customer, invoice, invoiceItem).extractTestFiles(
+					new File(directory, BatchTestFileFilter.CUSTOMER_OUT).getPath(), new File(directory, BatchTestFileFilter.INVOICE_OUT).getPath(),
+					new File(directory, BatchTestFileFilter.INVOICE_ITEM_OUT).getPath());
+			Map<String, String> files = new HashMap<String, String>();
+			for (String name : directory.list()) {
+				files.put(name, new String(Files.readAllBytes(new File(directory, name).toPath()), StandardCharsets.UTF_8));
+			}
+			expected.add(files);
+		}
+
+		ExecutorService clients = Executors.newFixedThreadPool(20);
+		try (ExtractionService service = new ExtractionService(customer, invoice, invoiceItem)) {
+			service.setPlatformThreads(8);
+			int port = service.start(0);
+			List<Future<Map<String, String>>> responses = new ArrayList<Future<Map<String, String>>>();
+			for (int r = 0; r < 60; r++) {
+				String sample = samples.get(r % 6);
+				responses.add(clients.submit(() -> {
+					HttpURLConnection connection = post(port, sample);
+					assertEquals(200, connection.getResponseCode());
+					try (InputStream in = connection.getInputStream()) {
+						return unzip(in);
+					}
+				}));
+			}
+			for (int r = 0; r < 60; r++) {
+				assertEquals("request " + r, expected.get(r % 6), responses.get(r).get());
+			}
+			assertEquals(60, service.getCacheHits() + service.getCacheMisses());
+			assertTrue(service.getCacheHits() > 0);
+		} finally {
+			clients.shutdown();
+		}
+	}
+
+
+	/**
+	 * Test method for {@link ExtractionService#start(int)}.
+	 *
+	 * Tests a GET request, which carries no sample.
+	 * Expected behavior is that the service answers 405 (method not allowed).
+	 */
+	@Test
+	public void start_GetRequest_MethodNotAllowed() throws IOException {
+		String customer = write("customer.csv", "\"CUSTOMER_CODE\"\n");
+		String invoice = write("invoice.csv", "\"CUSTOMER_CODE\",\"INVOICE_CODE\"\n");
+		String invoiceItem = write("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\"\n");
+		try (ExtractionService service = new ExtractionService(customer, invoice, invoiceItem)) {
+			service.setPlatformThreads(2);
+			int port = service.start(0);
+			HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + ExtractionService.PATH).openConnection();
+			assertEquals(405, connection.getResponseCode());
+		}
+	}
+
+
+	/**
+	 * Test method for {@link ExtractionService#start(int)}.
+	 *
+	 * Tests starting the service without choosing platform threads.
+	 * Expected behavior is that requests run on virtual threads on Java 21 and later, and that start() fails on older JVMs
+	 * rather than falling back to platform threads.
+	 */
+	@Test
+	public void start_NoPlatformThreads_VirtualThreadsOrFailure() throws IOException {
+		String customer = write("customer.csv", "\"CUSTOMER_CODE\"\n");
+		String invoice = write("invoice.csv", "\"CUSTOMER_CODE\",\"INVOICE_CODE\"\n");
+		String invoiceItem = write("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\"\n");
+		boolean virtual;
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			virtual = true;
+		} catch (NoSuchMethodException e) {
+			virtual = false;
+		}
+		try (ExtractionService service = new ExtractionService(customer, invoice, invoiceItem)) {
+			try {
+				service.start(0);
+				assertTrue(virtual);
+				assertTrue(service.usesVirtualThreads());
+			} catch (IllegalStateException e) {
+				assertFalse(virtual);
+				assertTrue(e.getMessage().contains("Java 21"));
+			}
+		}
+	}
+
+
+	/**
+	 * Test method for {@link ExtractionService#start(int)}.
+	 *
+	 * Tests a request whose invoice file turns out to be corrupt (a truncated gzip stream) once the customer entry of its zip
+	 * has been sent.
+	 * Expected behavior is that the response is aborted, so the client fails to read it rather than getting a truncated zip
+	 * that ends normally, and that the failure is counted.
+	 */
+	@Test
+	public void start_FileFailsAfterResponseStarted_ResponseAborted() throws IOException {
+		String customer = write("customer.csv", "\"CUSTOMER_CODE\"\n\"C1\"\n");
+		StringBuilder invoices = new StringBuilder("\"CUSTOMER_CODE\",\"INVOICE_CODE\"\n");
+		for (int i = 0; i < 100000; i++) {invoices.append("\"C").append(i).append("\",\"I").append(i).append("\"\n");}
+		ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+		try (OutputStream out = new GZIPOutputStream(gzip)) {
+			out.write(invoices.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		File invoice = new File(folder.getRoot(), "invoice.csv.gz");
+		Files.write(invoice.toPath(), Arrays.copyOf(gzip.toByteArray(), gzip.size() / 2));
+		String invoiceItem = write("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\"\n");
+		try (ExtractionService service = new ExtractionService(customer, invoice.getPath(), invoiceItem)) {
+			service.setPlatformThreads(2);
+			int port = service.start(0);
+			HttpURLConnection connection = post(port, "\"CUSTOMER_CODE\"\n\"C1\"\n");
+			assertEquals(200, connection.getResponseCode());
+			try (InputStream in = connection.getInputStream()) {
+				byte[] buf = new byte[4096];
+				while (in.read(buf) >= 0) {}
+				fail("an aborted response should fail to read");
+			} catch (IOException e) {
+				//expected
+			}
+			assertEquals(1, service.getFailedRequests());
+		}
+	}
+
+
+	/**
+	 * Test method for {@link ExtractionService#extract(InputStream, OutputStream)}.
+	 *
+	 * Tests an extraction on an interrupted thread, whose first read of a full file closes the channel it reads, followed by
+	 * another extraction.
+	 * Expected behavior is that the interrupted extraction fails, and that the next one still reads the full files.
+	 */
+	@Test
+	public void extract_AfterInterruptedExtraction_FilesStillReadable() throws IOException {
+		String customer = write("customer.csv", "\"CUSTOMER_CODE\",\"NAME\"\n\"C1\",\"N1\"\n\"C2\",\"N2\"\n");
+		String invoice = write("invoice.csv", "\"CUSTOMER_CODE\",\"INVOICE_CODE\"\n\"C1\",\"I1\"\n\"C2\",\"I2\"\n");
+		String invoiceItem = write("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\"\n\"I1\",\"X1\"\n\"I2\",\"X2\"\n");
+		byte[] sample = "\"CUSTOMER_CODE\"\n\"C1\"\n".getBytes(StandardCharsets.UTF_8);
+		try (ExtractionService service = new ExtractionService(customer, invoice, invoiceItem)) {
+			Thread.currentThread().interrupt();
+			try {
+				service.extract(new ByteArrayInputStream(sample), new ByteArrayOutputStream());
+				fail("an interrupted extraction should fail");
+			} catch (IOException e) {
+				//expected, the read was interrupted
+			} finally {
+				Thread.interrupted();
+			}
+
+			ByteArrayOutputStream zip = new ByteArrayOutputStream();
+			service.extract(new ByteArrayInputStream(sample), zip);
+			Map<String, String> files = unzip(new ByteArrayInputStream(zip.toByteArray()));
+			assertEquals("\"CUSTOMER_CODE\",\"NAME\"\n\"C1\",\"N1\"\n", files.get(BatchTestFileFilter.CUSTOMER_OUT));
+			assertEquals("\"INVOICE_CODE\",\"ITEM_CODE\"\n\"I1\",\"X1\"\n", files.get(BatchTestFileFilter.INVOICE_ITEM_OUT));
+		}
+	}
+
+
+	/**
+	 * Test method for {@link ExtractionService#close()}.
+	 *
+	 * Tests closing the service while a request is in progress: the client has sent half of its sample when close() is called.
+	 * Expected behavior is that close() waits for the request, which completes with the zip of its test files, and returns
+	 * once it is done.
+	 */
+	@Test
+	public void close_RequestInProgress_RequestCompletesBeforeClose() throws Exception {
+		String customer = write("customer.csv", "\"CUSTOMER_CODE\",\"NAME\"\n\"C1\",\"N1\"\n\"C2\",\"N2\"\n");
+		String invoice = write("invoice.csv", "\"CUSTOMER_CODE\",\"INVOICE_CODE\"\n\"C1\",\"I1\"\n\"C2\",\"I2\"\n");
+		String invoiceItem = write("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\"\n\"I1\",\"X1\"\n\"I2\",\"X2\"\n");
+		ExtractionService service = new ExtractionService(customer, invoice, invoiceItem);
+		service.setPlatformThreads(2);
+		int port = service.start(0);
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + ExtractionService.PATH).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setChunkedStreamingMode(16);
+		OutputStream sample = connection.getOutputStream();
+		sample.write("\"CUSTOMER_CODE\"\n".getBytes(StandardCharsets.UTF_8));
+		sample.flush();
+		Thread.sleep(200); //the request is being handled, waiting for the rest of its sample
+
+		ExecutorService closer = Executors.newSingleThreadExecutor();
+		try {
+			Future<?> closed = closer.submit(() -> {
+				service.close();
+				return null;
+			});
+			Thread.sleep(200);
+			assertFalse(closed.isDone());
+			sample.write("\"C2\"\n".getBytes(StandardCharsets.UTF_8));
+			sample.close();
+			assertEquals(200, connection.getResponseCode());
+			Map<String, String> files;
+			try (InputStream in = connection.getInputStream()) {
+				files = unzip(in);
+			}
+			assertEquals("\"CUSTOMER_CODE\",\"NAME\"\n\"C2\",\"N2\"\n", files.get(BatchTestFileFilter.CUSTOMER_OUT));
+			assertEquals("\"CUSTOMER_CODE\",\"INVOICE_CODE\"\n\"C2\",\"I2\"\n", files.get(BatchTestFileFilter.INVOICE_OUT));
+			assertEquals("\"INVOICE_CODE\",\"ITEM_CODE\"\n\"I2\",\"X2\"\n", files.get(BatchTestFileFilter.INVOICE_ITEM_OUT));
+			closed.get(10, java.util.concurrent.TimeUnit.SECONDS);
+		} finally {
+			closer.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,211 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The IoConfig class holds the I/O settings of an extraction: the size of the buffers full files are read with and outputs
+ * are written with, whether those buffers are direct ByteBuffers, and how much of a full file is read ahead of its pass on a
+ * background thread. Each stream is buffered once: a full file is read straight into the buffer of its CsvScanner, and an
+ * output is buffered by its RangeWriter or BufferedOutputStream only.
+ *
+ * Java has no portable posix_fadvise, so the sequential hint is given the way the JDK allows: a pass over an uncompressed file
+ * reads it ahead on a background thread, up to the read ahead limit, as the invoice item pass always does while it waits for
+ * the invoice pass. Compressed files are already decompressed ahead of their pass (see Compression).
+ *
+ * autoTune probes the storage of the full files: it reads a slice of the largest one with each candidate buffer size, each
+ * slice at a different offset so that no probe reads what an earlier one cached, and keeps the smallest size whose throughput
+ * is within 10% of the best. Buffers that outgrow the processor caches slow the scan down, so a larger buffer has to earn its
+ * place, which it does on network storage where each read has a high latency.
+ */
+public class IoConfig {
+
+	public static final IoConfig DEFAULT = new IoConfig(1 << 16, 1 << 16, false, 64L << 20, false);
+	static final int READ_AHEAD_BLOCK_SIZE = 1 << 20; //1MB blocks of a full file read ahead of its pass
+	private static final int[] PROBE_BUFFER_SIZES = {1 << 16, 1 << 18, 1 << 20, 1 << 22}; //buffer sizes tried by autoTune
+	private static final long PROBE_BYTES = 16L << 20; //bytes read with each buffer size tried
+	private static final double PROBE_TOLERANCE = 0.9; //a smaller buffer is kept if it reaches 90% of the best throughput
+
+	private final int readBufferSize; //bytes read from a full file at a time
+	private final int writeBufferSize; //bytes buffered before they are written to an output
+	private final boolean directBuffers; //true to read full files and write outputs through direct ByteBuffers
+	private final long readAhead; //bytes of a full file read ahead of its pass, 0 for none
+	private final boolean sequentialHint; //true to read every uncompressed full file ahead, not only the invoice item file
+
+
+	/**
+	 * Constructor for IoConfig
+	 *
+	 * @param int readBufferSize: bytes read from a full file at a time (64K by default)
+	 * @param int writeBufferSize: bytes buffered before they are written to an output (64K by default)
+	 * @param boolean directBuffers: true to read full files and write outputs through direct ByteBuffers (false by default)
+	 * @param long readAhead: bytes of a full file read ahead of its pass on a background thread, 0 for none (64MB by default)
+	 * @param boolean sequentialHint: true to read every uncompressed full file ahead, false (the default) for the invoice item file only
+	 */
+	public IoConfig(int readBufferSize, int writeBufferSize, boolean directBuffers, long readAhead, boolean sequentialHint) {
+		if (readBufferSize < 1 || writeBufferSize < 1) {throw new IllegalArgumentException("buffer sizes must be at least 1 byte");}
+		if (readAhead < 0) {throw new IllegalArgumentException("read ahead can't be negative");}
+		this.readBufferSize = readBufferSize;
+		this.writeBufferSize = writeBufferSize;
+		this.directBuffers = directBuffers;
+		this.readAhead = readAhead;
+		this.sequentialHint = sequentialHint;
+	}
+
+
+	/**
+	 * Probes the read throughput of the storage of some full extraction files, and picks the buffer size to read them and write
+	 * the outputs with. The probe reads 16MB with each of 64K, 256K, 1M and 4M buffers, from the largest uncompressed file,
+	 * which must be at least 64MB; otherwise the settings are returned unchanged.
+	 *
+	 * @param IoConfig base: settings whose buffer sizes are tuned, the others are kept
+	 * @param Path[] files: full extraction files
+	 * @return IoConfig: base with the buffer sizes picked by the probe
+	 * @throws IOException: throws exception if a file can't be read
+	 */
+	public static IoConfig autoTune(IoConfig base, Path... files) throws IOException {
+		Path largest = null;
+		for (Path file : files) {
+			if (Compression.detect(file) == Compression.NONE && (largest == null || Files.size(file) > Files.size(largest))) {
+				largest = file;
+			}
+		}
+		int slices = PROBE_BUFFER_SIZES.length;
+		if (largest == null || Files.size(largest) < slices * PROBE_BYTES) {return base;}
+
+		double[] throughput = new double[slices]; //bytes per nanosecond with each buffer size
+		try (FileChannel channel = FileChannel.open(largest, StandardOpenOption.READ)) {
+			long stride = channel.size() / slices; //slices are spread over the file, none is next to another
+			probe(channel, 0, PROBE_BUFFER_SIZES[0], 1 << 20, base.directBuffers); //warm up the read path
+			for (int i = 0; i < slices; i++) {
+				long start = System.nanoTime();
+				probe(channel, i * stride + stride / 2, PROBE_BUFFER_SIZES[i], PROBE_BYTES, base.directBuffers);
+				throughput[i] = (double) PROBE_BYTES / Math.max(1, System.nanoTime() - start);
+			}
+		}
+		double best = 0;
+		for (double t : throughput) {best = Math.max(best, t);}
+		int size = PROBE_BUFFER_SIZES[slices - 1];
+		for (int i = slices - 1; i >= 0; i--) {
+			if (throughput[i] >= best * PROBE_TOLERANCE) {size = PROBE_BUFFER_SIZES[i];}
+		}
+		return new IoConfig(size, size, base.directBuffers, base.readAhead, base.sequentialHint);
+	}
+
+
+	/**
+	 * Reads a slice of a file with a given buffer size.
+	 */
+	private static void probe(FileChannel channel, long position, int bufferSize, long length, boolean direct) throws IOException {
+		ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+		long end = Math.min(channel.size(), position + length);
+		while (position < end) {
+			buffer.clear();
+			int n = channel.read(buffer, position);
+			if (n < 0) {break;}
+			position += n;
+		}
+	}
+
+
+	/**
+	 * Opens a full extraction file for a pass scanning it from its start.
+	 *
+	 * @param Path file: full extraction file, possibly compressed
+	 * @param boolean waits: true if the pass waits for another pass before it reads, so the file is read ahead in any case
+	 * @return InputStream: stream of the (decompressed) bytes of the file
+	 * @throws IOException: throws exception if the file can't be opened
+	 */
+	InputStream open(Path file, boolean waits) throws IOException {
+		if (Compression.detect(file) != Compression.NONE) { //decompressed ahead of the pass already
+			InputStream in = Compression.open(file);
+			return waits ? readAhead(in) : in;
+		}
+		InputStream in = directBuffers
+				? new ChannelInputStream(FileChannel.open(file, StandardOpenOption.READ), readBufferSize)
+				: Files.newInputStream(file);
+		return (waits || sequentialHint) ? readAhead(in) : in;
+	}
+
+
+	/**
+	 * @param InputStream in: stream of a full extraction file
+	 * @return InputStream: in read ahead on a background thread, up to the read ahead limit, or in itself if there is none
+	 */
+	InputStream readAhead(InputStream in) {
+		int blocks = (int) Math.min(Integer.MAX_VALUE, readAhead / READ_AHEAD_BLOCK_SIZE);
+		return blocks == 0 ? in : new ReadAheadInputStream(in, READ_AHEAD_BLOCK_SIZE, blocks);
+	}
+
+
+	/**
+	 * @param OutputStream out: output of a pass
+	 * @return OutputStream: out buffered with the write buffer size
+	 */
+	OutputStream buffered(OutputStream out) {
+		return new BufferedOutputStream(out, writeBufferSize);
+	}
+
+
+	/**
+	 * @param FileChannel source: channel of the full extraction file the rows are read from, closed with the writer
+	 * @param OutputStream out: output of a pass, closed with the writer
+	 * @return RangeWriter: writer of the rows of source to out, buffered with the write buffer size
+	 */
+	RangeWriter rangeWriter(FileChannel source, OutputStream out) {
+		return new RangeWriter(source, out, directBuffers ? ByteBuffer.allocateDirect(writeBufferSize) : ByteBuffer.allocate(writeBufferSize));
+	}
+
+
+	/**
+	 * @return int: bytes read from a full file at a time
+	 */
+	public int getReadBufferSize() {
+		return readBufferSize;
+	}
+
+
+	/**
+	 * @return int: bytes buffered before they are written to an output
+	 */
+	public int getWriteBufferSize() {
+		return writeBufferSize;
+	}
+
+
+	/**
+	 * @return boolean: true if full files are read and outputs written through direct ByteBuffers
+	 */
+	public boolean isDirectBuffers() {
+		return directBuffers;
+	}
+
+
+	/**
+	 * @return long: bytes of a full file read ahead of its pass, 0 for none
+	 */
+	public long getReadAhead() {
+		return readAhead;
+	}
+
+
+	/**
+	 * @return boolean: true if every uncompressed full file is read ahead, not only the invoice item file
+	 */
+	public boolean isSequentialHint() {
+		return sequentialHint;
+	}
+
+
+	@Override
+	public String toString() {
+		return "read buffer " + readBufferSize + ", write buffer " + writeBufferSize + (directBuffers ? ", direct buffers" : "")
+				+ ", read ahead " + readAhead + (sequentialHint ? " for every file" : " for the invoice item file");
+	}
+
+}
@@ -0,0 +1,60 @@
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Unit tests for IoConfig Class: auto-tuning of the buffer sizes
+ */
+public class IoConfigTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+
+	/**
+	 * Test method for {@link IoConfig#autoTune(IoConfig, java.nio.file.Path...)}.
+	 *
+	 * Tests autoTune with full files too small to probe.
+	 * Expected behavior is that the settings are returned unchanged.
+	 */
+	@Test
+	public void autoTune_SmallFiles_SettingsUnchanged() throws IOException {
+		File file = folder.newFile();
+		Files.write(file.toPath(), "\"CUSTOMER_CODE\"\n\"CUST0000010231\"\n".getBytes(StandardCharsets.UTF_8));
+		IoConfig base = new IoConfig(1000, 2000, true, 0, true);
+
+		assertSame(base, IoConfig.autoTune(base, file.toPath(), file.toPath()));
+	}
+
+
+	/**
+	 * Test method for {@link IoConfig#autoTune(IoConfig, java.nio.file.Path...)}.
+	 *
+	 * Tests autoTune with a full file large enough to probe.
+	 * Expected behavior is that both buffer sizes are set to one of the sizes probed, and the other settings are kept.
+	 */
+	@Test
+	public void autoTune_LargeFile_BufferSizePicked() throws IOException {
+		File small = folder.newFile();
+		File large = folder.newFile();
+		try (RandomAccessFile out = new RandomAccessFile(large, "rw")) {
+			out.setLength(64L << 20);
+		}
+		IoConfig tuned = IoConfig.autoTune(new IoConfig(1000, 2000, false, 123, true), small.toPath(), large.toPath());
+
+		assertTrue(Arrays.asList(1 << 16, 1 << 18, 1 << 20, 1 << 22).contains(tuned.getReadBufferSize()));
+		assertEquals(tuned.getReadBufferSize(), tuned.getWriteBufferSize());
+		assertFalse(tuned.isDirectBuffers());
+		assertEquals(123, tuned.getReadAhead());
+		assertTrue(tuned.isSequentialHint());
+	}
+
+}
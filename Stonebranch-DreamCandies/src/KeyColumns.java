@@ -0,0 +1,295 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The KeyColumns class is a columnar copy of one key column of a full extraction file. Each distinct key is stored once, in a
+ * sorted dictionary of fixed width entries, and each data row is reduced to the int code of its key (its position in the
+ * dictionary) and the byte offset of the row, both in file order. The columns are stored next to the file (as
+ * "<file>.<column>.keys") together with the size and modification time of the file, and are ignored once either of them changes.
+ *
+ * A lookup turns the set of keys into a bitset of dictionary codes, with a binary search of the dictionary per key, and then
+ * scans the codes of all rows against the bitset. The scan only reads 4 bytes per row, whatever the width of the keys and
+ * rows (30 million rows take about 200ms), and the offsets of the matching rows come out in file order without sorting.
+ * Where a KeyIndex costs a binary search per key, the scan costs the same for any number of keys, which suits large key sets
+ * such as the sample invoices.
+ *
+ * File layout: a 40 byte header (magic, version, file size, file modification time, key column, key width, dictionary size,
+ * row count), followed by the dictionary, each entry made of the key length (2 bytes) and the key padded to the key width,
+ * then the code of each row (4 bytes), then the offset of each row (8 bytes). A single mapping can't exceed 2GB, which the
+ * offsets of more than 268 million rows do, so each part is mapped in segments (see KeyIndex.map).
+ */
+class KeyColumns implements RowLookup {
+
+	private static final int MAGIC = 0x44434b43; //"DCKC"
+	private static final int VERSION = 2; //keys stored without their quotes since version 2
+	private static final int HEADER_SIZE = 40;
+	private static final int CHUNK_SIZE = 1 << 14; //codes copied from the mapped file at a time
+
+	private final MappedByteBuffer[] dictionary; //mapped dictionary entries, segmentEntries per segment
+	private final IntBuffer[] codes; //mapped code of each row, in segments
+	private final LongBuffer[] offsets; //mapped offset of each row, in segments of the same rows as codes
+	private final int segmentEntries; //number of dictionary entries of each segment but the last
+	private final int entrySize; //number of bytes of each dictionary entry
+	private final int dictionarySize; //number of distinct keys
+	private final int rows; //number of rows
+
+
+	private KeyColumns(MappedByteBuffer[] dictionary, int segmentEntries, MappedByteBuffer[] codes, MappedByteBuffer[] offsets,
+			int keyWidth, int dictionarySize, int rows) {
+		this.dictionary = dictionary;
+		this.codes = new IntBuffer[codes.length];
+		for (int i = 0; i < codes.length; i++) {this.codes[i] = codes[i].asIntBuffer();}
+		this.offsets = new LongBuffer[offsets.length];
+		for (int i = 0; i < offsets.length; i++) {this.offsets[i] = offsets[i].asLongBuffer();}
+		this.segmentEntries = segmentEntries;
+		this.entrySize = 2 + keyWidth;
+		this.dictionarySize = dictionarySize;
+		this.rows = rows;
+	}
+
+
+	/**
+	 * @param Path file: full extraction file
+	 * @param int column: zero-based index of the key column
+	 * @return Path: path of the key columns of that column of the file
+	 */
+	static Path columnsPath(Path file, int column) {
+		return file.resolveSibling(file.getFileName() + "." + column + ".keys");
+	}
+
+
+	/**
+	 * Scans a full extraction file and writes the columns of one of its key columns next to it. The header row is not included.
+	 *
+	 * @param Path file: full extraction file
+	 * @param int column: zero-based index of the key column
+	 * @throws IOException: throws exception if the file can't be read or the columns can't be written
+	 */
+	static void build(Path file, int column) throws IOException {
+		long size = Files.size(file);
+		long modified = Files.getLastModifiedTime(file).toMillis();
+
+		//collect the offset of every row and the distinct keys, numbered in order of first appearance
+		ByteKeySet seen = new ByteKeySet();
+		int[] seenOffsets = new int[1024]; //offset in seen of each distinct key, increasing with its number
+		byte[] keys = new byte[1 << 16];
+		int keysLength = 0;
+		int[] keyStarts = new int[1024];
+		int distinct = 0;
+		int[] codes = new int[1024];
+		long[] offsets = new long[1024];
+		int rows = 0;
+		int keyWidth = 0;
+		try (InputStream in = Files.newInputStream(file); CsvScanner scanner = new CsvScanner(in)) {
+			scanner.nextLine(); //skip file header
+			while (scanner.nextLine()) {
+				if (!scanner.field(column)) {continue;} //row has no key
+				byte[] buf = scanner.buffer();
+				int start = scanner.fieldStart();
+				int end = scanner.fieldEnd();
+				if (end - start > Short.MAX_VALUE) {throw new IOException("key of row at offset " + scanner.lineOffset() + " is too long to store");}
+				if (rows == codes.length) {
+					codes = Arrays.copyOf(codes, rows * 2);
+					offsets = Arrays.copyOf(offsets, rows * 2);
+				}
+				int seenOffset = seen.find(buf, start, end);
+				if (seenOffset < 0) { //first row of this key
+					seen.add(buf, start, end);
+					if (distinct + 1 >= keyStarts.length) {
+						keyStarts = Arrays.copyOf(keyStarts, keyStarts.length * 2);
+						seenOffsets = Arrays.copyOf(seenOffsets, seenOffsets.length * 2);
+					}
+					int length = end - start;
+					if (keysLength + length > keys.length) {keys = Arrays.copyOf(keys, Math.max(keys.length * 2, keysLength + length));}
+					System.arraycopy(buf, start, keys, keysLength, length);
+					keyStarts[distinct] = keysLength;
+					seenOffsets[distinct] = seen.find(buf, start, end);
+					keysLength += length;
+					keyWidth = Math.max(keyWidth, length);
+					codes[rows] = distinct++;
+				} else {
+					codes[rows] = Arrays.binarySearch(seenOffsets, 0, distinct, seenOffset);
+				}
+				offsets[rows] = scanner.lineOffset();
+				rows++;
+			}
+		}
+		keyStarts[distinct] = keysLength;
+
+		//sort the distinct keys, and renumber each row with the position of its key in the sorted dictionary
+		int[] order = new int[distinct];
+		for (int i = 0; i < distinct; i++) {order[i] = i;}
+		KeyIndex.sort(order, 0, distinct - 1, keys, keyStarts);
+		int[] rank = new int[distinct];
+		for (int i = 0; i < distinct; i++) {rank[order[i]] = i;}
+		for (int row = 0; row < rows; row++) {codes[row] = rank[codes[row]];}
+
+		//write the columns to a temporary file and move them into place
+		Path columns = columnsPath(file, column);
+		Path temp = columns.resolveSibling(columns.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(size);
+			out.writeLong(modified);
+			out.writeInt(column);
+			out.writeInt(keyWidth);
+			out.writeInt(distinct);
+			out.writeInt(rows);
+			byte[] padding = new byte[keyWidth];
+			for (int code = 0; code < distinct; code++) {
+				int key = order[code];
+				int length = keyStarts[key + 1] - keyStarts[key];
+				out.writeShort(length);
+				out.write(keys, keyStarts[key], length);
+				out.write(padding, 0, keyWidth - length);
+			}
+			for (int row = 0; row < rows; row++) {out.writeInt(codes[row]);}
+			for (int row = 0; row < rows; row++) {out.writeLong(offsets[row]);}
+		}
+		Files.move(temp, columns, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+	/**
+	 * Opens the key columns of a column of a full extraction file.
+	 *
+	 * @param Path file: full extraction file
+	 * @param int column: zero-based index of the key column
+	 * @return KeyColumns: the columns, or null if there are none or they no longer match the file
+	 * @throws IOException: throws exception if the columns exist but can't be read
+	 */
+	static KeyColumns open(Path file, int column) throws IOException {
+		return open(file, column, Integer.MAX_VALUE);
+	}
+
+
+	/**
+	 * Opens the key columns of a column of a full extraction file, mapping each part in segments of at most a given size.
+	 *
+	 * @param Path file: full extraction file
+	 * @param int column: zero-based index of the key column
+	 * @param int segmentSize: maximum number of bytes of each mapped segment
+	 * @return KeyColumns: the columns, or null if there are none or they no longer match the file
+	 * @throws IOException: throws exception if the columns exist but can't be read
+	 */
+	static KeyColumns open(Path file, int column, int segmentSize) throws IOException {
+		Path columns = columnsPath(file, column);
+		if (!Files.isRegularFile(columns)) {return null;}
+		try (FileChannel channel = FileChannel.open(columns, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE) {return null;}
+			try (DataInputStream in = new DataInputStream(Files.newInputStream(columns))) {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) {return null;}
+				if (in.readLong() != Files.size(file)) {return null;} //file changed since the columns were built
+				if (in.readLong() != Files.getLastModifiedTime(file).toMillis()) {return null;}
+				if (in.readInt() != column) {return null;}
+				int keyWidth = in.readInt();
+				int dictionarySize = in.readInt();
+				int rows = in.readInt();
+				int entrySize = 2 + keyWidth;
+				long dictionaryLength = (long) dictionarySize * entrySize;
+				long offsetsStart = HEADER_SIZE + dictionaryLength + 4L * rows;
+				if (channel.size() != offsetsStart + 8L * rows) {return null;}
+				int segmentEntries = Math.max(1, segmentSize / entrySize);
+				int segmentRows = Math.max(1, segmentSize / 8); //codes and offsets are split at the same rows
+				return new KeyColumns(KeyIndex.map(channel, HEADER_SIZE, dictionarySize, entrySize, segmentEntries), segmentEntries,
+						KeyIndex.map(channel, HEADER_SIZE + dictionaryLength, rows, 4, segmentRows),
+						KeyIndex.map(channel, offsetsStart, rows, 8, segmentRows),
+						keyWidth, dictionarySize, rows);
+			}
+		}
+	}
+
+
+	/**
+	 * Finds the offsets of all rows whose key is in a set of keys. Lookups only read the mapped columns, so several threads
+	 * can look up keys at once.
+	 *
+	 * @param ByteKeySet keys: set of keys to look up
+	 * @return long[]: offsets of the matching rows, in increasing order
+	 */
+	@Override
+	public long[] lookup(ByteKeySet keys) {
+		long[] selected = new long[(dictionarySize + 63) >>> 6]; //bit of the code of every key of the set
+		boolean[] any = new boolean[1];
+		keys.forEach((buf, start, end) -> {
+			int code = code(buf, start, end);
+			if (code >= 0) {
+				selected[code >>> 6] |= 1L << code;
+				any[0] = true;
+			}
+		});
+		if (!any[0]) {return new long[0];} //no key of the set is in the file
+
+		long[] matches = new long[64];
+		int size = 0;
+		int[] chunk = new int[Math.min(rows, CHUNK_SIZE)];
+		for (int segment = 0; segment < codes.length; segment++) {
+			IntBuffer in = codes[segment].duplicate();
+			LongBuffer segmentOffsets = offsets[segment];
+			int segmentLength = in.remaining();
+			for (int row = 0; row < segmentLength; row += chunk.length) {
+				int length = Math.min(chunk.length, segmentLength - row);
+				in.get(chunk, 0, length);
+				for (int i = 0; i < length; i++) {
+					int code = chunk[i];
+					if ((selected[code >>> 6] & (1L << code)) != 0) {
+						if (size == matches.length) {matches = Arrays.copyOf(matches, size * 2);}
+						matches[size++] = segmentOffsets.get(row + i);
+					}
+				}
+			}
+		}
+		return Arrays.copyOf(matches, size);
+	}
+
+
+	/**
+	 * @return int: code of a key (its position in the dictionary), -1 if no row has that key
+	 */
+	private int code(byte[] buf, int start, int end) {
+		int low = 0;
+		int high = dictionarySize - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int result = compare(mid, buf, start, end);
+			if (result < 0) {
+				low = mid + 1;
+			} else if (result > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Compares the key of a dictionary entry with a given key, as unsigned bytes (see KeyIndex.compare).
+	 */
+	private int compare(int code, byte[] buf, int start, int end) {
+		MappedByteBuffer segment = dictionary[code / segmentEntries];
+		int position = (code % segmentEntries) * entrySize;
+		int length = segment.getShort(position);
+		int common = Math.min(length, end - start);
+		for (int i = 0; i < common; i++) {
+			int diff = (segment.get(position + 2 + i) & 0xFF) - (buf[start + i] & 0xFF);
+			if (diff != 0) {return diff;}
+		}
+		return length - (end - start);
+	}
+
+}
@@ -0,0 +1,13 @@
+/**
+ * The KeyConsumer interface receives keys found while scanning a file, given as a region of a byte array.
+ */
+interface KeyConsumer {
+
+	/**
+	 * @param byte[] buf: array containing the key (only valid for the duration of the call)
+	 * @param int start: index of first byte of the key
+	 * @param int end: index one past the last byte of the key
+	 */
+	void accept(byte[] buf, int start, int end);
+
+}
@@ -0,0 +1,150 @@
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The KeyForms class remembers how the keys of a ByteKeySet were written in the file they were read from, so that they can be
+ * given back as they were. The set holds the keys normalized (without their quotes, and without the blanks around a sample
+ * line) so that they match whichever quotes the full files use, but getSampleCustomers and getSampleInvoices return the codes
+ * as the files wrote them, e.g. "\"CUST0000010231\"".
+ *
+ * The keys of a file are nearly always written the same way, so only the bytes before and after the first key recorded are
+ * kept, and a key written any other way is kept whole. A file of consistently quoted codes costs two short arrays, whatever
+ * the number of keys.
+ */
+class KeyForms {
+
+	private byte[] prefix; //bytes written before the first key recorded (e.g. a quote), null until a key is recorded
+	private byte[] suffix; //bytes written after the first key recorded
+	private final Map<String, String> others = new HashMap<String, String>(); //keys written another way, and how they were written
+
+
+	/**
+	 * Records how a key was written. Only the first form of a key is kept, so it should be recorded when it is added to its set.
+	 *
+	 * @param byte[] buf: array holding the key as it was written
+	 * @param int rawStart: index of the first byte written for the key, e.g. its opening quote
+	 * @param int start: index of the first byte of the key
+	 * @param int end: index one past the last byte of the key
+	 * @param int rawEnd: index one past the last byte written for the key, e.g. its closing quote
+	 */
+	void record(byte[] buf, int rawStart, int start, int end, int rawEnd) {
+		if (prefix == null) {
+			prefix = Arrays.copyOfRange(buf, rawStart, start);
+			suffix = Arrays.copyOfRange(buf, end, rawEnd);
+		} else if (!matches(prefix, buf, rawStart, start) || !matches(suffix, buf, end, rawEnd)) {
+			others.put(new String(buf, start, end - start, StandardCharsets.UTF_8),
+					new String(buf, rawStart, rawEnd - rawStart, StandardCharsets.UTF_8));
+		}
+	}
+
+
+	/**
+	 * Records how the key of a field located by CsvScanner or RowFetcher was written: with the pair of quotes just around it,
+	 * if it has one (the row is still in the array), as is otherwise.
+	 *
+	 * @param byte[] buf: array holding the row of the field
+	 * @param int start: index of the first byte of the key
+	 * @param int end: index one past the last byte of the key
+	 */
+	void recordField(byte[] buf, int start, int end) {
+		int open = start >= 1 && buf[start - 1] == '"' ? 1 : start >= 3 && CsvScanner.quoteAfter(buf, start - 3, start) == 3 ? 3 : 0;
+		int close = open > 0 ? CsvScanner.quoteAfter(buf, end, Math.min(buf.length, end + 3)) : 0;
+		if (close == 0) {open = 0;} //a field only loses its quotes in pairs
+		record(buf, start - open, start, end, end + close);
+	}
+
+
+	/**
+	 * @param String key: normalized key of the set
+	 * @return String: the key as it was written
+	 */
+	String original(String key) {
+		if (prefix == null) {return key;}
+		String other = others.get(key);
+		return other != null ? other : new String(prefix, StandardCharsets.UTF_8) + key + new String(suffix, StandardCharsets.UTF_8);
+	}
+
+
+	/**
+	 * Returns a read-only view of a set of keys as they were written. Lookups accept the keys as written only, so the view
+	 * agrees with its iterator, equals and hashCode.
+	 *
+	 * @param ByteKeySet keys: set of the normalized keys whose forms were recorded here
+	 * @return Set<String>: view of the keys as they were written, in the order they were added
+	 */
+	Set<String> view(ByteKeySet keys) {
+		Set<String> normalized = keys.asStrings();
+		return new AbstractSet<String>() {
+
+			@Override
+			public boolean contains(Object o) {
+				if (!(o instanceof String)) {return false;}
+				String written = (String) o;
+				for (String key : candidates(written)) {
+					if (normalized.contains(key) && original(key).equals(written)) {return true;}
+				}
+				return false;
+			}
+
+			@Override
+			public Iterator<String> iterator() {
+				Iterator<String> iterator = normalized.iterator();
+				return new Iterator<String>() {
+
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public String next() {
+						return original(iterator.next());
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return normalized.size();
+			}
+
+		};
+	}
+
+
+	/**
+	 * @return String[]: keys a written key may have been normalized to: itself, without its prefix and suffix, and without its
+	 * blanks and quotes
+	 */
+	private String[] candidates(String written) {
+		String trimmed = written.trim();
+		int open = trimmed.length() >= 2 && isQuote(trimmed.charAt(0)) && isQuote(trimmed.charAt(trimmed.length() - 1)) ? 1 : 0;
+		String stripped = trimmed.substring(open, trimmed.length() - open);
+		if (prefix == null) {return new String[] {written, stripped};}
+		byte[] bytes = written.getBytes(StandardCharsets.UTF_8);
+		String affixed = bytes.length >= prefix.length + suffix.length && matches(prefix, bytes, 0, prefix.length)
+				&& matches(suffix, bytes, bytes.length - suffix.length, bytes.length)
+				? new String(bytes, prefix.length, bytes.length - prefix.length - suffix.length, StandardCharsets.UTF_8) : written;
+		return new String[] {written, affixed, stripped};
+	}
+
+
+	private static boolean isQuote(char c) {
+		return c == '"' || c == '\u201C' || c == '\u201D';
+	}
+
+
+	private static boolean matches(byte[] expected, byte[] buf, int start, int end) {
+		if (end - start != expected.length) {return false;}
+		for (int i = 0; i < expected.length; i++) {
+			if (buf[start + i] != expected[i]) {return false;}
+		}
+		return true;
+	}
+
+}
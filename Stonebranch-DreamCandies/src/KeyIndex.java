@@ -0,0 +1,327 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The KeyIndex class is a persistent index of one key column of a full extraction file. For every data row it records the
+ * key and the byte offset of the row, sorted by key, so the rows of a given key can be found with a binary search instead of
+ * a scan of the whole file. The index is stored next to the file (as "<file>.<column>.idx") together with the size and
+ * modification time of the file, and is ignored once either of them changes.
+ *
+ * Index file layout: a 40 byte header (magic, version, file size, file modification time, key column, key width, entry count)
+ * followed by the entries, each made of the key length (2 bytes), the key padded to the key width, and the row offset (8 bytes).
+ * A single mapping can't exceed 2GB, so the entries are mapped in segments of whole entries.
+ */
+class KeyIndex implements RowLookup {
+
+	private static final int MAGIC = 0x44434958; //"DCIX"
+	private static final int VERSION = 2; //keys stored without their quotes since version 2
+	private static final int HEADER_SIZE = 40;
+
+	private final MappedByteBuffer[] segments; //mapped entries of the index file, segmentEntries per segment
+	private final int segmentEntries; //number of entries of each segment but the last
+	private final int keyWidth; //number of bytes reserved for each key
+	private final int entrySize; //number of bytes of each entry
+	private final long count; //number of entries
+	private final byte[] probe; //scratch buffer holding the key of an entry
+
+
+	private KeyIndex(MappedByteBuffer[] segments, int segmentEntries, int keyWidth, long count) {
+		this.segments = segments;
+		this.segmentEntries = segmentEntries;
+		this.keyWidth = keyWidth;
+		this.entrySize = 2 + keyWidth + 8;
+		this.count = count;
+		this.probe = new byte[keyWidth];
+	}
+
+
+	/**
+	 * @param Path file: full extraction file
+	 * @param int column: zero-based index of the key column
+	 * @return Path: path of the index of that column of the file
+	 */
+	static Path indexPath(Path file, int column) {
+		return file.resolveSibling(file.getFileName() + "." + column + ".idx");
+	}
+
+
+	/**
+	 * Scans a full extraction file and writes the index of one of its columns next to it. The header row is not indexed.
+	 *
+	 * @param Path file: full extraction file
+	 * @param int column: zero-based index of the key column
+	 * @throws IOException: throws exception if the file can't be read or the index can't be written
+	 */
+	static void build(Path file, int column) throws IOException {
+		long size = Files.size(file);
+		long modified = Files.getLastModifiedTime(file).toMillis();
+
+		//collect key and offset of every row
+		byte[] keys = new byte[1 << 16];
+		int keysLength = 0;
+		int[] keyStarts = new int[1024];
+		long[] offsets = new long[1024];
+		int rows = 0;
+		int keyWidth = 0;
+		try (InputStream in = Files.newInputStream(file); CsvScanner scanner = new CsvScanner(in)) {
+			scanner.nextLine(); //skip file header
+			while (scanner.nextLine()) {
+				if (!scanner.field(column)) {continue;} //row has no key
+				int length = scanner.fieldEnd() - scanner.fieldStart();
+				if (length > Short.MAX_VALUE) {throw new IOException("key of row at offset " + scanner.lineOffset() + " is too long to index");}
+				if (keysLength + length > keys.length) {keys = Arrays.copyOf(keys, Math.max(keys.length * 2, keysLength + length));}
+				if (rows + 1 >= keyStarts.length) {
+					keyStarts = Arrays.copyOf(keyStarts, keyStarts.length * 2);
+					offsets = Arrays.copyOf(offsets, offsets.length * 2);
+				}
+				System.arraycopy(scanner.buffer(), scanner.fieldStart(), keys, keysLength, length);
+				keyStarts[rows] = keysLength;
+				offsets[rows] = scanner.lineOffset();
+				keysLength += length;
+				keyWidth = Math.max(keyWidth, length);
+				rows++;
+			}
+		}
+		keyStarts[rows] = keysLength;
+
+		//sort rows by key, then by offset
+		int[] order = new int[rows];
+		for (int i = 0; i < rows; i++) {order[i] = i;}
+		sort(order, 0, rows - 1, keys, keyStarts);
+
+		//write the index to a temporary file and move it into place
+		Path index = indexPath(file, column);
+		Path temp = index.resolveSibling(index.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(size);
+			out.writeLong(modified);
+			out.writeInt(column);
+			out.writeInt(keyWidth);
+			out.writeLong(rows);
+			byte[] padding = new byte[keyWidth];
+			for (int row : order) {
+				int length = keyStarts[row + 1] - keyStarts[row];
+				out.writeShort(length);
+				out.write(keys, keyStarts[row], length);
+				out.write(padding, 0, keyWidth - length);
+				out.writeLong(offsets[row]);
+			}
+		}
+		Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+	/**
+	 * Opens the index of a column of a full extraction file.
+	 *
+	 * @param Path file: full extraction file
+	 * @param int column: zero-based index of the key column
+	 * @return KeyIndex: the index, or null if there is none or it no longer matches the file
+	 * @throws IOException: throws exception if the index exists but can't be read
+	 */
+	static KeyIndex open(Path file, int column) throws IOException {
+		return open(file, column, Integer.MAX_VALUE);
+	}
+
+
+	/**
+	 * Opens the index of a column of a full extraction file, mapping its entries in segments of at most a given size.
+	 *
+	 * @param Path file: full extraction file
+	 * @param int column: zero-based index of the key column
+	 * @param int segmentSize: maximum number of bytes of each mapped segment
+	 * @return KeyIndex: the index, or null if there is none or it no longer matches the file
+	 * @throws IOException: throws exception if the index exists but can't be read
+	 */
+	static KeyIndex open(Path file, int column, int segmentSize) throws IOException {
+		Path index = indexPath(file, column);
+		if (!Files.isRegularFile(index)) {return null;}
+		try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE) {return null;}
+			try (DataInputStream in = new DataInputStream(Files.newInputStream(index))) {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) {return null;}
+				if (in.readLong() != Files.size(file)) {return null;} //file changed since the index was built
+				if (in.readLong() != Files.getLastModifiedTime(file).toMillis()) {return null;}
+				if (in.readInt() != column) {return null;}
+				int keyWidth = in.readInt();
+				long count = in.readLong();
+				int entrySize = 2 + keyWidth + 8;
+				if (channel.size() != HEADER_SIZE + count * entrySize) {return null;}
+				int segmentEntries = Math.max(1, segmentSize / entrySize);
+				return new KeyIndex(map(channel, HEADER_SIZE, count, entrySize, segmentEntries), segmentEntries, keyWidth, count);
+			}
+		}
+	}
+
+
+	/**
+	 * Maps a region of a file made of fixed size units in segments of whole units, so that a unit never spans two segments and
+	 * a region over 2GB (the limit of a single mapping) can be mapped too.
+	 *
+	 * @param FileChannel channel: channel of the file
+	 * @param long start: offset of the region in the file
+	 * @param long units: number of units of the region
+	 * @param int unitSize: number of bytes of each unit
+	 * @param int segmentUnits: number of units of each segment but the last, at most Integer.MAX_VALUE / unitSize
+	 * @return MappedByteBuffer[]: the segments, in file order
+	 * @throws IOException: throws exception if the region can't be mapped
+	 */
+	static MappedByteBuffer[] map(FileChannel channel, long start, long units, int unitSize, int segmentUnits) throws IOException {
+		MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((units + segmentUnits - 1) / segmentUnits)];
+		for (int i = 0; i < segments.length; i++) {
+			long first = (long) i * segmentUnits;
+			segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start + first * unitSize,
+					Math.min(segmentUnits, units - first) * unitSize);
+		}
+		return segments;
+	}
+
+
+	/**
+	 * Finds the offsets of all rows whose key is in a set of keys.
+	 *
+	 * @param ByteKeySet keys: set of keys to look up
+	 * @return long[]: offsets of the matching rows, in increasing order
+	 */
+	@Override
+	public long[] lookup(ByteKeySet keys) {
+		OffsetCollector collector = new OffsetCollector();
+		keys.forEach(collector);
+		long[] offsets = Arrays.copyOf(collector.offsets, collector.size);
+		Arrays.sort(offsets);
+		return offsets;
+	}
+
+
+	/**
+	 * @return long: index of the first entry whose key is not less than the given key
+	 */
+	private long firstEntry(byte[] buf, int start, int end) {
+		long low = 0;
+		long high = count;
+		while (low < high) {
+			long mid = (low + high) >>> 1;
+			if (compare(mid, buf, start, end) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+
+	/**
+	 * Compares the key of an entry with a given key, as unsigned bytes.
+	 */
+	private int compare(long entry, byte[] buf, int start, int end) {
+		MappedByteBuffer segment = segments[(int) (entry / segmentEntries)];
+		int position = (int) (entry % segmentEntries) * entrySize;
+		int length = segment.getShort(position);
+		for (int i = 0; i < length; i++) {
+			probe[i] = segment.get(position + 2 + i);
+		}
+		return compare(probe, 0, length, buf, start, end);
+	}
+
+
+	/**
+	 * Compares two keys as unsigned bytes, a key that is a prefix of another being the smaller one.
+	 */
+	static int compare(byte[] a, int aStart, int aEnd, byte[] b, int bStart, int bEnd) {
+		int length = Math.min(aEnd - aStart, bEnd - bStart);
+		for (int i = 0; i < length; i++) {
+			int diff = (a[aStart + i] & 0xFF) - (b[bStart + i] & 0xFF);
+			if (diff != 0) {return diff;}
+		}
+		return (aEnd - aStart) - (bEnd - bStart);
+	}
+
+
+	/**
+	 * Sorts row numbers by key, and by row number for equal keys (quicksort with insertion sort for small ranges).
+	 *
+	 * @param int[] order: row numbers to sort
+	 * @param int low: index in order of the first row number to sort
+	 * @param int high: index in order of the last row number to sort
+	 * @param byte[] keys: keys of all rows, one after another
+	 * @param int[] keyStarts: index in keys of the key of each row, followed by the end of the last key
+	 */
+	static void sort(int[] order, int low, int high, byte[] keys, int[] keyStarts) {
+		while (high - low > 16) {
+			int mid = (low + high) >>> 1;
+			if (compareRows(order[mid], order[low], keys, keyStarts) < 0) {swap(order, mid, low);}
+			if (compareRows(order[high], order[low], keys, keyStarts) < 0) {swap(order, high, low);}
+			if (compareRows(order[high], order[mid], keys, keyStarts) < 0) {swap(order, high, mid);}
+			int pivot = order[mid];
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (compareRows(order[i], pivot, keys, keyStarts) < 0) {i++;}
+				while (compareRows(order[j], pivot, keys, keyStarts) > 0) {j--;}
+				if (i <= j) {swap(order, i++, j--);}
+			}
+			if (j - low < high - i) { //recurse into the smaller half to bound stack depth
+				sort(order, low, j, keys, keyStarts);
+				low = i;
+			} else {
+				sort(order, i, high, keys, keyStarts);
+				high = j;
+			}
+		}
+		for (int i = low + 1; i <= high; i++) {
+			int row = order[i];
+			int j = i - 1;
+			while (j >= low && compareRows(order[j], row, keys, keyStarts) > 0) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = row;
+		}
+	}
+
+
+	private static int compareRows(int a, int b, byte[] keys, int[] keyStarts) {
+		int result = compare(keys, keyStarts[a], keyStarts[a + 1], keys, keyStarts[b], keyStarts[b + 1]);
+		return result != 0 ? result : Integer.compare(a, b);
+	}
+
+
+	private static void swap(int[] order, int i, int j) {
+		int row = order[i];
+		order[i] = order[j];
+		order[j] = row;
+	}
+
+
+	/**
+	 * Collects the offsets of the entries of every key it is given.
+	 */
+	private class OffsetCollector implements KeyConsumer {
+
+		long[] offsets = new long[64];
+		int size;
+
+		@Override
+		public void accept(byte[] buf, int start, int end) {
+			for (long i = firstEntry(buf, start, end); i < count && compare(i, buf, start, end) == 0; i++) {
+				if (size == offsets.length) {offsets = Arrays.copyOf(offsets, size * 2);}
+				offsets[size++] = segments[(int) (i / segmentEntries)].getLong((int) (i % segmentEntries) * entrySize + 2 + keyWidth);
+			}
+		}
+
+	}
+
+}
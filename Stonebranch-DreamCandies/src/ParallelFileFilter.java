@@ -0,0 +1,302 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The ParallelFileFilter class filters a full extraction file using several threads. The file is split into line-aligned
+ * chunks, each chunk is memory-mapped and scanned on a ForkJoinPool, and the matching rows are written out in their original
+ * order. Every chunk only reads the key set it is given, so chunks are independent of each other and the scan scales with
+ * the number of threads in the pool. Once the row limit is reached, or the output fails, the chunks still being scanned are
+ * stopped and waited for before the file is closed.
+ */
+class ParallelFileFilter {
+
+	static final long DEFAULT_CHUNK_SIZE = 32L << 20; //32MB per chunk
+
+	private final ForkJoinPool pool; //pool the chunks are scanned on
+	private final long chunkSize; //target size of each chunk in bytes
+
+
+	/**
+	 * Constructor for ParallelFileFilter
+	 *
+	 * @param ForkJoinPool pool: pool the chunks are scanned on
+	 * @param long chunkSize: target size of each chunk in bytes
+	 */
+	ParallelFileFilter(ForkJoinPool pool, long chunkSize) {
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+
+	/**
+	 * Writes the header of a file and every following row whose key is in a set of keys.
+	 *
+	 * @param Path file: full extraction file to filter
+	 * @param OutputStream out: stream the header and matching rows are written to
+	 * @param ByteKeySet keys: set of keys to keep
+	 * @param int keyColumn: zero-based index of the key field in each row
+	 * @param int maxRows: number of matching rows after which the rest of the file is ignored, or -1 for no limit
+	 * @param int collectColumn: zero-based index of a field passed to collector for each matching row, or -1 for none
+	 * @param KeyConsumer collector: receives the collected field of each matching row, in file order
+	 * @throws IOException: throws exception if the file can't be read or the output can't be written
+	 */
+	void filter(Path file, OutputStream out, ByteKeySet keys, int keyColumn, int maxRows,
+			int collectColumn, KeyConsumer collector) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			RowWriter writer = new RowWriter(out, collectColumn, collector);
+			long start = writeHeader(channel, size, writer);
+			int window = pool.getParallelism() * 2; //number of chunks scanned ahead of the writer
+			ArrayDeque<ForkJoinTask<ChunkRows>> pending = new ArrayDeque<ForkJoinTask<ChunkRows>>();
+			AtomicBoolean stopped = new AtomicBoolean(); //set once the rows of the pending chunks are no longer needed
+			int written = 0;
+
+			try {
+				while (start < size || !pending.isEmpty()) {
+					while (start < size && pending.size() < window) { //keep the pool busy
+						long end = lineBoundary(channel, Math.min(start + chunkSize, size), size);
+						pending.add(pool.submit(new ChunkTask(channel, start, end, keys, keyColumn, stopped)));
+						start = end;
+					}
+
+					ChunkRows chunk = join(pending.poll());
+					int count = maxRows < 0 ? chunk.count : Math.min(chunk.count, maxRows - written); //only keep rows up to the limit
+					writer.write(chunk, count);
+					written += count;
+					if (maxRows >= 0 && written >= maxRows) {break;} //all expected rows found
+				}
+			} finally {
+				stop(pending, stopped);
+			}
+		}
+	}
+
+
+	/**
+	 * Stops the chunk tasks still pending and waits for them to end, so that none of them is left reading the channel once it
+	 * is closed. ForkJoinTask.cancel doesn't stop a task that is running, so the tasks poll a flag instead.
+	 *
+	 * @param Collection<? extends ForkJoinTask<?>> pending: tasks whose results are no longer needed
+	 * @param AtomicBoolean stopped: flag polled by the tasks, set here
+	 */
+	static void stop(Collection<? extends ForkJoinTask<?>> pending, AtomicBoolean stopped) {
+		stopped.set(true);
+		for (ForkJoinTask<?> task : pending) {task.quietlyJoin();} //their failures, if any, came after the one being thrown
+		pending.clear();
+	}
+
+
+	/**
+	 * Copies the first line of a file to the output.
+	 *
+	 * @return long: offset of the first byte after the header
+	 */
+	private static long writeHeader(FileChannel channel, long size, RowWriter writer) throws IOException {
+		long end = lineBoundary(channel, 1, size);
+		if (end == 0) {return 0;}
+		ChunkRows header = new ChunkRows(0, channel.map(FileChannel.MapMode.READ_ONLY, 0, end));
+		int length = header.data.limit();
+		while (length > 0 && (header.data.get(length - 1) == '\n' || header.data.get(length - 1) == '\r')) {length--;}
+		header.add(0, length);
+		writer.write(header, 1, -1);
+		return end;
+	}
+
+
+	/**
+	 * Finds the start of the first line beginning at or after an offset. A "\r\n" terminator is never split.
+	 *
+	 * @param FileChannel channel: channel of the file
+	 * @param long offset: offset to search from
+	 * @param long size: size of the file
+	 * @return long: offset of the start of the next line, or size if there is none
+	 */
+	static long lineBoundary(FileChannel channel, long offset, long size) throws IOException {
+		if (offset <= 0 || offset >= size) {return Math.min(Math.max(offset, 0), size);}
+		ByteBuffer buf = ByteBuffer.allocate(8192);
+		long position = offset - 1; //a line may end right before the offset
+		while (position < size) {
+			buf.clear();
+			int read = channel.read(buf, position);
+			if (read <= 0) {break;}
+			for (int i = 0; i < read; i++) {
+				byte b = buf.get(i);
+				if (b == '\n') {return position + i + 1;}
+				if (b == '\r') {
+					long after = position + i + 1;
+					if (after >= size) {return size;}
+					ByteBuffer one = ByteBuffer.allocate(1);
+					channel.read(one, after);
+					return one.get(0) == '\n' ? after + 1 : after;
+				}
+			}
+			position += read;
+		}
+		return size;
+	}
+
+
+	/**
+	 * Waits for a chunk to be scanned, rethrowing any I/O failure.
+	 */
+	static <T> T join(ForkJoinTask<T> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while scanning file", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {throw ((UncheckedIOException) e.getCause()).getCause();}
+			throw new IOException("failed to scan file", e.getCause());
+		}
+	}
+
+
+	/**
+	 * Matching rows of a chunk, as ranges of the mapped chunk.
+	 */
+	private static class ChunkRows {
+
+		final long offset; //offset of the chunk in the file
+		final ByteBuffer data; //mapped bytes of the chunk, null if the chunk wasn't scanned
+		int[] rows = new int[64]; //start and end (terminator excluded) of each matching row in data
+		int count; //number of matching rows
+
+		ChunkRows(long offset, ByteBuffer data) {
+			this.offset = offset;
+			this.data = data;
+		}
+
+		void add(int start, int end) {
+			if (2 * count == rows.length) {rows = Arrays.copyOf(rows, rows.length * 2);}
+			rows[2 * count] = start;
+			rows[2 * count + 1] = end;
+			count++;
+		}
+
+	}
+
+
+	/**
+	 * Writes the matching rows of chunks, in place from their mapped bytes, and collects a field of each.
+	 */
+	private static class RowWriter {
+
+		private final OutputStream out; //output of the rows
+		private final WritableByteChannel target; //channel of out, for rows of an output that isn't a RangeWriter
+		private final int collectColumn; //zero-based index of the field passed to collector, or -1 for none
+		private final KeyConsumer collector;
+		private final int[] bounds = new int[4]; //bounds of the collected field
+		private byte[] field = new byte[64]; //collected field with its quotes, as the collector takes an array
+
+		RowWriter(OutputStream out, int collectColumn, KeyConsumer collector) {
+			this.out = out;
+			this.target = out instanceof RangeWriter ? null : Channels.newChannel(out);
+			this.collectColumn = collectColumn;
+			this.collector = collector;
+		}
+
+		/**
+		 * Writes the first rows of a chunk. A RangeWriter gets each row with its offset in the file, so that runs of rows are
+		 * copied from the file rather than through the heap.
+		 */
+		void write(ChunkRows chunk, int count) throws IOException {
+			write(chunk, count, collectColumn);
+		}
+
+
+		/**
+		 * Writes the first rows of a chunk, collecting the given field of each.
+		 */
+		void write(ChunkRows chunk, int count, int collectColumn) throws IOException {
+			if (count == 0) {return;}
+			ByteBuffer row = chunk.data.duplicate();
+			int limit = chunk.data.limit();
+			for (int i = 0; i < count; i++) {
+				int start = chunk.rows[2 * i];
+				int end = chunk.rows[2 * i + 1];
+				row.limit(end).position(start);
+				if (target == null) {
+					((RangeWriter) out).writeRow(chunk.offset + start, row, end < limit && chunk.data.get(end) == '\n');
+				} else {
+					while (row.hasRemaining()) {target.write(row);}
+					out.write('\n');
+				}
+				if (collectColumn >= 0 && CsvScanner.field(chunk.data, start, end, collectColumn, bounds)) {
+					int length = bounds[3] - bounds[2];
+					if (field.length < length) {field = new byte[Math.max(length, field.length * 2)];}
+					row.limit(bounds[3]).position(bounds[2]);
+					row.get(field, 0, length);
+					collector.accept(field, bounds[0] - bounds[2], bounds[1] - bounds[2]);
+				}
+			}
+		}
+
+	}
+
+
+	/**
+	 * Task scanning one chunk of a file in place, producing the ranges of its matching rows. Lines end as in CsvScanner.
+	 */
+	private static class ChunkTask implements Callable<ChunkRows> {
+
+		private final FileChannel channel;
+		private final long start;
+		private final long end;
+		private final ByteKeySet keys;
+		private final int keyColumn;
+		private final AtomicBoolean stopped; //set when the rows of the chunk are no longer needed
+
+		ChunkTask(FileChannel channel, long start, long end, ByteKeySet keys, int keyColumn, AtomicBoolean stopped) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			this.keys = keys;
+			this.keyColumn = keyColumn;
+			this.stopped = stopped;
+		}
+
+		@Override
+		public ChunkRows call() {
+			if (stopped.get()) {return new ChunkRows(start, null);}
+			ByteBuffer data;
+			try {
+				data = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			ChunkRows rows = new ChunkRows(start, data);
+			int[] bounds = new int[4];
+			int limit = data.limit();
+			int i = 0;
+			while (i < limit && !stopped.get()) {
+				int lineStart = i;
+				byte b = 0;
+				while (i < limit && (b = data.get(i)) != '\n' && b != '\r') {i++;}
+				int lineEnd = i;
+				if (i < limit) {i += b == '\r' && i + 1 < limit && data.get(i + 1) == '\n' ? 2 : 1;} //chunks never split "\r\n"
+				if (CsvScanner.field(data, lineStart, lineEnd, keyColumn, bounds) && keys.contains(data, bounds[0], bounds[1])) {
+					rows.add(lineStart, lineEnd);
+				}
+			}
+			return rows;
+		}
+
+	}
+
+}
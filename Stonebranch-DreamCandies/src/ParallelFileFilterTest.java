@@ -0,0 +1,154 @@
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Unit tests for ParallelFileFilter Class: filter
+ */
+public class ParallelFileFilterTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private ForkJoinPool pool = new ForkJoinPool(3);
+	
+	
+	@After
+	public void shutdown() {
+		pool.shutdown();
+	}
+	
+	
+	/**
+	 * Filters a file containing the given content with the given chunk size.
+	 * 
+	 * @return String: header and matching rows
+	 */
+	private String filter(String content, long chunkSize, ByteKeySet keys, int maxRows) throws IOException {
+		File f = folder.newFile();
+		Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ParallelFileFilter(pool, chunkSize).filter(f.toPath(), out, keys, 0, maxRows, -1, null);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+	
+	
+	/**
+	 * Test method for {@link ParallelFileFilter#filter}.
+	 * 
+	 * Tests filter with chunks much smaller than a row and mixed line endings, so chunk boundaries fall everywhere,
+	 * including between the "\r" and "\n" of a terminator.
+	 * Expected behavior is that every matching row is written once, in file order, ending with "\n".
+	 */
+	@Test
+	public void filter_TinyChunksMixedLineEndings_RowsWrittenOnceInOrder() throws IOException {
+		ByteKeySet keys = new ByteKeySet();
+		keys.add("A");
+		keys.add("C");
+		String content = "\"KEY\",\"VALUE\"\r\n\"A\",\"1\"\r\n\"B\",\"2\"\r\"C\",\"3\"\n\"A\",\"4\"\r\n\r\n\"C\",\"5\"";
+		String expected = "\"KEY\",\"VALUE\"\n\"A\",\"1\"\n\"C\",\"3\"\n\"A\",\"4\"\n\"C\",\"5\"\n";
+		for (long chunkSize = 1; chunkSize < 20; chunkSize++) {
+			assertEquals(expected, filter(content, chunkSize, keys, -1));
+		}
+	}
+	
+	
+	/**
+	 * Test method for {@link ParallelFileFilter#filter}.
+	 * 
+	 * Tests filter with an output that fails on the first row, while the pool is still scanning many slow chunks.
+	 * Expected behavior is that the failure is thrown, and that no chunk is being scanned any more by then.
+	 */
+	@Test
+	public void filter_OutputFails_ChunksStoppedBeforeFailureThrown() throws IOException, InterruptedException {
+		AtomicInteger scanning = new AtomicInteger(); //lookups in progress
+		AtomicInteger lookups = new AtomicInteger();
+		ByteKeySet keys = new ByteKeySet() {
+			@Override
+			int find(ByteBuffer buf, int start, int end) {
+				scanning.incrementAndGet();
+				try {
+					lookups.incrementAndGet();
+					Thread.sleep(1);
+					return super.find(buf, start, end);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return -1;
+				} finally {
+					scanning.decrementAndGet();
+				}
+			}
+		};
+		keys.add("A");
+		StringBuilder content = new StringBuilder("\"KEY\"\n");
+		for (int i = 0; i < 5000; i++) {
+			content.append("\"A\"\n");
+		}
+		File f = folder.newFile();
+		Files.write(f.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+		OutputStream out = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] {(byte) b}, 0, 1);
+			}
+			
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (new String(b, off, len, StandardCharsets.UTF_8).contains("A")) {throw new IOException("disk full");} //header passes
+			}
+		};
+		
+		try {
+			new ParallelFileFilter(pool, 4000).filter(f.toPath(), out, keys, 0, -1, -1, null);
+			fail("the failure of the output should be thrown");
+		} catch (IOException e) {
+			assertEquals("disk full", e.getMessage());
+		}
+		assertEquals(0, scanning.get());
+		int done = lookups.get();
+		Thread.sleep(50);
+		assertEquals(done, lookups.get());
+		assertTrue(done < 5000);
+	}
+	
+	
+	/**
+	 * Test method for {@link ParallelFileFilter#filter}.
+	 * 
+	 * Tests filter with a limit on the number of matching rows.
+	 * Expected behavior is that only the first matching rows up to the limit are written.
+	 */
+	@Test
+	public void filter_MaxRows_StopsAfterLimit() throws IOException {
+		ByteKeySet keys = new ByteKeySet();
+		keys.add("A");
+		String content = "\"KEY\"\n\"A\"\n\"B\"\n\"A\"\n\"A\"\n";
+		assertEquals("\"KEY\"\n\"A\"\n\"A\"\n", filter(content, 4, keys, 2));
+		assertEquals("\"KEY\"\n", filter(content, 4, keys, 0));
+	}
+	
+	
+	/**
+	 * Test method for {@link ParallelFileFilter#filter}.
+	 * 
+	 * Tests filter with an empty file.
+	 * Expected behavior is that nothing is written.
+	 */
+	@Test
+	public void filter_EmptyFile_NothingWritten() throws IOException {
+		assertEquals("", filter("", 4, new ByteKeySet(), -1));
+	}
+	
+}
@@ -0,0 +1,368 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+/**
+ * The PassMetrics class measures one pass of an extraction over a full extraction file: rows scanned and matched, bytes read
+ * and written, and the time spent parsing rows, looking up their keys and writing matching rows. A pass updates its metrics
+ * from its own thread, and listeners are called from that thread, so the counters are plain fields.
+ *
+ * Calling System.nanoTime() three times per row would cost more than the lookup itself, so only one row in 64 is timed, and
+ * the times of the others are estimated from it. Times are wall clock times, so they include the time a pass waits while
+ * other passes use the processor. Counters are exact. Passes that don't scan rows one by one in TestFileFilter (parallel,
+ * sorted and indexed passes) only measure their output and elapsed time; their other values are -1. Incremental passes
+ * (see DeltaFileFilter) also count the chunks of the input whose rows were taken from the previous output, and those scanned.
+ */
+public class PassMetrics {
+
+	private static final int SAMPLE_MASK = 63; //one row in 64 is timed
+	private static final int PROGRESS_MASK = (1 << 16) - 1; //listeners are told of progress every 65536 rows
+
+	private final String pass; //name of the pass
+	private final long inputBytes; //size of the input, -1 if unknown (stream or compressed file)
+	private final List<ExtractionListener> listeners; //listeners told of progress
+	private final long start = System.nanoTime(); //time the pass started
+	private long end = -1; //time the pass finished, -1 while it runs
+	private LongSupplier position; //offset reached in the input, null if not measured
+	private long bytesRead = -1; //offset reached in the input when the pass finished
+	private long rowsScanned; //rows of the input read, header excluded
+	private long rowsMatched; //rows written to the output, header excluded
+	private long bytesWritten; //bytes written to the output, header included
+	private boolean scanning; //true if rows are scanned one by one, so parse and lookup times are measured
+	private boolean timing; //true while the current row is timed
+	private long mark; //time of the end of the last timed step
+	private long timedRows; //number of rows timed
+	private long timedMatches; //number of matching rows timed
+	private long parseNanos; //time spent reading and splitting the timed rows
+	private long lookupNanos; //time spent looking up the keys of the timed rows
+	private long writeNanos; //time spent writing the timed rows that matched
+	private int chunksReused = -1; //chunks of the input whose rows were taken from the previous output, -1 if not incremental
+	private int chunksScanned = -1; //chunks of the input scanned, -1 if not incremental
+
+
+	/**
+	 * Constructor for PassMetrics
+	 *
+	 * @param String pass: name of the pass
+	 * @param long inputBytes: size of the input, -1 if unknown
+	 * @param List<ExtractionListener> listeners: listeners told of progress
+	 */
+	PassMetrics(String pass, long inputBytes, List<ExtractionListener> listeners) {
+		this.pass = pass;
+		this.inputBytes = inputBytes;
+		this.listeners = listeners;
+	}
+
+
+	/**
+	 * Starts measuring a row by row scan.
+	 *
+	 * @param LongSupplier position: offset reached in the input, e.g. CsvScanner.position()
+	 */
+	void scan(LongSupplier position) {
+		this.position = position;
+		this.scanning = true;
+	}
+
+
+	/**
+	 * Counts the header of the output.
+	 *
+	 * @param int bytes: size of the header, terminator included
+	 */
+	void headerWritten(int bytes) {
+		bytesWritten += bytes;
+	}
+
+
+	/**
+	 * Counts a row read and split into fields.
+	 */
+	void rowParsed() {
+		rowsScanned++;
+		if (timing) {
+			long now = System.nanoTime();
+			parseNanos += now - mark;
+			mark = now;
+		}
+	}
+
+
+	/**
+	 * Counts the lookup of the key of the current row.
+	 */
+	void rowLookedUp() {
+		if (timing) {
+			long now = System.nanoTime();
+			lookupNanos += now - mark;
+			mark = now;
+		}
+	}
+
+
+	/**
+	 * Counts a matching row written to the output.
+	 *
+	 * @param int bytes: size of the row, terminator included
+	 */
+	void rowWritten(int bytes) {
+		rowsMatched++;
+		bytesWritten += bytes;
+		if (timing) {
+			timedMatches++;
+			long now = System.nanoTime();
+			writeNanos += now - mark;
+			mark = now;
+		}
+	}
+
+
+	/**
+	 * Ends the current row, deciding whether the next one is timed and telling listeners of progress now and then.
+	 */
+	void rowDone() {
+		if (timing) {
+			timedRows++;
+			timing = false;
+		}
+		if ((rowsScanned & SAMPLE_MASK) == 0) {
+			if ((rowsScanned & PROGRESS_MASK) == 0) {
+				for (ExtractionListener listener : listeners) {listener.progress(this);}
+			}
+			timing = true;
+			mark = System.nanoTime();
+		}
+	}
+
+
+	/**
+	 * Counts the output of a pass that doesn't count rows as it writes them.
+	 *
+	 * @param long rows: rows written, header excluded
+	 * @param long bytes: bytes written, header included
+	 */
+	void written(long rows, long bytes) {
+		rowsMatched = rows;
+		bytesWritten = bytes;
+	}
+
+
+	/**
+	 * Counts the chunks of the input of an incremental pass.
+	 *
+	 * @param int reused: chunks whose rows were taken from the previous output
+	 * @param int scanned: chunks scanned
+	 */
+	void chunks(int reused, int scanned) {
+		chunksReused = reused;
+		chunksScanned = scanned;
+	}
+
+
+	/**
+	 * Wraps the output of a pass that doesn't scan rows in TestFileFilter, counting the bytes and rows written to it.
+	 *
+	 * @param OutputStream out: output of the pass
+	 * @return OutputStream: stream counting what is written to out
+	 */
+	OutputStream counted(OutputStream out) {
+		return new FilterOutputStream(out) {
+			private boolean header = true; //true until the terminator of the header is written
+
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				bytesWritten++;
+				if (b == '\n') {rowEnded();}
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				bytesWritten += len;
+				for (int i = off; i < off + len; i++) {
+					if (b[i] == '\n') {rowEnded();}
+				}
+			}
+
+			private void rowEnded() {
+				if (header) {
+					header = false;
+				} else {
+					rowsMatched++;
+				}
+			}
+		};
+	}
+
+
+	/**
+	 * Ends the pass.
+	 */
+	void finish() {
+		end = System.nanoTime();
+		if (position != null) {bytesRead = position.getAsLong();}
+		position = null;
+	}
+
+
+	/**
+	 * @return String: name of the pass ("customer", "invoice" or "invoice_item")
+	 */
+	public String getPass() {
+		return pass;
+	}
+
+
+	/**
+	 * @return long: rows of the input read so far (header excluded), -1 if not measured
+	 */
+	public long getRowsScanned() {
+		return scanning ? rowsScanned : -1;
+	}
+
+
+	/**
+	 * @return long: rows written to the output so far (header excluded)
+	 */
+	public long getRowsMatched() {
+		return rowsMatched;
+	}
+
+
+	/**
+	 * @return long: bytes of the input read so far (decompressed, for a compressed input), -1 if not measured
+	 */
+	public long getBytesRead() {
+		return position != null ? position.getAsLong() : bytesRead;
+	}
+
+
+	/**
+	 * @return long: bytes written to the output so far (before compression, for a compressed output)
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+
+	/**
+	 * @return long: size of the input, -1 if unknown
+	 */
+	public long getInputBytes() {
+		return inputBytes;
+	}
+
+
+	/**
+	 * @return long: time since the pass started, or its duration once finished, in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return (end < 0 ? System.nanoTime() : end) - start;
+	}
+
+
+	/**
+	 * @return long: estimated time spent reading and splitting rows, in nanoseconds, -1 if not measured
+	 */
+	public long getParseNanos() {
+		return estimate(parseNanos, rowsScanned, timedRows);
+	}
+
+
+	/**
+	 * @return long: estimated time spent looking up keys, in nanoseconds, -1 if not measured
+	 */
+	public long getLookupNanos() {
+		return estimate(lookupNanos, rowsScanned, timedRows);
+	}
+
+
+	/**
+	 * @return long: estimated time spent writing matching rows, in nanoseconds, -1 if not measured
+	 */
+	public long getWriteNanos() {
+		return estimate(writeNanos, rowsMatched, timedMatches);
+	}
+
+
+	/**
+	 * @return int: chunks of the input whose rows were taken from the previous output, -1 if the pass isn't incremental
+	 */
+	public int getChunksReused() {
+		return chunksReused;
+	}
+
+
+	/**
+	 * @return int: chunks of the input scanned by an incremental pass, -1 if the pass isn't incremental
+	 */
+	public int getChunksScanned() {
+		return chunksScanned;
+	}
+
+
+	/**
+	 * @return long: time of all rows, extrapolated from the time of the timed ones
+	 */
+	private long estimate(long timedNanos, long rows, long timed) {
+		if (!scanning) {return -1;}
+		return timed == 0 ? 0 : (long) ((double) timedNanos * rows / timed);
+	}
+
+
+	/**
+	 * @return double: rows of the input read per second, -1 if not measured
+	 */
+	public double getRowsPerSecond() {
+		return scanning ? rowsScanned / seconds() : -1;
+	}
+
+
+	/**
+	 * @return double: megabytes (10^6 bytes) of the input read per second, -1 if not measured
+	 */
+	public double getMegabytesPerSecond() {
+		long read = getBytesRead();
+		return read < 0 ? -1 : read / 1e6 / seconds();
+	}
+
+
+	/**
+	 * @return long: estimated time until the end of the input at the current rate, in nanoseconds, -1 if unknown
+	 */
+	public long getRemainingNanos() {
+		long read = getBytesRead();
+		if (read <= 0 || inputBytes < 0) {return -1;}
+		if (end >= 0) {return 0;}
+		return (long) ((double) getElapsedNanos() * Math.max(0, inputBytes - read) / read);
+	}
+
+
+	private double seconds() {
+		return Math.max(1, getElapsedNanos()) / 1e9;
+	}
+
+
+	/**
+	 * @return String: the metrics as a JSON object
+	 */
+	public String toJson() {
+		return String.format(Locale.ROOT, "{\"pass\":\"%s\",\"rowsScanned\":%d,\"rowsMatched\":%d,\"bytesRead\":%d,"
+				+ "\"bytesWritten\":%d,\"inputBytes\":%d,\"elapsedMillis\":%.3f,\"parseMillis\":%.3f,\"lookupMillis\":%.3f,"
+				+ "\"writeMillis\":%.3f,\"rowsPerSecond\":%.1f,\"megabytesPerSecond\":%.3f,"
+				+ "\"chunksReused\":%d,\"chunksScanned\":%d}",
+				pass, getRowsScanned(), rowsMatched, getBytesRead(), bytesWritten, inputBytes, millis(getElapsedNanos()),
+				millis(getParseNanos()), millis(getLookupNanos()), millis(getWriteNanos()), getRowsPerSecond(),
+				getMegabytesPerSecond(), chunksReused, chunksScanned);
+	}
+
+
+	private static double millis(long nanos) {
+		return nanos < 0 ? -1 : nanos / 1e6;
+	}
+
+}
@@ -0,0 +1,376 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The PendingRowStore class lets rows keyed by invoice code be filtered while the set of wanted invoice codes is still being
+ * built. Rows whose key is already known are written out immediately. Other rows are held, keyed by their invoice code, until
+ * either the key is published (the rows are then written) or the set is declared complete (the rows are then dropped).
+ * Held rows are kept in memory up to a fixed number of bytes, and spilled to a temporary file beyond that. Spilled rows are
+ * checked against the complete set of keys when the store is drained. The limit applies to the rows still held: rows written
+ * out when their key is published leave a hole in memory, and the held rows are compacted over the holes before memory
+ * would grow while most of it is holes, or before a row would be spilled that fits once they are gone.
+ *
+ * The wanted keys are kept in the set they are collected in (sampleInvoices), which the store is given rather than keeping
+ * a copy of its own, so the keys are held in memory once. ByteKeySet isn't thread-safe, so while the store is in use the set
+ * is only read and written under the lock of the store: keys are added to it through publish, never directly. All methods
+ * are synchronized, so keys can be published from one thread while rows are offered from another. Memory is bounded by the
+ * set itself, which holds the keys the extraction needs anyway, plus the memory limit of the held rows.
+ */
+class PendingRowStore implements Closeable {
+
+	private static final int NONE = -1; //end of a chain of held rows
+	private static final int ENTRY_HEADER = 12; //next entry, key length and row length, before the key and row bytes
+
+	private final OutputStream out; //stream matching rows are written to
+	private final long memoryLimit; //maximum number of bytes of held rows kept in memory
+	private final Path spillDirectory; //directory of the spill file
+	private final ByteKeySet known; //keys published so far, shared with the extraction and guarded by the lock of the store
+	private boolean complete; //true once no more keys will be published
+
+	private byte[] arena; //held rows, as entries of header, key and row
+	private int arenaSize; //number of bytes used in arena
+	private long liveBytes; //number of bytes of arena used by rows still held
+	private int[] chainHeads; //hash table of offsets of the first held entry of each key, NONE once released
+	private int[] chainTails; //offsets of the last held entry of each key, NONE for unused slots
+	private int chains; //number of used slots
+
+	private Path spillFile; //file of rows that did not fit in memory, null until needed
+	private DataOutputStream spill; //stream writing the spill file
+	private long spilledRows; //number of rows written to the spill file
+
+
+	/**
+	 * Constructor for PendingRowStore
+	 *
+	 * @param OutputStream out: stream matching rows are written to, each followed by "\n"
+	 * @param ByteKeySet keys: set the wanted keys are added to by publish, only accessed through the store while it is in use
+	 * @param long memoryLimit: maximum number of bytes of held rows kept in memory
+	 * @param Path spillDirectory: directory the spill file is created in, or null for the default temporary directory
+	 */
+	PendingRowStore(OutputStream out, ByteKeySet keys, long memoryLimit, Path spillDirectory) {
+		this.out = out;
+		this.known = keys;
+		this.memoryLimit = Math.min(memoryLimit, Integer.MAX_VALUE - 8); //arena is a single array
+		this.spillDirectory = spillDirectory;
+		clearMemory();
+	}
+
+
+	/**
+	 * Publishes a wanted key, adding it to the set of keys. Rows held for that key are written out.
+	 *
+	 * @param byte[] buf: array containing the key
+	 * @param int start: index of first byte of the key
+	 * @param int end: index one past the last byte of the key
+	 * @return boolean: true if the key was added to the set, false if it was already published
+	 * @throws IOException: throws exception if the released rows can't be written
+	 */
+	synchronized boolean publish(byte[] buf, int start, int end) throws IOException {
+		if (!known.add(buf, start, end)) {return false;}
+		int slot = findChain(buf, start, end);
+		if (chainTails[slot] == NONE || chainHeads[slot] == NONE) {return true;} //no rows held for the key
+
+		for (int entry = chainHeads[slot]; entry != NONE; entry = readInt(entry)) { //release every row held for the key
+			int keyLength = readInt(entry + 4);
+			int rowLength = readInt(entry + 8);
+			int rowStart = entry + ENTRY_HEADER + keyLength;
+			writeRow(arena, rowStart, rowStart + rowLength);
+			liveBytes -= ENTRY_HEADER + keyLength + rowLength; //reclaimed by the next compaction
+		}
+		chainHeads[slot] = NONE; //tail is kept so the slot still holds the key while probing
+		return true;
+	}
+
+
+	/**
+	 * Declares that every wanted key has been published. Rows still held in memory are dropped.
+	 */
+	synchronized void complete() {
+		complete = true;
+		clearMemory();
+	}
+
+
+	/**
+	 * Offers a row. It is written out if its key is known, dropped if every key is known, and held otherwise.
+	 *
+	 * @param byte[] buf: array containing the row
+	 * @param int keyStart: index of first byte of the key of the row
+	 * @param int keyEnd: index one past the last byte of the key of the row
+	 * @param int rowStart: index of first byte of the row
+	 * @param int rowEnd: index one past the last byte of the row, terminator excluded
+	 * @throws IOException: throws exception if the row can't be written or spilled
+	 */
+	synchronized void offer(byte[] buf, int keyStart, int keyEnd, int rowStart, int rowEnd) throws IOException {
+		if (known.contains(buf, keyStart, keyEnd)) {
+			writeRow(buf, rowStart, rowEnd);
+			return;
+		}
+		if (complete) {return;}
+
+		int entrySize = ENTRY_HEADER + (keyEnd - keyStart) + (rowEnd - rowStart);
+		if (liveBytes + entrySize > memoryLimit) { //no room left in memory, even once released rows are reclaimed
+			spill(buf, keyStart, keyEnd, rowStart, rowEnd);
+			return;
+		}
+		hold(buf, keyStart, keyEnd, rowStart, rowEnd, entrySize);
+	}
+
+
+	/**
+	 * Writes out the spilled rows whose key was published. Must be called after complete().
+	 *
+	 * @throws IOException: throws exception if the spill file can't be read or the rows can't be written
+	 */
+	synchronized void drain() throws IOException {
+		if (!complete) {throw new IllegalStateException("keys are not complete");}
+		if (spill == null) {return;}
+		spill.close();
+		spill = null;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile), 1 << 16))) {
+			byte[] entry = new byte[256];
+			for (long i = 0; i < spilledRows; i++) {
+				int keyLength = in.readInt();
+				int rowLength = in.readInt();
+				if (entry.length < keyLength + rowLength) {entry = new byte[(keyLength + rowLength) * 2];}
+				in.readFully(entry, 0, keyLength + rowLength);
+				if (known.contains(entry, 0, keyLength)) {
+					writeRow(entry, keyLength, keyLength + rowLength);
+				}
+			}
+		} catch (EOFException e) {
+			throw new IOException("spill file " + spillFile + " is truncated", e);
+		}
+	}
+
+
+	/**
+	 * Writes a row to the output, followed by "\n".
+	 *
+	 * @param byte[] buf: array containing the row
+	 * @param int start: index of first byte of the row
+	 * @param int end: index one past the last byte of the row, terminator excluded
+	 * @throws IOException: throws exception if the row can't be written
+	 */
+	synchronized void writeRow(byte[] buf, int start, int end) throws IOException {
+		out.write(buf, start, end - start);
+		out.write('\n');
+	}
+
+
+	/**
+	 * @return long: number of rows that did not fit in memory and were spilled to disk
+	 */
+	synchronized long getSpilledRows() {
+		return spilledRows;
+	}
+
+
+	/**
+	 * Deletes the spill file.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (spill != null) {
+			spill.close();
+			spill = null;
+		}
+		if (spillFile != null) {
+			Files.deleteIfExists(spillFile);
+			spillFile = null;
+		}
+	}
+
+
+	/**
+	 * Adds a row to the in-memory arena, at the end of the chain of its key.
+	 */
+	private void hold(byte[] buf, int keyStart, int keyEnd, int rowStart, int rowEnd, int entrySize) {
+		if (arenaSize + entrySize > arena.length) {
+			if (liveBytes * 2 < arenaSize || arenaSize + (long) entrySize > memoryLimit) {compact();} //reuse released space first
+			if (arenaSize + entrySize > arena.length) {
+				arena = Arrays.copyOf(arena, (int) Math.min(Math.max(arena.length * 2L, arenaSize + entrySize), memoryLimit));
+			}
+		}
+		int entry = arenaSize;
+		writeInt(entry, NONE);
+		writeInt(entry + 4, keyEnd - keyStart);
+		writeInt(entry + 8, rowEnd - rowStart);
+		System.arraycopy(buf, keyStart, arena, entry + ENTRY_HEADER, keyEnd - keyStart);
+		System.arraycopy(buf, rowStart, arena, entry + ENTRY_HEADER + (keyEnd - keyStart), rowEnd - rowStart);
+		arenaSize += entrySize;
+		liveBytes += entrySize;
+
+		int slot = findChain(buf, keyStart, keyEnd);
+		if (chainTails[slot] == NONE) { //first row held for the key (a released key is known, so never held again)
+			chains++;
+			chainHeads[slot] = entry;
+		} else {
+			writeInt(chainTails[slot], entry); //link from previous last entry
+		}
+		chainTails[slot] = entry;
+		if (chains * 2 > chainHeads.length) {rehash();}
+	}
+
+
+	/**
+	 * Appends a row to the spill file, creating it if needed.
+	 */
+	private void spill(byte[] buf, int keyStart, int keyEnd, int rowStart, int rowEnd) throws IOException {
+		if (spill == null) {
+			spillFile = spillDirectory == null ? Files.createTempFile("pending-rows", ".spill")
+					: Files.createTempFile(spillDirectory, "pending-rows", ".spill");
+			spill = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile), 1 << 16));
+		}
+		spill.writeInt(keyEnd - keyStart);
+		spill.writeInt(rowEnd - rowStart);
+		spill.write(buf, keyStart, keyEnd - keyStart);
+		spill.write(buf, rowStart, rowEnd - rowStart);
+		spilledRows++;
+	}
+
+
+	/**
+	 * Finds the slot of the chain of a key, or the empty slot where it would go.
+	 */
+	private int findChain(byte[] buf, int start, int end) {
+		int mask = chainHeads.length - 1;
+		int slot = hash(buf, start, end) & mask;
+		while (chainTails[slot] != NONE) {
+			if (keyEquals(chainTails[slot], buf, start, end)) {return slot;}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+
+	/**
+	 * Doubles the size of the chain table.
+	 */
+	private void rehash() {
+		int[] oldHeads = chainHeads;
+		int[] oldTails = chainTails;
+		chainHeads = new int[oldHeads.length * 2];
+		chainTails = new int[oldHeads.length * 2];
+		Arrays.fill(chainTails, NONE);
+		int mask = chainHeads.length - 1;
+		for (int i = 0; i < oldHeads.length; i++) {
+			int tail = oldTails[i];
+			if (tail == NONE) {continue;}
+			int slot = hash(arena, tail + ENTRY_HEADER, tail + ENTRY_HEADER + readInt(tail + 4)) & mask;
+			while (chainTails[slot] != NONE) {
+				slot = (slot + 1) & mask;
+			}
+			chainHeads[slot] = oldHeads[i];
+			chainTails[slot] = tail;
+		}
+	}
+
+
+	/**
+	 * Moves the rows still held to the start of a new arena of the same size, in the order of their chains, and rebuilds the
+	 * chain table with their keys only. The space of released rows, and the slots of released keys (which are known, so never
+	 * held again), are reclaimed.
+	 */
+	private void compact() {
+		byte[] old = arena;
+		int[] oldHeads = chainHeads;
+		int[] oldTails = chainTails;
+		arena = new byte[old.length];
+		arenaSize = 0;
+		int live = 0; //number of chains still held
+		for (int i = 0; i < oldHeads.length; i++) {
+			if (oldTails[i] != NONE && oldHeads[i] != NONE) {live++;}
+		}
+		int capacity = 64;
+		while (live * 2 > capacity) {capacity *= 2;}
+		chainHeads = new int[capacity];
+		chainTails = new int[capacity];
+		Arrays.fill(chainTails, NONE);
+		chains = live;
+
+		int mask = capacity - 1;
+		for (int i = 0; i < oldHeads.length; i++) {
+			if (oldTails[i] == NONE || oldHeads[i] == NONE) {continue;} //unused slot, or key released
+			int head = oldHeads[i];
+			int slot = hash(old, head + ENTRY_HEADER, head + ENTRY_HEADER + readInt(old, head + 4)) & mask;
+			while (chainTails[slot] != NONE) {
+				slot = (slot + 1) & mask;
+			}
+			chainHeads[slot] = arenaSize;
+			for (int entry = head; entry != NONE; entry = readInt(old, entry)) { //copy the chain, relinking its entries
+				if (entry != head) {writeInt(chainTails[slot], arenaSize);}
+				int size = ENTRY_HEADER + readInt(old, entry + 4) + readInt(old, entry + 8);
+				System.arraycopy(old, entry, arena, arenaSize, size);
+				writeInt(arenaSize, NONE);
+				chainTails[slot] = arenaSize;
+				arenaSize += size;
+			}
+		}
+		liveBytes = arenaSize;
+	}
+
+
+	/**
+	 * Drops every row held in memory.
+	 */
+	private void clearMemory() {
+		arena = new byte[complete ? 0 : (int) Math.min(1 << 16, memoryLimit)];
+		arenaSize = 0;
+		liveBytes = 0;
+		chainHeads = new int[64];
+		chainTails = new int[64];
+		Arrays.fill(chainTails, NONE);
+		chains = 0;
+	}
+
+
+	private boolean keyEquals(int entry, byte[] buf, int start, int end) {
+		int keyLength = readInt(entry + 4);
+		if (keyLength != end - start) {return false;}
+		int base = entry + ENTRY_HEADER;
+		for (int i = 0; i < keyLength; i++) {
+			if (arena[base + i] != buf[start + i]) {return false;}
+		}
+		return true;
+	}
+
+
+	private static int hash(byte[] buf, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + buf[i];
+		}
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+
+	private int readInt(int offset) {
+		return readInt(arena, offset);
+	}
+
+
+	private static int readInt(byte[] arena, int offset) {
+		return (arena[offset] << 24) | ((arena[offset + 1] & 0xFF) << 16) | ((arena[offset + 2] & 0xFF) << 8) | (arena[offset + 3] & 0xFF);
+	}
+
+
+	private void writeInt(int offset, int value) {
+		arena[offset] = (byte) (value >>> 24);
+		arena[offset + 1] = (byte) (value >>> 16);
+		arena[offset + 2] = (byte) (value >>> 8);
+		arena[offset + 3] = (byte) value;
+	}
+
+}
@@ -0,0 +1,120 @@
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Unit tests for PendingRowStore Class: publish, complete, offer and drain
+ */
+public class PendingRowStoreTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	
+	/**
+	 * Offers a row whose key is its first field.
+	 */
+	private static void offer(PendingRowStore store, String row) throws IOException {
+		byte[] bytes = row.getBytes(StandardCharsets.UTF_8);
+		int comma = row.indexOf(',');
+		store.offer(bytes, 0, comma, 0, bytes.length);
+	}
+	
+	
+	private static void publish(PendingRowStore store, String key) throws IOException {
+		byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		store.publish(bytes, 0, bytes.length);
+	}
+	
+	
+	/**
+	 * Test method for {@link PendingRowStore#offer(byte[], int, int, int, int)}.
+	 * 
+	 * Tests the store when rows arrive before, after and without their key being published.
+	 * Expected behavior is that rows of published keys are written once, and the other rows are dropped.
+	 */
+	@Test
+	public void offer_RowsBeforeAndAfterPublish_OnlyPublishedRowsWritten() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (PendingRowStore store = new PendingRowStore(out, new ByteKeySet(), 1 << 20, folder.getRoot().toPath())) {
+			offer(store, "A,1");
+			offer(store, "B,2");
+			offer(store, "A,3");
+			assertEquals("", out.toString("UTF-8"));
+			publish(store, "A");
+			assertEquals("A,1\nA,3\n", out.toString("UTF-8"));
+			offer(store, "A,4");
+			offer(store, "C,5");
+			store.complete();
+			offer(store, "B,6");
+			store.drain();
+			assertEquals("A,1\nA,3\nA,4\n", out.toString("UTF-8"));
+			assertEquals(0, store.getSpilledRows());
+		}
+	}
+	
+	
+	/**
+	 * Test method for {@link PendingRowStore#drain()}.
+	 * 
+	 * Tests the store when held rows don't fit in memory.
+	 * Expected behavior is that rows are spilled to disk and written on drain if their key was published by then.
+	 */
+	@Test
+	public void drain_RowsSpilledToDisk_PublishedRowsWrittenOnDrain() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (PendingRowStore store = new PendingRowStore(out, new ByteKeySet(), 20, folder.getRoot().toPath())) {
+			offer(store, "A,1"); //held in memory
+			offer(store, "B,2"); //spilled
+			offer(store, "C,3"); //spilled
+			publish(store, "A");
+			publish(store, "C");
+			store.complete();
+			assertEquals("A,1\n", out.toString("UTF-8"));
+			store.drain();
+			assertEquals("A,1\nC,3\n", out.toString("UTF-8"));
+			assertEquals(2, store.getSpilledRows());
+		}
+		assertEquals(0, folder.getRoot().list().length);
+	}
+	
+	
+	/**
+	 * Test method for {@link PendingRowStore#offer(byte[], int, int, int, int)}.
+	 * 
+	 * Tests the store when far more bytes of rows are held over time than its memory limit, but few are held at once: each
+	 * key is published soon after its row, while the rows of one key stay held throughout.
+	 * Expected behavior is that the space of released rows is reused, so no row is spilled, and that every row is written
+	 * once, the rows of each key in the order they were offered.
+	 */
+	@Test
+	public void offer_HeldRowsReleasedOverTime_MemoryReusedWithoutSpilling() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StringBuilder expected = new StringBuilder();
+		try (PendingRowStore store = new PendingRowStore(out, new ByteKeySet(), 256, folder.getRoot().toPath())) {
+			offer(store, "Z,first"); //held until the end, across compactions (about 10KB are held in total)
+			for (int i = 0; i < 200; i++) {
+				offer(store, "K" + i + ",row" + i);
+				offer(store, "K" + i + ",again" + i);
+				if (i == 100) {offer(store, "Z,second");}
+				if (i > 0) { //the rows of the previous key are released once the next ones are held
+					publish(store, "K" + (i - 1));
+					expected.append("K" + (i - 1) + ",row" + (i - 1) + "\n" + "K" + (i - 1) + ",again" + (i - 1) + "\n");
+				}
+			}
+			publish(store, "K199");
+			publish(store, "Z");
+			expected.append("K199,row199\nK199,again199\nZ,first\nZ,second\n");
+			store.complete();
+			store.drain();
+			assertEquals(expected.toString(), out.toString("UTF-8"));
+			assertEquals(0, store.getSpilledRows());
+		}
+	}
+	
+}
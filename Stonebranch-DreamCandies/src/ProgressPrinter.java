@@ -0,0 +1,62 @@
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * The ProgressPrinter class is an ExtractionListener printing one line per pass at most every few seconds while it runs,
+ * and one line when it completes: rows and bytes read, their rates, matching rows, and the estimated time left.
+ */
+public class ProgressPrinter implements ExtractionListener {
+
+	private final PrintStream out; //stream progress is printed to
+	private final long intervalNanos; //minimum time between two lines of a pass
+	private long lastPrinted = System.nanoTime(); //time the last progress line was printed
+
+
+	/**
+	 * Constructor for ProgressPrinter
+	 *
+	 * @param PrintStream out: stream progress is printed to, e.g. System.err
+	 * @param int intervalSeconds: minimum number of seconds between two progress lines
+	 */
+	public ProgressPrinter(PrintStream out, int intervalSeconds) {
+		this.out = out;
+		this.intervalNanos = intervalSeconds * 1000000000L;
+	}
+
+
+	@Override
+	public synchronized void progress(PassMetrics pass) {
+		long now = System.nanoTime();
+		if (now - lastPrinted < intervalNanos) {return;}
+		lastPrinted = now;
+		out.println(line(pass, "running"));
+	}
+
+
+	@Override
+	public synchronized void passFinished(PassMetrics pass) {
+		out.println(line(pass, "done"));
+	}
+
+
+	/**
+	 * @return String: description of the progress of a pass
+	 */
+	private static String line(PassMetrics pass, String state) {
+		StringBuilder line = new StringBuilder();
+		line.append(String.format(Locale.ROOT, "%-12s %-7s %.1fs", pass.getPass(), state, pass.getElapsedNanos() / 1e9));
+		if (pass.getRowsScanned() >= 0) {
+			line.append(String.format(Locale.ROOT, ", %,d rows (%,.0f rows/s)", pass.getRowsScanned(), pass.getRowsPerSecond()));
+		}
+		if (pass.getBytesRead() >= 0) {
+			line.append(String.format(Locale.ROOT, ", %.1f MB (%.1f MB/s)", pass.getBytesRead() / 1e6, pass.getMegabytesPerSecond()));
+		}
+		line.append(String.format(Locale.ROOT, ", %,d matched", pass.getRowsMatched()));
+		long remaining = pass.getRemainingNanos();
+		if (remaining >= 0 && state.equals("running")) {
+			line.append(String.format(Locale.ROOT, ", %.0f%% ETA %.0fs", 100.0 * pass.getBytesRead() / pass.getInputBytes(), remaining / 1e9));
+		}
+		return line.toString();
+	}
+
+}
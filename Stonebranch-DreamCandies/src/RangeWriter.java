@@ -0,0 +1,248 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The RangeWriter class writes rows of a file to an output, copying runs of consecutive rows straight from the file to the
+ * output with FileChannel.transferTo, so their bytes never pass through the heap. Rows written one after another that are
+ * also adjacent in the file, each ending with "\n" as the output requires, form a run: the run is tracked as a single byte
+ * range of the file, and copied in one call once the run ends.
+ *
+ * A transfer costs a system call, where buffering a row costs a copy, so a run is only copied as a range once it reaches
+ * MIN_TRANSFER bytes. Until then its rows are buffered like any other output, as are rows ending with "\r\n", "\r" or no
+ * terminator at all (their terminator is replaced with "\n", so their bytes differ from the file's). When the output is a
+ * FileOutputStream the transfer stays in the kernel; any other output receives the range through the JDK's copy instead.
+ */
+class RangeWriter extends OutputStream {
+
+	static final int MIN_TRANSFER = 16 << 10; //length from which a run of rows is copied as a range rather than buffered
+	private static final int BUFFER_SIZE = 1 << 16; //64K buffer for rows that aren't copied as a range
+
+	private final FileChannel source; //file the rows are read from
+	private final OutputStream out; //output, closed with the writer
+	private final WritableByteChannel target; //channel of out, the FileChannel of a FileOutputStream
+	private final ByteBuffer buffer; //bytes written before the current run, or of a short run
+	private long runStart = -1; //offset in the source of the first byte of the run not yet written out, -1 if no run
+	private long runEnd = -1; //offset in the source one past the last byte of the run
+	private int runBuffered; //position in buffer of the first byte of the run, while it is buffered
+	private boolean ranged; //true once the run is long enough to be copied as a range (it's no longer buffered)
+	private long rows; //number of rows written
+	private long bytes; //number of bytes written
+
+
+	/**
+	 * Constructor for RangeWriter
+	 *
+	 * @param FileChannel source: channel of the file the rows are read from, closed with the writer
+	 * @param OutputStream out: output, closed with the writer
+	 */
+	RangeWriter(FileChannel source, OutputStream out) {
+		this(source, out, ByteBuffer.allocate(BUFFER_SIZE));
+	}
+
+
+	/**
+	 * Constructor for RangeWriter with a given buffer, e.g. a direct ByteBuffer, which a FileChannel writes from without copying
+	 * it first (see IoConfig)
+	 *
+	 * @param FileChannel source: channel of the file the rows are read from, closed with the writer
+	 * @param OutputStream out: output, closed with the writer
+	 * @param ByteBuffer buffer: empty buffer for rows that aren't copied as a range
+	 */
+	RangeWriter(FileChannel source, OutputStream out, ByteBuffer buffer) {
+		this.source = source;
+		this.out = out;
+		this.target = Channels.newChannel(out);
+		this.buffer = buffer;
+	}
+
+
+	/**
+	 * Writes a row of the source followed by a "\n" terminator.
+	 *
+	 * @param long offset: offset of the row in the source
+	 * @param byte[] buf: array holding the row
+	 * @param int start: index of first byte of the row
+	 * @param int end: index one past the last byte of the row, terminator excluded
+	 * @param boolean newline: true if the row is followed by "\n" in the source, so the source holds exactly its output bytes
+	 * @throws IOException: throws exception if the row can't be written
+	 */
+	void writeRow(long offset, byte[] buf, int start, int end, boolean newline) throws IOException {
+		int length = end - start + 1; //terminator included
+		if (!startRow(offset, length, newline)) {return;}
+		if (length > buffer.capacity()) { //row longer than the buffer
+			writeLongRow(ByteBuffer.wrap(buf, start, end - start));
+			return;
+		}
+		buffer.put(buf, start, end - start).put((byte) '\n');
+		endRow();
+	}
+
+
+	/**
+	 * Writes a row of the source followed by a "\n" terminator, from a buffer holding it such as a memory-mapped region of the
+	 * source, so that the row isn't copied to the heap first. Rows that are part of a run copied as a range aren't read at all.
+	 *
+	 * @param long offset: offset of the row in the source
+	 * @param ByteBuffer row: buffer whose remaining bytes are the row, terminator excluded (its position is moved to its limit)
+	 * @param boolean newline: true if the row is followed by "\n" in the source, so the source holds exactly its output bytes
+	 * @throws IOException: throws exception if the row can't be written
+	 */
+	void writeRow(long offset, ByteBuffer row, boolean newline) throws IOException {
+		int length = row.remaining() + 1; //terminator included
+		if (!startRow(offset, length, newline)) {return;}
+		if (length > buffer.capacity()) { //row longer than the buffer
+			writeLongRow(row);
+			return;
+		}
+		buffer.put(row).put((byte) '\n');
+		endRow();
+	}
+
+
+	/**
+	 * Counts a row and places it in the current run, or ends the run if the row doesn't extend it.
+	 *
+	 * @return boolean: true if the bytes of the row must be written, false if the row extends a run copied as a range
+	 */
+	private boolean startRow(long offset, int length, boolean newline) throws IOException {
+		rows++;
+		bytes += length;
+		if (!newline || offset != runEnd) { //row doesn't extend the current run
+			endRun();
+		}
+		if (ranged) {
+			runEnd += length;
+			return false;
+		}
+
+		if (buffer.remaining() < length) {
+			flushBuffer();
+			if (runStart >= 0) { //the buffered part of the run is written, the rest starts here
+				runStart = offset;
+				runBuffered = 0;
+			}
+		}
+		if (newline && runStart < 0) { //row starts a run
+			runStart = offset;
+			runBuffered = buffer.position();
+		}
+		if (newline) {runEnd = offset + length;}
+		return true;
+	}
+
+
+	/**
+	 * Switches the current run to a range copy once it is long enough, dropping it from the buffer.
+	 */
+	private void endRow() throws IOException {
+		if (runStart >= 0 && runEnd - runStart >= MIN_TRANSFER) { //run long enough: drop it from the buffer, copy it as a range
+			buffer.position(runBuffered);
+			flushBuffer();
+			ranged = true;
+		}
+	}
+
+
+	/**
+	 * Writes a row longer than the buffer (which startRow has flushed) straight to the output, ending the run.
+	 */
+	private void writeLongRow(ByteBuffer row) throws IOException {
+		while (row.hasRemaining()) {target.write(row);}
+		target.write(ByteBuffer.wrap(new byte[] {'\n'}));
+		runStart = -1;
+		runEnd = -1;
+	}
+
+
+	/**
+	 * Ends the current run, copying it if it is long enough to be copied as a range, and leaving it buffered otherwise.
+	 */
+	private void endRun() throws IOException {
+		if (ranged) {
+			long position = runStart;
+			while (position < runEnd) {
+				long n = source.transferTo(position, runEnd - position, target);
+				if (n <= 0) {throw new IOException("source ended before its rows were copied");}
+				position += n;
+			}
+			ranged = false;
+		}
+		runStart = -1;
+		runEnd = -1;
+	}
+
+
+	/**
+	 * Writes out the buffer.
+	 */
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {target.write(buffer);}
+		buffer.clear();
+	}
+
+
+	@Override
+	public void write(int b) throws IOException {
+		endRun();
+		if (!buffer.hasRemaining()) {flushBuffer();}
+		buffer.put((byte) b);
+		bytes++;
+	}
+
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		endRun();
+		if (buffer.remaining() < len) {flushBuffer();}
+		if (len > buffer.capacity()) {
+			target.write(ByteBuffer.wrap(b, off, len));
+		} else {
+			buffer.put(b, off, len);
+		}
+		bytes += len;
+	}
+
+
+	@Override
+	public void flush() throws IOException {
+		endRun();
+		flushBuffer();
+		out.flush();
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			try {
+				out.close();
+			} finally {
+				source.close();
+			}
+		}
+	}
+
+
+	/**
+	 * @return long: number of rows written with writeRow
+	 */
+	long rows() {
+		return rows;
+	}
+
+
+	/**
+	 * @return long: number of bytes written, terminators included
+	 */
+	long bytes() {
+		return bytes;
+	}
+
+}
@@ -0,0 +1,109 @@
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Unit tests for RangeWriter Class: writeRow through CsvScanner and RowFetcher
+ */
+public class RangeWriterTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	
+	/**
+	 * Writes a file of rows "R<i>,<padding>" ending with "\n", except every 97th with "\r\n", every 89th with "\r", and the
+	 * last one without a terminator.
+	 * 
+	 * @return File: the file
+	 */
+	private File rows(int count, String padding) throws IOException {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			content.append('R').append(i).append(',').append(padding);
+			if (i < count - 1) {content.append(i % 97 == 0 ? "\r\n" : i % 89 == 0 ? "\r" : "\n");}
+		}
+		File file = folder.newFile();
+		Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+	
+	
+	/**
+	 * @return boolean: true if row i is selected: long runs of rows, then isolated rows, and the last row
+	 */
+	private static boolean selected(int i, int count) {
+		return (i >= 100 && i < 2500) || (i >= 3000 && i % 7 == 0) || i == count - 1;
+	}
+	
+	
+	/**
+	 * Test method for {@link RangeWriter#writeRow(long, byte[], int, int, boolean)}.
+	 * 
+	 * Tests the rows of a scanned file, with runs longer than MIN_TRANSFER, isolated rows and rows not ending with "\n",
+	 * written to a file after a header written as bytes.
+	 * Expected behavior is that the output holds the header and the selected rows, in order, each followed by "\n".
+	 */
+	@Test
+	public void writeRow_ScannedRowsToFile_SameBytesAsWrittenRows() throws IOException {
+		int count = 5000;
+		File input = rows(count, "abcdefghijklmnopqrstuvwxyz");
+		File output = folder.newFile();
+		StringBuilder expected = new StringBuilder("HEADER\n");
+		try (CsvScanner scanner = new CsvScanner(new FileInputStream(input));
+				RangeWriter out = new RangeWriter(FileChannel.open(input.toPath(), StandardOpenOption.READ), new FileOutputStream(output))) {
+			out.write("HEADER\n".getBytes(StandardCharsets.UTF_8));
+			for (int i = 0; scanner.nextLine(); i++) {
+				if (selected(i, count)) {
+					scanner.writeLine(out);
+					expected.append(new String(scanner.buffer(), scanner.lineStart(), scanner.lineEnd() - scanner.lineStart(), StandardCharsets.UTF_8)).append('\n');
+				}
+			}
+			assertEquals(expected.length(), out.bytes());
+		}
+		assertTrue(expected.length() > 4 * RangeWriter.MIN_TRANSFER);
+		assertEquals(expected.toString(), new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8));
+	}
+	
+	
+	/**
+	 * Test method for {@link RangeWriter#writeRow(long, byte[], int, int, boolean)}.
+	 * 
+	 * Tests rows fetched at their offsets, some longer than the buffer of the writer, written to a stream that isn't a file.
+	 * Expected behavior is that the stream receives the selected rows, in order, each followed by "\n".
+	 */
+	@Test
+	public void writeRow_FetchedLongRowsToStream_SameBytesAsWrittenRows() throws IOException {
+		StringBuilder padding = new StringBuilder();
+		for (int i = 0; i < 3000; i++) {padding.append("0123456789");}
+		int count = 300;
+		File input = rows(count, padding.toString());
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		StringBuilder expected = new StringBuilder();
+		try (FileChannel channel = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+				RangeWriter out = new RangeWriter(FileChannel.open(input.toPath(), StandardOpenOption.READ), output)) {
+			RowFetcher rows = new RowFetcher(channel);
+			long offset = 0;
+			for (int i = 0; rows.fetch(offset); i++) {
+				if (i % 5 != 0 || i == count - 1) {
+					rows.writeRow(out);
+					expected.append(new String(rows.buffer(), rows.rowStart(), rows.rowEnd() - rows.rowStart(), StandardCharsets.UTF_8)).append('\n');
+				}
+				offset = rows.nextRow();
+			}
+		}
+		assertEquals(expected.toString(), new String(output.toByteArray(), StandardCharsets.UTF_8));
+	}
+	
+}
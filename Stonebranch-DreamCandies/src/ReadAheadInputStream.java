@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The ReadAheadInputStream class reads another stream on a background thread, keeping up to a fixed number of blocks
+ * buffered ahead of the consumer. It lets a file be read from disk while the thread that will scan it is still busy (or
+ * waiting), and bounds the memory used to do so to blockCount * blockSize bytes.
+ */
+class ReadAheadInputStream extends InputStream {
+
+	private final InputStream in; //stream read on the background thread
+	private final BlockingQueue<Block> filled; //blocks read from the stream, in order
+	private final BlockingQueue<Block> free; //empty blocks available to the background thread
+	private final int blockSize; //size of each block in bytes
+	private final int blockCount; //maximum number of blocks
+	private int allocated; //number of blocks created so far
+	private final Thread reader; //background thread reading the stream
+	private Block current; //block being consumed, null if none
+	private int position; //index of next byte to return from current
+	private boolean eof; //true once the end marker was consumed
+	private volatile boolean closed; //true once close() was called
+	private volatile IOException failure; //exception thrown by the stream on the background thread
+
+
+	/**
+	 * Constructor for ReadAheadInputStream. Reading starts immediately.
+	 *
+	 * @param InputStream in: stream to read ahead
+	 * @param int blockSize: size of each buffered block in bytes
+	 * @param int blockCount: maximum number of blocks buffered ahead of the consumer
+	 */
+	ReadAheadInputStream(InputStream in, int blockSize, int blockCount) {
+		this.in = in;
+		this.filled = new ArrayBlockingQueue<Block>(blockCount + 1);
+		this.free = new ArrayBlockingQueue<Block>(blockCount);
+		this.blockSize = blockSize;
+		this.blockCount = blockCount;
+		this.reader = new Thread(this::readAhead, "read-ahead");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+
+	/**
+	 * Body of the background thread: fills free blocks from the stream until its end, then adds an end marker.
+	 */
+	private void readAhead() {
+		try {
+			while (!closed) {
+				Block block = free.poll();
+				if (block == null && allocated < blockCount) { //blocks are only created when the consumer falls behind
+					block = new Block(blockSize);
+					allocated++;
+				} else if (block == null) {
+					block = free.take();
+				}
+				int n = in.read(block.data, 0, block.data.length);
+				if (n < 0) {break;}
+				block.length = n;
+				filled.put(block);
+			}
+		} catch (IOException e) {
+			failure = e;
+		} catch (InterruptedException e) {
+			return; //closed by consumer
+		}
+		filled.offer(Block.END);
+	}
+
+
+	@Override
+	public int read() throws IOException {
+		byte[] one = new byte[1];
+		int n = read(one, 0, 1);
+		return n < 0 ? -1 : one[0] & 0xFF;
+	}
+
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {return 0;}
+		while (current == null || position == current.length) {
+			if (eof) {return -1;}
+			if (current != null) {free.offer(current);} //hand the consumed block back
+			current = null;
+			try {
+				Block block = filled.take();
+				if (block == Block.END) {
+					eof = true;
+					if (failure != null) {throw failure;}
+					return -1;
+				}
+				current = block;
+				position = 0;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting for read-ahead");
+			}
+		}
+		int n = Math.min(len, current.length - position);
+		System.arraycopy(current.data, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		reader.interrupt();
+		in.close();
+	}
+
+
+	/**
+	 * Buffer holding one block of the stream.
+	 */
+	private static class Block {
+
+		static final Block END = new Block(0); //marker following the last block
+
+		final byte[] data;
+		int length; //number of valid bytes in data
+
+		Block(int size) {
+			data = new byte[size];
+		}
+
+	}
+
+}
@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The ReaderInputStream class exposes the characters of a Reader as a stream of UTF-8 bytes. It lets data handed to
+ * TestFileFilter as a Reader (for example an in-memory StringReader) go through the same byte level scanning as files.
+ */
+class ReaderInputStream extends InputStream {
+
+	private final Reader reader; //source of characters
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final CharBuffer chars = CharBuffer.allocate(8192); //characters read but not yet encoded
+	private final ByteBuffer bytes = ByteBuffer.allocate(8192 * 3); //encoded bytes not yet returned
+	private boolean eof; //true once the reader is exhausted
+	private boolean flushed; //true once the encoder has been flushed
+
+
+	/**
+	 * Constructor for ReaderInputStream
+	 *
+	 * @param Reader reader: reader to encode
+	 */
+	ReaderInputStream(Reader reader) {
+		this.reader = reader;
+		chars.flip();
+		bytes.flip();
+	}
+
+
+	@Override
+	public int read() throws IOException {
+		byte[] one = new byte[1];
+		int n = read(one, 0, 1);
+		return n < 0 ? -1 : one[0] & 0xFF;
+	}
+
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {return 0;}
+		while (!bytes.hasRemaining()) {
+			if (flushed) {return -1;}
+			encodeMore();
+		}
+		int n = Math.min(len, bytes.remaining());
+		bytes.get(b, off, n);
+		return n;
+	}
+
+
+	/**
+	 * Reads more characters from the reader and encodes them into the byte buffer.
+	 */
+	private void encodeMore() throws IOException {
+		if (!eof) {
+			chars.compact();
+			int n = reader.read(chars);
+			if (n < 0) {eof = true;}
+			chars.flip();
+		}
+
+		bytes.compact();
+		CoderResult result = encoder.encode(chars, bytes, eof);
+		if (result.isError()) {result.throwException();}
+		if (eof && !chars.hasRemaining() && encoder.flush(bytes).isUnderflow()) {
+			flushed = true;
+		}
+		bytes.flip();
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+}
@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The RowFetcher class reads single rows of a file given the offset at which each row starts. It keeps a window of the file
+ * in memory, so fetching rows in increasing offset order reads each region of the file only once. Rows end at the first
+ * "\n" or "\r", as with CsvScanner, and fields are located in the same way (without their quotes).
+ */
+class RowFetcher {
+
+	private final FileChannel channel; //channel of the file rows are read from
+	private final long size; //size of the file
+	private byte[] window = new byte[4096]; //bytes of the file starting at windowOffset, one page as matching rows are usually far apart
+	private long windowOffset; //offset in the file of window[0]
+	private int windowLength; //number of valid bytes in window
+	private int rowStart; //index in window of first byte of current row
+	private int rowEnd; //index in window one past the last byte of current row, terminator excluded
+	private long nextRow; //offset in the file of the row following the current row
+	private int fieldStart; //index in window of first byte of the last located field
+	private int fieldEnd; //index in window one past the last byte of the last located field
+
+
+	/**
+	 * Constructor for RowFetcher
+	 *
+	 * @param FileChannel channel: channel of the file rows are read from
+	 * @throws IOException: throws exception if the size of the file can't be read
+	 */
+	RowFetcher(FileChannel channel) throws IOException {
+		this.channel = channel;
+		this.size = channel.size();
+	}
+
+
+	/**
+	 * Reads the row starting at an offset. Its bounds are then given by rowStart() and rowEnd().
+	 *
+	 * @param long offset: offset of first byte of the row
+	 * @return boolean: true if the row was read, false if the offset is past the end of the file
+	 * @throws IOException: throws exception if the file can't be read
+	 */
+	boolean fetch(long offset) throws IOException {
+		if (offset >= size) {return false;}
+		if (offset < windowOffset || offset >= windowOffset + windowLength) {
+			load(offset, 0);
+		}
+		int i = (int) (offset - windowOffset);
+		rowStart = i;
+		while (true) {
+			byte[] buf = window;
+			int end = windowLength;
+			while (i < end && buf[i] != '\n' && buf[i] != '\r') {i++;}
+			boolean lastWindow = windowOffset + windowLength >= size;
+			if (i < end - 1 || (i < end && buf[i] == '\n') || lastWindow) { //found terminator (and the byte after a "\r") or end of file
+				rowEnd = i;
+				if (i == end) {
+					nextRow = windowOffset + i;
+				} else if (buf[i] == '\r' && i + 1 < end && buf[i + 1] == '\n') {
+					nextRow = windowOffset + i + 2;
+				} else {
+					nextRow = windowOffset + i + 1;
+				}
+				return true;
+			}
+			int keep = end - rowStart; //row continues past the window, or ends with a "\r" at its last byte
+			int scanned = i - rowStart;
+			load(windowOffset + rowStart, keep);
+			i = scanned;
+			rowStart = 0;
+		}
+	}
+
+
+	/**
+	 * Fills the window from an offset of the file, growing it if the bytes to keep already fill it.
+	 */
+	private void load(long offset, int keep) throws IOException {
+		if (keep > 0 && offset != windowOffset) {
+			System.arraycopy(window, (int) (offset - windowOffset), window, 0, keep);
+		}
+		if (keep == window.length) {
+			byte[] grown = new byte[window.length * 2];
+			System.arraycopy(window, 0, grown, 0, keep);
+			window = grown;
+		}
+		windowOffset = offset;
+		windowLength = keep;
+		ByteBuffer buf = ByteBuffer.wrap(window, keep, window.length - keep);
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, offset + buf.position());
+			if (n < 0) {break;}
+		}
+		windowLength = buf.position();
+	}
+
+
+	/**
+	 * Locates a field of the current row. Field boundaries are then given by fieldStart() and fieldEnd(), without the pair of
+	 * double quotes around the field, if it has one.
+	 *
+	 * @param int column: zero-based index of the field
+	 * @return boolean: true if the row has that many fields, false otherwise
+	 */
+	boolean field(int column) {
+		int start = rowStart;
+		int i = start;
+		for (int c = 0; c < column; c++) {
+			while (i < rowEnd && window[i] != ',') {i++;}
+			if (i == rowEnd) {return false;}
+			start = ++i;
+		}
+		while (i < rowEnd && window[i] != ',') {i++;}
+		int open = CsvScanner.quoteAfter(window, start, i);
+		int close = open > 0 ? CsvScanner.quoteBefore(window, start + open, i) : 0;
+		fieldStart = close > 0 ? start + open : start;
+		fieldEnd = close > 0 ? i - close : i;
+		return true;
+	}
+
+
+	/**
+	 * Writes the current row followed by a "\n" terminator. A RangeWriter over the same file gets the row with its offset, so
+	 * that runs of rows can be copied from the file.
+	 *
+	 * @param OutputStream out: stream to write the row to
+	 * @throws IOException: throws exception if the row can't be written
+	 */
+	void writeRow(OutputStream out) throws IOException {
+		if (out instanceof RangeWriter) {
+			boolean newline = rowEnd < windowLength && window[rowEnd] == '\n';
+			((RangeWriter) out).writeRow(windowOffset + rowStart, window, rowStart, rowEnd, newline);
+			return;
+		}
+		out.write(window, rowStart, rowEnd - rowStart);
+		out.write('\n');
+	}
+
+
+	/**
+	 * @return byte[]: buffer holding the current row (only valid until the next call to fetch(long))
+	 */
+	byte[] buffer() {
+		return window;
+	}
+
+
+	/**
+	 * @return long: offset in the file of the row following the current row, or the size of the file if it is the last row
+	 */
+	long nextRow() {
+		return nextRow;
+	}
+
+
+	/**
+	 * @return long: size of the file
+	 */
+	long size() {
+		return size;
+	}
+
+
+	int rowStart() {
+		return rowStart;
+	}
+
+
+	int rowEnd() {
+		return rowEnd;
+	}
+
+
+	int fieldStart() {
+		return fieldStart;
+	}
+
+
+	int fieldEnd() {
+		return fieldEnd;
+	}
+
+}
@@ -0,0 +1,13 @@
+/**
+ * The RowLookup interface finds the rows of a full extraction file whose key is in a set of keys, from a structure built next
+ * to the file (KeyIndex, KeyColumns), so that only those rows have to be read.
+ */
+interface RowLookup {
+
+	/**
+	 * @param ByteKeySet keys: set of keys to look up
+	 * @return long[]: offsets of the rows whose key is in the set, in increasing order
+	 */
+	long[] lookup(ByteKeySet keys);
+
+}
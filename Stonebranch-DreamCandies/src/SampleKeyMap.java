@@ -0,0 +1,117 @@
+import java.util.Arrays;
+
+/**
+ * The SampleKeyMap class maps keys stored as raw bytes to the set of samples containing them, for filtering a full
+ * extraction file against many samples at once. Keys are held in a ByteKeySet, so a row is checked with a single probe
+ * whatever the number of samples, and the samples of each key are a bitset of (samples + 63) / 64 longs, stored for all
+ * keys in one array in the order the keys were added.
+ *
+ * The ByteKeySet identifies a key by its offset in its arena, which grows with each key added; the position of a key in
+ * the map (its index) is found by a binary search of those offsets, which is only needed for the rare keys that match.
+ */
+class SampleKeyMap {
+
+	private final ByteKeySet keys = new ByteKeySet(); //keys of every sample
+	private final int words; //number of longs in the bitset of each key
+	private int[] keyOffsets = new int[16]; //arena offset of each key, in the order keys were added (so increasing)
+	private long[] samples; //bitset of the samples of each key, words longs per key
+
+
+	/**
+	 * Constructor for SampleKeyMap
+	 *
+	 * @param int sampleCount: number of samples
+	 */
+	SampleKeyMap(int sampleCount) {
+		this.words = Math.max(1, (sampleCount + 63) >>> 6);
+		this.samples = new long[16 * words];
+	}
+
+
+	/**
+	 * Adds a key to a sample.
+	 *
+	 * @param byte[] buf: array containing the key
+	 * @param int start: index of first byte of the key
+	 * @param int end: index one past the last byte of the key
+	 * @param int sample: index of the sample
+	 * @return boolean: true if the key was added to the sample, false if the sample already contained it
+	 */
+	boolean add(byte[] buf, int start, int end, int sample) {
+		int index;
+		if (keys.add(buf, start, end)) {
+			index = keys.size() - 1;
+			if (index == keyOffsets.length) {
+				keyOffsets = Arrays.copyOf(keyOffsets, index * 2);
+				samples = Arrays.copyOf(samples, index * 2 * words);
+			}
+			keyOffsets[index] = keys.find(buf, start, end);
+		} else {
+			index = indexOf(keys.find(buf, start, end));
+		}
+		long bit = 1L << sample;
+		int word = index * words + (sample >>> 6);
+		if ((samples[word] & bit) != 0) {return false;}
+		samples[word] |= bit;
+		return true;
+	}
+
+
+	/**
+	 * Looks up a key of a row.
+	 *
+	 * @param byte[] buf: array containing the key
+	 * @param int start: index of first byte of the key
+	 * @param int end: index one past the last byte of the key
+	 * @return int: index of the key, passed to nextSample, or -1 if no sample contains it
+	 */
+	int find(byte[] buf, int start, int end) {
+		int offset = keys.find(buf, start, end);
+		return offset < 0 ? -1 : indexOf(offset);
+	}
+
+
+	/**
+	 * @return int: index of the key stored at an offset of the arena
+	 */
+	private int indexOf(int offset) {
+		return Arrays.binarySearch(keyOffsets, 0, keys.size(), offset);
+	}
+
+
+	/**
+	 * Iterates over the samples of a key: for (int s = map.nextSample(key, 0); s >= 0; s = map.nextSample(key, s + 1))
+	 *
+	 * @param int index: index of the key, as returned by find
+	 * @param int from: index of the first sample to consider
+	 * @return int: index of the first sample at or after from containing the key, or -1 if there is none
+	 */
+	int nextSample(int index, int from) {
+		int base = index * words;
+		int word = from >>> 6;
+		if (word >= words) {return -1;}
+		long bits = samples[base + word] & (-1L << from); //shift distance is taken modulo 64
+		while (true) {
+			if (bits != 0) {return (word << 6) + Long.numberOfTrailingZeros(bits);}
+			if (++word == words) {return -1;}
+			bits = samples[base + word];
+		}
+	}
+
+
+	/**
+	 * @return int: number of distinct keys, over all samples
+	 */
+	int size() {
+		return keys.size();
+	}
+
+
+	/**
+	 * @param boolean enabled: true to check lookups against a Bloom filter first, see ByteKeySet.setFilterEnabled
+	 */
+	void setFilterEnabled(boolean enabled) {
+		keys.setFilterEnabled(enabled);
+	}
+
+}
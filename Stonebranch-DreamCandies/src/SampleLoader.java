@@ -0,0 +1,401 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The SampleLoader class reads a sample file (a header line, then one key per line) into a ByteKeySet. Each line is normalized
+ * the way CsvScanner locates the fields of the full files: whitespace around the line is trimmed, then the pair of double
+ * quotes around the key, straight or curly, is removed. So "CUST0000010231" matches whichever quotes the full files use, and a
+ * sample written by a SQL query, unquoted and padded with blanks, matches too. Blank lines are skipped, duplicate keys are
+ * counted and dropped, and lines that can't be a single key (several fields, unbalanced quotes, quotes inside the key, an
+ * empty key) are counted, reported and skipped.
+ *
+ * A sample file larger than PARALLEL_SIZE is parsed in parallel, the way ParallelFileFilter scans the full files: it is split
+ * into line-aligned chunks read on a ForkJoinPool, and each chunk is trimmed, checked and hashed by its task. The keys are
+ * then added to the set in file order by the calling thread, with their precomputed hashes, so the set, its counts and its
+ * report are the same as if the file had been read line by line. Smaller and compressed samples are streamed (a compressed
+ * sample is decompressed on a background thread, see Compression). Either way the key set is sized up front from the size of
+ * the file and the length of its first lines, so it is not rehashed while it fills.
+ */
+class SampleLoader {
+
+	static final int MAX_REPORTED = 100; //malformed lines described in the report, the others are only counted
+	private static final int PROBE_SIZE = 1 << 16; //bytes read from the start of a file to estimate the length of its lines
+	private static final int DEFAULT_LINE_LENGTH = 16; //length assumed for the lines of a sample that can't be probed
+	static final long PARALLEL_SIZE = 4L << 20; //size from which a sample file is parsed in parallel
+	static final int CHUNK_SIZE = 4 << 20; //4MB per chunk parsed in parallel
+
+	private final ByteKeySet keys; //keys of the sample, in order of first appearance
+	private final KeyForms forms = new KeyForms(); //how the keys were written, blanks and quotes included
+	private long lines; //lines read, header excluded
+	private long duplicates; //lines whose key appeared on an earlier line
+	private long malformed; //lines skipped because they don't hold a single key
+	private final List<String> problems = new ArrayList<String>(); //description of the first malformed lines
+	private final int[] bounds = new int[2]; //bounds of the key of the line being parsed
+
+
+	private SampleLoader(ByteKeySet keys) {
+		this.keys = keys;
+	}
+
+
+	/**
+	 * Loads a sample file.
+	 *
+	 * @param Path file: sample file, possibly compressed
+	 * @return SampleLoader: loaded sample
+	 * @throws IOException: throws exception if the file can't be read
+	 */
+	static SampleLoader load(Path file) throws IOException {
+		if (Compression.detect(file) != Compression.NONE) {return load(Compression.open(file), -1);}
+		long size = Files.size(file);
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (size < PARALLEL_SIZE || threads == 1) {
+			return load(Files.newInputStream(file), expectedKeys(size, lineLength(file, size)), size);
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			return load(file, pool, CHUNK_SIZE);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+
+	/**
+	 * Loads an uncompressed sample file, parsing line-aligned chunks of it on a pool.
+	 *
+	 * @param Path file: sample file, not compressed
+	 * @param ForkJoinPool pool: pool the chunks are parsed on
+	 * @param int chunkSize: target size of each chunk in bytes
+	 * @return SampleLoader: loaded sample, identical to a streamed load of the file
+	 * @throws IOException: throws exception if the file can't be read
+	 */
+	static SampleLoader load(Path file, ForkJoinPool pool, int chunkSize) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			SampleLoader sample = new SampleLoader(new ByteKeySet(expectedKeys(size, lineLength(file, size)), size));
+			long start = ParallelFileFilter.lineBoundary(channel, 1, size); //skip file header
+			int window = pool.getParallelism() * 2; //number of chunks parsed ahead of the merge
+			ArrayDeque<ForkJoinTask<Chunk>> pending = new ArrayDeque<ForkJoinTask<Chunk>>();
+			AtomicBoolean stopped = new AtomicBoolean(); //set if the merge fails, so that pending chunks end early
+			try {
+				while (start < size || !pending.isEmpty()) {
+					while (start < size && pending.size() < window) { //keep the pool busy
+						long end = ParallelFileFilter.lineBoundary(channel, Math.min(start + chunkSize, size), size);
+						pending.add(pool.submit(new ChunkTask(channel, start, end, stopped)));
+						start = end;
+					}
+					sample.merge(ParallelFileFilter.join(pending.poll()));
+				}
+			} finally {
+				ParallelFileFilter.stop(pending, stopped);
+			}
+			return sample;
+		}
+	}
+
+
+	/**
+	 * Loads a sample file from a stream.
+	 *
+	 * @param InputStream in: stream for the sample file, closed once read
+	 * @param long size: size of the sample file, to size the key set, -1 if unknown
+	 * @return SampleLoader: loaded sample
+	 * @throws IOException: throws exception if the stream can't be read
+	 */
+	static SampleLoader load(InputStream in, long size) throws IOException {
+		return size < 0 ? load(in, 8, 224) : load(in, expectedKeys(size, DEFAULT_LINE_LENGTH), size);
+	}
+
+
+	private static SampleLoader load(InputStream in, int expectedKeys, long expectedBytes) throws IOException {
+		SampleLoader sample = new SampleLoader(new ByteKeySet(expectedKeys, expectedBytes));
+		try (CsvScanner scanner = new CsvScanner(in)) {
+			scanner.nextLine(); //skip file header
+			while (scanner.nextLine()) {
+				sample.parse(scanner.buffer(), scanner.lineStart(), scanner.lineEnd());
+			}
+		}
+		return sample;
+	}
+
+
+	/**
+	 * Adds the key of a line of the sample, or counts the line as a duplicate or malformed.
+	 *
+	 * @param byte[] buf: array holding the line
+	 * @param int lineStart: index of first byte of the line
+	 * @param int lineEnd: index one past the last byte of the line, terminator excluded
+	 */
+	private void parse(byte[] buf, int lineStart, int lineEnd) {
+		lines++;
+		int[] bounds = this.bounds;
+		String problem = check(buf, lineStart, lineEnd, bounds);
+		if (problem != null) {
+			report(lines, problem, buf, lineStart, lineEnd);
+		} else if (bounds[0] < bounds[1]) {
+			add(buf, lineStart, bounds[0], bounds[1], lineEnd, ByteKeySet.hash(buf, bounds[0], bounds[1]));
+		}
+	}
+
+
+	/**
+	 * Adds the keys and counts of a parsed chunk, whose lines follow those already read.
+	 */
+	private void merge(Chunk chunk) {
+		int[] entries = chunk.entries;
+		for (int i = 0; i < chunk.keys; i++) {
+			int e = 4 * i;
+			add(chunk.data, entries[e], entries[e + 1], entries[e + 2], entries[e + 3], chunk.hashes[i]);
+		}
+		for (int i = 0; i < chunk.problems.size(); i++) {
+			int[] line = chunk.problemLines.get(i);
+			report(lines + line[0] + 1, chunk.problems.get(i), chunk.data, line[1], line[2]);
+		}
+		malformed += chunk.malformed - chunk.problems.size(); //problems beyond those a chunk describes
+		lines += chunk.lines;
+	}
+
+
+	private void add(byte[] buf, int lineStart, int start, int end, int lineEnd, int hash) {
+		if (keys.add(buf, start, end, hash)) {
+			forms.record(buf, lineStart, start, end, lineEnd);
+		} else {
+			duplicates++;
+		}
+	}
+
+
+	/**
+	 * Counts a malformed line, and describes it if it is among the first MAX_REPORTED.
+	 *
+	 * @param long line: number of the line, header excluded
+	 */
+	private void report(long line, String problem, byte[] buf, int lineStart, int lineEnd) {
+		if (++malformed <= MAX_REPORTED) { //the header is line 1
+			problems.add("line " + (line + 1) + ": " + problem + ": "
+					+ new String(buf, lineStart, Math.min(lineEnd - lineStart, 80), StandardCharsets.UTF_8));
+		}
+	}
+
+
+	/**
+	 * Locates the key of a line of the sample.
+	 *
+	 * @param byte[] buf: array holding the line
+	 * @param int lineStart: index of first byte of the line
+	 * @param int lineEnd: index one past the last byte of the line, terminator excluded
+	 * @param int[] bounds: receives the start and end of the key, equal for a blank line
+	 * @return String: why the line can't hold a single key, null if it holds one or is blank
+	 */
+	private static String check(byte[] buf, int lineStart, int lineEnd, int[] bounds) {
+		int start = trimStart(buf, lineStart, lineEnd);
+		int end = trimEnd(buf, start, lineEnd);
+		bounds[0] = start;
+		bounds[1] = end;
+		if (start == end) {return null;} //blank line
+		int open = CsvScanner.quoteAfter(buf, start, end);
+		int close = open > 0 ? CsvScanner.quoteBefore(buf, start + open, end) : 0;
+		for (int i = start; i < end; i++) {
+			if (buf[i] == ',') {return "several fields";}
+		}
+		if (open > 0 && close == 0 || open == 0 && CsvScanner.quoteBefore(buf, start, end) > 0) {return "unbalanced quotes";}
+		start += open;
+		end -= close;
+		for (int i = start; i < end; i++) {
+			if (CsvScanner.quoteAfter(buf, i, end) > 0) {return "quote inside key";}
+		}
+		if (start == end) {return "empty key";}
+		bounds[0] = start;
+		bounds[1] = end;
+		return null;
+	}
+
+
+	/**
+	 * @return double: average length of the lines at the start of a file, terminator included
+	 */
+	private static double lineLength(Path file, long size) throws IOException {
+		ByteBuffer probe = ByteBuffer.allocate((int) Math.min(PROBE_SIZE, size));
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (probe.hasRemaining() && channel.read(probe) > 0) {}
+		}
+		int newlines = 0;
+		for (int i = 0; i < probe.position(); i++) {
+			if (probe.get(i) == '\n') {newlines++;}
+		}
+		return newlines == 0 ? DEFAULT_LINE_LENGTH : (double) probe.position() / newlines;
+	}
+
+
+	/**
+	 * @return int: number of keys expected in a given number of bytes of a sample, with 10% to spare
+	 */
+	private static int expectedKeys(long bytes, double lineLength) {
+		return (int) Math.min(1 << 29, bytes / lineLength * 1.1 + 8);
+	}
+
+
+	private static int trimStart(byte[] buf, int start, int end) {
+		while (start < end && (buf[start] == ' ' || buf[start] == '\t')) {start++;}
+		return start;
+	}
+
+
+	private static int trimEnd(byte[] buf, int start, int end) {
+		while (end > start && (buf[end - 1] == ' ' || buf[end - 1] == '\t')) {end--;}
+		return end;
+	}
+
+
+	/**
+	 * @return ByteKeySet: keys of the sample, in order of first appearance
+	 */
+	ByteKeySet keys() {
+		return keys;
+	}
+
+
+	/**
+	 * @return KeyForms: how the keys were written, each as the whole line of its first appearance
+	 */
+	KeyForms forms() {
+		return forms;
+	}
+
+
+	/**
+	 * @return long: number of lines read, header excluded
+	 */
+	long lines() {
+		return lines;
+	}
+
+
+	/**
+	 * @return long: number of lines whose key appeared on an earlier line
+	 */
+	long duplicates() {
+		return duplicates;
+	}
+
+
+	/**
+	 * @return long: number of lines skipped because they don't hold a single key
+	 */
+	long malformed() {
+		return malformed;
+	}
+
+
+	/**
+	 * @return List<String>: description of the first MAX_REPORTED malformed lines, e.g. "line 12: several fields: ..."
+	 */
+	List<String> problems() {
+		return Collections.unmodifiableList(problems);
+	}
+
+
+
+	/**
+	 * Lines of a chunk of a sample file, parsed but not yet added to the set.
+	 */
+	private static class Chunk {
+
+		byte[] data; //bytes of the chunk
+		int[] entries = new int[256]; //line start, key start, key end and line end of each key in data
+		int[] hashes = new int[64]; //hash of each key
+		int keys; //number of keys
+		long lines; //number of lines
+		long malformed; //number of malformed lines
+		final List<String> problems = new ArrayList<String>(); //problems of the first MAX_REPORTED malformed lines
+		final List<int[]> problemLines = new ArrayList<int[]>(); //number (from 0 in the chunk), start and end of those lines
+
+		void add(int lineStart, int start, int end, int lineEnd) {
+			if (keys == hashes.length) {
+				hashes = Arrays.copyOf(hashes, keys * 2);
+				entries = Arrays.copyOf(entries, keys * 8);
+			}
+			int e = 4 * keys;
+			entries[e] = lineStart;
+			entries[e + 1] = start;
+			entries[e + 2] = end;
+			entries[e + 3] = lineEnd;
+			hashes[keys++] = ByteKeySet.hash(data, start, end);
+		}
+
+	}
+
+
+	/**
+	 * Task reading and parsing one chunk of a sample file. Lines end as in CsvScanner.
+	 */
+	private static class ChunkTask implements Callable<Chunk> {
+
+		private final FileChannel channel;
+		private final long start;
+		private final long end;
+		private final AtomicBoolean stopped; //set when the chunk is no longer needed
+
+		ChunkTask(FileChannel channel, long start, long end, AtomicBoolean stopped) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			this.stopped = stopped;
+		}
+
+		@Override
+		public Chunk call() {
+			Chunk chunk = new Chunk();
+			if (stopped.get()) {return chunk;}
+			byte[] data = new byte[(int) (end - start)];
+			ByteBuffer target = ByteBuffer.wrap(data);
+			try {
+				while (target.hasRemaining()) {
+					if (channel.read(target, start + target.position()) < 0) {throw new IOException("sample file ended early");}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			chunk.data = data;
+			int[] bounds = new int[2];
+			int limit = data.length;
+			int i = 0;
+			while (i < limit && !stopped.get()) {
+				int lineStart = i;
+				while (i < limit && data[i] != '\n' && data[i] != '\r') {i++;}
+				int lineEnd = i;
+				if (i < limit) {i += data[i] == '\r' && i + 1 < limit && data[i + 1] == '\n' ? 2 : 1;} //chunks never split "\r\n"
+				String problem = check(data, lineStart, lineEnd, bounds);
+				if (problem != null) {
+					if (++chunk.malformed <= MAX_REPORTED) {
+						chunk.problems.add(problem);
+						chunk.problemLines.add(new int[] {(int) chunk.lines, lineStart, lineEnd});
+					}
+				} else if (bounds[0] < bounds[1]) {
+					chunk.add(lineStart, bounds[0], bounds[1], lineEnd);
+				}
+				chunk.lines++;
+			}
+			return chunk;
+		}
+
+	}
+
+}
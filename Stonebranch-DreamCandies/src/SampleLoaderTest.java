@@ -0,0 +1,160 @@
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Unit tests for SampleLoader Class: load from a stream and from a file, plain or compressed, streamed or in parallel
+ */
+public class SampleLoaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+
+	/**
+	 * @return List<String>: keys of a loaded sample, in order
+	 */
+	private static List<String> keys(SampleLoader sample) {
+		return new ArrayList<String>(sample.keys().asStrings());
+	}
+
+
+	/**
+	 * Test method for {@link SampleLoader#load(java.io.InputStream, long)}.
+	 *
+	 * Tests load with straight, curly, mismatched and missing quotes, surrounding whitespace, blank lines, duplicates and
+	 * malformed lines.
+	 * Expected behavior is that each key is kept once without its quotes, in order of first appearance, and that duplicates
+	 * and malformed lines are counted, and malformed lines reported with their line number.
+	 */
+	@Test
+	public void load_MixedQuotesAndMalformedLines_KeysNormalizedAndProblemsReported() throws IOException {
+		String content = "\"CUSTOMER_CODE\"\r\n" +
+				"\"CUST0000010231\"\r\n" +
+				"\u201CCUST0000010232\u201D\r\n" +
+				"\u201DCUST0000010233\u201D\n" +
+				"  CUST0000010234 \t\n" +
+				"\n" +
+				"\"CUST0000010231\"\n" +
+				"CUST0000010232\n" +
+				"\"CUST0000010235\",\"Maria\"\n" +
+				"\"CUST0000010236\n" +
+				"\"\"\n" +
+				"\"CUST\"0000010237\"\n" +
+				"\"CUST0000010238\"";
+		SampleLoader sample = SampleLoader.load(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), -1);
+
+		assertEquals(Arrays.asList("CUST0000010231", "CUST0000010232", "CUST0000010233", "CUST0000010234", "CUST0000010238"),
+				keys(sample));
+		assertEquals(12, sample.lines());
+		assertEquals(2, sample.duplicates());
+		assertEquals(4, sample.malformed());
+		assertEquals(Arrays.asList("line 9: several fields: \"CUST0000010235\",\"Maria\"",
+				"line 10: unbalanced quotes: \"CUST0000010236",
+				"line 11: empty key: \"\"",
+				"line 12: quote inside key: \"CUST\"0000010237\""), sample.problems());
+		assertTrue(sample.keys().asStrings().contains("CUST0000010233"));
+		assertFalse(sample.keys().asStrings().contains("\u201CCUST0000010233\u201D"));
+		assertFalse(sample.keys().asStrings().contains("CUST0000010235"));
+	}
+
+
+	/**
+	 * Test method for {@link SampleLoader#load(java.nio.file.Path)}.
+	 *
+	 * Tests load with a large file, plain and gzip compressed, with duplicates and malformed lines spread over the whole file.
+	 * Expected behavior is that the keys, counts and reported lines are the same as when the file is streamed without knowing
+	 * its size, so sizing the key set from the file changes nothing but the time taken.
+	 */
+	@Test
+	public void load_LargeFile_SameAsStreamed() throws IOException {
+		StringBuilder content = new StringBuilder("\"CUSTOMER_CODE\"\n");
+		for (int i = 0; i < 200000; i++) {
+			if (i % 50000 == 7) {
+				content.append("\"CUST").append(i).append("\",\"Maria\"\n");
+			} else {
+				content.append("\"CUST").append(i % 100000).append(i % 3 == 0 ? "\"\r\n" : "\"\n");
+			}
+		}
+		byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+		File file = folder.newFile("sample.csv");
+		Files.write(file.toPath(), bytes);
+		File gzip = folder.newFile("sample.csv.gz");
+		try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gzip))) {
+			out.write(bytes);
+		}
+
+		SampleLoader streamed = SampleLoader.load(new ByteArrayInputStream(bytes), -1);
+		for (SampleLoader loaded : Arrays.asList(SampleLoader.load(file.toPath()), SampleLoader.load(gzip.toPath()))) {
+			assertEquals(keys(streamed), keys(loaded));
+			assertEquals(200000, loaded.lines());
+			assertEquals(99998, loaded.duplicates());
+			assertEquals(4, loaded.malformed());
+			assertEquals(streamed.problems(), loaded.problems());
+			assertEquals("line 150009: several fields: \"CUST150007\",\"Maria\"", loaded.problems().get(3));
+		}
+	}
+
+
+
+	/**
+	 * Test method for {@link SampleLoader#load(java.nio.file.Path, ForkJoinPool, int)}.
+	 *
+	 * Tests a parallel load with chunks of a few lines, over mixed quotes, "\r\n" and "\r" terminators, blank, duplicate and
+	 * malformed lines, and a last line without terminator.
+	 * Expected behavior is that the keys, their written forms, the counts and the reported lines are the same as streamed.
+	 */
+	@Test
+	public void load_SmallChunksOnPool_SameAsStreamed() throws IOException {
+		StringBuilder content = new StringBuilder("\"CUSTOMER_CODE\"\r\n");
+		for (int i = 0; i < 3000; i++) {
+			switch (i % 7) {
+			case 0: content.append("\u201CCUST").append(i % 1000).append("\u201D\r\n"); break;
+			case 1: content.append("  CUST").append(i % 1000).append(" \t\r"); break;
+			case 2: content.append("\n"); break;
+			case 3: content.append("\"CUST").append(i).append("\",\"Maria\"\n"); break;
+			default: content.append("\"CUST").append(i % 1000).append("\"\n"); break;
+			}
+		}
+		content.append("\"CUST0\"");
+		byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+		File file = folder.newFile("sample.csv");
+		Files.write(file.toPath(), bytes);
+
+		SampleLoader streamed = SampleLoader.load(new ByteArrayInputStream(bytes), -1);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (int chunkSize : new int[] {1, 37, 4096}) {
+				SampleLoader loaded = SampleLoader.load(file.toPath(), pool, chunkSize);
+				assertEquals(keys(streamed), keys(loaded));
+				assertEquals(streamed.lines(), loaded.lines());
+				assertEquals(streamed.duplicates(), loaded.duplicates());
+				assertEquals(streamed.malformed(), loaded.malformed());
+				assertEquals(streamed.problems(), loaded.problems());
+				for (String key : keys(streamed)) {
+					assertEquals(streamed.forms().original(key), loaded.forms().original(key));
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(2572, streamed.lines()); //each "\r" followed by a blank line is a "\r\n" terminator
+		assertEquals(429, streamed.malformed());
+		assertEquals(SampleLoader.MAX_REPORTED, streamed.problems().size());
+	}
+
+}
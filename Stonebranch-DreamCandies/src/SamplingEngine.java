@@ -0,0 +1,209 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The SamplingEngine class extracts the tables of a SamplingSpec. Each table is filtered against a key set: the sample keys,
+ * or the values of a column of its parent in the rows kept from the parent. A key set is collected once, during the single
+ * scan of its parent, however many tables are filtered on it. A table is scanned as soon as its key set is complete, so
+ * tables whose key sets are ready (e.g. every child of the sample) are scanned concurrently, and the file of a table still
+ * waiting for its parent is read ahead into a bounded buffer meanwhile. Files are streamed as in TestFileFilter: only the
+ * key sets are held in memory.
+ */
+public class SamplingEngine {
+
+	private static final int READ_AHEAD_BLOCK_SIZE = 1 << 20; //1MB blocks of a file read while its parent is filtered
+	private static final int READ_AHEAD_BLOCKS = 16; //at most 16MB of each waiting file buffered ahead
+
+	private final SamplingSpec spec; //tables to extract
+	private final List<SamplingSpec.Table> tables; //tables of the spec, parents first
+	private final Map<String, ByteKeySet> keySets = new LinkedHashMap<String, ByteKeySet>(); //key sets by "table.column"
+	private int threads; //number of tables scanned at the same time
+
+
+	/**
+	 * Constructor for SamplingEngine
+	 *
+	 * @param SamplingSpec spec: tables to extract
+	 * @throws IllegalArgumentException: throws exception if a parent is unknown or the parent links form a cycle
+	 */
+	public SamplingEngine(SamplingSpec spec) {
+		this.spec = spec;
+		this.tables = spec.tablesInOrder();
+		this.threads = Math.max(1, tables.size());
+	}
+
+
+	/**
+	 * @param int threads: number of tables scanned at the same time (the number of tables by default)
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {throw new IllegalArgumentException("threads must be at least 1");}
+		this.threads = threads;
+	}
+
+
+	/**
+	 * Extracts every table of the spec. Tables are submitted parents first, and each waits for its parent only, so a table
+	 * never waits for a table submitted after it and any number of threads makes progress. When a table fails, the passes
+	 * still running are interrupted and their inputs closed, and they have ended by the time the failure is thrown.
+	 *
+	 * @throws IOException: throws exception if a file can't be read or written, InterruptedIOException if the calling thread is
+	 * interrupted
+	 */
+	public void run() throws IOException {
+		keySets.clear();
+		keySets.put(SamplingSpec.SAMPLE + ".0", readSample());
+		Map<String, List<Integer>> collectColumns = new HashMap<String, List<Integer>>(); //columns collected by each table
+		for (SamplingSpec.Table table : tables) {
+			if (!keySets.containsKey(table.keySet())) {
+				keySets.put(table.keySet(), new ByteKeySet());
+				collectColumns.computeIfAbsent(table.parent, name -> new ArrayList<Integer>()).add(table.parentColumn);
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CompletionService<Object> ended = new ExecutorCompletionService<Object>(executor); //passes in the order they end
+		List<InputStream> inputs = new ArrayList<InputStream>(); //inputs of the passes, closed if one of them fails
+		boolean completed = false;
+		try {
+			Map<String, Future<?>> passes = new HashMap<String, Future<?>>();
+			for (SamplingSpec.Table table : tables) {
+				Future<?> parentPass = passes.get(table.parent); //null for children of the sample
+				InputStream in = Compression.open(table.input);
+				if (parentPass != null) {in = new ReadAheadInputStream(in, READ_AHEAD_BLOCK_SIZE, READ_AHEAD_BLOCKS);}
+				InputStream input = in;
+				inputs.add(input);
+				List<Integer> columns = collectColumns.getOrDefault(table.name, new ArrayList<Integer>());
+				passes.put(table.name, ended.submit(() -> {
+					try (CsvScanner scanner = new CsvScanner(input)) {
+						if (parentPass != null) {parentPass.get();} //key set must be complete
+						extract(table, scanner, columns);
+					}
+					return null;
+				}));
+			}
+			for (int i = 0; i < tables.size(); i++) {
+				ended.take().get(); //the first pass to fail stops the others at once
+			}
+			completed = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("extraction of " + spec.sampleFile() + " interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {throw (IOException) e.getCause();}
+			throw new IOException("extraction of " + spec.sampleFile() + " failed", e.getCause());
+		} finally {
+			if (completed) {
+				executor.shutdown();
+			} else { //stop the other passes before the caller sees the failure
+				TestFileFilter.cancel(executor, inputs.toArray(new InputStream[inputs.size()]));
+			}
+		}
+	}
+
+
+	/**
+	 * Reads through the sample file and adds each key to a new key set.
+	 *
+	 * @return ByteKeySet: set of sample keys
+	 * @throws IOException: throws exception if the sample file can't be read
+	 */
+	private ByteKeySet readSample() throws IOException {
+		return SampleLoader.load(spec.sampleFile()).keys();
+	}
+
+
+	/**
+	 * Reads through the full extraction file of a table and produces its smaller file, containing the rows whose key is in
+	 * the key set of the table. Collects the values of the given columns of those rows into the key sets of child tables.
+	 *
+	 * @param SamplingSpec.Table table: table to extract
+	 * @param CsvScanner scanner: scanner of the full extraction file of the table
+	 * @param List<Integer> columns: columns collected for child tables
+	 * @throws IOException: throws exception if the file can't be read or the output can't be written
+	 */
+	private void extract(SamplingSpec.Table table, CsvScanner scanner, List<Integer> columns) throws IOException {
+		ByteKeySet keys = keySets.get(table.keySet());
+		int[] collectColumns = new int[columns.size()];
+		ByteKeySet[] collected = new ByteKeySet[columns.size()];
+		for (int i = 0; i < collectColumns.length; i++) {
+			collectColumns[i] = columns.get(i);
+			collected[i] = keySets.get(table.name + "." + collectColumns[i]);
+		}
+
+		try (OutputStream writer = new BufferedOutputStream(Compression.create(table.output), 1 << 16)) {
+			if (scanner.nextLine()) { //read file header and write it to new file
+				scanner.writeLine(writer);
+			}
+
+			int count = 0; //number of rows found
+			int breakPoint = table.unique ? keys.size() : -1; //number of rows expected, if keys are unique
+			while (scanner.nextLine()) {
+				scanner.field(table.keyColumn);
+				if (keys.contains(scanner.buffer(), scanner.fieldStart(), scanner.fieldEnd())) { //check if key is in set
+					scanner.writeLine(writer);
+					count++;
+					for (int i = 0; i < collectColumns.length; i++) {
+						if (scanner.field(collectColumns[i])) {
+							collected[i].add(scanner.buffer(), scanner.fieldStart(), scanner.fieldEnd());
+						}
+					}
+				}
+				if (count == breakPoint) {break;} //all keys found
+			}
+		}
+	}
+
+
+	/**
+	 * @param String table: name of a table, or SamplingSpec.SAMPLE
+	 * @param int column: zero-based index of a column of the table that some table is filtered on
+	 * @return Set<String>: read-only view of the values of the column in the rows kept, without their quotes, complete once
+	 * run returns
+	 */
+	public Set<String> getKeys(String table, int column) {
+		ByteKeySet keys = keySets.get(table + "." + column);
+		if (keys == null) {throw new IllegalArgumentException("no table is filtered on " + table + "." + column);}
+		return keys.asStrings();
+	}
+
+
+	/**
+	 * Sample use of SamplingEngine object
+	 *
+	 * @param String[] args: name of a spec file, optionally preceded by --threads=N to scan at most N tables at the same time
+	 */
+	public static void main(String[] args) {
+		int threads = 0;
+		int first = 0;
+		if (args.length > 0 && args[0].startsWith("--threads=")) {
+			threads = Integer.parseInt(args[0].substring("--threads=".length()));
+			first = 1;
+		}
+		if (args.length - first != 1) {throw new IllegalArgumentException();}
+		try {
+			SamplingEngine engine = new SamplingEngine(SamplingSpec.load(args[first]));
+			if (threads > 0) {engine.setThreads(threads);}
+			engine.run();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Unit tests for SamplingEngine Class: run, with specs built in code and loaded from a file
+ */
+public class SamplingEngineTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+
+	/**
+	 * Writes the files of the specification example, plus credit notes and addresses.
+	 */
+	@Before
+	public void writeFiles() throws IOException {
+		write("customer_sample.csv", "\"CUSTOMER_CODE\"\n" +
+				"\"CUST0000010231\"\n" +
+				"\"CUST0000010235\"\n");
+		write("customer.csv", "\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" +
+				"\"CUST0000010231\",\"Maria\",\"Alba\"\n" +
+				"\"CUST0000010233\",\"Jamie\",\"Hayes\"\n" +
+				"\"CUST0000010235\",\"George\",\"Lucas\"\n");
+		write("invoice.csv", "\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" +
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n" +
+				"\"CUST0000010236\",\"IN0000011\",\"0.0\",\"01-Jan-2000\"\n" +
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n");
+		write("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" +
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" +
+				"\"IN0000011\",\"AAA\",\"0.0\",\"0\"\n" +
+				"\"IN0000002\",\"PUCCHO\",\"73.13\",\"150\"\n");
+		write("credit_note.csv", "\"NOTE_CODE\",\"INVOICE_CODE\",\"AMOUNT\"\n" +
+				"\"CN01\",\"IN0000011\",\"1.00\"\n" +
+				"\"CN02\",\"IN0000002\",\"2.00\"\n");
+		write("address.csv", "\"CUSTOMER_CODE\",\"CITY\"\n" +
+				"\"CUST0000010235\",\"Tokyo\"\n" +
+				"\"CUST0000010233\",\"Osaka\"\n");
+	}
+
+
+	private void write(String name, String content) throws IOException {
+		Files.write(new File(folder.getRoot(), name).toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+
+	private String read(String name) throws IOException {
+		return new String(Files.readAllBytes(new File(folder.getRoot(), name).toPath()), StandardCharsets.UTF_8);
+	}
+
+
+	private String path(String name) {
+		return new File(folder.getRoot(), name).getPath();
+	}
+
+
+	/**
+	 * Test method for {@link SamplingEngine#run()}.
+	 *
+	 * Tests a spec file declaring the customer, invoice and invoice item tables of TestFileFilter.
+	 * Expected behavior is that the extracted files are the ones TestFileFilter produces.
+	 */
+	@Test
+	public void run_SpecFileOfTestFileFilterTables_ExtractedFilesContainRelevantData() throws IOException {
+		write("dreamcandies.spec", "# tables of TestFileFilter\n" +
+				"sample customer_sample.csv\n" +
+				"table customer customer.csv customer_test.csv key=0 from=sample.0 unique\n" +
+				"table invoice invoice.csv invoice_test.csv key=0 from=sample.0\n" +
+				"\n" +
+				"table invoice_item invoice_item.csv invoice_item_test.csv key=0 from=invoice.1\n");
+		new SamplingEngine(SamplingSpec.load(path("dreamcandies.spec"))).run();
+
+		TestFileFilter test = new TestFileFilter(path("customer_sample.csv"), path("customer.csv"), path("invoice.csv"),
+				path("invoice_item.csv"));
+		test.extractTestFiles(path("customer_expected.csv"), path("invoice_expected.csv"), path("invoice_item_expected.csv"));
+		assertEquals(read("customer_expected.csv"), read("customer_test.csv"));
+		assertEquals(read("invoice_expected.csv"), read("invoice_test.csv"));
+		assertEquals(read("invoice_item_expected.csv"), read("invoice_item_test.csv"));
+	}
+
+
+	/**
+	 * Test method for {@link SamplingEngine#run()}.
+	 *
+	 * Tests invoice items and credit notes both filtered on the invoice codes of the sample, and addresses filtered on the
+	 * customer codes found in the customer file, with a single thread.
+	 * Expected behavior is that each table only contains rows attached to the sample, and the shared key set is collected once.
+	 */
+	@Test
+	public void run_TablesSharingKeySet_ExtractedFilesContainRelevantData() throws IOException {
+		SamplingSpec spec = new SamplingSpec(path("customer_sample.csv"));
+		spec.addTable("credit_note", path("credit_note.csv"), path("credit_note_test.csv"), 1, "invoice", 1, false);
+		spec.addTable("address", path("address.csv"), path("address_test.csv"), 0, "customer", 0, false);
+		spec.addTable("invoice_item", path("invoice_item.csv"), path("invoice_item_test.csv"), 0, "invoice", 1, false);
+		spec.addTable("invoice", path("invoice.csv"), path("invoice_test.csv"), 0, SamplingSpec.SAMPLE, 0, false);
+		spec.addTable("customer", path("customer.csv"), path("customer_test.csv"), 0, SamplingSpec.SAMPLE, 0, true);
+		SamplingEngine engine = new SamplingEngine(spec);
+		engine.setThreads(1);
+		engine.run();
+
+		assertEquals(new HashSet<String>(Arrays.asList("IN0000001", "IN0000002")), engine.getKeys("invoice", 1));
+		assertEquals("\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" +
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" +
+				"\"IN0000002\",\"PUCCHO\",\"73.13\",\"150\"\n", read("invoice_item_test.csv"));
+		assertEquals("\"NOTE_CODE\",\"INVOICE_CODE\",\"AMOUNT\"\n" +
+				"\"CN02\",\"IN0000002\",\"2.00\"\n", read("credit_note_test.csv"));
+		assertEquals("\"CUSTOMER_CODE\",\"CITY\"\n" +
+				"\"CUST0000010235\",\"Tokyo\"\n", read("address_test.csv"));
+	}
+
+
+	/**
+	 * Test method for {@link SamplingEngine#SamplingEngine(SamplingSpec)}.
+	 *
+	 * Tests a spec whose parent links form a cycle, and a spec with an unknown parent.
+	 * Expected behavior is that both are rejected before any file is read.
+	 */
+	@Test
+	public void constructor_InvalidParents_SpecRejected() {
+		SamplingSpec spec = new SamplingSpec(path("customer_sample.csv"));
+		spec.addTable("customer", path("customer.csv"), path("customer_test.csv"), 0, SamplingSpec.SAMPLE, 0, true);
+		spec.addTable("invoice", path("invoice.csv"), path("invoice_test.csv"), 0, "invoice_item", 0, false);
+		spec.addTable("invoice_item", path("invoice_item.csv"), path("invoice_item_test.csv"), 0, "invoice", 1, false);
+		try {
+			new SamplingEngine(spec);
+			fail("cycle not detected");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("invoice"));
+		}
+
+		spec = new SamplingSpec(path("customer_sample.csv"));
+		spec.addTable("payment", path("invoice.csv"), path("payment_test.csv"), 1, "receipt", 0, false);
+		try {
+			new SamplingEngine(spec);
+			fail("unknown parent not detected");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("receipt"));
+		}
+	}
+
+}
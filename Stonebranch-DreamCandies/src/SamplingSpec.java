@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The SamplingSpec class describes a relational sampling run for SamplingEngine: a file of sample keys, and the tables
+ * extracted from it. Each table is a full extraction file filtered on one key column, against the values of a column of
+ * its parent (another table, or the sample itself). The parent links must form a tree rooted at the sample, so the tables
+ * make up a DAG of key sets that SamplingEngine extracts level by level.
+ *
+ * A spec can be built with addTable, or loaded from a text file with one declaration per line ('#' starts a comment):
+ *
+ *   sample customer_sample.csv
+ *   table customer customer.csv customer_test.csv key=0 from=sample.0 unique
+ *   table invoice invoice.csv invoice_test.csv key=0 from=sample.0
+ *   table invoice_item invoice_item.csv invoice_item_test.csv key=0 from=invoice.1
+ */
+public class SamplingSpec {
+
+	public static final String SAMPLE = "sample"; //name of the sample, as a parent of tables
+
+	private final Path sampleFile; //file of sample keys, one per line after a header
+	private final Map<String, Table> tables = new LinkedHashMap<String, Table>(); //tables by name, in declaration order
+
+
+	/**
+	 * Constructor for SamplingSpec
+	 *
+	 * @param String sampleFile: name of file containing the sample keys, one per line after a header
+	 */
+	public SamplingSpec(String sampleFile) {
+		this.sampleFile = Paths.get(sampleFile);
+	}
+
+
+	/**
+	 * Adds a table to the spec.
+	 *
+	 * @param String name: name of the table, referred to by its child tables
+	 * @param String input: name of the full extraction file of the table
+	 * @param String output: name of the smaller file to produce (compressed if it ends with ".gz", ".zst" or ".lz4")
+	 * @param int keyColumn: zero-based index of the column matched against the key set of the parent
+	 * @param String parent: name of the parent table, or SAMPLE
+	 * @param int parentColumn: zero-based index of the column of the parent whose values (in the rows kept) form the key set
+	 * @param boolean unique: true if keyColumn is unique in the file, so the scan stops once every key was found
+	 */
+	public void addTable(String name, String input, String output, int keyColumn, String parent, int parentColumn, boolean unique) {
+		if (name.equals(SAMPLE) || tables.containsKey(name)) {throw new IllegalArgumentException("duplicate table " + name);}
+		if (keyColumn < 0 || parentColumn < 0) {throw new IllegalArgumentException("negative column in table " + name);}
+		if (parent.equals(SAMPLE) && parentColumn != 0) {throw new IllegalArgumentException("the sample only has column 0");}
+		tables.put(name, new Table(name, Paths.get(input), Paths.get(output), keyColumn, parent, parentColumn, unique));
+	}
+
+
+	/**
+	 * @return Path: file of sample keys
+	 */
+	Path sampleFile() {
+		return sampleFile;
+	}
+
+
+	/**
+	 * Orders the tables so that every table comes after its parent, keeping the declaration order otherwise.
+	 *
+	 * @return List<Table>: tables of the spec, parents first
+	 * @throws IllegalArgumentException: throws exception if a parent is unknown or the parent links form a cycle
+	 */
+	List<Table> tablesInOrder() {
+		for (Table table : tables.values()) {
+			if (!table.parent.equals(SAMPLE) && !tables.containsKey(table.parent)) {
+				throw new IllegalArgumentException("unknown parent " + table.parent + " of table " + table.name);
+			}
+		}
+		List<Table> ordered = new ArrayList<Table>(tables.size());
+		List<String> placed = new ArrayList<String>(tables.size() + 1);
+		placed.add(SAMPLE);
+		while (ordered.size() < tables.size()) {
+			int before = ordered.size();
+			for (Table table : tables.values()) {
+				if (!placed.contains(table.name) && placed.contains(table.parent)) {
+					ordered.add(table);
+					placed.add(table.name);
+				}
+			}
+			if (ordered.size() == before) { //no table left whose parent is placed
+				throw new IllegalArgumentException("cycle in the parents of tables " + unplaced(placed));
+			}
+		}
+		return ordered;
+	}
+
+
+	/**
+	 * @return List<String>: names of the tables missing from a list of names
+	 */
+	private List<String> unplaced(List<String> placed) {
+		List<String> names = new ArrayList<String>(tables.keySet());
+		names.removeAll(placed);
+		return Collections.unmodifiableList(names);
+	}
+
+
+	/**
+	 * Reads a spec from a text file, in the format given in the class comment. Relative file names are resolved against the
+	 * directory of the spec file.
+	 *
+	 * @param String specFile: name of the spec file
+	 * @return SamplingSpec: the spec declared in the file
+	 * @throws IOException: throws exception if the file can't be read
+	 * @throws IllegalArgumentException: throws exception if a line can't be parsed
+	 */
+	public static SamplingSpec load(String specFile) throws IOException {
+		Path file = Paths.get(specFile).toAbsolutePath();
+		Path directory = file.getParent();
+		SamplingSpec spec = null;
+		int number = 0;
+		for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			number++;
+			int comment = line.indexOf('#');
+			String[] words = (comment < 0 ? line : line.substring(0, comment)).trim().split("\\s+");
+			if (words[0].isEmpty()) {continue;} //blank line
+
+			if (words[0].equals("sample") && words.length == 2 && spec == null) {
+				spec = new SamplingSpec(directory.resolve(words[1]).toString());
+			} else if (words[0].equals("table") && words.length >= 6 && words.length <= 7 && spec != null) {
+				int keyColumn = Integer.parseInt(option(words[4], "key", number));
+				String[] from = option(words[5], "from", number).split("\\.");
+				boolean unique = words.length == 7;
+				if (from.length != 2 || (unique && !words[6].equals("unique"))) {
+					throw new IllegalArgumentException("line " + number + ": can't parse " + line);
+				}
+				spec.addTable(words[1], directory.resolve(words[2]).toString(), directory.resolve(words[3]).toString(),
+						keyColumn, from[0], Integer.parseInt(from[1]), unique);
+			} else {
+				throw new IllegalArgumentException("line " + number + ": can't parse " + line);
+			}
+		}
+		if (spec == null) {throw new IllegalArgumentException(specFile + " declares no sample");}
+		return spec;
+	}
+
+
+	/**
+	 * @return String: value of a "name=value" word
+	 */
+	private static String option(String word, String name, int number) {
+		if (!word.startsWith(name + "=")) {throw new IllegalArgumentException("line " + number + ": expected " + name + "=");}
+		return word.substring(name.length() + 1);
+	}
+
+
+	/**
+	 * A table of the spec.
+	 */
+	static class Table {
+
+		final String name; //name of the table
+		final Path input; //full extraction file
+		final Path output; //smaller file to produce
+		final int keyColumn; //column matched against the key set of the parent
+		final String parent; //name of the parent table, or SAMPLE
+		final int parentColumn; //column of the parent giving the key set
+		final boolean unique; //true if keyColumn is unique in the file
+
+		Table(String name, Path input, Path output, int keyColumn, String parent, int parentColumn, boolean unique) {
+			this.name = name;
+			this.input = input;
+			this.output = output;
+			this.keyColumn = keyColumn;
+			this.parent = parent;
+			this.parentColumn = parentColumn;
+			this.unique = unique;
+		}
+
+		/**
+		 * @return String: name of the key set the table is filtered on, "parent.column"
+		 */
+		String keySet() {
+			return parent + "." + parentColumn;
+		}
+
+	}
+
+}
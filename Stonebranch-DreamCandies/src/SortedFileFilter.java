@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The SortedFileFilter class filters a full extraction file whose rows are sorted by their key column, without reading the
+ * whole file. The sample keys are sorted as well and merged against the file: for each key, the search gallops forward from
+ * where the previous key ended (probing rows 4KB, 8KB, 16KB... ahead) and then narrows the gap with a binary search on byte
+ * offsets, so only the regions of the file around the sample keys are read. Keys are compared as unsigned bytes, as in
+ * KeyIndex, which is also the order of "sort" with LC_ALL=C.
+ */
+class SortedFileFilter {
+
+	private static final long GALLOP_STEP = 4096; //distance of the first probe ahead of the previous key
+	private static final long SCAN_DISTANCE = 8192; //gap below which rows are read one after another instead of bisected
+
+	private final RowFetcher rows; //reads the rows of the file
+	private final int keyColumn; //zero-based index of the key field in each row
+	private final long size; //size of the file
+
+
+	private SortedFileFilter(FileChannel channel, int keyColumn) throws IOException {
+		this.rows = new RowFetcher(channel);
+		this.keyColumn = keyColumn;
+		this.size = rows.size();
+	}
+
+
+	/**
+	 * Checks whether the first rows of a file are sorted by a key column. Rows without that column count as unsorted.
+	 *
+	 * @param Path file: full extraction file to check
+	 * @param int keyColumn: zero-based index of the key field in each row
+	 * @param int maxRows: number of rows after the header to check
+	 * @return boolean: true if the rows checked are in increasing key order
+	 * @throws IOException: throws exception if the file can't be read
+	 */
+	static boolean isSorted(Path file, int keyColumn, int maxRows) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			RowFetcher rows = new RowFetcher(channel);
+			if (!rows.fetch(0)) {return true;} //empty file
+			byte[] previous = null;
+			long offset = rows.nextRow();
+			for (int i = 0; i < maxRows && rows.fetch(offset); i++) {
+				if (!rows.field(keyColumn)) {return false;}
+				byte[] buf = rows.buffer();
+				if (previous != null && KeyIndex.compare(previous, 0, previous.length, buf, rows.fieldStart(), rows.fieldEnd()) > 0) {
+					return false;
+				}
+				previous = Arrays.copyOfRange(buf, rows.fieldStart(), rows.fieldEnd());
+				offset = rows.nextRow();
+			}
+			return true;
+		}
+	}
+
+
+	/**
+	 * Writes the header of a sorted file and every following row whose key is in a set of keys, in file order.
+	 *
+	 * @param Path file: full extraction file to filter, sorted by its key column
+	 * @param OutputStream out: stream the header and matching rows are written to, each followed by "\n"
+	 * @param ByteKeySet keys: set of keys to keep
+	 * @param int keyColumn: zero-based index of the key field in each row
+	 * @param int maxRows: number of matching rows after which the rest of the file is ignored, or -1 for no limit
+	 * @param int collectColumn: zero-based index of a field passed to collector for each matching row, or -1 for none
+	 * @param KeyConsumer collector: receives the collected field of each matching row, in file order
+	 * @throws IOException: throws exception if the file can't be read or the output can't be written
+	 */
+	static void filter(Path file, OutputStream out, ByteKeySet keys, int keyColumn, int maxRows,
+			int collectColumn, KeyConsumer collector) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			new SortedFileFilter(channel, keyColumn).filter(out, sortedKeys(keys), maxRows, collectColumn, collector);
+		}
+	}
+
+
+	/**
+	 * Merges sorted keys against the file, writing the rows of each key.
+	 */
+	private void filter(OutputStream out, byte[][] keys, int maxRows, int collectColumn, KeyConsumer collector) throws IOException {
+		if (!rows.fetch(0)) {return;} //empty file
+		rows.writeRow(out); //file header
+		long from = rows.nextRow(); //every row before this offset has a key smaller than the next key
+		int written = 0;
+
+		for (byte[] key : keys) {
+			long offset = lowerBound(key, from);
+			while (rows.fetch(offset) && compareKey(key) == 0) { //rows of the key follow each other
+				if (maxRows >= 0 && written == maxRows) {return;} //all expected rows found
+				rows.writeRow(out);
+				written++;
+				if (collectColumn >= 0 && rows.field(collectColumn)) {
+					collector.accept(rows.buffer(), rows.fieldStart(), rows.fieldEnd());
+				}
+				offset = rows.nextRow();
+			}
+			from = offset;
+		}
+	}
+
+
+	/**
+	 * Finds the first row at or after an offset whose key is not smaller than a given key.
+	 *
+	 * @param byte[] key: key to search for
+	 * @param long from: offset of a row, every row before it having a smaller key
+	 * @return long: offset of the row, or the size of the file if there is none
+	 */
+	private long lowerBound(byte[] key, long from) throws IOException {
+		//gallop: double the distance ahead until a row with a key not smaller than the key is found
+		long low = from; //offset of a row, every row before it having a smaller key
+		long high = size; //offset of a row whose key is not smaller than the key, or size
+		for (long step = GALLOP_STEP; low < size; step *= 2) {
+			long probe = rowAfter(low + step);
+			if (probe >= size) {break;}
+			rows.fetch(probe);
+			if (compareKey(key) <= 0) {
+				high = probe;
+				break;
+			}
+			low = rows.nextRow();
+		}
+
+		//bisect the gap between the last two probes
+		while (high - low > SCAN_DISTANCE) {
+			long probe = rowAfter(low + (high - low) / 2);
+			if (probe >= high) {break;} //a single row spans the second half
+			rows.fetch(probe);
+			if (compareKey(key) > 0) {
+				low = rows.nextRow();
+			} else {
+				high = probe;
+			}
+		}
+
+		//read the remaining rows in order
+		for (long offset = low; offset < high; offset = rows.nextRow()) {
+			rows.fetch(offset);
+			if (compareKey(key) <= 0) {return offset;}
+		}
+		return high;
+	}
+
+
+	/**
+	 * @return long: offset of the first row starting at or after an offset, or the size of the file if there is none
+	 */
+	private long rowAfter(long offset) throws IOException {
+		if (offset <= 0 || offset >= size) {return Math.min(Math.max(offset, 0), size);}
+		rows.fetch(offset - 1); //a row may end right before the offset, and a "\r\n" terminator is never split
+		return rows.nextRow();
+	}
+
+
+	/**
+	 * Compares a key with the key of the current row. A row without a key field compares as an empty key.
+	 *
+	 * @return int: negative, zero or positive if the key is smaller than, equal to or greater than the key of the row
+	 */
+	private int compareKey(byte[] key) {
+		if (!rows.field(keyColumn)) {return key.length == 0 ? 0 : 1;}
+		return KeyIndex.compare(key, 0, key.length, rows.buffer(), rows.fieldStart(), rows.fieldEnd());
+	}
+
+
+	/**
+	 * @return byte[][]: copies of the keys of a set, in increasing order
+	 */
+	private static byte[][] sortedKeys(ByteKeySet keys) {
+		List<byte[]> list = new ArrayList<byte[]>(keys.size());
+		keys.forEach((buf, start, end) -> list.add(Arrays.copyOfRange(buf, start, end)));
+		byte[][] sorted = list.toArray(new byte[list.size()][]);
+		Arrays.sort(sorted, (a, b) -> KeyIndex.compare(a, 0, a.length, b, 0, b.length));
+		return sorted;
+	}
+
+}
@@ -0,0 +1,106 @@
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Unit tests for SortedFileFilter Class: filter, isSorted
+ */
+public class SortedFileFilterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+
+	/**
+	 * Writes a file containing the given content.
+	 *
+	 * @return Path: path of the file
+	 */
+	private Path file(String content) throws IOException {
+		File f = folder.newFile();
+		Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return f.toPath();
+	}
+
+
+	/**
+	 * Filters a file containing the given content.
+	 *
+	 * @return String: header and matching rows
+	 */
+	private String filter(String content, ByteKeySet keys, int maxRows) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SortedFileFilter.filter(file(content), out, keys, 0, maxRows, -1, null);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+
+	/**
+	 * Test method for {@link SortedFileFilter#filter}.
+	 *
+	 * Tests filter with a sorted file large enough to be searched, mixed line endings, repeated keys, and sample keys at the
+	 * start, in the middle, at the end and outside of the file.
+	 * Expected behavior is that exactly the rows a full scan would keep are written, in file order, ending with "\n".
+	 */
+	@Test
+	public void filter_LargeSortedFile_SameRowsAsScan() throws IOException {
+		StringBuilder content = new StringBuilder("\"KEY\",\"VALUE\"\r\n");
+		StringBuilder expected = new StringBuilder("\"KEY\",\"VALUE\"\n");
+		ByteKeySet keys = new ByteKeySet();
+		keys.add("K99999");
+		keys.add("A");
+		for (int i = 0; i < 20000; i++) {
+			String key = String.format("\"K%05d\"", i / 3); //three rows per key
+			String row = key + ",\"" + i + "\"";
+			content.append(row).append(i % 3 == 0 ? "\r\n" : i % 3 == 1 ? "\n" : "\r");
+			if ((i / 3) % 331 == 0 || i / 3 == 6666) { //keys spread over the file, the first key and the last key
+				keys.add(key.substring(1, key.length() - 1)); //keys are looked up without their quotes
+				expected.append(row).append('\n');
+			}
+		}
+		assertEquals(expected.toString(), filter(content.toString(), keys, -1));
+	}
+
+
+	/**
+	 * Test method for {@link SortedFileFilter#filter}.
+	 *
+	 * Tests filter with a limit on the number of matching rows, a last row without terminator, and an empty file.
+	 * Expected behavior is that only the first matching rows up to the limit are written.
+	 */
+	@Test
+	public void filter_MaxRowsAndEdges_StopsAfterLimit() throws IOException {
+		ByteKeySet keys = new ByteKeySet();
+		keys.add("A");
+		keys.add("C");
+		String content = "\"KEY\"\n\"A\"\n\"A\"\n\"B\"\n\"C\"";
+		assertEquals("\"KEY\"\n\"A\"\n\"A\"\n\"C\"\n", filter(content, keys, -1));
+		assertEquals("\"KEY\"\n\"A\"\n\"A\"\n", filter(content, keys, 2));
+		assertEquals("", filter("", keys, -1));
+	}
+
+
+	/**
+	 * Test method for {@link SortedFileFilter#isSorted}.
+	 *
+	 * Tests isSorted with sorted and unsorted files, and with an unsorted row past the rows checked.
+	 * Expected behavior is that only the rows checked decide the result.
+	 */
+	@Test
+	public void isSorted_SortedAndUnsortedFiles_DetectsOrder() throws IOException {
+		assertTrue(SortedFileFilter.isSorted(file("\"KEY\"\n\"A\"\n\"A\"\n\"B\"\n"), 0, 100));
+		assertFalse(SortedFileFilter.isSorted(file("\"KEY\"\n\"B\"\n\"A\"\n"), 0, 100));
+		assertTrue(SortedFileFilter.isSorted(file("\"KEY\"\n\"A\"\n\"B\"\n\"A\"\n"), 0, 2));
+		assertFalse(SortedFileFilter.isSorted(file("\"KEY\",\"VALUE\"\n\"A\",\"1\"\n\"B\"\n"), 1, 100));
+		assertTrue(SortedFileFilter.isSorted(file(""), 0, 100));
+	}
+
+}
@@ -1,13 +1,32 @@
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 
@@ -19,11 +38,47 @@ import java.util.*;
  */
 public class TestFileFilter {
 	
-	private Set<String> sampleCustomers = new HashSet<String>(); //set of sample customers
-	private Set<String> sampleInvoices = new HashSet<String>(); //set of invoices attached to sample customers
-	private Reader customer; //reader for full customer extraction file
-	private Reader invoice; //reader for full invoice extraction file
-	private Reader invoiceItem; //reader for full invoiceItem extraction file
+	private static final int SORT_CHECK_ROWS = 10000; //rows at the start of a file checked before it is treated as sorted
+	public static final String CUSTOMER_PASS = "customer"; //name of the metrics of the customer pass
+	public static final String INVOICE_PASS = "invoice"; //name of the metrics of the invoice pass
+	public static final String INVOICE_ITEM_PASS = "invoice_item"; //name of the metrics of the invoice item pass
+	
+	/**
+	 * Order of the rows of the full extraction files: customers and invoices by CUSTOMER_CODE, invoice items by INVOICE_CODE.
+	 */
+	public enum InputOrder {
+		UNSORTED, //files are scanned in full
+		SORTED, //files are declared sorted by key, and searched instead of scanned
+		CHECK_PREFIX //each file is searched if its first rows are sorted by key, and scanned otherwise
+	}
+	
+	private ByteKeySet sampleCustomerKeys; //set of sample customers, as raw bytes probed while scanning, null while loading
+	private Future<SampleLoader> sampleLoad; //loading of the sample customers, null once they are loaded
+	private SampleLoader sample; //loaded sample customers, with their duplicate and malformed lines, null if given as a set
+	private KeyForms sampleCustomerForms = new KeyForms(); //how the sample customer codes were written
+	private ByteKeySet sampleInvoiceKeys = new ByteKeySet(); //set of invoices attached to sample customers, as raw bytes
+	private final KeyForms sampleInvoiceForms = new KeyForms(); //how the sample invoice codes were written
+	private InputStream customer; //stream for full customer extraction file
+	private InputStream invoice; //stream for full invoice extraction file
+	private InputStream invoiceItem; //stream for full invoiceItem extraction file
+	private Path customerPath; //path of full customer extraction file, null if given as a stream
+	private Path invoicePath; //path of full invoice extraction file, null if given as a stream
+	private Path invoiceItemPath; //path of full invoiceItem extraction file, null if given as a stream
+	private int parallelism = 1; //number of threads scanning each full extraction file
+	private boolean singlePass; //true to scan the invoice item file at the same time as the invoice file
+	private long pendingMemoryLimit = 256L << 20; //bytes of invoice item rows held in memory while their invoice is unknown
+	private Path spillDirectory; //directory for invoice item rows that don't fit in memory, null for the temporary directory
+	private PendingRowStore pending; //invoice item rows waiting for their invoice during a single pass extraction
+	private boolean useIndexes; //true to read matching rows through the key indexes of the full extraction files
+	private boolean useKeyColumns; //true to read matching rows through the key columns of the full extraction files
+	private InputOrder inputOrder = InputOrder.UNSORTED; //order of the rows of the full extraction files
+	private boolean compressedInput; //true if a full extraction file given by name is compressed, so it can only be streamed
+	private long checkpointInterval; //bytes of input filtered between checkpoints, 0 for no checkpoints
+	private boolean resume; //true to resume from the checkpoints and completed outputs of an interrupted run
+	private boolean incremental; //true to rescan only the chunks of the full files that changed since the previous outputs
+	private final List<ExtractionListener> listeners = new CopyOnWriteArrayList<ExtractionListener>(); //listeners told of the passes
+	private ExtractionMetrics metrics; //metrics of the last extraction, null before the first one
+	private IoConfig io = IoConfig.DEFAULT; //buffer sizes and read ahead of the full files and outputs
 	
 	
 	/**
@@ -35,7 +90,40 @@ public class TestFileFilter {
 	 * @param Reader invoiceItem: reader for full extraction file containing all invoice item data
 	 */
 	public TestFileFilter(Reader sampleCustomers, Reader customer, Reader invoice, Reader invoiceItem) {
-		parseSampleCustomers(sampleCustomers);
+		this(new ReaderInputStream(sampleCustomers),
+				new ReaderInputStream(customer),
+				new ReaderInputStream(invoice),
+				new ReaderInputStream(invoiceItem));
+	}
+	
+	
+	/**
+	 * Constructor for TestFileFilter with input stream parameters. The streams are read as raw bytes. The sample is loaded on
+	 * a background thread (see SampleLoader), so the constructor returns at once; the first call that needs the sample waits
+	 * for it, and throws an UncheckedIOException if it couldn't be read.
+	 * 
+	 * @param InputStream sampleCustomers: stream for file containing sample set of customers
+	 * @param InputStream customer: stream for full extraction file containing all customer data
+	 * @param InputStream invoice: stream for full extraction file containing all invoice data
+	 * @param InputStream invoiceItem: stream for full extraction file containing all invoice item data
+	 */
+	public TestFileFilter(InputStream sampleCustomers, InputStream customer, InputStream invoice, InputStream invoiceItem) {
+		this((ByteKeySet) null, customer, invoice, invoiceItem);
+		loadSample(() -> SampleLoader.load(sampleCustomers, -1));
+	}
+	
+	
+	/**
+	 * Constructor for TestFileFilter with a set of sample customers already parsed. The set is only read, so several
+	 * objects may share it, provided its Bloom filter is not toggled meanwhile.
+	 * 
+	 * @param ByteKeySet sampleCustomers: set of sample customer codes
+	 * @param InputStream customer: stream for full extraction file containing all customer data
+	 * @param InputStream invoice: stream for full extraction file containing all invoice data
+	 * @param InputStream invoiceItem: stream for full extraction file containing all invoice item data
+	 */
+	TestFileFilter(ByteKeySet sampleCustomers, InputStream customer, InputStream invoice, InputStream invoiceItem) {
+		this.sampleCustomerKeys = sampleCustomers;
 		this.customer = customer;
 		this.invoice = invoice;
 		this.invoiceItem = invoiceItem;
@@ -43,7 +131,9 @@ public class TestFileFilter {
 	
 	
 	/**
-	 * Constructor for TestFileFilter with String file name parameters
+	 * Constructor for TestFileFilter with String file name parameters. Files compressed with gzip, zstd or lz4 (recognized by
+	 * their first bytes or extension) are decompressed on the fly, on a background thread. The sample is loaded on a background
+	 * thread, into a key set sized from the file (see SampleLoader), so the constructor returns at once.
 	 * 
 	 * @param String sampleCustomers: name of file containing sample set of customers
 	 * @param String customer: name of full extraction file containing all customer data
@@ -52,66 +142,400 @@ public class TestFileFilter {
 	 * @throws IOException: throws exception if readers can't be instantiated
 	 */
 	public TestFileFilter(String sampleCustomers, String customer, String invoice, String invoiceItem) throws IOException {
-		this(Files.newBufferedReader(Paths.get(sampleCustomers)),
-				Files.newBufferedReader(Paths.get(customer)),
-				Files.newBufferedReader(Paths.get(invoice)),
-				Files.newBufferedReader(Paths.get(invoiceItem)));
+		this((ByteKeySet) null, null, null, null);
+		Path samplePath = readablePath(sampleCustomers);
+		loadSample(() -> SampleLoader.load(samplePath));
+		this.customerPath = readablePath(customer);
+		this.invoicePath = readablePath(invoice);
+		this.invoiceItemPath = readablePath(invoiceItem);
+		this.compressedInput = Compression.detect(customerPath) != Compression.NONE
+				|| Compression.detect(invoicePath) != Compression.NONE
+				|| Compression.detect(invoiceItemPath) != Compression.NONE;
 	}
-
+	
 	
 	/**
-	 * Reads through the customer sample file and adds each customer code to the sampleCustomers set
+	 * Starts loading the sample customers on a background thread.
 	 * 
-	 * @param Reader r: reader for file containing the sample set of customers
+	 * @param Callable<SampleLoader> loader: loads the sample
 	 */
-	private void parseSampleCustomers(Reader r) {
+	private void loadSample(Callable<SampleLoader> loader) {
+		FutureTask<SampleLoader> task = new FutureTask<SampleLoader>(loader);
+		Thread thread = new Thread(task, "sample-loader");
+		thread.setDaemon(true);
+		thread.start();
+		sampleLoad = task;
+	}
+	
+	
+	/**
+	 * Waits for the sample customers to be loaded.
+	 * 
+	 * @throws UncheckedIOException: throws exception if the sample file couldn't be read
+	 */
+	private synchronized void awaitSample() {
+		if (sampleLoad == null) {return;}
 		try {
-			BufferedReader reader = new BufferedReader(r);
-			reader.readLine(); //read file header
-			
-			//read every customer id and add to set of sampleCustomers
-			String line;
-			while ((line = reader.readLine()) != null) {
-				sampleCustomers.add(line);
-			}
-			reader.close();
-		} catch (Exception e) {
-			e.printStackTrace();
+			sample = sampleLoad.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UncheckedIOException(new InterruptedIOException("interrupted while loading sample"));
+		} catch (ExecutionException e) {
+			throw failure(e);
 		}
+		sampleCustomerKeys = sample.keys();
+		sampleCustomerForms = sample.forms();
+		sampleLoad = null;
+	}
+	
+	
+	/**
+	 * Sets the number of threads used to scan each full extraction file. With more than one thread, and when the object was
+	 * constructed with file names, extractTestFiles(String, String, String) memory-maps each file and filters line-aligned
+	 * chunks of it in parallel. Rows are still written in their original order.
+	 * 
+	 * @param int parallelism: number of threads, 1 (the default) scans each file sequentially
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {throw new IllegalArgumentException("parallelism must be at least 1");}
+		this.parallelism = parallelism;
+	}
+	
+	
+	/**
+	 * Sets whether the invoice item file is scanned at the same time as the invoice file, instead of after it. Invoice item
+	 * rows whose invoice is not known yet are held until the invoice pass finds it (they are then written) or ends (they are
+	 * then dropped). Held rows are kept in memory up to setPendingMemoryLimit(long) bytes and spilled to disk beyond that.
+	 * In this mode invoice item rows are written in the order they are matched, rather than in file order.
+	 * 
+	 * @param boolean singlePass: true to scan both files at the same time, false (the default) to scan them one after another
+	 */
+	public void setSinglePass(boolean singlePass) {
+		this.singlePass = singlePass;
+	}
+	
+	
+	/**
+	 * @param long bytes: maximum number of bytes of invoice item rows held in memory in single pass mode (256MB by default)
+	 */
+	public void setPendingMemoryLimit(long bytes) {
+		if (bytes < 0) {throw new IllegalArgumentException("memory limit can't be negative");}
+		this.pendingMemoryLimit = bytes;
+	}
+	
+	
+	/**
+	 * @param String directory: directory for invoice item rows spilled to disk in single pass mode, null for the temporary directory
+	 */
+	public void setSpillDirectory(String directory) {
+		this.spillDirectory = directory == null ? null : Paths.get(directory);
+	}
+	
+	
+	/**
+	 * Builds a persistent index of the key column of each full extraction file (CUSTOMER_CODE for customers and invoices,
+	 * INVOICE_CODE for invoice items), stored next to the file. An index stays valid until the size or modification time of
+	 * its file changes.
+	 * 
+	 * @throws IOException: throws exception if a file can't be read or an index can't be written
+	 */
+	public void buildIndexes() throws IOException {
+		if (customerPath == null) {throw new IllegalStateException("indexes can only be built for files given by name");}
+		if (compressedInput) {throw new IllegalStateException("indexes can't be built for compressed files");}
+		KeyIndex.build(customerPath, 0);
+		KeyIndex.build(invoicePath, 0);
+		KeyIndex.build(invoiceItemPath, 0);
+	}
+	
+	
+	/**
+	 * Sets whether extractTestFiles(String, String, String) uses the indexes built by buildIndexes(). With an up to date index,
+	 * only the rows of the sample keys are read, so the cost of a run depends on the sample size rather than the file size.
+	 * Files without an up to date index are scanned as usual.
+	 * 
+	 * @param boolean useIndexes: true to use the indexes, false (the default) to scan every file
+	 */
+	public void setUseIndexes(boolean useIndexes) {
+		this.useIndexes = useIndexes;
+	}
+	
+	
+	/**
+	 * Builds a columnar copy of the key column of each full extraction file (CUSTOMER_CODE for customers and invoices,
+	 * INVOICE_CODE for invoice items), stored next to the file as a dictionary of its keys, the key code and the offset of each
+	 * row (see KeyColumns). The columns stay valid until the size or modification time of their file changes.
+	 * 
+	 * @throws IOException: throws exception if a file can't be read or the columns can't be written
+	 */
+	public void buildKeyColumns() throws IOException {
+		if (customerPath == null) {throw new IllegalStateException("key columns can only be built for files given by name");}
+		if (compressedInput) {throw new IllegalStateException("key columns can't be built for compressed files");}
+		KeyColumns.build(customerPath, 0);
+		KeyColumns.build(invoicePath, 0);
+		KeyColumns.build(invoiceItemPath, 0);
+	}
+	
+	
+	/**
+	 * Sets whether extractTestFiles(String, String, String) uses the key columns built by buildKeyColumns(). With up to date
+	 * columns, the matching rows are found by scanning the key codes of the file rather than the file itself, and only those
+	 * rows are read. A file without up to date columns goes through its index if indexes are used, and is scanned otherwise.
+	 * 
+	 * @param boolean useKeyColumns: true to use the key columns, false (the default) not to
+	 */
+	public void setUseKeyColumns(boolean useKeyColumns) {
+		this.useKeyColumns = useKeyColumns;
+	}
+	
+	
+	/**
+	 * Sets whether lookups in the sample customer and invoice sets are checked against a Bloom filter first. Nearly every row
+	 * of a full extraction file is not part of the sample, and the filter rejects most of those rows without probing the
+	 * sets, which pays off once the sets outgrow the CPU caches (e.g. millions of sample invoices).
+	 * 
+	 * @param boolean enabled: true to use Bloom filters, false (the default) to probe the sets directly
+	 */
+	public void setBloomFilter(boolean enabled) {
+		awaitSample();
+		sampleCustomerKeys.setFilterEnabled(enabled);
+		sampleInvoiceKeys.setFilterEnabled(enabled);
+	}
+	
+	
+	/**
+	 * @return double: fraction of customer codes not in the sample that the Bloom filter failed to reject during extraction
+	 */
+	public double getCustomerFalsePositiveRate() {
+		awaitSample();
+		return sampleCustomerKeys.falsePositiveRate();
+	}
+	
+	
+	/**
+	 * @return double: fraction of invoice codes not in the sample that the Bloom filter failed to reject during extraction
+	 */
+	public double getInvoiceFalsePositiveRate() {
+		return sampleInvoiceKeys.falsePositiveRate();
+	}
+	
+	
+	/**
+	 * Sets the order of the rows of the full extraction files, for extractTestFiles(String, String, String). When a file is
+	 * sorted by its key, the sample keys are merged against it with galloping and binary searches on byte offsets, so only
+	 * the regions of the file around the sample keys are read. Results are only correct if the declared order is the real one:
+	 * CHECK_PREFIX guards against unsorted exports, but only verifies the first rows of each file.
+	 * 
+	 * @param InputOrder inputOrder: order of the rows, UNSORTED by default
+	 */
+	public void setInputOrder(InputOrder inputOrder) {
+		this.inputOrder = inputOrder;
+	}
+	
+	
+	/**
+	 * Sets how often extractTestFiles(String, String, String) saves a checkpoint of the pass in progress, next to its output
+	 * file ("customer_test.csv.ckpt" for "customer_test.csv"). A checkpoint holds the offsets of the input and output and the
+	 * number of rows found, and the output is flushed to disk before it is saved. With checkpoints, the files are filtered
+	 * one after another by a single sequential scan, whatever the parallelism, input order or index settings. Outputs
+	 * compressed with gzip, zstd or lz4 can't be resumed in the middle, so their passes only resume once complete.
+	 * 
+	 * @param long bytes: bytes of input filtered between checkpoints, 0 (the default) for no checkpoints
+	 */
+	public void setCheckpointInterval(long bytes) {
+		if (bytes < 0) {throw new IllegalArgumentException("checkpoint interval can't be negative");}
+		this.checkpointInterval = bytes;
+	}
+	
+	
+	/**
+	 * Sets whether extractTestFiles(String, String, String) resumes an interrupted run with the same output names. Passes
+	 * whose output was committed from the same input, sample and options (as recorded in its stamp) are skipped, and a pass
+	 * with an up to date checkpoint continues from it; the invoice codes of sampleInvoices are read back from the invoice
+	 * output written so far. Everything else starts over, so resuming after a new drop of the full files or a new sample
+	 * redoes the passes they affect.
+	 * 
+	 * @param boolean resume: true to resume, false (the default) to start from scratch
+	 */
+	public void setResume(boolean resume) {
+		this.resume = resume;
+	}
+	
+	
+	/**
+	 * Sets whether extractTestFiles(String, String, String) updates the outputs of a previous run from the changes to the full
+	 * extraction files, rather than scanning the files in full (see DeltaFileFilter). Each output is saved with a manifest
+	 * ("customer_test.csv.delta" for "customer_test.csv") of the chunks of its full file; the next run only scans the chunks
+	 * that changed, or that may hold rows of sample customers or invoices added since, and takes the rows of the others from
+	 * the previous output. An output without an up to date manifest is produced by a full scan. Full files and outputs must be
+	 * given by name and not compressed, and incremental extraction can't be combined with checkpoints.
+	 * 
+	 * @param boolean incremental: true to extract incrementally, false (the default) to scan the full files
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+	
+	
+	/**
+	 * Sets the buffer sizes, buffer kind and read ahead used by the passes that stream the full extraction files (see IoConfig).
+	 * Memory-mapped passes (parallel, sorted, indexed) read the files through their own mappings, but write their outputs with
+	 * these settings too.
+	 * 
+	 * @param IoConfig io: I/O settings, IoConfig.DEFAULT by default
+	 */
+	public void setIoConfig(IoConfig io) {
+		if (io == null) {throw new IllegalArgumentException("I/O settings can't be null");}
+		this.io = io;
+	}
+	
+	
+	/**
+	 * Probes the storage of the full extraction files given by name, and keeps the buffer sizes that read them fastest (see
+	 * IoConfig.autoTune). The other I/O settings are kept.
+	 * 
+	 * @return IoConfig: the settings now in use
+	 * @throws IOException: throws exception if a file can't be read
+	 */
+	public IoConfig autoTuneIo() throws IOException {
+		if (customerPath == null) {throw new IllegalStateException("I/O can only be tuned for files given by name");}
+		io = IoConfig.autoTune(io, customerPath, invoicePath, invoiceItemPath);
+		return io;
+	}
+	
+	
+	/**
+	 * @return IoConfig: I/O settings of the passes
+	 */
+	public IoConfig getIoConfig() {
+		return io;
+	}
+	
+	
+	/**
+	 * Adds a listener told of the progress and metrics of each pass of the following extractions. Listeners are called from
+	 * the threads running the passes.
+	 * 
+	 * @param ExtractionListener listener: listener to add, e.g. a ProgressPrinter
+	 */
+	public void addListener(ExtractionListener listener) {
+		listeners.add(listener);
+	}
+	
+	
+	/**
+	 * @return ExtractionMetrics: metrics of the last extraction (complete once extractTestFiles returns), null before the first one
+	 */
+	public ExtractionMetrics getMetrics() {
+		return metrics;
+	}
+	
+	
+	/**
+	 * Starts measuring a pass of the current extraction.
+	 * 
+	 * @param String name: name of the pass
+	 * @param Path input: path of the full extraction file of the pass, null if given as a stream
+	 * @return PassMetrics: metrics of the pass
+	 * @throws IOException: throws exception if the file can't be read
+	 */
+	private PassMetrics startPass(String name, Path input) throws IOException {
+		long size = input != null && Compression.detect(input) == Compression.NONE ? Files.size(input) : -1;
+		PassMetrics pass = new PassMetrics(name, size, listeners);
+		metrics.add(pass);
+		for (ExtractionListener listener : listeners) {listener.passStarted(pass);}
+		return pass;
+	}
+	
+	
+	/**
+	 * Ends the measure of a pass that completed.
+	 * 
+	 * @param PassMetrics pass: metrics of the pass
+	 */
+	private void finishPass(PassMetrics pass) {
+		pass.finish();
+		for (ExtractionListener listener : listeners) {listener.passFinished(pass);}
+	}
+	
+	
+	/**
+	 * Ends the measure of a pass that completed, writing through a RangeWriter rather than counting rows as it wrote them.
+	 * 
+	 * @param PassMetrics pass: metrics of the pass
+	 * @param RangeWriter out: output of the pass, its header written as a row
+	 */
+	private void finishPass(PassMetrics pass, RangeWriter out) {
+		pass.written(Math.max(0, out.rows() - 1), out.bytes());
+		finishPass(pass);
+	}
+	
+	
+	/**
+	 * Ends the measure of the current extraction, once it completed.
+	 */
+	private void finishExtraction() {
+		metrics.finish(sampleCustomerKeys.size(), sampleInvoiceKeys.size());
+		for (ExtractionListener listener : listeners) {listener.extractionFinished(metrics);}
+	}
+	
+	
+	/**
+	 * @param String name: name of a full extraction file
+	 * @return Path: path of the file
+	 * @throws IOException: throws exception if the file can't be read
+	 */
+	private static Path readablePath(String name) throws IOException {
+		Path path = Paths.get(name);
+		if (!Files.isReadable(path)) {throw new NoSuchFileException(name);}
+		return path;
 	}
 	
 	
+	/**
+	 * @param InputStream stream: stream given to the constructor, or null
+	 * @param Path path: path given to the constructor, or null
+	 * @param boolean waits: true if the pass waits for another pass before it reads, so the input is read ahead
+	 * @return InputStream: the stream, or a new stream reading (and decompressing if needed) the path
+	 */
+	private InputStream open(InputStream stream, Path path, boolean waits) throws IOException {
+		if (stream != null) {return waits ? io.readAhead(stream) : stream;}
+		return io.open(path, waits);
+	}
+
+	
 	/**
 	 * Reads through the full customer extraction file and produces a smaller file containing only pre-selected customers.
 	 * 
-	 * @param Reader r: reader for full extraction file of customer data
-	 * @param Writer w: writer for smaller file of sample customer data
+	 * @param InputStream in: stream for full extraction file of customer data
+	 * @param OutputStream out: stream for smaller file of sample customer data
+	 * @throws IOException: throws exception if the file can't be read or the output can't be written
 	 */
-	private void extractFromCustomer(Reader r, Writer w) {
-		try {
-			BufferedReader reader = new BufferedReader(r);
-			BufferedWriter writer = new BufferedWriter(w);
-			
-			String line;
-			if ((line = reader.readLine()) != null) { //read file header and write it to new file
-				writer.write(line + "\n");
+	private void extractFromCustomer(InputStream in, OutputStream out) throws IOException {
+		PassMetrics pass = startPass(CUSTOMER_PASS, customerPath);
+		try (CsvScanner scanner = new CsvScanner(open(in, customerPath, false), io.getReadBufferSize()); OutputStream writer = rowWriter(out, customerPath)) {
+			pass.scan(scanner::position);
+			if (scanner.nextLine()) { //read file header and write it to new file
+				scanner.writeLine(writer);
+				pass.headerWritten(scanner.lineEnd() - scanner.lineStart() + 1);
 			}
 			
 			int count = 0; //number of customers found
-			int breakPoint = sampleCustomers.size(); //number of customers expected
-			while ((line = reader.readLine()) != null) {
-				String[] splitLine = line.split(",");
-				if (sampleCustomers.contains(splitLine[0])) { //check if customer code is in set
-					writer.write(line + "\n");
+			int breakPoint = sampleCustomerKeys.size(); //number of customers expected
+			while (scanner.nextLine()) {
+				scanner.field(0);
+				pass.rowParsed();
+				boolean match = sampleCustomerKeys.contains(scanner.buffer(), scanner.fieldStart(), scanner.fieldEnd()); //check if customer code is in set
+				pass.rowLookedUp();
+				if (match) {
+					scanner.writeLine(writer);
+					pass.rowWritten(scanner.lineEnd() - scanner.lineStart() + 1);
 					count++;
 				}
+				pass.rowDone();
 				if (count == breakPoint) {break;} //all sample customers found
 			}
-			reader.close();
-			writer.close();
-		} catch (Exception e) {
-			e.printStackTrace();
 		}
+		finishPass(pass);
 	}
 	
 
@@ -119,31 +543,39 @@ public class TestFileFilter {
 	 * Reads through the full invoice extraction file and produces a smaller file containing only invoices attached
 	 * to pre-selected customers. Populates sampleInvoices set with invoice codes attached to preselected customers.
 	 * 
-	 * @param Reader r: reader for full extraction file of invoice data
-	 * @param Writer w: writer for smaller file of sample invoice data
+	 * @param InputStream in: stream for full extraction file of invoice data
+	 * @param OutputStream out: stream for smaller file of sample invoice data
+	 * @throws IOException: throws exception if the file can't be read or the output can't be written
 	 */
-	private void extractFromInvoice(Reader r, Writer w) {
-		try {
-			BufferedReader reader = new BufferedReader(r);
-			BufferedWriter writer = new BufferedWriter(w);
-			
-			String line;
-			if ((line = reader.readLine()) != null) { //read file header and write it to new file
-				writer.write(line + "\n");
+	private void extractFromInvoice(InputStream in, OutputStream out) throws IOException {
+		PassMetrics pass = startPass(INVOICE_PASS, invoicePath);
+		try (CsvScanner scanner = new CsvScanner(open(in, invoicePath, false), io.getReadBufferSize()); OutputStream writer = rowWriter(out, invoicePath)) {
+			pass.scan(scanner::position);
+			if (scanner.nextLine()) { //read file header and write it to new file
+				scanner.writeLine(writer);
+				pass.headerWritten(scanner.lineEnd() - scanner.lineStart() + 1);
 			}
 			
-			while ((line = reader.readLine()) != null) {
-				String[] splitLine = line.split(",");
-				if (sampleCustomers.contains(splitLine[0])) { //check if customer code is in set
-					writer.write(line + "\n");
-					sampleInvoices.add(splitLine[1]); //add invoice to sample invoice set if correlated to sample customer
+			while (scanner.nextLine()) {
+				scanner.field(0);
+				pass.rowParsed();
+				boolean match = sampleCustomerKeys.contains(scanner.buffer(), scanner.fieldStart(), scanner.fieldEnd()); //check if customer code is in set
+				pass.rowLookedUp();
+				if (match) {
+					scanner.writeLine(writer);
+					if (scanner.field(1)) {
+						if (pending == null) {
+							addSampleInvoice(scanner.buffer(), scanner.fieldStart(), scanner.fieldEnd()); //add invoice to sample invoice set if correlated to sample customer
+						} else if (pending.publish(scanner.buffer(), scanner.fieldStart(), scanner.fieldEnd())) { //added to the set under the lock of the store, held invoice items released
+							sampleInvoiceForms.recordField(scanner.buffer(), scanner.fieldStart(), scanner.fieldEnd());
+						}
+					}
+					pass.rowWritten(scanner.lineEnd() - scanner.lineStart() + 1);
 				}
+				pass.rowDone();
 			}
-			reader.close();
-			writer.close();
-		} catch (Exception e) {
-			e.printStackTrace();
 		}
+		finishPass(pass);
 	}
 	
 	
@@ -151,30 +583,84 @@ public class TestFileFilter {
 	 * Reads through the full invoice item extraction file and produces a smaller file containing only invoices items attached
 	 * to pre-selected customers.
 	 * 
-	 * @param Reader r: name of full extraction file of invoice item data
-	 * @param Writer w: writer for smaller file of sample invoice item data
+	 * @param InputStream in: stream for full extraction file of invoice item data
+	 * @param OutputStream out: stream for smaller file of sample invoice item data
+	 * @throws IOException: throws exception if the file can't be read or the output can't be written
 	 */
-	private void extractFromInvoiceItem(Reader r, Writer w) {
-		try {
-			BufferedReader reader = new BufferedReader(r);
-			BufferedWriter writer = new BufferedWriter(w);
-			
-			String line;
-			if ((line = reader.readLine()) != null) { //read file header and write it to new file
-				writer.write(line + "\n");
+	private void extractFromInvoiceItem(InputStream in, OutputStream out) throws IOException {
+		PassMetrics pass = startPass(INVOICE_ITEM_PASS, invoiceItemPath);
+		try (CsvScanner scanner = new CsvScanner(open(in, invoiceItemPath, false), io.getReadBufferSize()); OutputStream writer = rowWriter(out, invoiceItemPath)) {
+			pass.scan(scanner::position);
+			if (scanner.nextLine()) { //read file header and write it to new file
+				scanner.writeLine(writer);
+				pass.headerWritten(scanner.lineEnd() - scanner.lineStart() + 1);
 			}
 			
-			while ((line = reader.readLine()) != null) {
-				String[] splitLine = line.split(",");
-				if (sampleInvoices.contains(splitLine[0])) { //check if invoice number is in set
-					writer.write(line + "\n");
+			while (scanner.nextLine()) {
+				scanner.field(0);
+				pass.rowParsed();
+				boolean match = sampleInvoiceKeys.contains(scanner.buffer(), scanner.fieldStart(), scanner.fieldEnd()); //check if invoice number is in set
+				pass.rowLookedUp();
+				if (match) {
+					scanner.writeLine(writer);
+					pass.rowWritten(scanner.lineEnd() - scanner.lineStart() + 1);
 				}
+				pass.rowDone();
 			}
-			reader.close();
-			writer.close();
-		} catch (Exception e) {
-			e.printStackTrace();
 		}
+		finishPass(pass);
+	}
+	
+	
+	/**
+	 * Reads through the full invoice item extraction file while the invoice file is still being read, passing every row to the
+	 * store of pending rows. Once the invoice pass is done, writes out the rows the store had to spill to disk.
+	 * 
+	 * @param InputStream in: stream for full extraction file of invoice item data
+	 * @param OutputStream out: stream for smaller file of sample invoice item data, written through store
+	 * @param PendingRowStore store: store writing matching rows to out
+	 * @param Future<?> invoicePass: invoice pass running at the same time
+	 * @param PassMetrics pass: metrics of the pass, whose output out is counted by
+	 * @throws Exception: throws exception if the file can't be read, the output can't be written, or the invoice pass failed
+	 */
+	private void extractFromInvoiceItemInSinglePass(InputStream in, OutputStream out, PendingRowStore store, Future<?> invoicePass,
+			PassMetrics pass) throws Exception {
+		try (CsvScanner scanner = new CsvScanner(open(in, invoiceItemPath, false), io.getReadBufferSize())) {
+			pass.scan(scanner::position);
+			if (scanner.nextLine()) { //read file header and write it to new file
+				store.writeRow(scanner.buffer(), scanner.lineStart(), scanner.lineEnd());
+			}
+			
+			while (scanner.nextLine()) {
+				scanner.field(0);
+				pass.rowParsed();
+				store.offer(scanner.buffer(), scanner.fieldStart(), scanner.fieldEnd(), scanner.lineStart(), scanner.lineEnd()); //lookup, and write or hold
+				pass.rowLookedUp();
+				pass.rowDone();
+			}
+			invoicePass.get(); //sampleInvoices must be complete before spilled rows are checked
+			store.drain();
+			out.flush();
+			finishPass(pass);
+		} finally {
+			try {
+				store.close(); //deletes the spill file
+			} finally {
+				out.close();
+			}
+		}
+	}
+	
+	
+	/**
+	 * Adds an invoice code to the sampleInvoices set.
+	 * 
+	 * @param byte[] buf: array containing the invoice code
+	 * @param int start: index of first byte of the invoice code
+	 * @param int end: index one past the last byte of the invoice code
+	 */
+	private void addSampleInvoice(byte[] buf, int start, int end) {
+		if (sampleInvoiceKeys.add(buf, start, end)) {sampleInvoiceForms.recordField(buf, start, end);}
 	}
 	
 	
@@ -186,43 +672,760 @@ public class TestFileFilter {
 	 * @param Writer invoiceItemOut: writer for smaller file to be produced with invoice item data attached to pre-selected customers
 	 */
 	public void extractTestFiles(Writer customerOut, Writer invoiceOut, Writer invoiceItemOut) {
+		extractTestFiles(new WriterOutputStream(customerOut),
+				new WriterOutputStream(invoiceOut),
+				new WriterOutputStream(invoiceItemOut));
+	}
+	
+	
+	/**
+	 * Executes the entire extraction process, with OutputStream parameters. Matching rows are copied to the outputs as raw bytes.
+	 * The customer and invoice passes only depend on sampleCustomers, so they run concurrently. The invoice item pass needs
+	 * the complete sampleInvoices set, so it waits for the invoice pass, but the invoice item file is read ahead into a
+	 * bounded buffer in the meantime. In single pass mode the invoice item pass runs alongside the invoice pass instead. When a
+	 * pass fails, the others are interrupted, their inputs and outputs closed, and they have ended by the time it is thrown.
+	 * 
+	 * @param OutputStream customerOut: stream for smaller file to be produced with pre-selected customer data
+	 * @param OutputStream invoiceOut: stream for smaller file to be produced with invoice data attached to pre-selected customers
+	 * @param OutputStream invoiceItemOut: stream for smaller file to be produced with invoice item data attached to pre-selected customers
+	 * @throws UncheckedIOException: throws exception if a file can't be read or an output can't be written
+	 */
+	public void extractTestFiles(OutputStream customerOut, OutputStream invoiceOut, OutputStream invoiceItemOut) {
+		awaitSample();
+		metrics = new ExtractionMetrics();
+		extractStreams(customerOut, invoiceOut, invoiceItemOut);
+		finishExtraction();
+	}
+	
+	
+	/**
+	 * Runs the passes of extractTestFiles(OutputStream, OutputStream, OutputStream), measured in the current metrics.
+	 */
+	private void extractStreams(OutputStream customerOut, OutputStream invoiceOut, OutputStream invoiceItemOut) {
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		CompletionService<Object> passes = new ExecutorCompletionService<Object>(executor); //passes in the order they end
+		InputStream items = null; //invoice item input, read ahead while the invoice pass runs
+		boolean completed = false;
+		try {
+			items = open(invoiceItem, invoiceItemPath, true);
+			InputStream itemInput = items;
+			passes.submit(() -> {
+				extractFromCustomer(customer, customerOut);
+				return null;
+			});
+			if (singlePass) {
+				PassMetrics itemMetrics = startPass(INVOICE_ITEM_PASS, invoiceItemPath);
+				OutputStream itemWriter = io.buffered(itemMetrics.counted(invoiceItemOut));
+				PendingRowStore store = new PendingRowStore(itemWriter, sampleInvoiceKeys, pendingMemoryLimit, spillDirectory);
+				pending = store;
+				Future<?> invoicePass = passes.submit(() -> {
+					try {
+						extractFromInvoice(invoice, invoiceOut);
+					} finally {
+						store.complete(); //held rows whose invoice wasn't found are dropped
+					}
+					return null;
+				});
+				passes.submit(() -> {
+					extractFromInvoiceItemInSinglePass(itemInput, itemWriter, store, invoicePass, itemMetrics);
+					return null;
+				});
+			} else {
+				Future<?> invoicePass = passes.submit(() -> {
+					extractFromInvoice(invoice, invoiceOut);
+					return null;
+				});
+				passes.submit(() -> {
+					try {
+						invoicePass.get(); //sampleInvoices must be complete
+					} catch (ExecutionException | InterruptedException e) {
+						itemInput.close();
+						invoiceItemOut.close();
+						throw e;
+					}
+					extractFromInvoiceItem(itemInput, invoiceItemOut);
+					return null;
+				});
+			}
+			for (int i = 0; i < 3; i++) {
+				passes.take().get(); //the first pass to fail stops the others at once
+			}
+			completed = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UncheckedIOException(new InterruptedIOException("extraction interrupted"));
+		} catch (ExecutionException e) {
+			throw failure(e);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			pending = null;
+			if (completed) {
+				executor.shutdown();
+			} else { //stop the other passes before the caller sees the failure, and deletes their outputs
+				cancel(executor, customer, invoice, items);
+				closeQuietly(customerOut, invoiceOut, invoiceItemOut);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Stops the passes of a failed extraction: interrupts them, closes their inputs (a read that ignores interrupts then fails),
+	 * and waits for every pass to end, so that none still reads or writes once the failure is thrown.
+	 * 
+	 * @param ExecutorService executor: executor running the passes
+	 * @param Closeable... inputs: inputs of the passes, null for those opened by the passes themselves
+	 */
+	static void cancel(ExecutorService executor, Closeable... inputs) {
+		executor.shutdownNow();
+		closeQuietly(inputs);
+		boolean interrupted = Thread.interrupted(); //the wait must not end at once if the caller was interrupted
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			interrupted = true;
+		} finally {
+			if (interrupted) {Thread.currentThread().interrupt();}
+		}
+	}
+	
+	
+	/**
+	 * Closes streams after a failure, ignoring the exceptions thrown by those already closed or broken.
+	 * 
+	 * @param Closeable... streams: streams to close, null for none
+	 */
+	static void closeQuietly(Closeable... streams) {
+		for (Closeable stream : streams) {
+			if (stream == null) {continue;}
+			try {
+				stream.close();
+			} catch (IOException | RuntimeException e) {
+				//the failure of the extraction is the one reported
+			}
+		}
+	}
+	
+	
+	/**
+	 * Executes the entire extraction process on the calling thread, one pass after the other, each pass closing its output
+	 * before the next one starts. It lets a caller that serves many extractions at once (ExtractionService) write the three
+	 * outputs one after the other to a single stream, without any thread of its own.
+	 * 
+	 * @param OutputStream customerOut: stream for smaller file to be produced with pre-selected customer data
+	 * @param OutputStream invoiceOut: stream for smaller file to be produced with invoice data attached to pre-selected customers
+	 * @param OutputStream invoiceItemOut: stream for smaller file to be produced with invoice item data attached to pre-selected customers
+	 * @throws IOException: throws exception if a file can't be read or an output can't be written
+	 */
+	void extractSequentially(OutputStream customerOut, OutputStream invoiceOut, OutputStream invoiceItemOut) throws IOException {
+		awaitSample();
+		metrics = new ExtractionMetrics();
 		extractFromCustomer(customer, customerOut);
 		extractFromInvoice(invoice, invoiceOut);
 		extractFromInvoiceItem(invoiceItem, invoiceItemOut);
+		finishExtraction();
 	}
 	
 	
 	/**
-	 * Executes the entire extraction process in the necessary order, with String file name parameters
+	 * @param ExecutionException e: exception thrown by a pass, possibly because a pass it waited for failed
+	 * @return RuntimeException: the original failure, as an UncheckedIOException if it was an IOException
+	 */
+	private static RuntimeException failure(ExecutionException e) {
+		Throwable cause = e;
+		while (cause instanceof ExecutionException && cause.getCause() != null) {cause = cause.getCause();}
+		if (cause instanceof Error) {throw (Error) cause;}
+		if (cause instanceof RuntimeException) {return (RuntimeException) cause;}
+		if (cause instanceof IOException) {return new UncheckedIOException((IOException) cause);}
+		return new UncheckedIOException(new IOException(cause));
+	}
+	
+	
+	/**
+	 * Executes the entire extraction process in the necessary order, with String file name parameters. Output files whose name
+	 * ends with ".gz", ".zst" or ".lz4" are compressed in that format. Compressed full extraction files can only be streamed,
+	 * so they are always scanned sequentially, whatever the parallelism, input order or index settings.
+	 * 
+	 * Each output is written to a temporary file next to it ("customer_test.csv.part" for "customer_test.csv"), renamed to its
+	 * final name once every pass succeeded, so a failed run never leaves truncated outputs behind. With checkpoints (see
+	 * setCheckpointInterval) each output is renamed as soon as its own pass is complete, for a later run to resume from.
 	 * 
 	 * @param String customerOut: name of smaller file to be produced with pre-selected customer data
 	 * @param String invoiceOut: name of smaller file to be produced with invoice data attached to pre-selected customers
 	 * @param String invoiceItemOut: name of smaller file to be produced with invoice item data attached to pre-selected customers
+	 * @throws UncheckedIOException: throws exception if a file can't be read or an output can't be written
 	 */
 	public void extractTestFiles(String customerOut, String invoiceOut, String invoiceItemOut) {
+		Path[] outputs = {Paths.get(customerOut), Paths.get(invoiceOut), Paths.get(invoiceItemOut)};
+		awaitSample();
+		metrics = new ExtractionMetrics();
 		try {
-			extractTestFiles(Files.newBufferedWriter(Paths.get(customerOut)),
-					Files.newBufferedWriter(Paths.get(invoiceOut)),
-					Files.newBufferedWriter(Paths.get(invoiceItemOut)));
-		} catch (Exception e) {
-			e.printStackTrace();
+			if (incremental) {
+				extractTestFilesIncrementally(outputs);
+				finishExtraction();
+				return;
+			}
+			if (checkpointInterval > 0 || resume) {
+				if (customerPath == null) {throw new IllegalStateException("checkpoints can only be used with files given by name");}
+				extractTestFilesWithCheckpoints(outputs[0], outputs[1], outputs[2]);
+				finishExtraction();
+				return;
+			}
+			
+			boolean committed = false;
+			try {
+				boolean seekable = customerPath != null && !compressedInput; //files can be mapped, searched and read at any offset
+				if ((useKeyColumns || useIndexes) && seekable) {
+					extractTestFilesWithIndexes(outputs[0], outputs[1], outputs[2]);
+				} else if (inputOrder != InputOrder.UNSORTED && seekable) {
+					extractTestFilesSorted(outputs[0], outputs[1], outputs[2]);
+				} else if (parallelism > 1 && seekable) {
+					extractTestFilesInParallel(outputs[0], outputs[1], outputs[2]);
+				} else {
+					extractStreams(createOutput(outputs[0]), createOutput(outputs[1]), createOutput(outputs[2]));
+				}
+				for (Path output : outputs) {
+					Checkpoint.move(partFile(output), output);
+				}
+				committed = true;
+				finishExtraction();
+			} finally {
+				if (!committed) { //don't leave truncated outputs behind
+					for (Path output : outputs) {Files.deleteIfExists(partFile(output));}
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	
+	/**
+	 * Executes the entire extraction process in the necessary order, updating the outputs of the previous run from the chunks
+	 * of the full extraction files that changed since. Outputs and their manifests are committed once every pass succeeded.
+	 * 
+	 * @param Path[] outputs: paths of the smaller customer, invoice and invoice item files to be produced
+	 * @throws IOException: throws exception if a file can't be read or an output can't be written
+	 */
+	private void extractTestFilesIncrementally(Path[] outputs) throws IOException {
+		if (customerPath == null || compressedInput) {
+			throw new IllegalStateException("incremental extraction needs uncompressed files given by name");
+		}
+		if (checkpointInterval > 0 || resume) {
+			throw new IllegalStateException("incremental extraction can't be combined with checkpoints");
+		}
+		for (Path output : outputs) {
+			if (Compression.forName(output) != Compression.NONE) {
+				throw new IllegalStateException("incremental extraction can't write compressed outputs");
+			}
 		}
+		
+		DeltaManifest[] manifests = new DeltaManifest[3];
+		boolean committed = false;
+		try {
+			manifests[0] = extractIncrementally(CUSTOMER_PASS, customerPath, outputs[0], sampleCustomerKeys,
+					sampleCustomerKeys.size(), -1, null);
+			manifests[1] = extractIncrementally(INVOICE_PASS, invoicePath, outputs[1], sampleCustomerKeys, -1, 1,
+					this::addSampleInvoice);
+			manifests[2] = extractIncrementally(INVOICE_ITEM_PASS, invoiceItemPath, outputs[2], sampleInvoiceKeys, -1, -1, null);
+			for (int i = 0; i < outputs.length; i++) {
+				Files.deleteIfExists(DeltaManifest.manifestPath(outputs[i])); //describes the previous output
+				Checkpoint.move(partFile(outputs[i]), outputs[i]);
+				manifests[i].write(outputs[i]);
+			}
+			committed = true;
+		} finally {
+			if (!committed) { //don't leave truncated outputs behind
+				for (Path output : outputs) {Files.deleteIfExists(partFile(output));}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Writes the header of a full extraction file and the rows whose key (first column) is in a set of keys to the temporary
+	 * file of an output, taking the rows of the chunks of the file that didn't change from the previous output.
+	 * 
+	 * @param String name: name of the pass
+	 * @param Path file: full extraction file
+	 * @param Path outPath: path of the smaller file to produce, holding the previous output if any
+	 * @param ByteKeySet keys: set of keys to keep
+	 * @param int maxRows: number of matching rows after which the others are left out, or -1 for no limit
+	 * @param int collectColumn: zero-based index of a field passed to collector for each matching row, or -1 for none
+	 * @param KeyConsumer collector: receives the collected field of each matching row, in file order
+	 * @return DeltaManifest: manifest of the new output, to be written once it is committed
+	 * @throws IOException: throws exception if a file can't be read or the output can't be written
+	 */
+	private DeltaManifest extractIncrementally(String name, Path file, Path outPath, ByteKeySet keys, int maxRows,
+			int collectColumn, KeyConsumer collector) throws IOException {
+		PassMetrics pass = startPass(name, file);
+		DeltaManifest manifest;
+		try (OutputStream out = pass.counted(io.buffered(createOutput(outPath)))) {
+			manifest = DeltaFileFilter.filter(file, outPath, DeltaManifest.read(outPath), out, keys, 0, maxRows,
+					collectColumn, collector);
+		}
+		pass.chunks(manifest.chunksReused, manifest.chunksScanned);
+		finishPass(pass);
+		return manifest;
 	}
 	
 	
 	/**
-	 * @return Set<String>: set of sample customer codes
+	 * @param Path output: output file
+	 * @return Path: temporary file the output is written to until its pass is complete
+	 */
+	private static Path partFile(Path output) {
+		return output.resolveSibling(output.getFileName() + ".part");
+	}
+	
+	
+	/**
+	 * Creates the temporary file of an output, compressed according to the name of the output.
+	 * 
+	 * @param Path output: output file
+	 * @return OutputStream: stream writing to the temporary file of the output
+	 * @throws IOException: throws exception if the file can't be created
+	 */
+	private static OutputStream createOutput(Path output) throws IOException {
+		return Compression.create(partFile(output), Compression.forName(output));
+	}
+	
+	
+	/**
+	 * Creates the temporary file of an output, written through a RangeWriter copying runs of matching rows from a full
+	 * extraction file.
+	 * 
+	 * @param Path input: full extraction file, not compressed
+	 * @param Path output: output file
+	 * @return RangeWriter: writer of the rows of input to the temporary file of output
+	 * @throws IOException: throws exception if a file can't be opened or created
+	 */
+	private RangeWriter rangeWriter(Path input, Path output) throws IOException {
+		FileChannel source = FileChannel.open(input, StandardOpenOption.READ);
+		try {
+			return io.rangeWriter(source, createOutput(output));
+		} catch (IOException e) {
+			source.close();
+			throw e;
+		}
+	}
+	
+	
+	/**
+	 * @param OutputStream out: output of a pass scanning a full extraction file from its start
+	 * @param Path input: the full extraction file, null if given as a stream
+	 * @return OutputStream: a RangeWriter copying runs of matching rows from the file if it isn't compressed, out buffered otherwise
+	 * @throws IOException: throws exception if the file can't be opened
+	 */
+	private OutputStream rowWriter(OutputStream out, Path input) throws IOException {
+		if (input == null || Compression.detect(input) != Compression.NONE) {return io.buffered(out);}
+		try {
+			return io.rangeWriter(FileChannel.open(input, StandardOpenOption.READ), out);
+		} catch (IOException e) {
+			out.close();
+			throw e;
+		}
+	}
+	
+	
+	/**
+	 * Executes the entire extraction process in the necessary order, scanning memory-mapped chunks of each full extraction
+	 * file in parallel. The customer and invoice passes only read sampleCustomers, and the invoice item pass only reads
+	 * sampleInvoices once the invoice pass is done, so chunks never share mutable state. The matching rows are written as
+	 * ranges of the file, so runs of them are copied straight from it.
+	 * 
+	 * @param Path customerOut: path of smaller file to be produced with pre-selected customer data
+	 * @param Path invoiceOut: path of smaller file to be produced with invoice data attached to pre-selected customers
+	 * @param Path invoiceItemOut: path of smaller file to be produced with invoice item data attached to pre-selected customers
+	 * @throws IOException: throws exception if a file can't be read or an output can't be written
+	 */
+	private void extractTestFilesInParallel(Path customerOut, Path invoiceOut, Path invoiceItemOut) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		ParallelFileFilter filter = new ParallelFileFilter(pool, ParallelFileFilter.DEFAULT_CHUNK_SIZE);
+		try {
+			PassMetrics pass = startPass(CUSTOMER_PASS, customerPath);
+			try (RangeWriter out = rangeWriter(customerPath, customerOut)) {
+				filter.filter(customerPath, out, sampleCustomerKeys, 0, sampleCustomerKeys.size(), -1, null);
+				finishPass(pass, out);
+			}
+			pass = startPass(INVOICE_PASS, invoicePath);
+			try (RangeWriter out = rangeWriter(invoicePath, invoiceOut)) {
+				filter.filter(invoicePath, out, sampleCustomerKeys, 0, -1, 1, this::addSampleInvoice);
+				finishPass(pass, out);
+			}
+			pass = startPass(INVOICE_ITEM_PASS, invoiceItemPath);
+			try (RangeWriter out = rangeWriter(invoiceItemPath, invoiceItemOut)) {
+				filter.filter(invoiceItemPath, out, sampleInvoiceKeys, 0, -1, -1, null);
+				finishPass(pass, out);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	
+	/**
+	 * Executes the entire extraction process in the necessary order, reading only the matching rows of each full extraction
+	 * file, found through its key columns or its key index. A file without up to date columns or index is scanned instead.
+	 * 
+	 * @param Path customerOut: path of smaller file to be produced with pre-selected customer data
+	 * @param Path invoiceOut: path of smaller file to be produced with invoice data attached to pre-selected customers
+	 * @param Path invoiceItemOut: path of smaller file to be produced with invoice item data attached to pre-selected customers
+	 * @throws IOException: throws exception if a file can't be read or an output can't be written
+	 */
+	private void extractTestFilesWithIndexes(Path customerOut, Path invoiceOut, Path invoiceItemOut) throws IOException {
+		RowLookup index = openLookup(customerPath);
+		if (index == null) {
+			extractFromCustomer(null, createOutput(customerOut));
+		} else {
+			PassMetrics pass = startPass(CUSTOMER_PASS, customerPath);
+			try (RangeWriter out = rangeWriter(customerPath, customerOut)) {
+				extractWithIndex(customerPath, index, sampleCustomerKeys, out, sampleCustomerKeys.size(), -1, null);
+				finishPass(pass, out);
+			}
+		}
+		
+		index = openLookup(invoicePath);
+		if (index == null) {
+			extractFromInvoice(null, createOutput(invoiceOut));
+		} else {
+			PassMetrics pass = startPass(INVOICE_PASS, invoicePath);
+			try (RangeWriter out = rangeWriter(invoicePath, invoiceOut)) {
+				extractWithIndex(invoicePath, index, sampleCustomerKeys, out, -1, 1, this::addSampleInvoice);
+				finishPass(pass, out);
+			}
+		}
+		
+		index = openLookup(invoiceItemPath);
+		if (index == null) {
+			extractFromInvoiceItem(null, createOutput(invoiceItemOut));
+		} else {
+			PassMetrics pass = startPass(INVOICE_ITEM_PASS, invoiceItemPath);
+			try (RangeWriter out = rangeWriter(invoiceItemPath, invoiceItemOut)) {
+				extractWithIndex(invoiceItemPath, index, sampleInvoiceKeys, out, -1, -1, null);
+				finishPass(pass, out);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Opens the structure through which the matching rows of a full extraction file are found, the key columns of the file
+	 * being preferred to its index.
+	 * 
+	 * @param Path file: full extraction file
+	 * @return RowLookup: key columns or key index of the file, null if the file has none up to date that may be used
+	 * @throws IOException: throws exception if the columns or index exist but can't be read
+	 */
+	private RowLookup openLookup(Path file) throws IOException {
+		RowLookup lookup = useKeyColumns ? KeyColumns.open(file, 0) : null;
+		if (lookup == null && useIndexes) {lookup = KeyIndex.open(file, 0);}
+		return lookup;
+	}
+	
+	
+	/**
+	 * Executes the entire extraction process in the necessary order, searching each full extraction file that is sorted by
+	 * its key column instead of scanning it. A file that is not known to be sorted is scanned.
+	 * 
+	 * @param Path customerOut: path of smaller file to be produced with pre-selected customer data
+	 * @param Path invoiceOut: path of smaller file to be produced with invoice data attached to pre-selected customers
+	 * @param Path invoiceItemOut: path of smaller file to be produced with invoice item data attached to pre-selected customers
+	 * @throws IOException: throws exception if a file can't be read or an output can't be written
+	 */
+	private void extractTestFilesSorted(Path customerOut, Path invoiceOut, Path invoiceItemOut) throws IOException {
+		if (isSorted(customerPath)) {
+			PassMetrics pass = startPass(CUSTOMER_PASS, customerPath);
+			try (RangeWriter out = rangeWriter(customerPath, customerOut)) {
+				SortedFileFilter.filter(customerPath, out, sampleCustomerKeys, 0, sampleCustomerKeys.size(), -1, null);
+				finishPass(pass, out);
+			}
+		} else {
+			extractFromCustomer(null, createOutput(customerOut));
+		}
+		
+		if (isSorted(invoicePath)) {
+			PassMetrics pass = startPass(INVOICE_PASS, invoicePath);
+			try (RangeWriter out = rangeWriter(invoicePath, invoiceOut)) {
+				SortedFileFilter.filter(invoicePath, out, sampleCustomerKeys, 0, -1, 1, this::addSampleInvoice);
+				finishPass(pass, out);
+			}
+		} else {
+			extractFromInvoice(null, createOutput(invoiceOut));
+		}
+		
+		if (isSorted(invoiceItemPath)) {
+			PassMetrics pass = startPass(INVOICE_ITEM_PASS, invoiceItemPath);
+			try (RangeWriter out = rangeWriter(invoiceItemPath, invoiceItemOut)) {
+				SortedFileFilter.filter(invoiceItemPath, out, sampleInvoiceKeys, 0, -1, -1, null);
+				finishPass(pass, out);
+			}
+		} else {
+			extractFromInvoiceItem(null, createOutput(invoiceItemOut));
+		}
+	}
+	
+	
+	/**
+	 * Executes the entire extraction process in the necessary order, filtering each full extraction file with a sequential
+	 * scan, saving a checkpoint of the pass in progress every checkpointInterval bytes of input, and committing each output
+	 * as soon as its pass is complete. When resuming, committed passes are skipped and checkpointed passes continued.
+	 * 
+	 * @param Path customerOut: path of smaller file to be produced with pre-selected customer data
+	 * @param Path invoiceOut: path of smaller file to be produced with invoice data attached to pre-selected customers
+	 * @param Path invoiceItemOut: path of smaller file to be produced with invoice item data attached to pre-selected customers
+	 * @throws IOException: throws exception if a file can't be read or an output can't be written
+	 */
+	private void extractTestFilesWithCheckpoints(Path customerOut, Path invoiceOut, Path invoiceItemOut) throws IOException {
+		extractWithCheckpoints(CUSTOMER_PASS, customerPath, customerOut, sampleCustomerKeys, sampleCustomerKeys.size(), -1, null);
+		extractWithCheckpoints(INVOICE_PASS, invoicePath, invoiceOut, sampleCustomerKeys, -1, 1, this::addSampleInvoice);
+		extractWithCheckpoints(INVOICE_ITEM_PASS, invoiceItemPath, invoiceItemOut, sampleInvoiceKeys, -1, -1, null);
+	}
+	
+	
+	/**
+	 * Writes the header of a full extraction file and the rows whose key (first column) is in a set of keys, with checkpoints.
+	 * The output is written to its temporary file, flushed to disk before each checkpoint, and renamed once the pass is
+	 * complete. When resuming from a checkpoint, the temporary file is truncated to the output offset of the checkpoint (rows
+	 * written after it are written again), the collected column is read back from it, and the scan continues from the input
+	 * offset of the checkpoint. Once the pass is complete, its stamp (see Checkpoint) is committed next to the output
+	 * ("customer_test.csv.stamp" for "customer_test.csv"). When resuming, a committed output is only kept if its stamp matches
+	 * the input, the keys and the options of the pass; such a skipped pass has no metrics.
+	 * 
+	 * @param String name: name of the pass
+	 * @param Path file: full extraction file
+	 * @param Path outPath: path of the smaller file to produce
+	 * @param ByteKeySet keys: set of keys to keep
+	 * @param int maxRows: number of matching rows after which the rest of the file is ignored, or -1 for no limit
+	 * @param int collectColumn: zero-based index of a field passed to collector for each matching row, or -1 for none
+	 * @param KeyConsumer collector: receives the collected field of each matching row, in file order
+	 * @throws IOException: throws exception if the file can't be read or the output can't be written
+	 */
+	private void extractWithCheckpoints(String name, Path file, Path outPath, ByteKeySet keys, int maxRows,
+			int collectColumn, KeyConsumer collector) throws IOException {
+		Path part = partFile(outPath);
+		Path checkpointFile = outPath.resolveSibling(outPath.getFileName() + ".ckpt");
+		Path stampFile = outPath.resolveSibling(outPath.getFileName() + ".stamp");
+		String digest = passDigest(name, keys, maxRows, collectColumn, outPath);
+		if (resume && Files.exists(outPath) && !Files.exists(part)) {
+			Checkpoint stamp = Checkpoint.read(stampFile, file, digest);
+			if (stamp != null && stamp.outputOffset == Files.size(outPath)) { //pass completed on the same input and sample
+				if (collector != null) {collect(outPath, collectColumn, collector);}
+				return;
+			}
+		}
+		Files.deleteIfExists(stampFile); //describes the previous output
+		
+		boolean resumable = Compression.forName(outPath) == Compression.NONE; //a compressed output can't be cut at a checkpoint
+		Checkpoint checkpoint = resume && resumable && Files.exists(part) ? Checkpoint.read(checkpointFile, file, digest) : null;
+		if (checkpoint != null && Files.size(part) < checkpoint.outputOffset) {checkpoint = null;} //output lost data since
+		FileChannel channel = null; //channel of the temporary file, null if compressed
+		OutputStream writer;
+		if (resumable) {
+			channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			channel.truncate(checkpoint == null ? 0 : checkpoint.outputOffset);
+			channel.position(channel.size());
+			writer = Channels.newOutputStream(channel);
+		} else {
+			writer = Compression.create(part, Compression.forName(outPath));
+		}
+		
+		PassMetrics pass = startPass(name, file);
+		long rows = 0; //number of matching rows
+		try (OutputStream out = io.buffered(writer)) {
+			long base = checkpoint == null ? 0 : checkpoint.inputOffset; //offset of the input the scan starts from
+			if (checkpoint != null) {
+				rows = checkpoint.rows;
+				if (collector != null) {collect(part, collectColumn, collector);}
+			}
+			InputStream in = io.open(file, false);
+			try (CsvScanner scanner = new CsvScanner(in, io.getReadBufferSize())) {
+				skip(in, base);
+				pass.scan(() -> base + scanner.position());
+				if (checkpoint == null && scanner.nextLine()) { //read file header and write it to new file
+					scanner.writeLine(out);
+					pass.headerWritten(scanner.lineEnd() - scanner.lineStart() + 1);
+				}
+				
+				long nextCheckpoint = base + checkpointInterval;
+				while (scanner.nextLine()) {
+					long offset = base + scanner.lineOffset();
+					if (channel != null && checkpointInterval > 0 && offset >= nextCheckpoint) {
+						out.flush();
+						channel.force(false);
+						new Checkpoint(file, digest, offset, channel.position(), rows).write(checkpointFile);
+						nextCheckpoint = offset + checkpointInterval;
+					}
+					
+					scanner.field(0);
+					pass.rowParsed();
+					boolean match = keys.contains(scanner.buffer(), scanner.fieldStart(), scanner.fieldEnd());
+					pass.rowLookedUp();
+					if (match) {
+						scanner.writeLine(out);
+						rows++;
+						if (collectColumn >= 0 && scanner.field(collectColumn)) {
+							collector.accept(scanner.buffer(), scanner.fieldStart(), scanner.fieldEnd());
+						}
+						pass.rowWritten(scanner.lineEnd() - scanner.lineStart() + 1);
+					}
+					pass.rowDone();
+					if (rows == maxRows) {break;} //all rows expected found
+				}
+			}
+		}
+		finishPass(pass);
+		Files.deleteIfExists(checkpointFile); //without a checkpoint, a crash before the rename restarts the pass
+		Checkpoint.move(part, outPath);
+		new Checkpoint(file, digest, Files.size(file), Files.size(outPath), rows).write(stampFile); //without a stamp, a crash restarts the pass
+	}
+	
+	
+	/**
+	 * Computes the digest of a pass with checkpoints, recorded in its checkpoints and stamp: a resumed run only continues a
+	 * checkpoint or keeps an output taken with the same keys and options.
+	 * 
+	 * @param String name: name of the pass
+	 * @param ByteKeySet keys: set of keys kept by the pass
+	 * @param int maxRows: number of matching rows after which the rest of the file is ignored, or -1 for no limit
+	 * @param int collectColumn: zero-based index of the field collected from each matching row, or -1 for none
+	 * @param Path outPath: path of the smaller file produced by the pass
+	 * @return String: digest of the pass
+	 */
+	static String passDigest(String name, ByteKeySet keys, int maxRows, int collectColumn, Path outPath) {
+		return name + ";keys=" + keys.size() + ":" + Long.toHexString(keys.digest()) + ";maxRows=" + maxRows
+				+ ";collect=" + collectColumn + ";output=" + Compression.forName(outPath);
+	}
+	
+	
+	/**
+	 * Passes a column of every row of an output file (after its header) to a collector.
+	 * 
+	 * @param Path output: output file written by a pass
+	 * @param int column: zero-based index of the field to collect
+	 * @param KeyConsumer collector: receives the field of each row
+	 * @throws IOException: throws exception if the file can't be read
+	 */
+	private static void collect(Path output, int column, KeyConsumer collector) throws IOException {
+		try (CsvScanner scanner = new CsvScanner(Compression.open(output))) {
+			scanner.nextLine(); //file header
+			while (scanner.nextLine()) {
+				if (scanner.field(column)) {
+					collector.accept(scanner.buffer(), scanner.fieldStart(), scanner.fieldEnd());
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Skips a number of bytes of a stream.
+	 * 
+	 * @param InputStream in: stream to skip
+	 * @param long bytes: number of bytes to skip
+	 * @throws IOException: throws exception if the stream ends first
+	 */
+	private static void skip(InputStream in, long bytes) throws IOException {
+		while (bytes > 0) {
+			long skipped = in.skip(bytes);
+			if (skipped <= 0) { //skip may stop early, read a byte to tell the end of the stream apart
+				if (in.read() < 0) {throw new EOFException("input ends before its checkpoint");}
+				skipped = 1;
+			}
+			bytes -= skipped;
+		}
+	}
+	
+	
+	/**
+	 * @param Path file: full extraction file, keyed by its first column
+	 * @return boolean: true if the file is declared sorted, or its order is checked and its first rows are sorted
+	 * @throws IOException: throws exception if the file can't be read
+	 */
+	private boolean isSorted(Path file) throws IOException {
+		return inputOrder == InputOrder.SORTED
+				|| (inputOrder == InputOrder.CHECK_PREFIX && SortedFileFilter.isSorted(file, 0, SORT_CHECK_ROWS));
+	}
+	
+	
+	/**
+	 * Writes the header of a full extraction file and the rows of a set of keys, found through the index of the file.
+	 * 
+	 * @param Path file: full extraction file
+	 * @param RowLookup index: key columns or key index of the key column of the file
+	 * @param ByteKeySet keys: set of keys to keep
+	 * @param OutputStream out: stream for the smaller file to produce, left open (a RangeWriter over the file, to copy runs of
+	 * matching rows)
+	 * @param int maxRows: number of matching rows after which the rest are ignored, or -1 for no limit
+	 * @param int collectColumn: zero-based index of a field passed to collector for each matching row, or -1 for none
+	 * @param KeyConsumer collector: receives the collected field of each matching row, in file order
+	 * @throws IOException: throws exception if the file can't be read or the output can't be written
+	 */
+	private static void extractWithIndex(Path file, RowLookup index, ByteKeySet keys, OutputStream out, int maxRows,
+			int collectColumn, KeyConsumer collector) throws IOException {
+		long[] offsets = index.lookup(keys);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			RowFetcher rows = new RowFetcher(channel);
+			if (rows.fetch(0)) { //file header
+				rows.writeRow(out);
+			}
+			int count = maxRows < 0 ? offsets.length : Math.min(maxRows, offsets.length);
+			for (int i = 0; i < count; i++) {
+				rows.fetch(offsets[i]);
+				rows.writeRow(out);
+				if (collectColumn >= 0 && rows.field(collectColumn)) {
+					collector.accept(rows.buffer(), rows.fieldStart(), rows.fieldEnd());
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * @return Set<String>: read-only view of the set of sample customer codes, as the sample file wrote them (matching ignores
+	 * their quotes, see SampleLoader)
 	 */
 	public Set<String> getSampleCustomers(){
-		return sampleCustomers;
+		awaitSample();
+		return sampleCustomerForms.view(sampleCustomerKeys);
 	}
 	
 	
 	/**
-	 * @return Set<String>: set of sample invoice codes
+	 * @return Set<String>: read-only view of the set of sample invoice codes, as the invoice file wrote them, complete once
+	 * extractTestFiles returns
 	 */
 	public Set<String> getSampleInvoices(){
-		return sampleInvoices;
+		return sampleInvoiceForms.view(sampleInvoiceKeys);
+	}
+	
+	
+	/**
+	 * @return long: number of lines of the sample file whose customer code appeared on an earlier line
+	 */
+	public long getSampleDuplicates() {
+		awaitSample();
+		return sample == null ? 0 : sample.duplicates();
+	}
+	
+	
+	/**
+	 * @return long: number of lines of the sample file that were skipped because they don't hold a single customer code
+	 */
+	public long getSampleMalformed() {
+		awaitSample();
+		return sample == null ? 0 : sample.malformed();
+	}
+	
+	
+	/**
+	 * @return List<String>: description of the lines of the sample file that were skipped because they don't hold a single
+	 * customer code (the first 100 of them), e.g. "line 12: several fields: ..."
+	 */
+	public List<String> getSampleProblems() {
+		awaitSample();
+		return sample == null ? Collections.<String>emptyList() : sample.problems();
 	}
 	
 	
@@ -230,15 +1433,132 @@ public class TestFileFilter {
 	 * Sample use of TestFileFilter object
 	 * 
 	 * @param String[] args: contains files names of sample customers, customers, invoices, and invoice items 
-	 * ("customer_sample.csv","customer.csv","invoice.csv","invoice_item.csv")
+	 * ("customer_sample.csv","customer.csv","invoice.csv","invoice_item.csv"), optionally preceded by options:
+	 * --parallelism=N to scan each full file with N threads,
+	 * --single-pass to scan the invoice item file at the same time as the invoice file,
+	 * --pending-memory=BYTES to limit the memory used for invoice item rows held in single pass mode,
+	 * --build-index to (re)build the key index of each full file before extracting,
+	 * --use-index to read matching rows through the key indexes instead of scanning the full files,
+	 * --build-columns to (re)build the key columns of each full file before extracting,
+	 * --use-columns to read matching rows through the key columns instead of scanning the full files,
+	 * --sorted to search the full files, declared sorted by key, instead of scanning them,
+	 * --check-sorted to search each full file whose first rows are sorted by key,
+	 * --bloom to check sample lookups against Bloom filters first, and print their false positive rates,
+	 * --compress-output=FORMAT to write the output files compressed, FORMAT being gz, zst or lz4,
+	 * --checkpoint=BYTES to save a checkpoint of the pass in progress every BYTES of input,
+	 * --resume to resume an interrupted run from its committed outputs and checkpoints,
+	 * --incremental to update the outputs of the previous run from the chunks of the full files that changed since,
+	 * --progress[=SECONDS] to print the progress of each pass to the standard error, at most every SECONDS (default 5),
+	 * --metrics=FILE to write the metrics of the extraction to FILE as JSON,
+	 * --read-buffer=BYTES and --write-buffer=BYTES to set the size of the buffers full files are read and outputs written with,
+	 * --direct-buffers to read full files and write outputs through direct ByteBuffers,
+	 * --read-ahead=BYTES to set how much of a full file is read ahead of its pass (0 for none),
+	 * --sequential to read every full file ahead of its pass, not only the invoice item file,
+	 * --auto-tune-io to probe the storage of the full files and pick the buffer sizes, printed to the standard error
 	 */
 	public static void main(String[] args) {
-		if (args.length != 4) {throw new IllegalArgumentException();}
+		int first = 0; //index of first file name
+		int parallelism = 1;
+		boolean singlePass = false;
+		long pendingMemory = -1;
+		boolean buildIndexes = false;
+		boolean useIndexes = false;
+		boolean buildKeyColumns = false;
+		boolean useKeyColumns = false;
+		InputOrder inputOrder = InputOrder.UNSORTED;
+		boolean bloomFilter = false;
+		String outputExtension = "";
+		long checkpointInterval = 0;
+		boolean resume = false;
+		boolean incremental = false;
+		int progressInterval = -1;
+		String metricsFile = null;
+		IoConfig io = IoConfig.DEFAULT;
+		boolean autoTuneIo = false;
+		for (; first < args.length && args[first].startsWith("--"); first++) {
+			String[] option = args[first].substring(2).split("=", 2);
+			if (option[0].equals("parallelism") && option.length == 2) {
+				parallelism = Integer.parseInt(option[1]);
+			} else if (option[0].equals("single-pass") && option.length == 1) {
+				singlePass = true;
+			} else if (option[0].equals("pending-memory") && option.length == 2) {
+				pendingMemory = Long.parseLong(option[1]);
+			} else if (option[0].equals("build-index") && option.length == 1) {
+				buildIndexes = true;
+			} else if (option[0].equals("use-index") && option.length == 1) {
+				useIndexes = true;
+			} else if (option[0].equals("build-columns") && option.length == 1) {
+				buildKeyColumns = true;
+			} else if (option[0].equals("use-columns") && option.length == 1) {
+				useKeyColumns = true;
+			} else if (option[0].equals("sorted") && option.length == 1) {
+				inputOrder = InputOrder.SORTED;
+			} else if (option[0].equals("check-sorted") && option.length == 1) {
+				inputOrder = InputOrder.CHECK_PREFIX;
+			} else if (option[0].equals("bloom") && option.length == 1) {
+				bloomFilter = true;
+			} else if (option[0].equals("compress-output") && option.length == 2 && option[1].matches("gz|zst|lz4")) {
+				outputExtension = "." + option[1];
+			} else if (option[0].equals("checkpoint") && option.length == 2) {
+				checkpointInterval = Long.parseLong(option[1]);
+			} else if (option[0].equals("resume") && option.length == 1) {
+				resume = true;
+			} else if (option[0].equals("incremental") && option.length == 1) {
+				incremental = true;
+			} else if (option[0].equals("progress")) {
+				progressInterval = option.length == 2 ? Integer.parseInt(option[1]) : 5;
+			} else if (option[0].equals("metrics") && option.length == 2) {
+				metricsFile = option[1];
+			} else if (option[0].equals("read-buffer") && option.length == 2) {
+				io = new IoConfig(Integer.parseInt(option[1]), io.getWriteBufferSize(), io.isDirectBuffers(), io.getReadAhead(), io.isSequentialHint());
+			} else if (option[0].equals("write-buffer") && option.length == 2) {
+				io = new IoConfig(io.getReadBufferSize(), Integer.parseInt(option[1]), io.isDirectBuffers(), io.getReadAhead(), io.isSequentialHint());
+			} else if (option[0].equals("direct-buffers") && option.length == 1) {
+				io = new IoConfig(io.getReadBufferSize(), io.getWriteBufferSize(), true, io.getReadAhead(), io.isSequentialHint());
+			} else if (option[0].equals("read-ahead") && option.length == 2) {
+				io = new IoConfig(io.getReadBufferSize(), io.getWriteBufferSize(), io.isDirectBuffers(), Long.parseLong(option[1]), io.isSequentialHint());
+			} else if (option[0].equals("sequential") && option.length == 1) {
+				io = new IoConfig(io.getReadBufferSize(), io.getWriteBufferSize(), io.isDirectBuffers(), io.getReadAhead(), true);
+			} else if (option[0].equals("auto-tune-io") && option.length == 1) {
+				autoTuneIo = true;
+			} else {
+				throw new IllegalArgumentException("unknown option " + args[first]);
+			}
+		}
+		if (args.length - first != 4) {throw new IllegalArgumentException();}
 		try {
-			TestFileFilter test = new TestFileFilter(args[0],args[1],args[2],args[3]);
-			test.extractTestFiles("customer_test.csv","invoice_test.csv","invoice_item_test.csv");	
+			TestFileFilter test = new TestFileFilter(args[first],args[first+1],args[first+2],args[first+3]);
+			test.setParallelism(parallelism);
+			test.setSinglePass(singlePass);
+			if (pendingMemory >= 0) {test.setPendingMemoryLimit(pendingMemory);}
+			if (buildIndexes) {test.buildIndexes();}
+			test.setUseIndexes(useIndexes);
+			if (buildKeyColumns) {test.buildKeyColumns();}
+			test.setUseKeyColumns(useKeyColumns);
+			test.setInputOrder(inputOrder);
+			test.setBloomFilter(bloomFilter);
+			test.setCheckpointInterval(checkpointInterval);
+			test.setResume(resume);
+			test.setIncremental(incremental);
+			test.setIoConfig(io);
+			if (autoTuneIo) {System.err.println("I/O settings: " + test.autoTuneIo());}
+			if (progressInterval >= 0) {test.addListener(new ProgressPrinter(System.err, progressInterval));}
+			for (String problem : test.getSampleProblems()) {System.err.println("Skipped sample " + problem);}
+			if (test.getSampleMalformed() > test.getSampleProblems().size()) {
+				System.err.println("Skipped " + (test.getSampleMalformed() - test.getSampleProblems().size()) + " more malformed sample lines");
+			}
+			test.extractTestFiles("customer_test.csv" + outputExtension,"invoice_test.csv" + outputExtension,
+					"invoice_item_test.csv" + outputExtension);
+			if (bloomFilter) {
+				System.out.printf("Bloom filter false positive rate: customers %.4f%%, invoices %.4f%%%n",
+						test.getCustomerFalsePositiveRate() * 100, test.getInvoiceFalsePositiveRate() * 100);
+			}
+			if (metricsFile != null) {
+				Files.write(Paths.get(metricsFile), test.getMetrics().toJson().getBytes(StandardCharsets.UTF_8));
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
+			System.exit(1);
 		}
 	}
 
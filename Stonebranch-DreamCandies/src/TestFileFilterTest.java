@@ -1,10 +1,21 @@
 import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 
 /**
@@ -14,6 +25,30 @@ import org.junit.Test;
  */
 public class TestFileFilterTest {
 	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	
+	/**
+	 * Writes a file with the given content into the temporary folder.
+	 * 
+	 * @return String: name of the file
+	 */
+	private String file(String name, String content) throws IOException {
+		File f = folder.newFile(name);
+		Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return f.getPath();
+	}
+	
+	
+	/**
+	 * @return String: content of a file in the temporary folder
+	 */
+	private String read(String name) throws IOException {
+		return new String(Files.readAllBytes(new File(folder.getRoot(), name).toPath()), StandardCharsets.UTF_8);
+	}
+	
+	
 	/**
 	 * Test method for {@link TestFileFilter#TestFileFilter(java.io.Reader, java.io.Reader, java.io.Reader, java.io.Reader)}.
 	 * 
@@ -262,4 +297,778 @@ public class TestFileFilterTest {
 				"\"IN0000003\",\"PUCCHO\",\"97.50\",\"200\"\n");
 	}
 	
+	
+	/**
+	 * Test method for {@link TestFileFilter#extractTestFiles(java.io.Writer, java.io.Writer, java.io.Writer)}.
+	 * 
+	 * Tests extractTestFiles in the case where the data files use left and right quotes and "\r\n" line endings,
+	 * and the last line has no line ending.
+	 * Expected behavior is that the matching rows are copied unchanged, each ending with "\n".
+	 */
+	@Test
+	public void extractTestFiles_CurlyQuotesAndWindowsLineEndings_ExtractedRowsEndWithNewline() {
+		Reader sampleCustomers = new StringReader("\u201CCUSTOMER_CODE\u201D\r\n" + 
+				"\u201CCUST0000010231\u201D\r\n");
+		Reader customer = new StringReader("\u201CCUSTOMER_CODE\u201D,\u201CFIRSTNAME\u201D,\u201CLASTNAME\u201D\r\n" + 
+				"\u201CCUST0000010233\u201D,\u201CJamie\u201D,\u201CHayes\u201D\r\n" + 
+				"\u201CCUST0000010231\u201D,\u201CMaria\u201D,\u201CAlba\u201D");
+		Reader invoice = new StringReader("\u201CCUSTOMER_CODE\u201D,\u201CINVOICE_CODE\u201D,\u201CAMOUNT\u201D,\u201CDATE\u201D\r\n" + 
+				"\u201CCUST0000010231\u201D,\u201CIN0000001\u201D,\u201C105.50\u201D,\u201C01-Jan-2016\u201D\r\n");
+		Reader invoiceItems = new StringReader("\u201CINVOICE_CODE\u201D,\u201CITEM_CODE\u201D,\u201CAMOUNT\u201D,\u201CQUANTITY\u201D\r\n" + 
+				"\u201CIN0000005\u201D,\u201CAAA\u201D,\u201C0.0\u201D,\u201C0\u201D\r\n" + 
+				"\u201CIN0000001\u201D,\u201CMEIJI\u201D,\u201C75.60\u201D,\u201C100\u201D");
+		Writer customerOut = new StringWriter();
+		Writer invoiceOut = new StringWriter();
+		Writer invoiceItemOut = new StringWriter();
+
+		TestFileFilter test = new TestFileFilter(sampleCustomers,customer,invoice,invoiceItems);
+		test.extractTestFiles(customerOut,invoiceOut,invoiceItemOut);
+		assertEquals(customerOut.toString(),"\u201CCUSTOMER_CODE\u201D,\u201CFIRSTNAME\u201D,\u201CLASTNAME\u201D\n" + 
+				"\u201CCUST0000010231\u201D,\u201CMaria\u201D,\u201CAlba\u201D\n");
+		assertEquals(invoiceOut.toString(),"\u201CCUSTOMER_CODE\u201D,\u201CINVOICE_CODE\u201D,\u201CAMOUNT\u201D,\u201CDATE\u201D\n" + 
+				"\u201CCUST0000010231\u201D,\u201CIN0000001\u201D,\u201C105.50\u201D,\u201C01-Jan-2016\u201D\n");
+		assertEquals(invoiceItemOut.toString(),"\u201CINVOICE_CODE\u201D,\u201CITEM_CODE\u201D,\u201CAMOUNT\u201D,\u201CQUANTITY\u201D\n" + 
+				"\u201CIN0000001\u201D,\u201CMEIJI\u201D,\u201C75.60\u201D,\u201C100\u201D\n");
+	}
+	
+	
+	/**
+	 * Test method for {@link TestFileFilter#extractTestFiles(java.io.Writer, java.io.Writer, java.io.Writer)}.
+	 * 
+	 * Tests extractTestFiles in the case where the sample file was written by a SQL query (unquoted codes padded with blanks),
+	 * with a duplicate and a malformed line, and the data files use left and right quotes, some of them mismatched.
+	 * Expected behavior is that codes match whatever their quotes, and that the duplicate and malformed lines are reported.
+	 */
+	@Test
+	public void extractTestFiles_UnquotedSampleAndMismatchedQuotes_CodesMatchAndProblemsReported() {
+		Reader sampleCustomers = new StringReader("CUSTOMER_CODE\n" + 
+				"CUST0000010231  \n" + 
+				"CUST0000010235\n" + 
+				"CUST0000010231\n" + 
+				"CUST0000010236,Jamie\n");
+		Reader customer = new StringReader("\u201CCUSTOMER_CODE\u201D,\u201CFIRSTNAME\u201D,\u201CLASTNAME\u201D\n" + 
+				"\u201CCUST0000010231\u201D,\u201CMaria\u201D,\u201CAlba\u201D\n" + 
+				"\u201DCUST0000010235\u201D,\u201DGeorge\u201D,\u201DLucas\u201D\n" + 
+				"\u201CCUST0000010236\u201D,\u201CJamie\u201D,\u201CHayes\u201D\n");
+		Reader invoice = new StringReader("\u201CCUSTOMER_CODE\u201D,\u201CINVOICE_CODE\u201D,\u201CAMOUNT\u201D,\u201CDATE\u201D\n" + 
+				"\u201CCUST0000010231\u201D,\u201DIN0000001\u201D,\u201C105.50\u201D,\u201C01-Jan-2016\u201D\n");
+		Reader invoiceItems = new StringReader("\u201CINVOICE_CODE\u201D,\u201CITEM_CODE\u201D,\u201CAMOUNT\u201D,\u201CQUANTITY\u201D\n" + 
+				"\u201CIN0000001\u201D,\u201CMEIJI\u201D,\u201C75.60\u201D,\u201C100\u201D\n");
+		Writer customerOut = new StringWriter();
+		Writer invoiceOut = new StringWriter();
+		Writer invoiceItemOut = new StringWriter();
+
+		TestFileFilter test = new TestFileFilter(sampleCustomers,customer,invoice,invoiceItems);
+		test.extractTestFiles(customerOut,invoiceOut,invoiceItemOut);
+		assertEquals(customerOut.toString(),"\u201CCUSTOMER_CODE\u201D,\u201CFIRSTNAME\u201D,\u201CLASTNAME\u201D\n" + 
+				"\u201CCUST0000010231\u201D,\u201CMaria\u201D,\u201CAlba\u201D\n" + 
+				"\u201DCUST0000010235\u201D,\u201DGeorge\u201D,\u201DLucas\u201D\n");
+		assertEquals(invoiceOut.toString(),"\u201CCUSTOMER_CODE\u201D,\u201CINVOICE_CODE\u201D,\u201CAMOUNT\u201D,\u201CDATE\u201D\n" + 
+				"\u201CCUST0000010231\u201D,\u201DIN0000001\u201D,\u201C105.50\u201D,\u201C01-Jan-2016\u201D\n");
+		assertEquals(invoiceItemOut.toString(),"\u201CINVOICE_CODE\u201D,\u201CITEM_CODE\u201D,\u201CAMOUNT\u201D,\u201CQUANTITY\u201D\n" + 
+				"\u201CIN0000001\u201D,\u201CMEIJI\u201D,\u201C75.60\u201D,\u201C100\u201D\n");
+		assertEquals(test.getSampleCustomers(),new HashSet<String>(Arrays.asList("CUST0000010231  ","CUST0000010235")));
+		assertEquals(new HashSet<String>(Arrays.asList("\u201DIN0000001\u201D")),test.getSampleInvoices());
+		assertEquals(test.getSampleCustomers(),new HashSet<String>(test.getSampleCustomers()));
+		assertFalse(test.getSampleCustomers().contains("CUST0000010231"));
+		assertEquals(test.getSampleDuplicates(),1);
+		assertEquals(test.getSampleMalformed(),1);
+		assertEquals(test.getSampleProblems(),Arrays.asList("line 5: several fields: CUST0000010236,Jamie"));
+	}
+	
+	
+	/**
+	 * Test method for {@link TestFileFilter#setParallelism(int)}.
+	 * 
+	 * Tests extractTestFiles with file names when each full file is scanned by several threads.
+	 * Expected behavior is that each output file contains the data corresponding to the customer codes, in file order.
+	 */
+	@Test
+	public void extractTestFiles_Parallel_ExtractedFilesContainRelevantDataInOrder() throws IOException {
+		String sampleCustomers = file("customer_sample.csv", "\"CUSTOMER_CODE\"\n" + 
+				"\"CUST0000010231\"\n" + 
+				"\"CUST0000010235\"\n");
+		String customer = file("customer.csv", "\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" + 
+				"\"CUST0000010231\",\"Maria\",\"Alba\"\n" + 
+				"\"CUST0000010233\",\"Jamie\",\"Hayes\"\n" + 
+				"\"CUST0000010235\",\"George\",\"Lucas\"\n");
+		String invoice = file("invoice.csv", "\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010236\",\"IN0000011\",\"0.0\",\"01-Jan-2000\"\n" + 
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n");
+		String invoiceItems = file("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n" + 
+				"\"IN0000011\",\"AAA\",\"0.0\",\"0\"\n" + 
+				"\"IN0000001\",\"POCKY\",\"10.40\",\"250\"\n");
+
+		TestFileFilter test = new TestFileFilter(sampleCustomers,customer,invoice,invoiceItems);
+		test.setParallelism(4);
+		test.extractTestFiles(folder.getRoot() + "/customer_test.csv", folder.getRoot() + "/invoice_test.csv",
+				folder.getRoot() + "/invoice_item_test.csv");
+		assertEquals(read("customer_test.csv"),"\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" + 
+				"\"CUST0000010231\",\"Maria\",\"Alba\"\n" + 
+				"\"CUST0000010235\",\"George\",\"Lucas\"\n");
+		assertEquals(read("invoice_test.csv"),"\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n");
+		assertEquals(read("invoice_item_test.csv"),"\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n" + 
+				"\"IN0000001\",\"POCKY\",\"10.40\",\"250\"\n");
+	}
+	
+	
+	/**
+	 * Test method for {@link TestFileFilter#setSinglePass(boolean)}.
+	 * 
+	 * Tests extractTestFiles when the invoice item file is scanned at the same time as the invoice file, with no memory
+	 * for held rows so that every row with an unknown invoice is spilled to disk.
+	 * Expected behavior is that the invoice item file starts with the header and contains the same rows as a normal run.
+	 */
+	@Test
+	public void extractTestFiles_SinglePassWithSpilling_ExtractedFilesContainRelevantData() throws IOException {
+		Reader sampleCustomers = new StringReader("\"CUSTOMER_CODE\"\n" + 
+				"\"CUST0000010231\"\n" + 
+				"\"CUST0000010235\"\n");
+		Reader customer = new StringReader("\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n");
+		Reader invoice = new StringReader("\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010236\",\"IN0000011\",\"0.0\",\"01-Jan-2000\"\n" + 
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n");
+		Reader invoiceItems = new StringReader("\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" + 
+				"\"IN0000011\",\"AAA\",\"0.0\",\"0\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n" + 
+				"\"IN0000001\",\"POCKY\",\"10.40\",\"250\"\n");
+		Writer customerOut = new StringWriter();
+		Writer invoiceOut = new StringWriter();
+		Writer invoiceItemOut = new StringWriter();
+
+		TestFileFilter test = new TestFileFilter(sampleCustomers,customer,invoice,invoiceItems);
+		test.setSinglePass(true);
+		test.setPendingMemoryLimit(0);
+		test.setSpillDirectory(folder.getRoot().getPath());
+		test.extractTestFiles(customerOut,invoiceOut,invoiceItemOut);
+		String[] rows = invoiceItemOut.toString().split("\n");
+		assertEquals(rows[0],"\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"");
+		Arrays.sort(rows, 1, rows.length);
+		assertArrayEquals(rows,new String[] {"\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"",
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"",
+				"\"IN0000001\",\"POCKY\",\"10.40\",\"250\"",
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\""});
+		assertEquals(folder.getRoot().list().length,0); //spill file deleted
+	}
+	
+	
+	/**
+	 * Test method for {@link TestFileFilter#setUseIndexes(boolean)}.
+	 * 
+	 * Tests extractTestFiles with file names when the key indexes of the full files have been built, and again after the
+	 * invoice item file changed so that its index is out of date.
+	 * Expected behavior is that each output file contains the data corresponding to the customer codes, in file order,
+	 * including the rows added after the index was built.
+	 */
+	@Test
+	public void extractTestFiles_WithIndexes_ExtractedFilesContainRelevantData() throws IOException {
+		String sampleCustomers = file("customer_sample.csv", "\"CUSTOMER_CODE\"\n" + 
+				"\"CUST0000010235\"\n" + 
+				"\"CUST0000010231\"\n");
+		String customer = file("customer.csv", "\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" + 
+				"\"CUST0000010231\",\"Maria\",\"Alba\"\n" + 
+				"\"CUST0000010233\",\"Jamie\",\"Hayes\"\n" + 
+				"\"CUST0000010235\",\"George\",\"Lucas\"\n");
+		String invoice = file("invoice.csv", "\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" + 
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010236\",\"IN0000011\",\"0.0\",\"01-Jan-2000\"\n" + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n");
+		String invoiceItems = file("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" + 
+				"\"IN0000011\",\"AAA\",\"0.0\",\"0\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n");
+		String root = folder.getRoot() + "/";
+
+		TestFileFilter test = new TestFileFilter(sampleCustomers,customer,invoice,invoiceItems);
+		test.buildIndexes();
+		test.setUseIndexes(true);
+		test.extractTestFiles(root + "customer_test.csv", root + "invoice_test.csv", root + "invoice_item_test.csv");
+		assertEquals(read("customer_test.csv"),"\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" + 
+				"\"CUST0000010231\",\"Maria\",\"Alba\"\n" + 
+				"\"CUST0000010235\",\"George\",\"Lucas\"\n");
+		assertEquals(read("invoice_test.csv"),"\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" + 
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n");
+		assertEquals(read("invoice_item_test.csv"),"\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n");
+		
+		Files.write(new File(invoiceItems).toPath(), "\"IN0000002\",\"PUCCHO\",\"73.13\",\"150\"\n".getBytes(StandardCharsets.UTF_8),
+				java.nio.file.StandardOpenOption.APPEND);
+		test = new TestFileFilter(sampleCustomers,customer,invoice,invoiceItems);
+		test.setUseIndexes(true);
+		test.extractTestFiles(root + "customer_test.csv", root + "invoice_test.csv", root + "invoice_item_test.csv");
+		assertEquals(read("invoice_item_test.csv"),"\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n" + 
+				"\"IN0000002\",\"PUCCHO\",\"73.13\",\"150\"\n");
+	}
+	
+	
+	/**
+	 * Test method for {@link KeyIndex#open(java.nio.file.Path, int, int)}.
+	 * 
+	 * Tests a key index mapped in segments of a single entry, as an index over 2GB is mapped in segments of 2GB, the invoice
+	 * item file holding several rows of the same invoice.
+	 * Expected behavior is that the rows found are the same as with the index mapped whole.
+	 */
+	@Test
+	public void open_IndexMappedInSegments_SameRowsFound() throws IOException {
+		String invoiceItems = file("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" + 
+				"\"IN0000011\",\"AAA\",\"0.0\",\"0\"\n" + 
+				"\"IN0000001\",\"POCKY\",\"10.40\",\"250\"\n");
+		java.nio.file.Path path = new File(invoiceItems).toPath();
+		KeyIndex.build(path, 0);
+		ByteKeySet keys = new ByteKeySet();
+		keys.add("IN0000001");
+		keys.add("IN0000003");
+		
+		long[] rows = KeyIndex.open(path, 0).lookup(keys);
+		assertEquals(2, rows.length);
+		assertArrayEquals(rows, KeyIndex.open(path, 0, 1).lookup(keys));
+		assertArrayEquals(rows, KeyIndex.open(path, 0, 50).lookup(keys));
+	}
+	
+	
+	/**
+	 * Test method for {@link TestFileFilter#setIoConfig(IoConfig)}.
+	 * 
+	 * Tests extractTestFiles with file names, with read and write buffers smaller than a row, direct buffers, and every file
+	 * read ahead of its pass.
+	 * Expected behavior is that each output file contains the data corresponding to the customer codes, as with the default
+	 * settings.
+	 */
+	@Test
+	public void extractTestFiles_WithSmallDirectBuffersAndReadAhead_ExtractedFilesContainRelevantData() throws IOException {
+		String sampleCustomers = file("customer_sample.csv", "\"CUSTOMER_CODE\"\n" + 
+				"\"CUST0000010235\"\n" + 
+				"\"CUST0000010231\"\n");
+		String customer = file("customer.csv", "\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" + 
+				"\"CUST0000010231\",\"Maria\",\"Alba\"\n" + 
+				"\"CUST0000010233\",\"Jamie\",\"Hayes\"\n" + 
+				"\"CUST0000010235\",\"George\",\"Lucas\"\r\n");
+		String invoice = file("invoice.csv", "\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" + 
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010236\",\"IN0000011\",\"0.0\",\"01-Jan-2000\"\n" + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n");
+		String invoiceItems = file("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n" + 
+				"\"IN0000011\",\"AAA\",\"0.0\",\"0\"\n" + 
+				"\"IN0000001\",\"POCKY\",\"10.40\",\"250\"");
+		String root = folder.getRoot() + "/";
+
+		TestFileFilter test = new TestFileFilter(sampleCustomers,customer,invoice,invoiceItems);
+		test.setIoConfig(new IoConfig(5, 7, true, 1 << 20, true));
+		test.extractTestFiles(root + "customer_test.csv", root + "invoice_test.csv", root + "invoice_item_test.csv");
+		assertEquals(read("customer_test.csv"),"\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" + 
+				"\"CUST0000010231\",\"Maria\",\"Alba\"\n" + 
+				"\"CUST0000010235\",\"George\",\"Lucas\"\n");
+		assertEquals(read("invoice_test.csv"),"\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" + 
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n");
+		assertEquals(read("invoice_item_test.csv"),"\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n" + 
+				"\"IN0000001\",\"POCKY\",\"10.40\",\"250\"\n");
+	}
+	
+	
+	/**
+	 * Test method for {@link TestFileFilter#setUseKeyColumns(boolean)}.
+	 * 
+	 * Tests extractTestFiles with file names when the key columns of the full files have been built, the invoice item file
+	 * holding several rows of the same invoice, and again after the invoice item file changed so that its columns are out of date.
+	 * Expected behavior is that each output file contains the data corresponding to the customer codes, in file order,
+	 * including the rows added after the columns were built.
+	 */
+	@Test
+	public void extractTestFiles_WithKeyColumns_ExtractedFilesContainRelevantData() throws IOException {
+		String sampleCustomers = file("customer_sample.csv", "\"CUSTOMER_CODE\"\n" + 
+				"\"CUST0000010235\"\n" + 
+				"\"CUST0000010231\"\n" + 
+				"\"CUST0000010239\"\n");
+		String customer = file("customer.csv", "\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" + 
+				"\"CUST0000010231\",\"Maria\",\"Alba\"\n" + 
+				"\"CUST0000010233\",\"Jamie\",\"Hayes\"\n" + 
+				"\"CUST0000010235\",\"George\",\"Lucas\"\n");
+		String invoice = file("invoice.csv", "\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" + 
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010236\",\"IN0000011\",\"0.0\",\"01-Jan-2000\"\n" + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n");
+		String invoiceItems = file("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\r\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" + 
+				"\"IN0000011\",\"AAA\",\"0.0\",\"0\"\n" + 
+				"\"IN0000001\",\"POCKY\",\"10.40\",\"250\"\n");
+		String root = folder.getRoot() + "/";
+
+		TestFileFilter test = new TestFileFilter(sampleCustomers,customer,invoice,invoiceItems);
+		test.buildKeyColumns();
+		test.setUseKeyColumns(true);
+		test.extractTestFiles(root + "customer_test.csv", root + "invoice_test.csv", root + "invoice_item_test.csv");
+		assertEquals(read("customer_test.csv"),"\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" + 
+				"\"CUST0000010231\",\"Maria\",\"Alba\"\n" + 
+				"\"CUST0000010235\",\"George\",\"Lucas\"\n");
+		assertEquals(read("invoice_test.csv"),"\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" + 
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n");
+		assertEquals(read("invoice_item_test.csv"),"\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" + 
+				"\"IN0000001\",\"POCKY\",\"10.40\",\"250\"\n");
+		
+		Files.write(new File(invoiceItems).toPath(), "\"IN0000002\",\"PUCCHO\",\"73.13\",\"150\"\n".getBytes(StandardCharsets.UTF_8),
+				java.nio.file.StandardOpenOption.APPEND);
+		test = new TestFileFilter(sampleCustomers,customer,invoice,invoiceItems);
+		test.setUseKeyColumns(true);
+		test.extractTestFiles(root + "customer_test.csv", root + "invoice_test.csv", root + "invoice_item_test.csv");
+		assertEquals(read("invoice_item_test.csv"),"\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" + 
+				"\"IN0000001\",\"POCKY\",\"10.40\",\"250\"\n" + 
+				"\"IN0000002\",\"PUCCHO\",\"73.13\",\"150\"\n");
+	}
+	
+	
+	/**
+	 * Test method for {@link KeyColumns#open(java.nio.file.Path, int, int)}.
+	 * 
+	 * Tests key columns mapped in segments of a single row and dictionary entry, as columns over 2GB are mapped in segments of
+	 * 2GB, the invoice item file holding several rows of the same invoice.
+	 * Expected behavior is that the rows found are the same as with the columns mapped whole, in file order.
+	 */
+	@Test
+	public void open_KeyColumnsMappedInSegments_SameRowsFound() throws IOException {
+		String invoiceItems = file("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" + 
+				"\"IN0000011\",\"AAA\",\"0.0\",\"0\"\n" + 
+				"\"IN0000001\",\"POCKY\",\"10.40\",\"250\"\n");
+		java.nio.file.Path path = new File(invoiceItems).toPath();
+		KeyColumns.build(path, 0);
+		ByteKeySet keys = new ByteKeySet();
+		keys.add("IN0000001");
+		keys.add("IN0000011");
+		keys.add("IN0000003");
+		
+		long[] rows = KeyColumns.open(path, 0).lookup(keys);
+		assertEquals(3, rows.length);
+		assertArrayEquals(rows, KeyColumns.open(path, 0, 1).lookup(keys));
+		assertArrayEquals(rows, KeyColumns.open(path, 0, 16).lookup(keys));
+	}
+	
+	
+	/**
+	 * Test method for {@link TestFileFilter#setInputOrder(TestFileFilter.InputOrder)}.
+	 * 
+	 * Tests extractTestFiles with file names when the order of the full files is checked, the customer and invoice item files
+	 * being sorted by key and the invoice file not.
+	 * Expected behavior is that each output file contains the data corresponding to the customer codes, in file order.
+	 */
+	@Test
+	public void extractTestFiles_CheckedInputOrder_ExtractedFilesContainRelevantData() throws IOException {
+		String sampleCustomers = file("customer_sample.csv", "\"CUSTOMER_CODE\"\n" + 
+				"\"CUST0000010235\"\n" + 
+				"\"CUST0000010231\"\n");
+		String customer = file("customer.csv", "\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" + 
+				"\"CUST0000010231\",\"Maria\",\"Alba\"\n" + 
+				"\"CUST0000010233\",\"Jamie\",\"Hayes\"\n" + 
+				"\"CUST0000010235\",\"George\",\"Lucas\"\n");
+		String invoice = file("invoice.csv", "\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" + 
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010236\",\"IN0000011\",\"0.0\",\"01-Jan-2000\"\n" + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n");
+		String invoiceItems = file("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n" + 
+				"\"IN0000002\",\"PUCCHO\",\"73.13\",\"150\"\n" + 
+				"\"IN0000011\",\"AAA\",\"0.0\",\"0\"\n");
+		String root = folder.getRoot() + "/";
+
+		TestFileFilter test = new TestFileFilter(sampleCustomers,customer,invoice,invoiceItems);
+		test.setInputOrder(TestFileFilter.InputOrder.CHECK_PREFIX);
+		test.extractTestFiles(root + "customer_test.csv", root + "invoice_test.csv", root + "invoice_item_test.csv");
+		assertEquals(read("customer_test.csv"),"\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" + 
+				"\"CUST0000010231\",\"Maria\",\"Alba\"\n" + 
+				"\"CUST0000010235\",\"George\",\"Lucas\"\n");
+		assertEquals(read("invoice_test.csv"),"\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" + 
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n");
+		assertEquals(read("invoice_item_test.csv"),"\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n" + 
+				"\"IN0000002\",\"PUCCHO\",\"73.13\",\"150\"\n");
+	}
+	
+	
+	/**
+	 * Test method for {@link TestFileFilter#setResume(boolean)}.
+	 * 
+	 * Tests extractTestFiles with file names after a run was interrupted: the customer output was committed, the invoice pass
+	 * saved a checkpoint after its first row (and wrote part of a row after it), and the invoice item pass had just started.
+	 * Expected behavior is that the customer output is kept, the invoice pass continues from its checkpoint, and the invoice
+	 * item pass starts over with the invoice codes of both parts of the invoice pass.
+	 */
+	@Test
+	public void extractTestFiles_ResumedFromCheckpoint_ExtractedFilesContainRelevantData() throws IOException {
+		String sampleCustomers = file("customer_sample.csv", "\"CUSTOMER_CODE\"\n" + 
+				"\"CUST0000010235\"\n" + 
+				"\"CUST0000010231\"\n");
+		String customer = file("customer.csv", "\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" + 
+				"\"CUST0000010231\",\"Maria\",\"Alba\"\n" + 
+				"\"CUST0000010235\",\"George\",\"Lucas\"\n");
+		String invoiceContent = "\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\r\n" + 
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\r\n" + 
+				"\"CUST0000010236\",\"IN0000011\",\"0.0\",\"01-Jan-2000\"\r\n" + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\r\n";
+		String invoice = file("invoice.csv", invoiceContent);
+		String invoiceItems = file("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" + 
+				"\"IN0000011\",\"AAA\",\"0.0\",\"0\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n");
+		String root = folder.getRoot() + "/";
+		
+		//state left by the interrupted run (the header of the outputs is marked, to tell a resumed pass from a new one)
+		ByteKeySet keys = new ByteKeySet();
+		keys.add("CUST0000010235");
+		keys.add("CUST0000010231");
+		String customerWritten = file("customer_test.csv", "\"CUSTOMER_CODE\"\n");
+		new Checkpoint(new File(customer).toPath(), TestFileFilter.passDigest(TestFileFilter.CUSTOMER_PASS, keys, 2, -1,
+				new File(customerWritten).toPath()), new File(customer).length(), new File(customerWritten).length(), 0)
+				.write(new File(root + "customer_test.csv.stamp").toPath());
+		String invoiceWritten = "\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\",\"RESUMED\"\n" + 
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n";
+		file("invoice_test.csv.part", invoiceWritten + "\"CUST0000010231\",\"IN00");
+		new Checkpoint(new File(invoice).toPath(), TestFileFilter.passDigest(TestFileFilter.INVOICE_PASS, keys, -1, 1,
+				new File(root + "invoice_test.csv").toPath()), invoiceContent.indexOf("\"CUST0000010236\""), invoiceWritten.length(), 1)
+				.write(new File(root + "invoice_test.csv.ckpt").toPath());
+		file("invoice_item_test.csv.part", "\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n\"IN00");
+
+		TestFileFilter test = new TestFileFilter(sampleCustomers,customer,invoice,invoiceItems);
+		test.setCheckpointInterval(1);
+		test.setResume(true);
+		test.extractTestFiles(root + "customer_test.csv", root + "invoice_test.csv", root + "invoice_item_test.csv");
+		assertEquals(read("customer_test.csv"),"\"CUSTOMER_CODE\"\n");
+		assertEquals(read("invoice_test.csv"),invoiceWritten + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n");
+		assertEquals(read("invoice_item_test.csv"),"\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n");
+		assertEquals(new HashSet<String>(Arrays.asList("customer_sample.csv", "customer.csv", "invoice.csv", "invoice_item.csv",
+				"customer_test.csv", "invoice_test.csv", "invoice_item_test.csv", "customer_test.csv.stamp",
+				"invoice_test.csv.stamp", "invoice_item_test.csv.stamp")), new HashSet<String>(Arrays.asList(folder.getRoot().list())));
+	}
+	
+	
+	/**
+	 * Test method for {@link TestFileFilter#setResume(boolean)}.
+	 * 
+	 * Tests extractTestFiles with file names and checkpoints, resumed after a complete run once the invoice file changed, then
+	 * once the sample changed.
+	 * Expected behavior is that a pass is only skipped while its input and sample are those of its committed output: the new
+	 * invoice file redoes the invoice and invoice item passes, and the new sample redoes every pass.
+	 */
+	@Test
+	public void extractTestFiles_ResumedAfterInputChanged_StaleOutputsExtractedAgain() throws IOException {
+		String sampleCustomers = file("customer_sample.csv", "\"CUSTOMER_CODE\"\n" + 
+				"\"CUST0000010231\"\n");
+		String customer = file("customer.csv", "\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" + 
+				"\"CUST0000010231\",\"Maria\",\"Alba\"\n" + 
+				"\"CUST0000010235\",\"George\",\"Lucas\"\n");
+		String invoice = file("invoice.csv", "\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n");
+		String invoiceItems = file("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n" + 
+				"\"IN0000003\",\"AAA\",\"12.00\",\"1\"\n");
+		String root = folder.getRoot() + "/";
+		
+		TestFileFilter test = new TestFileFilter(sampleCustomers,customer,invoice,invoiceItems);
+		test.setCheckpointInterval(1);
+		test.setResume(true);
+		test.extractTestFiles(root + "customer_test.csv", root + "invoice_test.csv", root + "invoice_item_test.csv");
+		assertEquals(read("invoice_item_test.csv"),"\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n");
+		
+		Files.write(new File(invoice).toPath(), ("\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010231\",\"IN0000003\",\"12.00\",\"02-Jan-2016\"\n").getBytes(StandardCharsets.UTF_8));
+		test = new TestFileFilter(sampleCustomers,customer,invoice,invoiceItems);
+		test.setResume(true);
+		test.extractTestFiles(root + "customer_test.csv", root + "invoice_test.csv", root + "invoice_item_test.csv");
+		assertNull(test.getMetrics().getPass(TestFileFilter.CUSTOMER_PASS));
+		assertNotNull(test.getMetrics().getPass(TestFileFilter.INVOICE_PASS));
+		assertEquals(read("invoice_test.csv"),"\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010231\",\"IN0000003\",\"12.00\",\"02-Jan-2016\"\n");
+		assertEquals(read("invoice_item_test.csv"),"\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" + 
+				"\"IN0000003\",\"AAA\",\"12.00\",\"1\"\n");
+		
+		Files.write(new File(sampleCustomers).toPath(), "\"CUSTOMER_CODE\"\n\"CUST0000010235\"\n".getBytes(StandardCharsets.UTF_8));
+		test = new TestFileFilter(sampleCustomers,customer,invoice,invoiceItems);
+		test.setResume(true);
+		test.extractTestFiles(root + "customer_test.csv", root + "invoice_test.csv", root + "invoice_item_test.csv");
+		assertEquals(read("customer_test.csv"),"\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" + 
+				"\"CUST0000010235\",\"George\",\"Lucas\"\n");
+		assertEquals(read("invoice_item_test.csv"),"\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n");
+	}
+	
+	
+	/**
+	 * Test method for {@link TestFileFilter#setIncremental(boolean)}.
+	 * 
+	 * Tests extractTestFiles with file names twice in incremental mode, the invoice and invoice item files changing in between,
+	 * then with checkpoints as well.
+	 * Expected behavior is that each run writes the rows of a full extraction, that the second run takes the unchanged
+	 * customer file from the previous output and scans the changed files, and that checkpoints are refused.
+	 */
+	@Test
+	public void extractTestFiles_Incremental_ExtractedFilesUpdatedFromChanges() throws IOException {
+		String sampleCustomers = file("customer_sample.csv", "\"CUSTOMER_CODE\"\n" + 
+				"\"CUST0000010231\"\n");
+		String customer = file("customer.csv", "\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" + 
+				"\"CUST0000010231\",\"Maria\",\"Alba\"\n" + 
+				"\"CUST0000010235\",\"George\",\"Lucas\"\n");
+		String invoice = file("invoice.csv", "\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n");
+		String invoiceItems = file("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n");
+		String root = folder.getRoot() + "/";
+		
+		TestFileFilter test = new TestFileFilter(sampleCustomers,customer,invoice,invoiceItems);
+		test.setIncremental(true);
+		test.extractTestFiles(root + "customer_test.csv", root + "invoice_test.csv", root + "invoice_item_test.csv");
+		assertEquals(read("invoice_item_test.csv"),"\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n");
+		assertEquals(0, test.getMetrics().getPass(TestFileFilter.CUSTOMER_PASS).getChunksReused());
+		assertTrue(new File(root + "invoice_item_test.csv.delta").exists());
+		
+		Files.write(new File(invoice).toPath(), ("\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010235\",\"IN0000002\",\"186.53\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010231\",\"IN0000003\",\"12.00\",\"02-Jan-2016\"\n").getBytes(StandardCharsets.UTF_8));
+		Files.write(new File(invoiceItems).toPath(), ("\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000003\",\"AAA\",\"12.00\",\"1\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n" + 
+				"\"IN0000002\",\"MEIJI\",\"113.40\",\"150\"\n").getBytes(StandardCharsets.UTF_8));
+		test.extractTestFiles(root + "customer_test.csv", root + "invoice_test.csv", root + "invoice_item_test.csv");
+		assertEquals(read("customer_test.csv"),"\"CUSTOMER_CODE\",\"FIRSTNAME\",\"LASTNAME\"\n" + 
+				"\"CUST0000010231\",\"Maria\",\"Alba\"\n");
+		assertEquals(read("invoice_test.csv"),"\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\",\"DATE\"\n" + 
+				"\"CUST0000010231\",\"IN0000001\",\"105.50\",\"01-Jan-2016\"\n" + 
+				"\"CUST0000010231\",\"IN0000003\",\"12.00\",\"02-Jan-2016\"\n");
+		assertEquals(read("invoice_item_test.csv"),"\"INVOICE_CODE\",\"ITEM_CODE\",\"AMOUNT\",\"QUANTITY\"\n" + 
+				"\"IN0000003\",\"AAA\",\"12.00\",\"1\"\n" + 
+				"\"IN0000001\",\"MEIJI\",\"75.60\",\"100\"\n");
+		assertTrue(test.getSampleInvoices().contains("\"IN0000003\""));
+		ExtractionMetrics metrics = test.getMetrics();
+		assertEquals(1, metrics.getPass(TestFileFilter.CUSTOMER_PASS).getChunksReused());
+		assertEquals(1, metrics.getPass(TestFileFilter.INVOICE_PASS).getChunksScanned());
+		assertEquals(1, metrics.getPass(TestFileFilter.INVOICE_ITEM_PASS).getChunksScanned());
+		
+		test.setCheckpointInterval(1);
+		try {
+			test.extractTestFiles(root + "customer_test.csv", root + "invoice_test.csv", root + "invoice_item_test.csv");
+			fail("checkpoints accepted in incremental mode");
+		} catch (IllegalStateException e) {
+			//expected
+		}
+	}
+	
+	
+	/**
+	 * Test method for {@link TestFileFilter#extractTestFiles(String, String, String)}.
+	 * 
+	 * Tests extractTestFiles with file names when the invoice file disappears after the object was constructed.
+	 * Expected behavior is that the failure is thrown, and that no output file (complete or partial) is left.
+	 */
+	@Test
+	public void extractTestFiles_InputMissing_FailureThrownAndNoOutputLeft() throws IOException {
+		String sampleCustomers = file("customer_sample.csv", "\"CUSTOMER_CODE\"\n\"CUST0000010231\"\n");
+		String customer = file("customer.csv", "\"CUSTOMER_CODE\"\n\"CUST0000010231\"\n");
+		String invoice = file("invoice.csv", "\"CUSTOMER_CODE\",\"INVOICE_CODE\"\n\"CUST0000010231\",\"IN0000001\"\n");
+		String invoiceItems = file("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\"\n\"IN0000001\",\"MEIJI\"\n");
+		String root = folder.getRoot() + "/";
+
+		TestFileFilter test = new TestFileFilter(sampleCustomers,customer,invoice,invoiceItems);
+		Files.delete(new File(invoice).toPath());
+		try {
+			test.extractTestFiles(root + "customer_test.csv", root + "invoice_test.csv", root + "invoice_item_test.csv");
+			fail("missing invoice file not reported");
+		} catch (java.io.UncheckedIOException e) {
+			assertTrue(e.getCause() instanceof java.nio.file.NoSuchFileException);
+		}
+		assertEquals(new HashSet<String>(Arrays.asList("customer_sample.csv", "customer.csv", "invoice_item.csv")),
+				new HashSet<String>(Arrays.asList(folder.getRoot().list())));
+	}
+	
+	
+	/**
+	 * Test method for {@link TestFileFilter#getMetrics()}.
+	 * 
+	 * Tests the metrics of an extraction with file names, seen by a listener and in the JSON summary.
+	 * Expected behavior is that each pass is reported started and finished once, with the rows it scanned and matched and
+	 * the bytes it read and wrote, and that the summary holds the final sizes of the sample sets.
+	 */
+	@Test
+	public void getMetrics_ExtractionWithListener_PassesCountedAndSummarized() throws IOException {
+		String sampleCustomers = file("customer_sample.csv", "\"CUSTOMER_CODE\"\n\"CUST0000010231\"\n\"CUST0000010235\"\n");
+		String customer = file("customer.csv", "\"CUSTOMER_CODE\"\n\"CUST0000010231\"\n\"CUST0000010233\"\n\"CUST0000010235\"\n\"CUST0000010237\"\n");
+		String invoice = file("invoice.csv", "\"CUSTOMER_CODE\",\"INVOICE_CODE\"\n\"CUST0000010231\",\"IN0000001\"\n" +
+				"\"CUST0000010233\",\"IN0000002\"\n\"CUST0000010235\",\"IN0000003\"\n");
+		String invoiceItems = file("invoice_item.csv", "\"INVOICE_CODE\",\"ITEM_CODE\"\n\"IN0000001\",\"MEIJI\"\n" +
+				"\"IN0000002\",\"AAA\"\n");
+		String root = folder.getRoot() + "/";
+		List<String> events = Collections.synchronizedList(new ArrayList<String>());
+		
+		TestFileFilter test = new TestFileFilter(sampleCustomers,customer,invoice,invoiceItems);
+		test.addListener(new ExtractionListener() {
+			@Override
+			public void passStarted(PassMetrics pass) {events.add("start " + pass.getPass());}
+			@Override
+			public void passFinished(PassMetrics pass) {events.add("finish " + pass.getPass());}
+			@Override
+			public void extractionFinished(ExtractionMetrics metrics) {events.add("done");}
+		});
+		test.extractTestFiles(root + "customer_test.csv", root + "invoice_test.csv", root + "invoice_item_test.csv");
+		
+		assertEquals(7, events.size());
+		assertEquals("done", events.get(6));
+		assertTrue(events.containsAll(Arrays.asList("start customer", "finish customer", "start invoice", "finish invoice",
+				"start invoice_item", "finish invoice_item")));
+		ExtractionMetrics metrics = test.getMetrics();
+		PassMetrics customers = metrics.getPass(TestFileFilter.CUSTOMER_PASS);
+		assertEquals(3, customers.getRowsScanned()); //stops at the last sample customer
+		assertEquals(2, customers.getRowsMatched());
+		assertEquals(Files.size(new File(root + "customer_test.csv").toPath()), customers.getBytesWritten());
+		PassMetrics invoices = metrics.getPass(TestFileFilter.INVOICE_PASS);
+		assertEquals(3, invoices.getRowsScanned());
+		assertEquals(2, invoices.getRowsMatched());
+		assertEquals(Files.size(new File(invoice).toPath()), invoices.getBytesRead());
+		assertEquals(Files.size(new File(invoice).toPath()), invoices.getInputBytes());
+		assertEquals(1, metrics.getPass(TestFileFilter.INVOICE_ITEM_PASS).getRowsMatched());
+		assertEquals(2, metrics.getSampleCustomers());
+		assertEquals(2, metrics.getSampleInvoices());
+		String json = metrics.toJson();
+		assertTrue(json, json.contains("\"sampleCustomers\":2,\"sampleInvoices\":2"));
+		assertTrue(json, json.contains("{\"pass\":\"invoice\",\"rowsScanned\":3,\"rowsMatched\":2,"));
+	}
+	
+	
+	
+	/**
+	 * @return InputStream: stream of the UTF-8 bytes of a string
+	 */
+	private static InputStream stream(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	
+	/**
+	 * Test method for {@link TestFileFilter#extractTestFiles(java.io.OutputStream, java.io.OutputStream, java.io.OutputStream)}.
+	 * 
+	 * Tests extractTestFiles with streams, whose passes run concurrently, against the same extraction run one pass after the
+	 * other, over files of a few thousand rows.
+	 * Expected behavior is that both schedules write the same three outputs.
+	 */
+	@Test
+	public void extractTestFiles_ConcurrentPasses_SameOutputsAsSequentialRun() throws IOException {
+		StringBuilder sample = new StringBuilder("\"CUSTOMER_CODE\"\n");
+		StringBuilder customers = new StringBuilder("\"CUSTOMER_CODE\",\"FIRSTNAME\"\n");
+		StringBuilder invoices = new StringBuilder("\"CUSTOMER_CODE\",\"INVOICE_CODE\",\"AMOUNT\"\n");
+		StringBuilder items = new StringBuilder("\"INVOICE_CODE\",\"ITEM_CODE\"\n");
+		for (int i = 0; i < 5000; i++) {
+			if (i % 7 == 0) {sample.append("\"CUST").append(i).append("\"\n");}
+			customers.append("\"CUST").append(i).append("\",\"Name").append(i).append("\"\n");
+			invoices.append("\"CUST").append(i * 31 % 5000).append("\",\"IN").append(i).append("\",\"").append(i).append(".00\"\n");
+			items.append("\"IN").append(i * 17 % 5000).append("\",\"ITEM").append(i).append("\"\n");
+		}
+		ByteArrayOutputStream[] concurrent = {new ByteArrayOutputStream(), new ByteArrayOutputStream(), new ByteArrayOutputStream()};
+		ByteArrayOutputStream[] sequential = {new ByteArrayOutputStream(), new ByteArrayOutputStream(), new ByteArrayOutputStream()};
+		
+		TestFileFilter test = new TestFileFilter(stream(sample.toString()), stream(customers.toString()),
+				stream(invoices.toString()), stream(items.toString()));
+		test.extractTestFiles(concurrent[0], concurrent[1], concurrent[2]);
+		new TestFileFilter(stream(sample.toString()), stream(customers.toString()), stream(invoices.toString()),
+				stream(items.toString())).extractSequentially(sequential[0], sequential[1], sequential[2]);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(sequential[i].toString("UTF-8"), concurrent[i].toString("UTF-8"));
+		}
+		assertTrue(concurrent[2].size() > 1000);
+	}
+	
+	
+	/**
+	 * Test method for {@link TestFileFilter#extractTestFiles(java.io.OutputStream, java.io.OutputStream, java.io.OutputStream)}.
+	 * 
+	 * Tests extractTestFiles with streams when the invoice file can't be read, while the customer file is endless.
+	 * Expected behavior is that the failure of the invoice pass is thrown, and that by then the customer pass was stopped and
+	 * every output closed: the customer file is no longer read.
+	 */
+	@Test
+	public void extractTestFiles_PassFails_OtherPassesStoppedBeforeFailureThrown() throws IOException, InterruptedException {
+		AtomicLong customerReads = new AtomicLong();
+		InputStream customer = new InputStream() { //rows of customers outside the sample, until closed
+			private final byte[] row = "\"CUST0000099999\",\"Nobody\"\n".getBytes(StandardCharsets.UTF_8);
+			private long position;
+			private volatile boolean closed;
+			
+			@Override
+			public int read() throws IOException {
+				if (closed) {throw new IOException("closed");}
+				customerReads.incrementAndGet();
+				return row[(int) (position++ % row.length)];
+			}
+			
+			@Override
+			public void close() {
+				closed = true;
+			}
+		};
+		InputStream invoice = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				throw new IOException("invoice file unreadable");
+			}
+		};
+		List<String> closed = Collections.synchronizedList(new ArrayList<String>());
+		OutputStream[] outputs = new OutputStream[3];
+		for (int i = 0; i < outputs.length; i++) {
+			String name = "output " + i;
+			outputs[i] = new ByteArrayOutputStream() {
+				@Override
+				public void close() {
+					closed.add(name);
+				}
+			};
+		}
+		
+		TestFileFilter test = new TestFileFilter(stream("\"CUSTOMER_CODE\"\n\"CUST0000010231\"\n"), customer, invoice,
+				stream("\"INVOICE_CODE\",\"ITEM_CODE\"\n"));
+		try {
+			test.extractTestFiles(outputs[0], outputs[1], outputs[2]);
+			fail("failure of the invoice pass not thrown");
+		} catch (java.io.UncheckedIOException e) {
+			assertEquals("invoice file unreadable", e.getCause().getMessage());
+		}
+		long reads = customerReads.get();
+		Thread.sleep(100);
+		assertEquals(reads, customerReads.get());
+		assertTrue(closed.containsAll(Arrays.asList("output 0", "output 1", "output 2")));
+	}
+	
 }
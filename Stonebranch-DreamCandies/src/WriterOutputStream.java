@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The WriterOutputStream class decodes a stream of UTF-8 bytes and passes the resulting characters to a Writer. It lets
+ * rows copied as bytes by TestFileFilter be written to an output given as a Writer (for example an in-memory StringWriter).
+ */
+class WriterOutputStream extends OutputStream {
+
+	private final Writer writer; //destination of decoded characters
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final ByteBuffer bytes = ByteBuffer.allocate(8192); //bytes not yet decoded
+	private final CharBuffer chars = CharBuffer.allocate(8192); //decoded characters not yet written
+	private boolean closed; //true once closed, the decoder is then flushed and can't be used again
+
+
+	/**
+	 * Constructor for WriterOutputStream
+	 *
+	 * @param Writer writer: writer receiving the decoded characters
+	 */
+	WriterOutputStream(Writer writer) {
+		this.writer = writer;
+	}
+
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = Math.min(len, bytes.remaining());
+			bytes.put(b, off, n);
+			off += n;
+			len -= n;
+			decode(false);
+		}
+	}
+
+
+	/**
+	 * Decodes buffered bytes and writes the characters out. Incomplete multi-byte sequences are kept for the next call.
+	 */
+	private void decode(boolean endOfInput) throws IOException {
+		bytes.flip();
+		CoderResult result;
+		do {
+			result = decoder.decode(bytes, chars, endOfInput);
+			writeChars();
+		} while (result.isOverflow());
+		if (endOfInput) {
+			while (decoder.flush(chars).isOverflow()) {
+				writeChars();
+			}
+			writeChars();
+		}
+		bytes.compact();
+	}
+
+
+	/**
+	 * Passes decoded characters to the writer.
+	 */
+	private void writeChars() throws IOException {
+		chars.flip();
+		writer.write(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+		chars.clear();
+	}
+
+
+	@Override
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {return;}
+		closed = true;
+		decode(true);
+		writer.close();
+	}
+
+}
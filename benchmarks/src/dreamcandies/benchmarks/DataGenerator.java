@@ -0,0 +1,391 @@
+package dreamcandies.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+
+/**
+ * The DataGenerator class writes the four files read by TestFileFilter (customer_sample.csv, customer.csv, invoice.csv and
+ * invoice_item.csv) at any scale, in the format of the real extraction files: UTF-8, fields between curly quotes, "\n" line
+ * terminators. The output only depends on the parameters and the seed, so benchmarks run on identical data every time.
+ *
+ * Every customer has invoicesPerCustomer invoices on average and every invoice itemsPerInvoice items on average, each drawn
+ * at random. hitRatio is the fraction of the sample customers that exist in customer.csv, the others being codes missing from
+ * the full files. With sorted set, customers and invoices are sorted by CUSTOMER_CODE and invoice items by INVOICE_CODE,
+ * otherwise customers are shuffled, invoices follow their invoice code and invoice items are in random order.
+ */
+public class DataGenerator {
+
+	static final String SAMPLE_FILE = "customer_sample.csv";
+	static final String CUSTOMER_FILE = "customer.csv";
+	static final String INVOICE_FILE = "invoice.csv";
+	static final String INVOICE_ITEM_FILE = "invoice_item.csv";
+
+	private static final int FIRST_CUSTOMER = 10000; //number of the first customer code, as in the sample files
+	private static final String[] FIRST_NAMES = {"Maria", "Greg", "Jamie", "George", "Anna", "Li", "Omar", "Sofia"};
+	private static final String[] LAST_NAMES = {"Alba", "Jones", "Hayes", "Lucas", "Novak", "Chen", "Haddad", "Rossi"};
+	private static final String[] DATES = {"01-Jan-2016", "15-Mar-2017", "30-Jun-2018", "24-Dec-2019"};
+	private static final String[] ITEMS = {"MEIJI", "PUCCHO", "HI-CHEW", "POCKY", "KOALA", "MILKY"};
+
+	private final int customers; //number of rows of customer.csv
+	private final int sampleSize; //number of rows of customer_sample.csv
+	private final double hitRatio; //fraction of the sample customers that exist in customer.csv
+	private int invoicesPerCustomer = 2; //average number of invoices of each customer
+	private int itemsPerInvoice = 5; //average number of items of each invoice
+	private boolean sorted; //true to sort the full files by key
+	private long seed = 1; //seed of every random choice
+
+
+	/**
+	 * Constructor for DataGenerator
+	 *
+	 * @param int customers: number of customers in customer.csv
+	 * @param int sampleSize: number of customers in customer_sample.csv
+	 * @param double hitRatio: fraction of the sample customers that exist in customer.csv, between 0 and 1
+	 */
+	public DataGenerator(int customers, int sampleSize, double hitRatio) {
+		if (customers < 0 || sampleSize < 0 || hitRatio < 0 || hitRatio > 1) {throw new IllegalArgumentException();}
+		this.customers = customers;
+		this.sampleSize = sampleSize;
+		this.hitRatio = hitRatio;
+	}
+
+
+	public void setInvoicesPerCustomer(int invoicesPerCustomer) {
+		this.invoicesPerCustomer = invoicesPerCustomer;
+	}
+
+
+	public void setItemsPerInvoice(int itemsPerInvoice) {
+		this.itemsPerInvoice = itemsPerInvoice;
+	}
+
+
+	public void setSorted(boolean sorted) {
+		this.sorted = sorted;
+	}
+
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+
+	/**
+	 * @return long: number of data rows (headers excluded) of the three full files
+	 */
+	public long fullRows() {
+		return customerRows() + invoiceRows() + invoiceItemRows();
+	}
+
+
+	/**
+	 * @return long: number of data rows of customer.csv
+	 */
+	public long customerRows() {
+		return customers;
+	}
+
+
+	/**
+	 * @return long: number of data rows of invoice.csv, on average
+	 */
+	public long invoiceRows() {
+		return (long) customers * invoicesPerCustomer;
+	}
+
+
+	/**
+	 * @return long: number of data rows of invoice_item.csv, on average
+	 */
+	public long invoiceItemRows() {
+		return invoiceRows() * itemsPerInvoice;
+	}
+
+
+	/**
+	 * @return String: name identifying the parameters of the generated data, usable as a directory name
+	 */
+	public String name() {
+		return "c" + customers + "-s" + sampleSize + "-h" + hitRatio + "-i" + invoicesPerCustomer + "-t" + itemsPerInvoice
+				+ (sorted ? "-sorted" : "-shuffled") + "-seed" + seed;
+	}
+
+
+	/**
+	 * Writes the four files to a directory, creating it if needed.
+	 *
+	 * @param Path dir: directory to write the files to
+	 * @throws IOException: throws exception if a file can't be written
+	 */
+	public void generate(Path dir) throws IOException {
+		long invoiceCount = (long) customers * invoicesPerCustomer;
+		if (invoiceCount > Integer.MAX_VALUE - 8) {throw new IllegalArgumentException("too many invoices");}
+		Files.createDirectories(dir);
+		SplittableRandom random = new SplittableRandom(seed);
+		SplittableRandom sampleRandom = random.split(); //one stream per file, so each file only depends on its own settings
+		SplittableRandom invoiceRandom = random.split();
+		SplittableRandom itemRandom = random.split();
+		SplittableRandom valueRandom = random.split();
+
+		writeCustomers(dir.resolve(CUSTOMER_FILE), random);
+		writeSample(dir.resolve(SAMPLE_FILE), sampleRandom);
+		writeInvoices(dir.resolve(INVOICE_FILE), (int) invoiceCount, invoiceRandom, valueRandom);
+		writeInvoiceItems(dir.resolve(INVOICE_ITEM_FILE), (int) invoiceCount, itemRandom, valueRandom);
+	}
+
+
+	/**
+	 * Writes customer.csv, shuffled unless sorted.
+	 */
+	private void writeCustomers(Path file, SplittableRandom random) throws IOException {
+		int[] order = identity(customers);
+		if (!sorted) {shuffle(order, order.length, random);}
+		try (RowWriter out = new RowWriter(file)) {
+			out.header("CUSTOMER_CODE", "FIRSTNAME", "LASTNAME");
+			for (int customer : order) {
+				out.code("CUST", FIRST_CUSTOMER + customer, 10);
+				out.text(FIRST_NAMES[customer % FIRST_NAMES.length]);
+				out.text(LAST_NAMES[(customer / FIRST_NAMES.length) % LAST_NAMES.length]);
+				out.end();
+			}
+		}
+	}
+
+
+	/**
+	 * Writes customer_sample.csv: existing customers drawn without replacement, and codes after the last customer.
+	 */
+	private void writeSample(Path file, SplittableRandom random) throws IOException {
+		int hits = (int) Math.min(customers, Math.round(sampleSize * hitRatio));
+		int[] chosen = identity(customers);
+		shuffle(chosen, hits, random); //first hits entries are a random choice of customers
+		int[] sample = new int[sampleSize];
+		for (int i = 0; i < sampleSize; i++) {
+			sample[i] = i < hits ? chosen[i] : customers + (i - hits); //missing codes follow the last customer
+		}
+		shuffle(sample, sample.length, random);
+		try (RowWriter out = new RowWriter(file)) {
+			out.header("CUSTOMER_CODE");
+			for (int customer : sample) {
+				out.code("CUST", FIRST_CUSTOMER + customer, 10);
+				out.end();
+			}
+		}
+	}
+
+
+	/**
+	 * Writes invoice.csv: each invoice belongs to a random customer. Invoices are in invoice code order, or sorted by
+	 * customer (in invoice code order for each customer).
+	 */
+	private void writeInvoices(Path file, int invoiceCount, SplittableRandom random, SplittableRandom values) throws IOException {
+		int[] owners = new int[invoiceCount];
+		for (int i = 0; i < invoiceCount; i++) {
+			owners[i] = random.nextInt(Math.max(customers, 1));
+		}
+		int[] order = sorted ? countingSort(owners, customers) : identity(invoiceCount);
+		try (RowWriter out = new RowWriter(file)) {
+			out.header("CUSTOMER_CODE", "INVOICE_CODE", "AMOUNT", "DATE");
+			for (int invoice : order) {
+				out.code("CUST", FIRST_CUSTOMER + owners[invoice], 10);
+				out.code("IN", invoice, 10);
+				out.amount(values.nextInt(100000));
+				out.text(DATES[values.nextInt(DATES.length)]);
+				out.end();
+			}
+		}
+	}
+
+
+	/**
+	 * Writes invoice_item.csv: each item belongs to a random invoice. Items are in random order, or sorted by invoice.
+	 */
+	private void writeInvoiceItems(Path file, int invoiceCount, SplittableRandom random, SplittableRandom values) throws IOException {
+		long itemCount = (long) invoiceCount * itemsPerInvoice;
+		try (RowWriter out = new RowWriter(file)) {
+			out.header("INVOICE_CODE", "ITEM_CODE", "AMOUNT", "QUANTITY");
+			if (invoiceCount == 0) {return;}
+			if (!sorted) {
+				for (long item = 0; item < itemCount; item++) {
+					writeItem(out, random.nextInt(invoiceCount), item, values);
+				}
+				return;
+			}
+			int[] counts = new int[invoiceCount]; //same draws as the unsorted file, written grouped by invoice
+			for (long item = 0; item < itemCount; item++) {
+				counts[random.nextInt(invoiceCount)]++;
+			}
+			long item = 0;
+			for (int invoice = 0; invoice < invoiceCount; invoice++) {
+				for (int i = 0; i < counts[invoice]; i++) {
+					writeItem(out, invoice, item++, values);
+				}
+			}
+		}
+	}
+
+
+	private static void writeItem(RowWriter out, int invoice, long item, SplittableRandom values) throws IOException {
+		out.code("IN", invoice, 10);
+		out.text(ITEMS[(int) (item % ITEMS.length)]);
+		out.amount(values.nextInt(20000));
+		out.number(1 + values.nextInt(200));
+		out.end();
+	}
+
+
+	/**
+	 * @return int[]: indexes of values (each in [0, range)) ordered by value, and by index for equal values
+	 */
+	private static int[] countingSort(int[] values, int range) {
+		int[] starts = new int[range + 1];
+		for (int value : values) {starts[value + 1]++;}
+		for (int i = 0; i < range; i++) {starts[i + 1] += starts[i];}
+		int[] order = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			order[starts[values[i]]++] = i;
+		}
+		return order;
+	}
+
+
+	private static int[] identity(int n) {
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++) {values[i] = i;}
+		return values;
+	}
+
+
+	/**
+	 * Moves a random choice of count values to the start of an array, in random order (partial Fisher-Yates shuffle).
+	 */
+	private static void shuffle(int[] values, int count, SplittableRandom random) {
+		for (int i = 0; i < count && i < values.length - 1; i++) {
+			int j = i + random.nextInt(values.length - i);
+			int value = values[i];
+			values[i] = values[j];
+			values[j] = value;
+		}
+	}
+
+
+	/**
+	 * Writes rows of quoted fields as UTF-8 bytes, without creating a String per field.
+	 */
+	private static class RowWriter implements AutoCloseable {
+
+		private static final byte[] OPEN = "\u201C".getBytes(StandardCharsets.UTF_8);
+		private static final byte[] CLOSE = "\u201D".getBytes(StandardCharsets.UTF_8);
+
+		private final OutputStream out;
+		private final byte[] digits = new byte[20];
+		private boolean first = true; //true before the first field of a row
+
+		RowWriter(Path file) throws IOException {
+			out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 20);
+		}
+
+		void header(String... names) throws IOException {
+			for (String name : names) {text(name);}
+			end();
+		}
+
+		void text(String value) throws IOException {
+			open();
+			for (int i = 0; i < value.length(); i++) {out.write(value.charAt(i));} //names are ASCII
+			out.write(CLOSE);
+		}
+
+		/**
+		 * Writes a code made of a prefix and a zero-padded number, e.g. CUST0000010231.
+		 */
+		void code(String prefix, long number, int width) throws IOException {
+			open();
+			for (int i = 0; i < prefix.length(); i++) {out.write(prefix.charAt(i));}
+			digits(number, width);
+			out.write(CLOSE);
+		}
+
+		void number(long value) throws IOException {
+			open();
+			digits(value, 1);
+			out.write(CLOSE);
+		}
+
+		/**
+		 * Writes a number of cents as an amount with two decimals.
+		 */
+		void amount(int cents) throws IOException {
+			open();
+			digits(cents / 100, 1);
+			out.write('.');
+			digits(cents % 100, 2);
+			out.write(CLOSE);
+		}
+
+		void end() throws IOException {
+			out.write('\n');
+			first = true;
+		}
+
+		private void open() throws IOException {
+			if (!first) {out.write(',');}
+			first = false;
+			out.write(OPEN);
+		}
+
+		private void digits(long value, int width) throws IOException {
+			int n = 0;
+			do {
+				digits[n++] = (byte) ('0' + value % 10);
+				value /= 10;
+			} while (value > 0);
+			for (int i = n; i < width; i++) {out.write('0');}
+			while (n > 0) {out.write(digits[--n]);}
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+
+	}
+
+
+	/**
+	 * Generates data from the command line
+	 *
+	 * @param String[] args: directory, number of customers, sample size, hit ratio, optionally followed by --sorted,
+	 * --seed=N, --invoices-per-customer=N and --items-per-invoice=N
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 4) {
+			System.err.println("usage: DataGenerator <dir> <customers> <sample size> <hit ratio> [--sorted] [--seed=N]"
+					+ " [--invoices-per-customer=N] [--items-per-invoice=N]");
+			System.exit(2);
+		}
+		DataGenerator generator = new DataGenerator(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Double.parseDouble(args[3]));
+		for (int i = 4; i < args.length; i++) {
+			String[] option = args[i].substring(2).split("=", 2);
+			if (option[0].equals("sorted") && option.length == 1) {
+				generator.setSorted(true);
+			} else if (option[0].equals("seed") && option.length == 2) {
+				generator.setSeed(Long.parseLong(option[1]));
+			} else if (option[0].equals("invoices-per-customer") && option.length == 2) {
+				generator.setInvoicesPerCustomer(Integer.parseInt(option[1]));
+			} else if (option[0].equals("items-per-invoice") && option.length == 2) {
+				generator.setItemsPerInvoice(Integer.parseInt(option[1]));
+			} else {
+				throw new IllegalArgumentException("unknown option " + args[i]);
+			}
+		}
+		generator.generate(Paths.get(args[0]));
+	}
+
+}
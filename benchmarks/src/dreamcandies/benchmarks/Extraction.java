@@ -0,0 +1,169 @@
+package dreamcandies.benchmarks;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+
+/**
+ * The Extraction class runs TestFileFilter for the benchmarks. TestFileFilter is in the default package, which classes of a
+ * named package can't import (and JMH refuses benchmarks in the default package), so its public methods are looked up once
+ * by reflection. The cost of a reflective call is negligible next to an extraction.
+ *
+ * Modes select the extraction path: scan (the default streaming passes), parallel (one thread per processor), single-pass,
+ * bloom (Bloom filters in front of the sample sets), sorted (files declared sorted by key) and index (key indexes built once
+ * before the benchmark). Each run returns the ExtractionMetrics of TestFileFilter, from which passNanos reads the time of
+ * each pass.
+ */
+final class Extraction {
+
+	private static final Class<?> FILTER = load("TestFileFilter");
+	private static final Constructor<?> CONSTRUCTOR = constructor(String.class, String.class, String.class, String.class);
+	private static final Method EXTRACT = method("extractTestFiles", String.class, String.class, String.class);
+	private static final Method SET_PARALLELISM = method("setParallelism", int.class);
+	private static final Method SET_SINGLE_PASS = method("setSinglePass", boolean.class);
+	private static final Method SET_BLOOM_FILTER = method("setBloomFilter", boolean.class);
+	private static final Method SET_USE_INDEXES = method("setUseIndexes", boolean.class);
+	private static final Method BUILD_INDEXES = method("buildIndexes");
+	private static final Class<?> INPUT_ORDER = load("TestFileFilter$InputOrder");
+	private static final Method SET_INPUT_ORDER = method("setInputOrder", INPUT_ORDER);
+	private static final Method GET_METRICS = method("getMetrics");
+	private static final Method GET_PASS = member(load("ExtractionMetrics"), "getPass", String.class);
+	private static final Method GET_ELAPSED_NANOS = member(load("PassMetrics"), "getElapsedNanos");
+	static final String CUSTOMER_PASS = constant("CUSTOMER_PASS"); //names of the passes in the metrics
+	static final String INVOICE_PASS = constant("INVOICE_PASS");
+	static final String INVOICE_ITEM_PASS = constant("INVOICE_ITEM_PASS");
+
+	private Extraction() {}
+
+
+	/**
+	 * Builds the key indexes of the full files of a directory.
+	 *
+	 * @param Path data: directory of the files written by DataGenerator
+	 */
+	static void buildIndexes(Path data) {
+		invoke(BUILD_INDEXES, create(data));
+	}
+
+
+	/**
+	 * Runs a complete extraction: reads the sample, then writes the three smaller files.
+	 *
+	 * @param Path data: directory of the files written by DataGenerator
+	 * @param Path out: directory the smaller files are written to
+	 * @param String mode: extraction path to use
+	 * @return Object: ExtractionMetrics of the run
+	 */
+	static Object run(Path data, Path out, String mode) {
+		Object filter = create(data);
+		switch (mode) {
+			case "scan":
+				break;
+			case "parallel":
+				invoke(SET_PARALLELISM, filter, Runtime.getRuntime().availableProcessors());
+				break;
+			case "single-pass":
+				invoke(SET_SINGLE_PASS, filter, true);
+				break;
+			case "bloom":
+				invoke(SET_BLOOM_FILTER, filter, true);
+				break;
+			case "sorted":
+				invoke(SET_INPUT_ORDER, filter, inputOrder("SORTED"));
+				break;
+			case "index":
+				invoke(SET_USE_INDEXES, filter, true);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown mode " + mode);
+		}
+		invoke(EXTRACT, filter, out.resolve("customer_test.csv").toString(), out.resolve("invoice_test.csv").toString(),
+				out.resolve("invoice_item_test.csv").toString());
+		return invoke(GET_METRICS, filter);
+	}
+
+
+	/**
+	 * @param Object metrics: ExtractionMetrics returned by run
+	 * @param String pass: name of a pass, e.g. CUSTOMER_PASS
+	 * @return long: duration of the pass in nanoseconds
+	 */
+	static long passNanos(Object metrics, String pass) {
+		Object passMetrics = invoke(GET_PASS, metrics, pass);
+		if (passMetrics == null) {throw new IllegalStateException("no metrics for pass " + pass);}
+		return (Long) invoke(GET_ELAPSED_NANOS, passMetrics);
+	}
+
+
+	private static Object create(Path data) {
+		try {
+			return CONSTRUCTOR.newInstance(data.resolve(DataGenerator.SAMPLE_FILE).toString(),
+					data.resolve(DataGenerator.CUSTOMER_FILE).toString(), data.resolve(DataGenerator.INVOICE_FILE).toString(),
+					data.resolve(DataGenerator.INVOICE_ITEM_FILE).toString());
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException(e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	private static Object invoke(Method method, Object target, Object... args) {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException(e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static Object inputOrder(String name) {
+		return Enum.valueOf((Class<? extends Enum>) INPUT_ORDER, name);
+	}
+
+
+	private static Class<?> load(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException(name + " is not on the class path", e);
+		}
+	}
+
+
+	private static Constructor<?> constructor(Class<?>... types) {
+		try {
+			return FILTER.getConstructor(types);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	private static Method method(String name, Class<?>... types) {
+		return member(FILTER, name, types);
+	}
+
+
+	private static Method member(Class<?> type, String name, Class<?>... types) {
+		try {
+			return type.getMethod(name, types);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	private static String constant(String name) {
+		try {
+			return (String) FILTER.getField(name).get(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
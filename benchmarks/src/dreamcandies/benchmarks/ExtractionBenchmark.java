@@ -0,0 +1,187 @@
+package dreamcandies.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The ExtractionBenchmark class measures complete runs of TestFileFilter (reading the sample, then extractTestFiles) on data
+ * written by DataGenerator. The data of each combination of parameters is generated once, and kept in
+ * "dreamcandies.data" (a directory under java.io.tmpdir by default) for later runs.
+ *
+ * extractTestFiles reports the end-to-end time of a run, and scanThroughput the rows and megabytes of full files processed
+ * per second. passThroughput breaks a run down by pass: the rows of customer.csv, invoice.csv and invoice_item.csv per second
+ * of their own pass, taken from the metrics of the run, so a regression in one pass isn't hidden by the others (passes run
+ * concurrently in most modes, so their times overlap). Run with "-prof gc" for the allocation rate, and with
+ * "-p customers=1000000,5000000" (and so on) to change the scale; the default of 500000 customers makes 6M rows.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ExtractionBenchmark {
+
+	@Param({"500000"})
+	public int customers; //number of rows of customer.csv
+
+	@Param({"1000", "100000"})
+	public int sampleSize; //number of sample customers
+
+	@Param({"1.0", "0.1"})
+	public double hitRatio; //fraction of the sample customers found in customer.csv
+
+	@Param({"scan", "parallel", "single-pass", "bloom", "sorted", "index"})
+	public String mode; //extraction path, see Extraction
+
+	private Path data; //directory of the generated files
+	private Path out; //directory of the extracted files
+	private long rows; //number of data rows of the full files
+	private long customerRows; //number of data rows of customer.csv
+	private long invoiceRows; //number of data rows of invoice.csv
+	private long invoiceItemRows; //number of data rows of invoice_item.csv
+	private double megabytes; //size of the full files in MB
+
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		DataGenerator generator = new DataGenerator(customers, sampleSize, hitRatio);
+		generator.setSorted(mode.equals("sorted"));
+		Path root = Paths.get(System.getProperty("dreamcandies.data", System.getProperty("java.io.tmpdir") + "/dreamcandies-data"));
+		data = root.resolve(generator.name());
+		Path complete = data.resolve(".complete");
+		if (!Files.exists(complete)) {
+			generator.generate(data);
+			Files.createFile(complete);
+		}
+		if (mode.equals("index")) {Extraction.buildIndexes(data);}
+
+		rows = generator.fullRows();
+		customerRows = generator.customerRows();
+		invoiceRows = generator.invoiceRows();
+		invoiceItemRows = generator.invoiceItemRows();
+		long bytes = Files.size(data.resolve(DataGenerator.CUSTOMER_FILE)) + Files.size(data.resolve(DataGenerator.INVOICE_FILE))
+				+ Files.size(data.resolve(DataGenerator.INVOICE_ITEM_FILE));
+		megabytes = bytes / 1e6;
+		out = Files.createTempDirectory("dreamcandies-out");
+	}
+
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(out)) {
+			for (Path file : files) {Files.delete(file);}
+		}
+		Files.delete(out);
+	}
+
+
+	/**
+	 * End-to-end time of an extraction.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void extractTestFiles() {
+		Extraction.run(data, out, mode);
+	}
+
+
+	/**
+	 * Rows and megabytes of full files processed per second.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void scanThroughput(Throughput counters) {
+		Extraction.run(data, out, mode);
+		counters.rows += rows;
+		counters.megabytes += megabytes;
+	}
+
+
+	/**
+	 * Rows of each full file processed per second of its pass.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void passThroughput(PassThroughput counters) {
+		Object metrics = Extraction.run(data, out, mode);
+		counters.add(customerRows, invoiceRows, invoiceItemRows, Extraction.passNanos(metrics, Extraction.CUSTOMER_PASS),
+				Extraction.passNanos(metrics, Extraction.INVOICE_PASS), Extraction.passNanos(metrics, Extraction.INVOICE_ITEM_PASS));
+	}
+
+
+	/**
+	 * Counters reported by JMH as rates next to the score of scanThroughput.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Throughput {
+
+		public long rows; //data rows of the full files processed
+		public double megabytes; //megabytes of the full files processed
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			rows = 0;
+			megabytes = 0;
+		}
+
+	}
+
+
+
+	/**
+	 * Counters reported by JMH next to the score of passThroughput: the rows per second of each pass over the runs of an
+	 * iteration. They are rates already, so they are reported as events rather than divided by the time of the iteration.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class PassThroughput {
+
+		public double customerRowsPerSecond; //rows of customer.csv per second of the customer pass
+		public double invoiceRowsPerSecond; //rows of invoice.csv per second of the invoice pass
+		public double invoiceItemRowsPerSecond; //rows of invoice_item.csv per second of the invoice item pass
+		private long customerRows, invoiceRows, invoiceItemRows; //rows processed by each pass in the iteration
+		private long customerNanos, invoiceNanos, invoiceItemNanos; //time spent in each pass in the iteration
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			customerRows = invoiceRows = invoiceItemRows = 0;
+			customerNanos = invoiceNanos = invoiceItemNanos = 0;
+			customerRowsPerSecond = invoiceRowsPerSecond = invoiceItemRowsPerSecond = 0;
+		}
+
+		void add(long customers, long invoices, long invoiceItems, long customerPass, long invoicePass, long invoiceItemPass) {
+			customerRows += customers;
+			invoiceRows += invoices;
+			invoiceItemRows += invoiceItems;
+			customerNanos += customerPass;
+			invoiceNanos += invoicePass;
+			invoiceItemNanos += invoiceItemPass;
+			customerRowsPerSecond = customerRows * 1e9 / Math.max(1, customerNanos);
+			invoiceRowsPerSecond = invoiceRows * 1e9 / Math.max(1, invoiceNanos);
+			invoiceItemRowsPerSecond = invoiceItemRows * 1e9 / Math.max(1, invoiceItemNanos);
+		}
+
+	}
+
+}